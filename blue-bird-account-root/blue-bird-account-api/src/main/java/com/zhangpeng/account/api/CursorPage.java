@@ -0,0 +1,54 @@
+package com.zhangpeng.account.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游标分页结果 .
+ *
+ * 不统计总记录数；nextCursor为空表示没有下一页。
+ */
+public class CursorPage<T> implements Serializable {
+
+    private static final long serialVersionUID = 2914386237395170112L;
+
+    private List<T> recordList = new ArrayList<T>(0); // 本页的数据列表
+
+    private String nextCursor; // 下一页游标
+
+    private Boolean hasMore; // 是否还有下一页，未探测时为空
+
+    public CursorPage() {
+    }
+
+    public CursorPage(List<T> recordList, String nextCursor, Boolean hasMore) {
+        this.recordList = recordList;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<T> getRecordList() {
+        return recordList;
+    }
+
+    public void setRecordList(List<T> recordList) {
+        this.recordList = recordList;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
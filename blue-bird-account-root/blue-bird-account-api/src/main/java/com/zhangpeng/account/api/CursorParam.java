@@ -0,0 +1,57 @@
+package com.zhangpeng.account.api;
+
+import java.io.Serializable;
+
+/**
+ * 游标分页参数 .
+ *
+ * 第一页cursor为空，之后传入上一页返回的nextCursor；游标对调用方不透明，不要自行构造或解析。
+ */
+public class CursorParam implements Serializable {
+
+    private static final long serialVersionUID = -3155206395460744137L;
+
+    private String cursor; // 上一页返回的游标
+
+    private int numPerPage; // 每页记录数
+
+    private boolean probeHasMore = true; // 是否多取一条判断有无下一页
+
+    public CursorParam() {
+    }
+
+    public CursorParam(String cursor, int numPerPage) {
+        this.cursor = cursor;
+        this.numPerPage = numPerPage;
+    }
+
+    /** 上一页返回的游标，第一页为空 */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /** 上一页返回的游标，第一页为空 */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /** 每页记录数 */
+    public int getNumPerPage() {
+        return numPerPage > 0 ? numPerPage : PageParam.DEFAULT_NUM_PER_PAGE;
+    }
+
+    /** 每页记录数 */
+    public void setNumPerPage(int numPerPage) {
+        this.numPerPage = numPerPage;
+    }
+
+    /** 是否多取一条判断有无下一页，关闭时hasMore为空，本页取满即返回nextCursor */
+    public boolean isProbeHasMore() {
+        return probeHasMore;
+    }
+
+    /** 是否多取一条判断有无下一页，关闭时hasMore为空，本页取满即返回nextCursor */
+    public void setProbeHasMore(boolean probeHasMore) {
+        this.probeHasMore = probeHasMore;
+    }
+}
@@ -0,0 +1,130 @@
+package com.zhangpeng.account.api;
+
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 批量记账指令
+ */
+public class LedgerCommand implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** 指令类型 **/
+    private LedgerCommandTypeEnum type;
+
+    /** 用户编号 **/
+    private String userNo;
+
+    /** 金额 **/
+    private BigDecimal amount;
+
+    /** 请求号 **/
+    private String requestNo;
+
+    /** 银行流水号 **/
+    private String bankTrxNo;
+
+    /** 业务类型 TrxTypeEnum **/
+    private String trxType;
+
+    /** 备注 **/
+    private String remark;
+
+    public LedgerCommand() {
+    }
+
+    public LedgerCommand(LedgerCommandTypeEnum type, String userNo, BigDecimal amount, String requestNo, String bankTrxNo,
+                         String trxType, String remark) {
+        this.type = type;
+        this.userNo = userNo;
+        this.amount = amount;
+        this.requestNo = requestNo;
+        this.bankTrxNo = bankTrxNo;
+        this.trxType = trxType;
+        this.remark = remark;
+    }
+
+    public static LedgerCommand credit(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
+        return new LedgerCommand(LedgerCommandTypeEnum.CREDIT, userNo, amount, requestNo, bankTrxNo, trxType, remark);
+    }
+
+    public static LedgerCommand debit(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
+        return new LedgerCommand(LedgerCommandTypeEnum.DEBIT, userNo, amount, requestNo, bankTrxNo, trxType, remark);
+    }
+
+    public static LedgerCommand freeze(String userNo, BigDecimal amount, String requestNo) {
+        return new LedgerCommand(LedgerCommandTypeEnum.FREEZE, userNo, amount, requestNo, null, null, null);
+    }
+
+    public static LedgerCommand unFreeze(String userNo, BigDecimal amount, String requestNo, String trxType, String remark) {
+        return new LedgerCommand(LedgerCommandTypeEnum.UNFREEZE, userNo, amount, requestNo, null, trxType, remark);
+    }
+
+    public static LedgerCommand unFreezeSett(String userNo, BigDecimal amount, String requestNo) {
+        return new LedgerCommand(LedgerCommandTypeEnum.UNFREEZE_SETT, userNo, amount, requestNo, null, null, null);
+    }
+
+    public LedgerCommandTypeEnum getType() {
+        return type;
+    }
+
+    public void setType(LedgerCommandTypeEnum type) {
+        this.type = type;
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getRequestNo() {
+        return requestNo;
+    }
+
+    public void setRequestNo(String requestNo) {
+        this.requestNo = requestNo;
+    }
+
+    public String getBankTrxNo() {
+        return bankTrxNo;
+    }
+
+    public void setBankTrxNo(String bankTrxNo) {
+        this.bankTrxNo = bankTrxNo;
+    }
+
+    public String getTrxType() {
+        return trxType;
+    }
+
+    public void setTrxType(String trxType) {
+        this.trxType = trxType;
+    }
+
+    public String getRemark() {
+        return remark;
+    }
+
+    public void setRemark(String remark) {
+        this.remark = remark;
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerCommand{type=" + type + ", userNo=" + userNo + ", amount=" + amount + ", requestNo=" + requestNo + "}";
+    }
+}
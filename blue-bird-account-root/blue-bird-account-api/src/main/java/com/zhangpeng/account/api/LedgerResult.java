@@ -0,0 +1,135 @@
+package com.zhangpeng.account.api;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 批量记账单条指令的执行结果，与请求列表下标一一对应
+ */
+public class LedgerResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** 成功码，失败时为AccountBizException的异常码 **/
+    public static final int SUCCESS = 0;
+
+    private String requestNo;
+
+    private String userNo;
+
+    private boolean success;
+
+    /** 请求号已记过账，本次未重复执行 **/
+    private boolean replayed;
+
+    private int code;
+
+    private String message;
+
+    /** 本条指令执行后的账户余额 **/
+    private BigDecimal balance;
+
+    /** 本条指令执行后的不可用余额 **/
+    private BigDecimal unbalance;
+
+    public LedgerResult() {
+    }
+
+    public static LedgerResult ok(LedgerCommand command, BigDecimal balance, BigDecimal unbalance) {
+        LedgerResult result = new LedgerResult();
+        result.requestNo = command.getRequestNo();
+        result.userNo = command.getUserNo();
+        result.success = true;
+        result.code = SUCCESS;
+        result.balance = balance;
+        result.unbalance = unbalance;
+        return result;
+    }
+
+    public static LedgerResult replay(LedgerCommand command, BigDecimal balance, BigDecimal unbalance) {
+        LedgerResult result = ok(command, balance, unbalance);
+        result.replayed = true;
+        return result;
+    }
+
+    public static LedgerResult fail(LedgerCommand command, int code, String message) {
+        LedgerResult result = new LedgerResult();
+        if (command != null) {
+            result.requestNo = command.getRequestNo();
+            result.userNo = command.getUserNo();
+        }
+        result.success = false;
+        result.code = code;
+        result.message = message;
+        return result;
+    }
+
+    public String getRequestNo() {
+        return requestNo;
+    }
+
+    public void setRequestNo(String requestNo) {
+        this.requestNo = requestNo;
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public boolean isReplayed() {
+        return replayed;
+    }
+
+    public void setReplayed(boolean replayed) {
+        this.replayed = replayed;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public void setCode(int code) {
+        this.code = code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public BigDecimal getUnbalance() {
+        return unbalance;
+    }
+
+    public void setUnbalance(BigDecimal unbalance) {
+        this.unbalance = unbalance;
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerResult{requestNo=" + requestNo + ", success=" + success + ", replayed=" + replayed + ", code=" + code + ", message=" + message + "}";
+    }
+}
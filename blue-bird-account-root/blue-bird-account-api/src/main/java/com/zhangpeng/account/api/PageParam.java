@@ -1,5 +1,7 @@
 package com.zhangpeng.account.api;
 
+import com.zhangpeng.account.api.enums.CountModeEnum;
+
 import java.io.Serializable;
 
 /**
@@ -31,6 +33,8 @@ public class PageParam implements Serializable {
 
     private int numPerPage; // 每页记录数
 
+    private CountModeEnum countMode; // 总记录数统计方式，为空时按服务端默认
+
     /**
      * 默认构造函数
      */
@@ -66,4 +70,14 @@ public class PageParam implements Serializable {
         this.numPerPage = numPerPage;
     }
 
+    /** 总记录数统计方式，为空时按服务端默认 */
+    public CountModeEnum getCountMode() {
+        return countMode;
+    }
+
+    /** 总记录数统计方式，为空时按服务端默认 */
+    public void setCountMode(CountModeEnum countMode) {
+        this.countMode = countMode;
+    }
+
 }
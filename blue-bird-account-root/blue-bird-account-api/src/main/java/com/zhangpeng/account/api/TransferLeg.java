@@ -0,0 +1,66 @@
+package com.zhangpeng.account.api;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 转账的一方
+ */
+public class TransferLeg implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** 用户编号 **/
+    private String userNo;
+
+    /** 金额，正数加款，负数减款，一笔转账各方合计为0 **/
+    private BigDecimal amount;
+
+    /** 银行流水号 **/
+    private String bankTrxNo;
+
+    public TransferLeg() {
+    }
+
+    public TransferLeg(String userNo, BigDecimal amount) {
+        this.userNo = userNo;
+        this.amount = amount;
+    }
+
+    public static TransferLeg credit(String userNo, BigDecimal amount) {
+        return new TransferLeg(userNo, amount);
+    }
+
+    public static TransferLeg debit(String userNo, BigDecimal amount) {
+        return new TransferLeg(userNo, amount.negate());
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getBankTrxNo() {
+        return bankTrxNo;
+    }
+
+    public void setBankTrxNo(String bankTrxNo) {
+        this.bankTrxNo = bankTrxNo;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferLeg{userNo=" + userNo + ", amount=" + amount + "}";
+    }
+}
@@ -4,6 +4,7 @@ import com.alibaba.fastjson.annotation.JSONField;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.util.Date;
 
 /**
  * 账户信息
@@ -45,6 +46,12 @@ public class Account extends BaseEntity implements Serializable {
     /** 用户编号 **/
     private String userNo;
 
+    /** 乐观锁版本号 **/
+    private Integer version;
+
+    /** 今日统计(todayIncome/todayExpend)所属日期，不是今天时今日统计视为0 **/
+    private Date counterDay;
+
     private static final long serialVersionUID = 1L;
     
     /************************* just show ************************************/
@@ -190,4 +197,20 @@ public class Account extends BaseEntity implements Serializable {
         this.userNo = userNo == null ? null : userNo.trim();
     }
 
-}
\ No newline at end of file
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public Date getCounterDay() {
+        return counterDay;
+    }
+
+    public void setCounterDay(Date counterDay) {
+        this.counterDay = counterDay;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 账户余额分桶
+ * 热点账户的加款分散写入多个分桶行，查询时与主账户合并
+ */
+public class AccountBucket extends BaseEntity implements Serializable {
+
+    /** 账户编号 **/
+    private String accountNo;
+
+    /** 用户编号 **/
+    private String userNo;
+
+    /** 分桶序号，从1开始 **/
+    private Integer bucketNo;
+
+    /** 分桶余额 **/
+    private BigDecimal balance;
+
+    /** 分桶总收益 **/
+    private BigDecimal totalIncome;
+
+    /** 分桶今日收益 **/
+    private BigDecimal todayIncome;
+
+    /** 今日收益所属日期 **/
+    private Date counterDay;
+
+    private static final long serialVersionUID = 1L;
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public void setAccountNo(String accountNo) {
+        this.accountNo = accountNo == null ? null : accountNo.trim();
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo == null ? null : userNo.trim();
+    }
+
+    public Integer getBucketNo() {
+        return bucketNo;
+    }
+
+    public void setBucketNo(Integer bucketNo) {
+        this.bucketNo = bucketNo;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public BigDecimal getTotalIncome() {
+        return totalIncome;
+    }
+
+    public void setTotalIncome(BigDecimal totalIncome) {
+        this.totalIncome = totalIncome;
+    }
+
+    public BigDecimal getTodayIncome() {
+        return todayIncome;
+    }
+
+    public void setTodayIncome(BigDecimal todayIncome) {
+        this.todayIncome = todayIncome;
+    }
+
+    public Date getCounterDay() {
+        return counterDay;
+    }
+
+    public void setCounterDay(Date counterDay) {
+        this.counterDay = counterDay;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 账户日汇总
+ * 按账户、日期、业务类型、资金方向汇总的账户历史金额和笔数，写入账户历史时在同一事务内累加；
+ * 分桶账户的加款分散到多个分片行，查询时按分片合计
+ */
+public class AccountDailySummary extends BaseEntity implements Serializable {
+
+    /** 账户编号 **/
+    private String accountNo;
+
+    /** 汇总日期 **/
+    private Date summaryDate;
+
+    /** 业务类型，为空时记为空字符串 **/
+    private String trxType;
+
+    /** 资金方向 **/
+    private String fundDirection;
+
+    /** 金额合计 **/
+    private BigDecimal amount;
+
+    /** 笔数 **/
+    private Long num;
+
+    /** 汇总分片，0为主账户，分桶账户的加款为1..分桶数 **/
+    private Integer shardNo;
+
+    private static final long serialVersionUID = 1L;
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public void setAccountNo(String accountNo) {
+        this.accountNo = accountNo == null ? null : accountNo.trim();
+    }
+
+    public Date getSummaryDate() {
+        return summaryDate;
+    }
+
+    public void setSummaryDate(Date summaryDate) {
+        this.summaryDate = summaryDate;
+    }
+
+    public String getTrxType() {
+        return trxType;
+    }
+
+    public void setTrxType(String trxType) {
+        this.trxType = trxType;
+    }
+
+    public String getFundDirection() {
+        return fundDirection;
+    }
+
+    public void setFundDirection(String fundDirection) {
+        this.fundDirection = fundDirection;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public Long getNum() {
+        return num;
+    }
+
+    public void setNum(Long num) {
+        this.num = num;
+    }
+
+    public Integer getShardNo() {
+        return shardNo;
+    }
+
+    public void setShardNo(Integer shardNo) {
+        this.shardNo = shardNo;
+    }
+}
@@ -0,0 +1,92 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 冻结单
+ * 每次带请求号的冻结生成一条，id即冻结单号，扣款、释放或到期后完结
+ */
+public class AccountHold extends BaseEntity implements Serializable {
+
+    /** 账户编号 **/
+    private String accountNo;
+
+    /** 用户编号 **/
+    private String userNo;
+
+    /** 冻结金额 **/
+    private BigDecimal amount;
+
+    /** 请求号，同一账户唯一 **/
+    private String requestNo;
+
+    /** 冻结单状态 HoldStatusEnum **/
+    private String holdStatus;
+
+    /** 到期时间，到期仍未完结的自动释放 **/
+    private Date expireTime;
+
+    /** 完结时间 **/
+    private Date finishTime;
+
+    private static final long serialVersionUID = 1L;
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public void setAccountNo(String accountNo) {
+        this.accountNo = accountNo == null ? null : accountNo.trim();
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo == null ? null : userNo.trim();
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getRequestNo() {
+        return requestNo;
+    }
+
+    public void setRequestNo(String requestNo) {
+        this.requestNo = requestNo == null ? null : requestNo.trim();
+    }
+
+    public String getHoldStatus() {
+        return holdStatus;
+    }
+
+    public void setHoldStatus(String holdStatus) {
+        this.holdStatus = holdStatus;
+    }
+
+    public Date getExpireTime() {
+        return expireTime;
+    }
+
+    public void setExpireTime(Date expireTime) {
+        this.expireTime = expireTime;
+    }
+
+    public Date getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Date finishTime) {
+        this.finishTime = finishTime;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 对账批次
+ * 每次对账处理账户历史id区间(fromId, toId]，完成后toId即下次对账的水位
+ */
+public class ReconcileRun extends BaseEntity implements Serializable {
+
+    /** 起始id(不含)，即上次对账的水位 **/
+    private Long fromId;
+
+    /** 结束id(含)，开始对账时的最大id **/
+    private Long toId;
+
+    /** 对账的账户数 **/
+    private Long accountNum;
+
+    /** 不一致的账户数 **/
+    private Long mismatchNum;
+
+    /** 完成时间，为空表示未完成 **/
+    private Date finishTime;
+
+    private static final long serialVersionUID = 1L;
+
+    public Long getFromId() {
+        return fromId;
+    }
+
+    public void setFromId(Long fromId) {
+        this.fromId = fromId;
+    }
+
+    public Long getToId() {
+        return toId;
+    }
+
+    public void setToId(Long toId) {
+        this.toId = toId;
+    }
+
+    public Long getAccountNum() {
+        return accountNum;
+    }
+
+    public void setAccountNum(Long accountNum) {
+        this.accountNum = accountNum;
+    }
+
+    public Long getMismatchNum() {
+        return mismatchNum;
+    }
+
+    public void setMismatchNum(Long mismatchNum) {
+        this.mismatchNum = mismatchNum;
+    }
+
+    public Date getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Date finishTime) {
+        this.finishTime = finishTime;
+    }
+}
@@ -0,0 +1,101 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 账户对账状态
+ * 每个账户一条，记录重放到lastHistoryId为止的余额，下次对账只累加之后的账户历史
+ */
+public class ReconcileState extends BaseEntity implements Serializable {
+
+    /** 账户编号 **/
+    private String accountNo;
+
+    /** 用户编号 **/
+    private String userNo;
+
+    /** 账户历史重放余额 **/
+    private BigDecimal replayBalance;
+
+    /** 已重放到的账户历史id **/
+    private Long lastHistoryId;
+
+    /** 最后一条账户历史的余额快照 **/
+    private BigDecimal snapshotBalance;
+
+    /** 对账时的账户余额(含分桶) **/
+    private BigDecimal accountBalance;
+
+    /** 对账结果 ReconcileStatusEnum **/
+    private String reconcileStatus;
+
+    /** 最近一次对账批次 **/
+    private Integer runId;
+
+    private static final long serialVersionUID = 1L;
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public void setAccountNo(String accountNo) {
+        this.accountNo = accountNo;
+    }
+
+    public String getUserNo() {
+        return userNo;
+    }
+
+    public void setUserNo(String userNo) {
+        this.userNo = userNo;
+    }
+
+    public BigDecimal getReplayBalance() {
+        return replayBalance;
+    }
+
+    public void setReplayBalance(BigDecimal replayBalance) {
+        this.replayBalance = replayBalance;
+    }
+
+    public Long getLastHistoryId() {
+        return lastHistoryId;
+    }
+
+    public void setLastHistoryId(Long lastHistoryId) {
+        this.lastHistoryId = lastHistoryId;
+    }
+
+    public BigDecimal getSnapshotBalance() {
+        return snapshotBalance;
+    }
+
+    public void setSnapshotBalance(BigDecimal snapshotBalance) {
+        this.snapshotBalance = snapshotBalance;
+    }
+
+    public BigDecimal getAccountBalance() {
+        return accountBalance;
+    }
+
+    public void setAccountBalance(BigDecimal accountBalance) {
+        this.accountBalance = accountBalance;
+    }
+
+    public String getReconcileStatus() {
+        return reconcileStatus;
+    }
+
+    public void setReconcileStatus(String reconcileStatus) {
+        this.reconcileStatus = reconcileStatus;
+    }
+
+    public Integer getRunId() {
+        return runId;
+    }
+
+    public void setRunId(Integer runId) {
+        this.runId = runId;
+    }
+}
@@ -0,0 +1,102 @@
+package com.zhangpeng.account.api.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 结算检查点
+ * 一次结算按账户历史id区间分成若干段并行执行，每段一条，last_id与该块的结算在同一事务内推进
+ */
+public class SettleCheckpoint extends BaseEntity implements Serializable {
+
+    /** 结算日期 **/
+    private Date statDate;
+
+    /** 分段序号，从0开始 **/
+    private Integer partitionNo;
+
+    /** 分段起始id(不含) **/
+    private Long fromId;
+
+    /** 分段结束id(含) **/
+    private Long toId;
+
+    /** 已结算到的账户历史id **/
+    private Long lastId;
+
+    /** 分段状态 SettleStatusEnum **/
+    private String settleStatus;
+
+    /** 已结算笔数 **/
+    private Long settledNum;
+
+    /** 已结算金额 **/
+    private BigDecimal settledAmount;
+
+    private static final long serialVersionUID = 1L;
+
+    public Date getStatDate() {
+        return statDate;
+    }
+
+    public void setStatDate(Date statDate) {
+        this.statDate = statDate;
+    }
+
+    public Integer getPartitionNo() {
+        return partitionNo;
+    }
+
+    public void setPartitionNo(Integer partitionNo) {
+        this.partitionNo = partitionNo;
+    }
+
+    public Long getFromId() {
+        return fromId;
+    }
+
+    public void setFromId(Long fromId) {
+        this.fromId = fromId;
+    }
+
+    public Long getToId() {
+        return toId;
+    }
+
+    public void setToId(Long toId) {
+        this.toId = toId;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public String getSettleStatus() {
+        return settleStatus;
+    }
+
+    public void setSettleStatus(String settleStatus) {
+        this.settleStatus = settleStatus == null ? null : settleStatus.trim();
+    }
+
+    public Long getSettledNum() {
+        return settledNum;
+    }
+
+    public void setSettledNum(Long settledNum) {
+        this.settledNum = settledNum;
+    }
+
+    public BigDecimal getSettledAmount() {
+        return settledAmount;
+    }
+
+    public void setSettledAmount(BigDecimal settledAmount) {
+        this.settledAmount = settledAmount;
+    }
+}
@@ -0,0 +1,43 @@
+package com.zhangpeng.account.api.enums;
+
+/**
+ * 分页总记录数的统计方式
+ */
+public enum CountModeEnum {
+
+    /**
+     * 每次count，结果精确
+     */
+    EXACT("精确统计"),
+
+    /**
+     * 按查询条件缓存count结果，该账户记账后失效，其余按短时过期
+     */
+    CACHED("缓存统计"),
+
+    /**
+     * 按表统计信息估算，只用于不带查询条件的列表，带条件时按缓存统计
+     */
+    ESTIMATED("估算");
+
+    /** 描述 */
+    private String desc;
+
+    private CountModeEnum(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static CountModeEnum getEnum(String name) {
+        CountModeEnum[] arry = CountModeEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.zhangpeng.account.api.enums;
+
+/**
+ * 冻结单状态
+ */
+public enum HoldStatusEnum {
+
+    /**
+     * 冻结中
+     */
+    HELD("冻结中"),
+
+    /**
+     * 已扣款：解冻+减款
+     */
+    CAPTURED("已扣款"),
+
+    /**
+     * 已释放：解冻
+     */
+    RELEASED("已释放"),
+
+    /**
+     * 到期自动释放
+     */
+    EXPIRED("已过期");
+
+    /** 描述 */
+    private String desc;
+
+    private HoldStatusEnum(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static HoldStatusEnum getEnum(String name) {
+        HoldStatusEnum[] arry = HoldStatusEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
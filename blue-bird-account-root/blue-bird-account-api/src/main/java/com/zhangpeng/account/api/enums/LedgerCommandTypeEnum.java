@@ -0,0 +1,67 @@
+package com.zhangpeng.account.api.enums;
+
+/**
+ * 批量记账指令类型，与AccountTransactionService的单笔接口一一对应
+ */
+public enum LedgerCommandTypeEnum {
+
+    /**
+     * 加款
+     */
+    CREDIT("加款"),
+
+    /**
+     * 减款
+     */
+    DEBIT("减款"),
+
+    /**
+     * 冻结
+     */
+    FREEZE("冻结"),
+
+    /**
+     * 结算成功：解冻+减款
+     */
+    UNFREEZE("解冻+减款"),
+
+    /**
+     * 结算失败：解冻
+     */
+    UNFREEZE_SETT("解冻");
+
+    /** 描述 */
+    private String desc;
+
+    private LedgerCommandTypeEnum(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    /**
+     * 是否减少可用余额，分桶账户执行前需要先归集
+     */
+    public boolean isOutflow() {
+        return this == DEBIT || this == FREEZE;
+    }
+
+    /**
+     * 是否记录账户历史，记录历史的指令按requestNo做幂等
+     */
+    public boolean recordsHistory() {
+        return this == CREDIT || this == DEBIT || this == UNFREEZE;
+    }
+
+    public static LedgerCommandTypeEnum getEnum(String name) {
+        LedgerCommandTypeEnum[] arry = LedgerCommandTypeEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
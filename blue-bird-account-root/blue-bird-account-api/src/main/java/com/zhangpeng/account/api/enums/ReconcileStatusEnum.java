@@ -0,0 +1,38 @@
+package com.zhangpeng.account.api.enums;
+
+/**
+ * 对账结果
+ */
+public enum ReconcileStatusEnum {
+
+    /**
+     * 账户余额、最后一条账户历史的余额快照与账户历史重放结果一致
+     */
+    MATCH("一致"),
+
+    /**
+     * 不一致
+     */
+    MISMATCH("不一致");
+
+    /** 描述 */
+    private String desc;
+
+    private ReconcileStatusEnum(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static ReconcileStatusEnum getEnum(String name) {
+        ReconcileStatusEnum[] arry = ReconcileStatusEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.zhangpeng.account.api.enums;
+
+/**
+ * 结算分段状态
+ */
+public enum SettleStatusEnum {
+
+    /**
+     * 结算中，last_id之前的已结算
+     */
+    RUNNING("结算中"),
+
+    /**
+     * 分段内已全部扫描
+     */
+    FINISHED("已完成");
+
+    /** 描述 */
+    private String desc;
+
+    private SettleStatusEnum(String desc) {
+        this.desc = desc;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static SettleStatusEnum getEnum(String name) {
+        SettleStatusEnum[] arry = SettleStatusEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
@@ -17,6 +17,21 @@ public class AccountBizException extends BizException {
 	public static final AccountBizException ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT = new AccountBizException(10010003, "解冻金额超限");
 	public static final AccountBizException ACCOUNT_FROZEN_AMOUNT_OUTLIMIT = new AccountBizException(10010004, "冻结金额超限");
 	public static final AccountBizException ACCOUNT_TYPE_IS_NULL = new AccountBizException(10010005, "账户类型不能为空");
+	public static final AccountBizException ACCOUNT_CONCURRENT_CONFLICT = new AccountBizException(10010006, "账户并发更新冲突，请重试");
+	public static final AccountBizException ACCOUNT_LOCK_TIMEOUT = new AccountBizException(10010007, "账户繁忙，请稍后重试");
+	public static final AccountBizException ACCOUNT_LEDGER_COMMAND_ILLEGAL = new AccountBizException(10010008, "记账指令不合法");
+	public static final AccountBizException ACCOUNT_BATCH_CHUNK_FAILED = new AccountBizException(10010009, "批量记账失败，本块已回滚");
+	public static final AccountBizException ACCOUNT_GROUP_COMMIT_TIMEOUT = new AccountBizException(10010010, "记账结果未知，请按请求号查询");
+	public static final AccountBizException ACCOUNT_TRANSFER_NOT_BALANCED = new AccountBizException(10010011, "转账各方金额合计不为0");
+	public static final AccountBizException ACCOUNT_MODE_UNSUPPORTED = new AccountBizException(10010012, "当前记账模式不支持该操作");
+	public static final AccountBizException ACCOUNT_HOLD_NOT_EXIST = new AccountBizException(10010013, "冻结单不存在");
+	public static final AccountBizException ACCOUNT_HOLD_FINISHED = new AccountBizException(10010014, "冻结单已完结");
+	public static final AccountBizException ACCOUNT_CURSOR_ILLEGAL = new AccountBizException(10010015, "分页游标不合法");
+	public static final AccountBizException ACCOUNT_EXPORT_BUSY = new AccountBizException(10010016, "导出任务繁忙，请稍后重试");
+	public static final AccountBizException ACCOUNT_SETTLE_CONFLICT = new AccountBizException(10010017, "结算分段已被其他节点处理");
+	public static final AccountBizException ACCOUNT_PARAM_ILLEGAL = new AccountBizException(10010018, "参数不合法");
+	public static final AccountBizException ACCOUNT_ENGINE_PERSIST_FAILED = new AccountBizException(10010019, "记账写库失败，请按原请求号重试");
+	public static final AccountBizException ACCOUNT_AMOUNT_SCALE_ILLEGAL = new AccountBizException(10010020, "金额最多两位小数");
 
 	public AccountBizException() {
 	}
@@ -1,10 +1,14 @@
 package com.zhangpeng.account.api.service;
 
+import com.zhangpeng.account.api.CursorPage;
+import com.zhangpeng.account.api.CursorParam;
 import com.zhangpeng.account.api.PageBean;
 import com.zhangpeng.account.api.PageParam;
 import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountDailySummary;
 import com.zhangpeng.account.api.domain.AccountHistory;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -58,10 +62,25 @@ public interface AccountQueryService {
 
 	/**
 	 * 获取所有账户
+	 * @deprecated 一次加载全部账户，账户多时两端内存都会暴涨，改用{@link #scanAccounts(Integer, int, Map)}分批扫描
 	 * @return
 	 */
+	@Deprecated
 	List<Account> listAll();
 
+	/**
+	 * 按账户id升序分批扫描账户，每批取afterId之后的limit条.
+	 *
+	 * @param afterId
+	 *            上一批最后一个账户的id，第一批传null.
+	 * @param limit
+	 *            每批条数，最大1000.
+	 * @param filter
+	 *            查询条件(status、accountType、userNo等)，可以为null.
+	 * @return 本批账户，少于limit条表示已扫描完.
+	 */
+	List<Account> scanAccounts(Integer afterId, int limit, Map<String, Object> filter);
+
 	/**
 	 * 根据参数分页查询账户.
 	 *
@@ -83,4 +102,28 @@ public interface AccountQueryService {
 	 * @return AccountHistoryList.
 	 */
 	PageBean<AccountHistory> pageAccountHistory(PageParam pageParam, Map<String, Object> params);
-}
\ No newline at end of file
+
+	/**
+	 * 根据参数游标分页查询账户历史，按创建时间倒序，不统计总数.
+	 *
+	 * @param cursorParam
+	 *            游标分页参数，第一页cursor为空.
+	 * @param params
+	 *            查询参数，可以为null.
+	 * @return 本页账户历史及下一页游标.
+	 */
+	CursorPage<AccountHistory> cursorAccountHistory(CursorParam cursorParam, Map<String, Object> params);
+
+	/**
+	 * 查询账户日汇总，读取预先汇总的数据，不扫描账户历史.
+	 *
+	 * @param accountNo
+	 *            账户编号.
+	 * @param from
+	 *            开始日期(含).
+	 * @param to
+	 *            结束日期(含).
+	 * @return 按日期升序的日汇总，每天按业务类型、资金方向各一条.
+	 */
+	List<AccountDailySummary> dailySummary(String accountNo, Date from, Date to);
+}
@@ -27,4 +27,14 @@ public interface AccountService {
 
 
 	Account getAccount(String userNo);
+
+	/**
+	 * 调整热点账户余额分桶数
+	 *
+	 * @param userNo
+	 *            用户编号
+	 * @param bucketCount
+	 *            分桶数，0表示关闭分桶
+	 */
+	void configureBuckets(String userNo, int bucketCount);
 }
\ No newline at end of file
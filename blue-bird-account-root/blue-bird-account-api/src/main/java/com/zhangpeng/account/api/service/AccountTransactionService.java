@@ -1,8 +1,14 @@
 package com.zhangpeng.account.api.service;
 
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.LedgerResult;
+import com.zhangpeng.account.api.TransferLeg;
 import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHold;
 
 import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
 
 /**
  *  账户操作service接口
@@ -29,4 +35,36 @@ public interface AccountTransactionService {
 	
 	/** 结算失败：解冻 **/
 	Account unFreezeSettAmount(String userNo, BigDecimal amount);
+
+	/**
+	 * 批量记账：按账户分组、按块提交，每块一个事务。
+	 * 单条指令业务校验失败只影响自身，数据库异常时整块回滚、整块失败。
+	 *
+	 * @return 与commands下标一一对应的执行结果
+	 */
+	List<LedgerResult> executeBatch(List<LedgerCommand> commands);
+
+	/**
+	 * 多方转账：各方金额合计必须为0，同一事务内全部成功或全部回滚。
+	 * 同一账户在一笔转账中只能出现一次，requestNo记入每一方的账户历史。
+	 *
+	 * @return 与legs下标一一对应的转账后账户
+	 */
+	List<Account> transfer(String requestNo, List<TransferLeg> legs, String trxType, String remark);
+
+	/**
+	 * 冻结并生成冻结单，到期未扣款也未释放的自动释放。
+	 * 同一账户同一requestNo重复请求返回已有的冻结单。
+	 *
+	 * @param expireTime
+	 *            到期时间，为空时按默认有效期
+	 * @return 冻结单，id即冻结单号
+	 */
+	AccountHold freezeAmount(String userNo, BigDecimal freezeAmount, String requestNo, Date expireTime);
+
+	/** 冻结单扣款：解冻+减款，重复扣款返回当前账户 **/
+	Account captureHold(Integer holdId, String trxType, String remark);
+
+	/** 冻结单释放：解冻，重复释放返回当前账户 **/
+	Account releaseHold(Integer holdId);
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package com.zhangpeng.account.api.utils;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 线程安全的日期格式化/解析
+ *
+ * 1. yyyy-MM-dd、yyyyMMdd、yyyy-MM-dd HH:mm:ss三种常用格式手写实现：每个线程缓存最近一天的0点时间戳和年月日，
+ *    同一天内只做整数运算，写入调用方或线程复用的StringBuilder；
+ * 2. 其他格式按pattern缓存不可变的DateTimeFormatter；
+ * 3. 含有DateTimeFormatter与SimpleDateFormat语义不同的字母(如E、a、u、z、S)的pattern，退回每线程缓存的SimpleDateFormat。
+ *
+ * 解析一律使用每线程缓存的SimpleDateFormat，保持原有的宽松语义：两位年份按当前时间前80年~后20年换算，
+ * 超出范围的月、日顺延(2020-13-01为2021-01-01，2020-02-30为2020-03-01)，忽略末尾多余字符。
+ */
+public final class DateFormats {
+
+    public static final String DATE = "yyyy-MM-dd";
+    public static final String BASIC_DATE = "yyyyMMdd";
+    public static final String DATE_TIME = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * 与SimpleDateFormat语义一致的pattern字母
+     * 不含S：SimpleDateFormat中是毫秒数，DateTimeFormatter中是秒的小数部分(".5"解析为500毫秒而不是5毫秒)
+     */
+    private static final String SAFE_LETTERS = "yMdHhms";
+
+    private static final ConcurrentMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<String, SimpleDateFormat>> LEGACY = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
+    /** 本线程最近一次格式化所在的一天，各线程处理不同日期时互不替换 **/
+    private static final ThreadLocal<CachedDay> CACHED_DAY = new ThreadLocal<>();
+
+    private DateFormats() {
+    }
+
+    /////////////////////// 常用格式 ///////////////////////////
+
+    /**
+     * yyyy-MM-dd
+     */
+    public static String formatDate(long epochMillis) {
+        return appendDate(buffer(), epochMillis).toString();
+    }
+
+    /**
+     * yyyyMMdd
+     */
+    public static String formatBasicDate(long epochMillis) {
+        return appendBasicDate(buffer(), epochMillis).toString();
+    }
+
+    /**
+     * yyyy-MM-dd HH:mm:ss
+     */
+    public static String formatDateTime(long epochMillis) {
+        return appendDateTime(buffer(), epochMillis).toString();
+    }
+
+    public static StringBuilder appendDate(StringBuilder sb, long epochMillis) {
+        CachedDay day = dayOf(epochMillis);
+        if (day == null) {
+            return sb.append(FORMATTERS.computeIfAbsent(DATE, DateTimeFormatter::ofPattern).format(toLocal(epochMillis)));
+        }
+        appendYmd(sb, day, '-');
+        return sb;
+    }
+
+    public static StringBuilder appendBasicDate(StringBuilder sb, long epochMillis) {
+        CachedDay day = dayOf(epochMillis);
+        if (day == null) {
+            return sb.append(FORMATTERS.computeIfAbsent(BASIC_DATE, DateTimeFormatter::ofPattern).format(toLocal(epochMillis)));
+        }
+        appendYmd(sb, day, (char) 0);
+        return sb;
+    }
+
+    public static StringBuilder appendDateTime(StringBuilder sb, long epochMillis) {
+        CachedDay day = dayOf(epochMillis);
+        if (day == null) {
+            return sb.append(FORMATTERS.computeIfAbsent(DATE_TIME, DateTimeFormatter::ofPattern).format(toLocal(epochMillis)));
+        }
+        appendYmd(sb, day, '-');
+        int secondOfDay = (int) ((epochMillis - day.startMillis) / 1000);
+        sb.append(' ');
+        append2(sb, secondOfDay / 3600);
+        sb.append(':');
+        append2(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        append2(sb, secondOfDay % 60);
+        return sb;
+    }
+
+    /////////////////////// 任意格式 ///////////////////////////
+
+    /**
+     * 按pattern格式化，pattern使用SimpleDateFormat的写法
+     */
+    public static String format(Date date, String pattern) {
+        long millis = date.getTime();
+        switch (pattern) {
+            case DATE:
+                return formatDate(millis);
+            case BASIC_DATE:
+                return formatBasicDate(millis);
+            case DATE_TIME:
+                return formatDateTime(millis);
+            default:
+                if (!isSafe(pattern)) {
+                    return legacy(pattern).format(date);
+                }
+                return FORMATTERS.computeIfAbsent(pattern, DateTimeFormatter::ofPattern).format(toLocal(millis));
+        }
+    }
+
+    /**
+     * 按pattern解析，结果与SimpleDateFormat.parse(String)一致
+     *
+     * @throws DateTimeParseException
+     *             无法解析时
+     */
+    public static Date parse(String text, String pattern) {
+        ParsePosition position = new ParsePosition(0);
+        Date date = legacy(pattern).parse(text, position);
+        if (date == null) {
+            throw new DateTimeParseException("无法解析的日期: " + text, text, position.getErrorIndex());
+        }
+        return date;
+    }
+
+    /////////////////////// 内部实现 ///////////////////////////
+
+    private static boolean isSafe(String pattern) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) && SAFE_LETTERS.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SimpleDateFormat legacy(String pattern) {
+        return LEGACY.get().computeIfAbsent(pattern, SimpleDateFormat::new);
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * 时间戳所在的一天；不在本线程缓存的一天时重新计算并替换，当天有夏令时切换的返回null，由调用方走通用格式化
+     */
+    private static CachedDay dayOf(long epochMillis) {
+        CachedDay day = CACHED_DAY.get();
+        if (day != null && epochMillis >= day.startMillis && epochMillis < day.endMillis) {
+            return day;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        day = new CachedDay(zone, Instant.ofEpochMilli(epochMillis).atZone(zone).toLocalDate());
+        if (day.endMillis - day.startMillis != DateUtils.DAY_MILLI) {
+            return null;
+        }
+        CACHED_DAY.set(day);
+        return day;
+    }
+
+    private static void appendYmd(StringBuilder sb, CachedDay day, char separator) {
+        int year = day.year;
+        if (year < 1000 || year > 9999) {
+            sb.append(String.format("%04d", year));
+        } else {
+            sb.append(year);
+        }
+        if (separator != 0) {
+            sb.append(separator);
+        }
+        append2(sb, day.month);
+        if (separator != 0) {
+            sb.append(separator);
+        }
+        append2(sb, day.dayOfMonth);
+    }
+
+    private static void append2(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static final class CachedDay {
+        private final long startMillis;
+        private final long endMillis;
+        private final int year;
+        private final int month;
+        private final int dayOfMonth;
+
+        private CachedDay(ZoneId zone, LocalDate date) {
+            this.startMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            this.endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            this.year = date.getYear();
+            this.month = date.getMonthValue();
+            this.dayOfMonth = date.getDayOfMonth();
+        }
+    }
+}
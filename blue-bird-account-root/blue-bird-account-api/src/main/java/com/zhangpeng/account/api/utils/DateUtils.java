@@ -8,6 +8,7 @@ import org.apache.commons.logging.LogFactory;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -44,13 +45,23 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      */
     public static String DATE_FORMAT_DATEONLY = "yyyy-MM-dd"; // 年/月/日
     public static String DATE_FORMAT_DATETIME = "yyyy-MM-dd HH:mm:ss"; // 年/月/日
+    /**
+     * 以下SimpleDateFormat非线程安全，仅为兼容保留，本类方法已改用{@link DateFormats}
+     */
+    @Deprecated
     public static SimpleDateFormat sdfDateTime = new SimpleDateFormat(DateUtils.DATE_FORMAT_DATETIME);
     // Global SimpleDateFormat object
+    @Deprecated
     public static SimpleDateFormat sdfDateOnly = new SimpleDateFormat(DateUtils.DATE_FORMAT_DATEONLY);
+    @Deprecated
     public static final SimpleDateFormat SHORTDATEFORMAT = new SimpleDateFormat("yyyyMMdd");
+    @Deprecated
     public static final SimpleDateFormat SHORT_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    @Deprecated
     public static final SimpleDateFormat LONG_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    @Deprecated
     public static final SimpleDateFormat HMS_FORMAT = new SimpleDateFormat("HH:mm:ss");
+    @Deprecated
     public static final SimpleDateFormat formatTimestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     /**
@@ -180,7 +191,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      *
      */
     public static String getReqDate() {
-        return SHORTDATEFORMAT.format(new Date());
+        return DateFormats.formatBasicDate(System.currentTimeMillis());
     }
 
     /**
@@ -190,7 +201,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getReqDate(Date date) {
-        return SHORT_DATE_FORMAT.format(date);
+        return DateFormats.formatDate(date.getTime());
     }
 
     /**
@@ -200,7 +211,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getReqDateyyyyMMdd(Date date) {
-        return SHORTDATEFORMAT.format(date);
+        return DateFormats.formatBasicDate(date.getTime());
     }
 
     /**
@@ -210,7 +221,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String TimestampToDateStr(Timestamp tmp) {
-        return SHORT_DATE_FORMAT.format(tmp);
+        return DateFormats.formatDate(tmp.getTime());
     }
 
     /**
@@ -219,7 +230,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getReqTime() {
-        return HMS_FORMAT.format(new Date());
+        return DateFormats.format(new Date(), "HH:mm:ss");
     }
 
     /**
@@ -229,7 +240,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getTimeStampStr(Date date) {
-        return LONG_DATE_FORMAT.format(date);
+        return DateFormats.formatDateTime(date.getTime());
     }
 
     /**
@@ -238,11 +249,11 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getLongDateStr() {
-        return LONG_DATE_FORMAT.format(new Date());
+        return DateFormats.formatDateTime(System.currentTimeMillis());
     }
 
     public static String getLongDateStr(Timestamp time) {
-        return LONG_DATE_FORMAT.format(time);
+        return DateFormats.formatDateTime(time.getTime());
     }
 
     /**
@@ -252,11 +263,11 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getShortDateStr(Date date) {
-        return SHORT_DATE_FORMAT.format(date);
+        return DateFormats.formatDate(date.getTime());
     }
 
     public static String getShortDateStr() {
-        return SHORT_DATE_FORMAT.format(new Date());
+        return DateFormats.formatDate(System.currentTimeMillis());
     }
 
     /**
@@ -381,11 +392,11 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
     }
 
     public static Timestamp strToTimestamp(Date date) {
-        return Timestamp.valueOf(formatTimestamp.format(date));
+        return new Timestamp(Math.floorDiv(date.getTime(), 1000L) * 1000L);
     }
 
     public static Timestamp getCurTimestamp() {
-        return Timestamp.valueOf(formatTimestamp.format(new Date()));
+        return new Timestamp(Math.floorDiv(System.currentTimeMillis(), 1000L) * 1000L);
     }
 
     /**
@@ -478,7 +489,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @history
      */
     public static String getSysDateTimeString() {
-        return toString(new Date(System.currentTimeMillis()), DateUtils.sdfDateTime);
+        return DateFormats.formatDateTime(System.currentTimeMillis());
     }
 
     /**
@@ -496,25 +507,10 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
         if (dt == null || sFmt == null || "".equals(sFmt)) {
             return "";
         }
-        return toString(dt, new SimpleDateFormat(sFmt));
-    }
-
-    /**
-     * 利用指定SimpleDateFormat instance转换java.util.Date到String
-     *
-     * @param dt
-     *            java.util.Date instance
-     * @param formatter
-     *            SimpleDateFormat Instance
-     * @return
-     * @since 1.0
-     * @history
-     */
-    private static String toString(Date dt, SimpleDateFormat formatter) {
         String sRet = null;
 
         try {
-            sRet = formatter.format(dt).toString();
+            sRet = DateFormats.format(dt, sFmt);
         } catch (Exception e) {
             log.error(e.getMessage(),e);
             sRet = null;
@@ -595,9 +591,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @since V1.0
      */
     public static String timestampToStringYMD(Timestamp timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat(DateUtils.DATE_FORMAT_DATEONLY);
-        String createTimeStr = sdf.format(timestamp);
-        return createTimeStr;
+        return DateFormats.formatDate(timestamp.getTime());
     }
 
     /**
@@ -651,27 +645,27 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
         if (date == null || start == null || end == null) {
             throw new IllegalArgumentException("日期不能为空");
         }
-        SimpleDateFormat format = null;
+        String format = null;
         switch (compModel) {
             case COMP_MODEL_DATE: {
-                format = new SimpleDateFormat("yyyyMMdd");
+                format = "yyyyMMdd";
                 break;
             }
             case COMP_MODEL_TIME: {
-                format = new SimpleDateFormat("HHmmss");
+                format = "HHmmss";
                 break;
             }
             case COMP_MODEL_DATETIME: {
-                format = new SimpleDateFormat("yyyyMMddHHmmss");
+                format = "yyyyMMddHHmmss";
                 break;
             }
             default: {
                 throw new IllegalArgumentException(String.format("日期的比较模式[%d]有误", compModel));
             }
         }
-        long dateNumber = Long.parseLong(format.format(date));
-        long startNumber = Long.parseLong(format.format(start));
-        long endNumber = Long.parseLong(format.format(end));
+        long dateNumber = Long.parseLong(DateFormats.format(date, format));
+        long startNumber = Long.parseLong(DateFormats.format(start, format));
+        long endNumber = Long.parseLong(DateFormats.format(end, format));
         switch (interModel) {
             case LEFT_OPEN_RIGHT_OPEN: {
                 if (dateNumber <= startNumber || dateNumber >= endNumber) {
@@ -951,11 +945,10 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static Date StringToDate(String dateString) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd");
         Date date = null;
         try {
-            date = sdf.parse(dateString);
-        } catch (ParseException e) {
+            date = DateFormats.parse(dateString, "yyyy/MM/dd");
+        } catch (DateTimeException e) {
             logger.error(e);
         }
         return date;
@@ -977,16 +970,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * 当前时间的前几天，并且以例如2013/12/09 00:00:00 形式输出
      */
     public static Date subDays(int days) {
-        Date date = addDay(new Date(), -days);
-        String dateStr = getReqDate(date);
-        Date date1 = null;
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        try {
-            date1 = sdf.parse(dateStr);
-        } catch (ParseException e) {
-            logger.error(e);
-        }
-        return date1;
+        return getDayStart(addDay(new Date(), -days));
     }
 
     /**
@@ -1068,10 +1052,9 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return Date
      */
     public static Date getDateFromString(String src, String pattern) {
-        SimpleDateFormat f = new SimpleDateFormat(pattern);
         try {
-            return f.parse(src);
-        } catch (ParseException e) {
+            return DateFormats.parse(src, pattern);
+        } catch (DateTimeException e) {
             return null;
         }
     }
@@ -1108,8 +1091,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
         if (date == null) {
             return "";
         }
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return dateFormat.format(date);
+        return DateFormats.formatDateTime(date.getTime());
     }
 
     /**
@@ -1139,8 +1121,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return String
      */
     public static String formatDate(Date date, String format) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(format);
-        return dateFormat.format(date);
+        return DateFormats.format(date, format);
     }
 
     /**
@@ -1162,8 +1143,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      */
     public static boolean isInBetweenTimes(String startTime, String endTime) {
         Date nowTime = new Date();
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-        String time = sdf.format(nowTime);
+        String time = DateFormats.format(nowTime, "HH:mm:ss");
         if (time.compareTo(startTime) >= 0 && time.compareTo(endTime) <= 0) {
             return true;
         } else {
@@ -1178,24 +1158,24 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static Date getDateByStr(String dateStr) {
-        SimpleDateFormat formatter = null;
+        String formatter = null;
         if (dateStr == null) {
             return null;
         } else if (dateStr.length() == 10) {
-            formatter = new SimpleDateFormat("yyyy-MM-dd");
+            formatter = "yyyy-MM-dd";
         } else if (dateStr.length() == 16) {
-            formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+            formatter = "yyyy-MM-dd HH:mm";
         } else if (dateStr.length() == 19) {
-            formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            formatter = "yyyy-MM-dd HH:mm:ss";
         } else if (dateStr.length() > 19) {
             dateStr = dateStr.substring(0, 19);
-            formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            formatter = "yyyy-MM-dd HH:mm:ss";
         } else {
             return null;
         }
         try {
-            return formatter.parse(dateStr);
-        } catch (ParseException e) {
+            return DateFormats.parse(dateStr, formatter);
+        } catch (DateTimeException e) {
             logger.error(e);
             return null;
         }
@@ -1308,13 +1288,13 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
     public static long getDateDiff(String startDate, String endDate) {
         long diff = 0;
         try {
-            Date date1 = new SimpleDateFormat("yyyy-MM-dd").parse(startDate);
-            Date date2 = new SimpleDateFormat("yyyy-MM-dd").parse(endDate);
+            Date date1 = DateFormats.parse(startDate, "yyyy-MM-dd");
+            Date date2 = DateFormats.parse(endDate, "yyyy-MM-dd");
 
             diff = (date1.getTime() - date2.getTime()) / (24 * 60 * 60 * 1000) > 0 ? (date1.getTime() - date2.getTime())
                     / (24 * 60 * 60 * 1000)
                     : (date2.getTime() - date1.getTime()) / (24 * 60 * 60 * 1000);
-        } catch (ParseException e) {
+        } catch (DateTimeException e) {
         }
         return diff;
     }
@@ -1411,8 +1391,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static String getStrFormTime(String form, Date date) {
-        SimpleDateFormat sdf = new SimpleDateFormat(form);
-        return sdf.format(date);
+        return DateFormats.format(date, form);
     }
 
     /**
@@ -1433,17 +1412,7 @@ public class DateUtils extends org.apache.commons.lang.time.DateUtils {
      * @return
      */
     public static Date dateFormat(Date date) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        Date value = new Date();
-
-        try {
-            value = sdf.parse(sdf.format(date));
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-
-        return value;
-
+        return getDayStart(date);
     }
 
     public static boolean isSameDayWithToday(Date date) {
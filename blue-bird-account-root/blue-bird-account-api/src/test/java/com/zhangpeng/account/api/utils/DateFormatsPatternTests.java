@@ -0,0 +1,68 @@
+package com.zhangpeng.account.api.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 非常用格式与SimpleDateFormat逐条比对，重点是两者语义不同的字母(如毫秒S)和SimpleDateFormat的宽松解析
+ */
+class DateFormatsPatternTests {
+
+    private static final String[] PATTERNS = { "yyyy-MM-dd HH:mm:ss.SSS", "HH:mm:ss.S", "yyyyMMddHHmmssSSS", "yyyy/MM/dd",
+            "yyyy-MM-dd'T'HH:mm:ss", "hh:mm:ss" };
+
+    @Test
+    void formatSameAsSimpleDateFormat() {
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            Date date = new Date(base + i * 7919L);
+            for (String pattern : PATTERNS) {
+                assertEquals(new SimpleDateFormat(pattern).format(date), DateFormats.format(date, pattern), pattern);
+            }
+        }
+    }
+
+    @Test
+    void formatAcrossDaysSameAsSimpleDateFormat() {
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            // 相邻两次落在不同的日期，每次都替换本线程缓存的一天
+            Date date = new Date(base + (i % 2 == 0 ? i : -i) * DateUtils.DAY_MILLI + i * 7919L);
+            assertEquals(new SimpleDateFormat(DateFormats.DATE_TIME).format(date), DateFormats.format(date, DateFormats.DATE_TIME));
+            assertEquals(new SimpleDateFormat(DateFormats.BASIC_DATE).format(date), DateFormats.format(date, DateFormats.BASIC_DATE));
+        }
+    }
+
+    @Test
+    void parseMillisSameAsSimpleDateFormat() throws Exception {
+        String[][] cases = { { "2020-01-01 12:00:00.5", "yyyy-MM-dd HH:mm:ss.S" },
+                { "2020-01-01 12:00:00.050", "yyyy-MM-dd HH:mm:ss.SSS" },
+                { "20200101120000123", "yyyyMMddHHmmssSSS" } };
+        for (String[] c : cases) {
+            Date expected = new SimpleDateFormat(c[1]).parse(c[0]);
+            assertEquals(expected, DateFormats.parse(c[0], c[1]), c[1]);
+        }
+    }
+
+    @Test
+    void parseLenientSameAsSimpleDateFormat() throws Exception {
+        String[][] cases = { { "99-01-05", "yy-MM-dd" },
+                { "2020-13-01", "yyyy-MM-dd" },
+                { "2020-02-30", "yyyy-MM-dd" },
+                { "2020-01-01 25:00:00", "yyyy-MM-dd HH:mm:ss" },
+                { "2020/1/5 trailing", "yyyy/MM/dd" } };
+        for (String[] c : cases) {
+            Date expected = new SimpleDateFormat(c[1]).parse(c[0]);
+            assertEquals(expected, DateFormats.parse(c[0], c[1]), c[0]);
+        }
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("1999-01-05"), DateFormats.parse("99-01-05", "yy-MM-dd"));
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2021-01-01"), DateUtils.getDateFromString("2020-13-01", "yyyy-MM-dd"));
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2020-03-01"), DateUtils.getDateFromString("2020-02-30", "yyyy-MM-dd"));
+        assertNull(DateUtils.getDateFromString("not a date", "yyyy-MM-dd"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.core.summary.DailySummaryWriter;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 账户日汇总切面
+ * 账户历史insert成功后累加日汇总，在insert所在的事务提交前写入，事务回滚时汇总一起回滚
+ */
+@Component
+@Aspect
+public class DailySummaryHandler {
+
+    @Autowired
+    private DailySummaryWriter dailySummaryWriter;
+
+    @AfterReturning("execution(* com.zhangpeng.account.core.mapper.AccountHistoryMapper.insert(..)) && args(accountHistory)")
+    public void afterInsertHistory(AccountHistory accountHistory) {
+        if (dailySummaryWriter.isEnabled()) {
+            dailySummaryWriter.add(Collections.singletonList(accountHistory));
+        }
+    }
+
+    @AfterReturning("execution(* com.zhangpeng.account.core.mapper.AccountHistoryMapper.insertBatch(..)) && args(list)")
+    public void afterInsertHistoryBatch(List<AccountHistory> list) {
+        if (dailySummaryWriter.isEnabled()) {
+            dailySummaryWriter.add(list);
+        }
+    }
+}
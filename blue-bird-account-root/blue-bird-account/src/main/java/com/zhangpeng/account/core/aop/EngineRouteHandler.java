@@ -0,0 +1,41 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+
+/**
+ * 内存记账切面
+ * 仅次于幂等切面，在组提交、分段锁和事务切面之外执行：内存记账模式下调用线程不占用数据库连接
+ */
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class EngineRouteHandler {
+
+    @Autowired
+    private LedgerEngine ledgerEngine;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(engineRoute)")
+    public Object around(ProceedingJoinPoint pjp, EngineRoute engineRoute) throws Throwable {
+        if (!ledgerEngine.isEnabled()) {
+            return pjp.proceed();
+        }
+        Object[] args = pjp.getArgs();
+        String requestNo = args.length >= 5 ? (String) args[2] : null;
+        String bankTrxNo = args.length == 6 ? (String) args[3] : null;
+        String trxType = args.length >= 5 ? (String) args[args.length - 2] : null;
+        String remark = args.length >= 5 ? (String) args[args.length - 1] : null;
+        LedgerCommand command = new LedgerCommand(engineRoute.value(), (String) args[0], (BigDecimal) args[1], requestNo,
+                bankTrxNo, trxType, remark);
+        return ledgerEngine.execute(command);
+    }
+}
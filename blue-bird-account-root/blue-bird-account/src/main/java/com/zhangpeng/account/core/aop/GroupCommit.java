@@ -0,0 +1,25 @@
+package com.zhangpeng.account.core.aop;
+
+
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD) // 作用到方法上
+@Retention(RetentionPolicy.RUNTIME) // 运行时有效
+/**
+ * @功能描述 加/减款可走组提交：业务类型开启组提交时，不进入方法本身，转交GroupCommitWriter合并提交
+ *
+ * 方法参数约定与AccountTransactionService加/减款一致：
+ * (userNo, amount, requestNo, [bankTrxNo,] trxType, remark)
+ */
+public @interface GroupCommit {
+
+    /**
+     * 指令类型
+     */
+    LedgerCommandTypeEnum value();
+}
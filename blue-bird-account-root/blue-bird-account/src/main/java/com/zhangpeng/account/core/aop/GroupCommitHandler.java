@@ -0,0 +1,48 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.core.ledger.GroupCommitWriter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 组提交切面
+ * 在幂等、内存记账切面之后，分段锁和事务切面之外执行：调用线程只入队等待，不持有分段锁和数据库连接
+ */
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class GroupCommitHandler {
+
+    @Autowired
+    private GroupCommitWriter groupCommitWriter;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(groupCommit)")
+    public Object around(ProceedingJoinPoint pjp, GroupCommit groupCommit) throws Throwable {
+        Object[] args = pjp.getArgs();
+        String trxType = (String) args[args.length - 2];
+        BigDecimal amount = (BigDecimal) args[1];
+        // 金额非法等情况交给原方法按原有方式报错
+        if (!groupCommitWriter.accepts(trxType) || args[0] == null || amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+            return pjp.proceed();
+        }
+        String bankTrxNo = args.length == 6 ? (String) args[3] : null;
+        LedgerCommand command = new LedgerCommand(groupCommit.value(), (String) args[0], amount, (String) args[2],
+                bankTrxNo, trxType, (String) args[args.length - 1]);
+        CompletableFuture<Account> future = groupCommitWriter.submit(command);
+        if (future == null) {
+            // 队列已满，退回同步记账
+            return pjp.proceed();
+        }
+        return groupCommitWriter.await(future);
+    }
+}
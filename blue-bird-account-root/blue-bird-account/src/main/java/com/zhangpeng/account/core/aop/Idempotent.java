@@ -0,0 +1,25 @@
+package com.zhangpeng.account.core.aop;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD) // 作用到方法上
+@Retention(RetentionPolicy.RUNTIME) // 运行时有效
+/**
+ * @功能描述 记账请求号幂等：同一账户同一requestNo重复请求直接返回之前的结果
+ */
+public @interface Idempotent {
+
+    /**
+     * userNo参数下标
+     */
+    int userNoIndex() default 0;
+
+    /**
+     * requestNo参数下标
+     */
+    int requestNoIndex() default 2;
+}
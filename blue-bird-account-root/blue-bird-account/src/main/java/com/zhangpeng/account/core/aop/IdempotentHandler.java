@@ -0,0 +1,57 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.core.ledger.IdempotencyRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+/**
+ * 记账幂等切面
+ * 最外层执行：重复请求在进入组提交队列、分段锁和事务之前就返回；
+ * 方法返回时事务已提交，此时再登记请求号
+ */
+@Slf4j
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class IdempotentHandler {
+
+    @Autowired
+    private IdempotencyRegistry idempotencyRegistry;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(idempotent)")
+    public Object around(ProceedingJoinPoint pjp, Idempotent idempotent) throws Throwable {
+        if (!idempotencyRegistry.isEnabled()) {
+            return pjp.proceed();
+        }
+        Object[] args = pjp.getArgs();
+        String userNo = (String) args[idempotent.userNoIndex()];
+        String requestNo = (String) args[idempotent.requestNoIndex()];
+        Account prior = idempotencyRegistry.lookup(userNo, requestNo);
+        if (prior != null) {
+            log.info("重复的记账请求，直接返回，userNo={}, requestNo={}", userNo, requestNo);
+            return prior;
+        }
+        Account account;
+        try {
+            account = (Account) pjp.proceed();
+        } catch (DuplicateKeyException e) {
+            // 并发的重复请求同时通过了前置判断，由唯一键拦下，事务已回滚
+            Account replay = idempotencyRegistry.lookupFromDb(userNo, requestNo);
+            if (replay == null) {
+                throw e;
+            }
+            log.info("重复的记账请求被唯一键拦截，userNo={}, requestNo={}", userNo, requestNo);
+            return replay;
+        }
+        idempotencyRegistry.record(userNo, requestNo, account);
+        return account;
+    }
+}
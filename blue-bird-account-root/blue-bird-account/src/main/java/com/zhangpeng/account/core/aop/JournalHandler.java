@@ -0,0 +1,40 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+
+/**
+ * 流水日志切面
+ * 在分段锁之内、事务切面之外执行：方法返回时事务已提交，且仍持有该账户的分段锁，
+ * 同一账户的流水按提交顺序追加
+ */
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 4)
+public class JournalHandler {
+
+    @Autowired
+    private LedgerJournal ledgerJournal;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(journaled)")
+    public Object around(ProceedingJoinPoint pjp, Journaled journaled) throws Throwable {
+        Object result = pjp.proceed();
+        if (!ledgerJournal.isEnabled() || !(result instanceof Account)) {
+            return result;
+        }
+        Object[] args = pjp.getArgs();
+        String requestNo = args.length >= 5 ? (String) args[2] : null;
+        String trxType = args.length >= 5 ? (String) args[args.length - 2] : null;
+        ledgerJournal.append((Account) result, journaled.value(), (BigDecimal) args[1], trxType, requestNo);
+        return result;
+    }
+}
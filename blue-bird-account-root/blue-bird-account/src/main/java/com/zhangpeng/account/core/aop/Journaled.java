@@ -0,0 +1,24 @@
+package com.zhangpeng.account.core.aop;
+
+
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD) // 作用到方法上
+@Retention(RetentionPolicy.RUNTIME) // 运行时有效
+/**
+ * @功能描述 记账提交后追加一条流水日志，方法需返回记账后的Account
+ *
+ * 方法参数约定：(userNo, amount, [requestNo, [bankTrxNo,] trxType, remark])
+ */
+public @interface Journaled {
+
+    /**
+     * 指令类型
+     */
+    LedgerCommandTypeEnum value();
+}
@@ -0,0 +1,25 @@
+package com.zhangpeng.account.core.aop;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD) // 作用到方法上
+@Retention(RetentionPolicy.RUNTIME) // 运行时有效
+/**
+ * @功能描述 账户变更前先获取JVM内的分段锁，在数据库事务开启之前排队
+ */
+public @interface LedgerLock {
+
+    /**
+     * 作为锁key的参数下标，默认第一个参数(userNo)
+     */
+    int keyIndex() default 0;
+
+    /**
+     * 开启分桶的账户不加锁，加款分散到各分桶行，不需要在JVM内排队
+     */
+    boolean skipForBuckets() default false;
+}
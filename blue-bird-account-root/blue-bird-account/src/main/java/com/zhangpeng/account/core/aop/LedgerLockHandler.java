@@ -0,0 +1,46 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 账户分段锁切面
+ * 在幂等、内存记账、组提交切面之后，事务切面之外执行：排队期间不占用数据库连接，也不持有行锁
+ */
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+public class LedgerLockHandler {
+
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(ledgerLock)")
+    public Object around(ProceedingJoinPoint pjp, LedgerLock ledgerLock) throws Throwable {
+        if (!stripedAccountLock.isEnabled()) {
+            return pjp.proceed();
+        }
+        String key = String.valueOf(pjp.getArgs()[ledgerLock.keyIndex()]);
+        if (ledgerLock.skipForBuckets() && accountBucketManager.bucketCount(key) > 0) {
+            return pjp.proceed();
+        }
+        Lock lock = stripedAccountLock.lock(key);
+        try {
+            return pjp.proceed();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
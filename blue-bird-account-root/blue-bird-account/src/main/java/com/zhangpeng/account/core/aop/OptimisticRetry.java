@@ -0,0 +1,20 @@
+package com.zhangpeng.account.core.aop;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD) // 作用到方法上
+@Retention(RetentionPolicy.RUNTIME) // 运行时有效
+/**
+ * @功能描述 乐观锁模式下版本冲突时，在事务之外退避后重新执行整个方法，每次尝试是一个独立的短事务
+ */
+public @interface OptimisticRetry {
+
+    /**
+     * userNo参数下标，用于冲突统计
+     */
+    int userNoIndex() default 0;
+}
@@ -0,0 +1,78 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.enums.MutationModeEnum;
+import com.zhangpeng.account.core.ledger.OptimisticLockStats;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 乐观锁重试切面
+ * 在流水日志切面之内、事务切面之外执行：版本冲突时本次事务已回滚并归还连接，退避等待期间不占用数据库连接，
+ * 重试时重新开启事务、重新读取账户。调用方已在事务内时无法单独重试，冲突直接失败。
+ */
+@Component
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class OptimisticRetryHandler {
+
+    @Autowired
+    private OptimisticLockStats optimisticLockStats;
+
+    /** 余额变更模式，只有乐观锁模式重试 **/
+    @Value("${account.ledger.mutation-mode:LEGACY}")
+    private MutationModeEnum mutationMode;
+
+    /** 乐观锁模式最大尝试次数 **/
+    @Value("${account.ledger.optimistic.max-attempts:5}")
+    private int maxAttempts;
+
+    /** 乐观锁模式退避基数(毫秒)，第n次重试在[0, base*2^n)内随机等待 **/
+    @Value("${account.ledger.optimistic.backoff-millis:2}")
+    private long backoffMillis;
+
+    @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(optimisticRetry)")
+    public Object around(ProceedingJoinPoint pjp, OptimisticRetry optimisticRetry) throws Throwable {
+        if (MutationModeEnum.OPTIMISTIC != mutationMode) {
+            return pjp.proceed();
+        }
+        boolean retryable = !TransactionSynchronizationManager.isActualTransactionActive();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return pjp.proceed();
+            } catch (OptimisticLockingFailureException e) {
+                if (!retryable || attempt + 1 >= maxAttempts) {
+                    optimisticLockStats.recordExhausted(String.valueOf(pjp.getArgs()[optimisticRetry.userNoIndex()]));
+                    throw AccountBizException.ACCOUNT_CONCURRENT_CONFLICT;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * 指数退避加随机抖动，避免冲突的请求同时重试
+     */
+    private void backoff(int attempt) {
+        long bound = backoffMillis << Math.min(attempt, 10);
+        if (bound <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AccountBizException.ACCOUNT_CONCURRENT_CONFLICT;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.zhangpeng.account.core.aop;
+
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.core.cache.PageCounter;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分页总数缓存失效切面
+ * 写入账户历史后，事务提交时递增涉及账户/用户的缓存版本号；新开户使账户列表的全表缓存失效
+ * 只在开启了CACHED统计时生效，见PageCounter
+ */
+@Component
+@Aspect
+public class PageCountInvalidateHandler {
+
+    @Autowired
+    private PageCounter pageCounter;
+
+    @AfterReturning("execution(* com.zhangpeng.account.core.mapper.AccountHistoryMapper.insert(..)) && args(accountHistory)")
+    public void afterInsertHistory(AccountHistory accountHistory) {
+        if (pageCounter.isCacheEnabled()) {
+            pageCounter.invalidateAfterCommit(PageCounter.TABLE_HISTORY, accountHistory.getAccountNo(), accountHistory.getUserNo());
+        }
+    }
+
+    @AfterReturning("execution(* com.zhangpeng.account.core.mapper.AccountHistoryMapper.insertBatch(..)) && args(list)")
+    public void afterInsertHistoryBatch(List<AccountHistory> list) {
+        if (!pageCounter.isCacheEnabled()) {
+            return;
+        }
+        // 同一批次里同一账户只递增一次
+        Set<String> accounts = new LinkedHashSet<>();
+        for (AccountHistory accountHistory : list) {
+            if (accounts.add(accountHistory.getAccountNo() + ":" + accountHistory.getUserNo())) {
+                pageCounter.invalidateAfterCommit(PageCounter.TABLE_HISTORY, accountHistory.getAccountNo(), accountHistory.getUserNo());
+            }
+        }
+    }
+
+    @AfterReturning("execution(* com.zhangpeng.account.core.mapper.AccountMapper.insert(..))")
+    public void afterInsertAccount() {
+        if (pageCounter.isCacheEnabled()) {
+            pageCounter.invalidateAll(PageCounter.TABLE_ACCOUNT);
+        }
+    }
+}
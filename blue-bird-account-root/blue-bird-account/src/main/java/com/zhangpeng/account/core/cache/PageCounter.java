@@ -0,0 +1,236 @@
+package com.zhangpeng.account.core.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.zhangpeng.account.api.enums.CountModeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 分页总记录数统计
+ *
+ * EXACT每次count；CACHED按查询条件指纹把count结果缓存在Redis，短时过期；ESTIMATED取表统计信息，只用于不带条件的列表。
+ * 缓存key带所属范围(账户编号/用户编号/全表)的版本号，记账写入账户历史后递增该账户的版本号，旧缓存自然不再命中，
+ * 不需要按前缀删除；全表范围只靠过期。Redis不可用时退回精确统计。
+ *
+ * CACHED需要cache-enabled开启，未开启时按EXACT统计，记账也不做失效。开启后，事务提交时只把涉及的范围记入待失效集合，
+ * 由定时任务合并后递增版本号：同一账户一个周期内多次记账只递增一次，记账线程不访问Redis；缓存最多滞后一个周期。
+ */
+@Slf4j
+@Component
+public class PageCounter {
+
+    /** 缓存范围中的表名 **/
+    public static final String TABLE_ACCOUNT = "account";
+    public static final String TABLE_HISTORY = "history";
+
+    private static final String KEY_PREFIX = "account:page-count:";
+    /** 不参与指纹的分页参数 **/
+    private static final Collection<String> PAGING_KEYS = Arrays.asList("pageFirst", "pageSize", "limit");
+
+    @Value("${account.page.count.default-mode:EXACT}")
+    private CountModeEnum defaultMode;
+
+    /** 是否允许CACHED统计 **/
+    @Value("${account.page.count.cache-enabled:false}")
+    private boolean cacheEnabled;
+
+    /** 缓存的count结果过期时间(秒) **/
+    @Value("${account.page.count.cache-ttl-seconds:30}")
+    private int cacheTtlSeconds;
+
+    private final LongAdder exact = new LongAdder();
+    private final LongAdder cacheHit = new LongAdder();
+    private final LongAdder estimated = new LongAdder();
+
+    /** 已提交、待递增版本号的范围 **/
+    private final Set<String> dirtyScopes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 按统计方式取总记录数
+     *
+     * @param mode
+     *            调用方指定的统计方式，为空按默认
+     * @param table
+     *            表名，用作缓存key的一部分
+     * @param params
+     *            查询条件
+     * @param exactCount
+     *            精确count
+     * @param estimateCount
+     *            按表统计信息估算，不支持时传null
+     */
+    public long count(CountModeEnum mode, String table, Map<String, Object> params, Supplier<Long> exactCount,
+                      Supplier<Long> estimateCount) {
+        mode = mode != null ? mode : defaultMode;
+        if (CountModeEnum.ESTIMATED == mode && estimateCount != null && isUnfiltered(params)) {
+            Long estimate = null;
+            try {
+                estimate = estimateCount.get();
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+            if (estimate != null) {
+                estimated.increment();
+                return estimate;
+            }
+        }
+        if (CountModeEnum.EXACT == mode || !cacheEnabled) {
+            return countExact(exactCount);
+        }
+
+        String scope = scopeOf(table, params);
+        String generation = RedisClientUtils.get(generationKey(scope));
+        String key = KEY_PREFIX + scope + ":" + (generation == null ? "0" : generation) + ":" + fingerprint(params);
+        String cached = RedisClientUtils.get(key);
+        if (cached != null) {
+            try {
+                cacheHit.increment();
+                return Long.parseLong(cached);
+            } catch (NumberFormatException e) {
+                log.error("分页总数缓存格式错误，key={}, value={}", key, cached);
+            }
+        }
+        long count = countExact(exactCount);
+        // 统计期间若有记账，版本号已递增，本次写入的旧版本key不会再被读到
+        RedisClientUtils.set(key, String.valueOf(count), cacheTtlSeconds);
+        return count;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * 账户历史变化后使该账户/用户的缓存失效，在当前事务提交后记入待失效集合
+     */
+    public void invalidateAfterCommit(String table, String accountNo, String userNo) {
+        if (!cacheEnabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            markDirty(table, accountNo, userNo);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                markDirty(table, accountNo, userNo);
+            }
+        });
+    }
+
+    /**
+     * 全表范围的缓存失效，如新开户
+     */
+    public void invalidateAll(String table) {
+        if (cacheEnabled) {
+            dirtyScopes.add(table + ":all");
+        }
+    }
+
+    private void markDirty(String table, String accountNo, String userNo) {
+        if (accountNo != null) {
+            dirtyScopes.add(table + ":account:" + accountNo);
+        }
+        if (userNo != null) {
+            dirtyScopes.add(table + ":user:" + userNo);
+        }
+    }
+
+    /**
+     * 递增待失效范围的版本号；Redis不可用时放回，下个周期重试
+     */
+    @Scheduled(fixedDelayString = "${account.page.count.invalidate-interval-millis:200}")
+    public void flushInvalidations() {
+        if (dirtyScopes.isEmpty()) {
+            return;
+        }
+        Iterator<String> iterator = dirtyScopes.iterator();
+        while (iterator.hasNext()) {
+            String scope = iterator.next();
+            iterator.remove();
+            if (RedisClientUtils.incr(generationKey(scope)) == null) {
+                dirtyScopes.add(scope);
+                log.error("分页总数缓存失效失败，scope={}, pending={}", scope, dirtyScopes.size());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 周期性输出各统计方式的次数并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        long exactCount = exact.sumThenReset();
+        long hitCount = cacheHit.sumThenReset();
+        long estimatedCount = estimated.sumThenReset();
+        if (exactCount + hitCount + estimatedCount == 0) {
+            return;
+        }
+        log.info("分页总数统计 exact={}, cacheHit={}, estimated={}", exactCount, hitCount, estimatedCount);
+    }
+
+    private long countExact(Supplier<Long> exactCount) {
+        exact.increment();
+        Long count = exactCount.get();
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * 缓存范围：带账户编号按账户，带用户编号按用户，否则全表
+     */
+    private String scopeOf(String table, Map<String, Object> params) {
+        Object accountNo = params.get("accountNo");
+        if (accountNo != null && !"".equals(accountNo)) {
+            return table + ":account:" + accountNo;
+        }
+        Object userNo = params.get("userNo");
+        if (userNo != null && !"".equals(userNo)) {
+            return table + ":user:" + userNo;
+        }
+        return table + ":all";
+    }
+
+    private String generationKey(String scope) {
+        return KEY_PREFIX + "gen:" + scope;
+    }
+
+    private boolean isUnfiltered(Map<String, Object> params) {
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (!PAGING_KEYS.contains(entry.getKey()) && entry.getValue() != null && !"".equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查询条件指纹：按参数名排序后哈希，忽略空值和分页参数
+     */
+    private String fingerprint(Map<String, Object> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : new TreeMap<>(params).entrySet()) {
+            if (PAGING_KEYS.contains(entry.getKey()) || entry.getValue() == null || "".equals(entry.getValue())) {
+                continue;
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+        return Hashing.murmur3_128().hashString(sb, Charsets.UTF_8).toString();
+    }
+}
@@ -4,8 +4,8 @@ import com.alibaba.dubbo.config.annotation.Reference;
 import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Maps;
 import com.zhangpeng.account.api.AccountRES;
-import com.zhangpeng.account.api.PageBean;
-import com.zhangpeng.account.api.PageParam;
+import com.zhangpeng.account.api.CursorPage;
+import com.zhangpeng.account.api.CursorParam;
 import com.zhangpeng.account.api.domain.Account;
 import com.zhangpeng.account.api.domain.AccountHistory;
 import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
@@ -17,7 +17,11 @@ import com.zhangpeng.account.api.service.AccountHistoryService;
 import com.zhangpeng.account.api.service.AccountQueryService;
 import com.zhangpeng.account.api.service.AccountService;
 import com.zhangpeng.account.api.service.AccountTransactionService;
+import com.zhangpeng.account.api.utils.DateFormats;
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.enums.ExportFormatEnum;
 import com.zhangpeng.account.core.enums.ResultEnum;
+import com.zhangpeng.account.core.export.AccountHistoryExporter;
 import com.zhangpeng.account.core.utils.CommonUtils;
 import com.zhangpeng.sso.api.domain.User;
 import com.zhangpeng.sso.api.service.UserService;
@@ -28,10 +32,15 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
 import java.util.Map;
 
 @Slf4j
@@ -52,6 +61,9 @@ public class AccountController extends BaseController {
     @Autowired
     private AccountHistoryService accountHistoryService;
 
+    @Autowired
+    private AccountHistoryExporter accountHistoryExporter;
+
     @Reference(interfaceClass = UserService.class, retries = 0, check = false, timeout = 60000)
     private UserService userService;
 
@@ -119,7 +131,7 @@ public class AccountController extends BaseController {
 
     @RequestMapping(value = "/withdraw-record", method = RequestMethod.POST)
     @ResponseBody
-    public AccountRES<PageBean<AccountHistory>> withdrawRecord(@RequestBody PageParam pageParam) {
+    public AccountRES<CursorPage<AccountHistory>> withdrawRecord(@RequestBody CursorParam cursorParam) {
         User user = getLoginUser();
         String userNo = user.getUserName();
         Account account;
@@ -133,9 +145,74 @@ public class AccountController extends BaseController {
         Map<String, Object> params = Maps.newHashMap();
         params.put("accountNo", accountNo);
         params.put("trxType", TrxTypeEnum.WITHDRAW.name());
-        PageBean<AccountHistory> pageBean = accountQueryService.pageAccountHistory(pageParam, params);
+        // 游标分页：按上一页返回的nextCursor继续取，不统计总数
+        CursorPage<AccountHistory> page;
+        try {
+            page = accountQueryService.cursorAccountHistory(cursorParam, params);
+        } catch (AccountBizException e) {
+            log.error("提现记录查询失败，{}，cursor={}", e.getMsg(), cursorParam.getCursor());
+            return AccountRES.of(ResultEnum.请求参数错误.code, ResultEnum.请求参数错误.name());
+        }
         return AccountRES.of(ResultEnum.处理成功.code
-                ,pageBean,  ResultEnum.处理成功.name());
+                ,page,  ResultEnum.处理成功.name());
+    }
+
+
+    /**
+     * 导出当前用户的账户历史，按日期区间(含首尾两天)流式写入响应
+     *
+     * @param format
+     *            csv或ndjson
+     * @param startDate
+     *            开始日期 yyyy-MM-dd
+     * @param endDate
+     *            结束日期 yyyy-MM-dd
+     * @return 导出成功时返回null，内容已直接写入响应
+     */
+    @RequestMapping(value = "/history-export", method = RequestMethod.GET)
+    @ResponseBody
+    public AccountRES<Void> exportHistory(@RequestParam(defaultValue = "csv") String format,
+                                          @RequestParam String startDate, @RequestParam String endDate) {
+        ExportFormatEnum exportFormat = ExportFormatEnum.getEnum(format);
+        Date startTime;
+        Date endTime;
+        try {
+            startTime = DateFormats.parse(startDate, DateFormats.DATE);
+            endTime = DateUtils.addDay(DateFormats.parse(endDate, DateFormats.DATE), 1);
+        } catch (DateTimeParseException e) {
+            return AccountRES.of(ResultEnum.请求参数错误.code, ResultEnum.请求参数错误.name());
+        }
+        if (null == exportFormat || !startTime.before(endTime)) {
+            return AccountRES.of(ResultEnum.请求参数错误.code, ResultEnum.请求参数错误.name());
+        }
+
+        User user = getLoginUser();
+        Account account;
+        try {
+            account = accountQueryService.getAccountByUserNo(user.getUserName());
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return AccountRES.of(ResultEnum.您尚未绑定账户.code, ResultEnum.您尚未绑定账户.name());
+        }
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("accountNo", account.getAccountNo());
+        params.put("startTime", startTime);
+        params.put("endTime", endTime);
+
+        HttpServletResponse response = getResponse();
+        response.setContentType(exportFormat.contentType + ";charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + account.getAccountNo() + "_" + startDate + "_"
+                + endDate + exportFormat.suffix + "\"");
+        try {
+            accountHistoryExporter.export(params, exportFormat, response.getOutputStream());
+        } catch (AccountBizException e) {
+            response.reset();
+            return AccountRES.of(e.getCode(), e.getMsg());
+        } catch (IOException e) {
+            // 响应已开始写出，只能中断连接
+            log.error("账户历史导出中断，accountNo={}, {}", account.getAccountNo(), e.getMessage());
+        }
+        return null;
     }
 
 
@@ -0,0 +1,444 @@
+package com.zhangpeng.account.core.engine;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.ledger.LedgerHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 内存记账分片
+ *
+ * 本分片的账户只由分片线程读写，余额校验和计算不加锁；计算结果交给本分片的写回线程按批写库，
+ * 写库提交后才回调调用方。写回按版本号校验数据库行未被引擎之外修改，版本号不一致时在数据库当前行上
+ * 重新计算该账户未写回的指令，内存账户作废后从数据库重新加载；重试若干次仍失败的变更记入死信日志，调用方收到写库失败。
+ */
+@Slf4j
+public class EngineShard {
+
+    /** 单次从环形队列取出的最大指令数 **/
+    private static final int DRAIN_MAX = 256;
+    /** 环形队列为空时的休眠时间 **/
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    /** 写回失败重试的最大间隔 **/
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+
+    private final int index;
+    private final LedgerEngine engine;
+    private final LedgerRingBuffer<Event> ring;
+    private final BlockingQueue<PersistTask> persistQueue;
+    private final int persistBatch;
+    private final int persistRetries;
+
+    /** userNo -> 内存账户，只由分片线程访问 **/
+    private final Map<String, AccountSlot> accounts = new HashMap<>();
+    /** 已计算、未写库的请求，userNo|requestNo -> 指令，重复请求等待首次请求的结果 **/
+    private final Map<String, Event> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder processed = new LongAdder();
+    private final LedgerHistogram latencyMicros;
+    private final LedgerHistogram persistLagMillis;
+    private final LongAdder persistFailed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder rebased = new LongAdder();
+
+    private volatile boolean running;
+    private Thread applier;
+    private Thread persister;
+
+    EngineShard(int index, LedgerEngine engine, int ringSize, int persistQueueCapacity, int persistBatch, int persistRetries) {
+        this.index = index;
+        this.engine = engine;
+        this.ring = new LedgerRingBuffer<>(ringSize);
+        this.persistQueue = new LinkedBlockingQueue<>(persistQueueCapacity);
+        this.persistBatch = persistBatch;
+        this.persistRetries = persistRetries;
+        this.latencyMicros = new LedgerHistogram("shard" + index + ".latency", "us");
+        this.persistLagMillis = new LedgerHistogram("shard" + index + ".persistLag", "ms");
+    }
+
+    void start() {
+        running = true;
+        applier = new Thread(this::applyLoop, "ledger-engine-shard-" + index);
+        applier.setDaemon(true);
+        applier.start();
+        persister = new Thread(this::persistLoop, "ledger-engine-persist-" + index);
+        persister.setDaemon(true);
+        persister.start();
+    }
+
+    /**
+     * 停止计算线程，写回线程写完剩余变更后退出
+     */
+    void stop(long waitMillis) throws InterruptedException {
+        running = false;
+        applier.join(waitMillis);
+        persister.join(waitMillis);
+    }
+
+    /**
+     * 指令入队
+     *
+     * @return 队列满且等待超时返回false
+     */
+    boolean offer(Event event, long timeoutMillis) {
+        return running && ring.offer(event, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void applyLoop() {
+        while (running || ring.size() > 0) {
+            int count = ring.drain(this::handle, DRAIN_MAX);
+            if (count == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void handle(Event event) {
+        LedgerCommand command = event.command;
+        boolean queued = false;
+        try {
+            AccountSlot slot = accounts.get(command.getUserNo());
+            if (slot == null || slot.fenced) {
+                // 作废的账户其剩余写回任务都会被丢弃，数据库即为最终状态，重新加载
+                Account loaded = engine.load(command.getUserNo());
+                if (loaded == null) {
+                    accounts.remove(command.getUserNo());
+                    event.future.completeExceptionally(AccountBizException.ACCOUNT_NOT_EXIT);
+                    return;
+                }
+                slot = new AccountSlot(loaded);
+                accounts.put(command.getUserNo(), slot);
+            }
+            String key = command.getType().recordsHistory() ? command.getUserNo() + "|" + command.getRequestNo() : null;
+            if (key != null) {
+                // 同一账户只在本线程处理，先查后登记不会有并发重复
+                Event first = inflight.get(key);
+                if (first != null) {
+                    event.replayed = true;
+                    first.future.whenComplete((account, e) -> {
+                        if (e == null) {
+                            event.future.complete(account);
+                        } else {
+                            event.future.completeExceptionally(e);
+                        }
+                    });
+                    return;
+                }
+                Account prior = engine.lookupIdempotent(command);
+                if (prior != null) {
+                    event.replayed = true;
+                    event.future.complete(prior);
+                    return;
+                }
+            }
+            // 在副本上计算，写回任务入队后才替换内存账户；已入队的账户对象此后不再修改
+            Account working = copyOf(slot.account);
+            Integer expectedVersion = slot.account.getVersion();
+            AccountHistory history = LedgerCalculator.apply(working, command);
+            working.setVersion(expectedVersion == null ? 1 : expectedVersion + 1);
+            if (key != null) {
+                inflight.put(key, event);
+            }
+            PersistTask task = new PersistTask(event, key, slot, working, expectedVersion, history);
+            try {
+                persistQueue.put(task);
+            } catch (InterruptedException e) {
+                if (key != null) {
+                    inflight.remove(key);
+                }
+                throw e;
+            }
+            queued = true;
+            slot.account = working;
+        } catch (AccountBizException e) {
+            event.future.completeExceptionally(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            event.future.completeExceptionally(AccountBizException.ACCOUNT_GROUP_COMMIT_TIMEOUT);
+        } catch (RuntimeException e) {
+            log.error("内存记账异常，shard={}, userNo={}", index, command.getUserNo(), e);
+            event.future.completeExceptionally(AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED);
+        } finally {
+            processed.increment();
+            if (!queued) {
+                latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - event.enqueuedAt));
+            }
+        }
+    }
+
+    /**
+     * 批量写回：同一账户只写最后一次的快照，账户历史多行insert；整批失败按退避重试persistRetries次，
+     * 仍失败则逐个账户单独写回。已作废账户的任务在数据库当前行上重新计算
+     */
+    private void persistLoop() {
+        List<PersistTask> batch = new ArrayList<>(persistBatch);
+        while (running || !persistQueue.isEmpty() || applier.isAlive()) {
+            try {
+                PersistTask first = persistQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                persistQueue.drainTo(batch, persistBatch - 1);
+                // 有作废任务的账户整组重新计算，保持同一账户的指令顺序
+                Set<String> fenced = new HashSet<>();
+                for (PersistTask task : batch) {
+                    if (task.slot.fenced) {
+                        fenced.add(task.account.getUserNo());
+                    }
+                }
+                List<PersistTask> live = new ArrayList<>(batch.size());
+                Map<String, List<PersistTask>> rebased = new LinkedHashMap<>();
+                for (PersistTask task : batch) {
+                    if (fenced.contains(task.account.getUserNo())) {
+                        task.slot.fenced = true;
+                        rebased.computeIfAbsent(task.account.getUserNo(), k -> new ArrayList<>()).add(task);
+                    } else {
+                        live.add(task);
+                    }
+                }
+                if (!live.isEmpty() && !persistWithRetry(live)) {
+                    persistEachAccount(live);
+                }
+                for (List<PersistTask> group : rebased.values()) {
+                    rebase(group);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("内存记账写回线程被中断，shard={}, 未写回={}", index, batch.size() + persistQueue.size());
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * @return 写库成功返回true；版本号冲突不再重试
+     */
+    private boolean persistWithRetry(List<PersistTask> tasks) throws InterruptedException {
+        long backoff = 100;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                persist(tasks);
+                return true;
+            } catch (OptimisticLockingFailureException | DuplicateKeyException e) {
+                // 版本冲突、请求号重复重试也不会成功
+                persistFailed.increment();
+                log.warn("内存记账写回冲突，逐个账户写回，shard={}, tasks={}", index, tasks.size());
+                return false;
+            } catch (RuntimeException e) {
+                persistFailed.increment();
+                if (attempt >= persistRetries) {
+                    log.error("内存记账写回重试{}次仍失败，逐个账户写回，shard={}, tasks={}", attempt, index, tasks.size(), e);
+                    return false;
+                }
+                log.error("内存记账写回失败，稍后重试，shard={}, tasks={}", index, tasks.size(), e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * 按账户拆开各写一次：版本号冲突的账户作废并重新计算，其他失败的账户作废并记入死信，其余账户正常提交
+     */
+    private void persistEachAccount(List<PersistTask> tasks) {
+        Map<String, List<PersistTask>> byUser = new LinkedHashMap<>();
+        for (PersistTask task : tasks) {
+            byUser.computeIfAbsent(task.account.getUserNo(), k -> new ArrayList<>()).add(task);
+        }
+        for (List<PersistTask> group : byUser.values()) {
+            try {
+                persist(group);
+            } catch (OptimisticLockingFailureException e) {
+                group.get(0).slot.fenced = true;
+                rebase(group);
+            } catch (RuntimeException e) {
+                persistFailed.increment();
+                group.get(0).slot.fenced = true;
+                log.error("内存记账账户写回失败，账户作废后重新加载，shard={}, userNo={}", index, group.get(0).account.getUserNo(), e);
+                for (PersistTask task : group) {
+                    deadLetter(task, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个事务写回这批任务，提交后登记幂等、追加流水日志并回调调用方
+     */
+    private void persist(List<PersistTask> tasks) {
+        Map<String, Account> latest = new LinkedHashMap<>();
+        Map<String, Integer> expectedVersions = new HashMap<>();
+        List<AccountHistory> histories = new ArrayList<>();
+        for (PersistTask task : tasks) {
+            latest.put(task.account.getUserNo(), task.account);
+            expectedVersions.putIfAbsent(task.account.getUserNo(), task.expectedVersion);
+            if (task.history != null) {
+                histories.add(task.history);
+            }
+        }
+        engine.persist(latest.values(), expectedVersions, histories);
+        long now = System.currentTimeMillis();
+        for (PersistTask task : tasks) {
+            LedgerCommand command = task.event.command;
+            engine.recordIdempotent(command, task.account);
+            if (task.key != null) {
+                inflight.remove(task.key);
+            }
+            engine.journal(task.account, command);
+            persistLagMillis.record(now - task.createdAt);
+            latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - task.event.enqueuedAt));
+            task.event.future.complete(task.account);
+        }
+    }
+
+    /**
+     * 数据库行被引擎之外修改(如跨天清0、结算)：在数据库当前行上按顺序重新计算这组指令并写回，
+     * 校验不再通过的指令返回对应的业务异常；重新计算也失败时记入死信
+     */
+    private void rebase(List<PersistTask> group) {
+        String userNo = group.get(0).account.getUserNo();
+        List<LedgerCommand> commands = new ArrayList<>(group.size());
+        for (PersistTask task : group) {
+            commands.add(task.event.command);
+        }
+        Account[] after = new Account[group.size()];
+        AccountBizException[] rejected = new AccountBizException[group.size()];
+        try {
+            engine.rebase(userNo, commands, after, rejected);
+        } catch (RuntimeException e) {
+            persistFailed.increment();
+            log.error("内存记账重新计算写回失败，shard={}, userNo={}", index, userNo, e);
+            for (PersistTask task : group) {
+                deadLetter(task, e.getMessage());
+            }
+            return;
+        }
+        rebased.add(group.size());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < group.size(); i++) {
+            PersistTask task = group.get(i);
+            if (after[i] != null) {
+                engine.recordIdempotent(task.event.command, after[i]);
+            }
+            if (task.key != null) {
+                inflight.remove(task.key);
+            }
+            persistLagMillis.record(now - task.createdAt);
+            latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - task.event.enqueuedAt));
+            if (after[i] == null) {
+                task.event.future.completeExceptionally(rejected[i]);
+                continue;
+            }
+            engine.journal(after[i], task.event.command);
+            task.event.future.complete(after[i]);
+        }
+    }
+
+    /**
+     * 死信：写不进数据库的变更记一条错误日志，调用方收到写库失败，可按原请求号重试
+     */
+    private void deadLetter(PersistTask task, String reason) {
+        deadLettered.increment();
+        LedgerCommand command = task.event.command;
+        log.error("内存记账死信，shard={}, userNo={}, type={}, amount={}, requestNo={}, trxType={}, reason={}", index,
+                command.getUserNo(), command.getType(), command.getAmount(), command.getRequestNo(), command.getTrxType(), reason);
+        if (task.key != null) {
+            inflight.remove(task.key);
+        }
+        task.event.future.completeExceptionally(AccountBizException.ACCOUNT_ENGINE_PERSIST_FAILED);
+    }
+
+    private Account copyOf(Account account) {
+        Account snapshot = new Account();
+        BeanUtils.copyProperties(account, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 输出本分片吞吐、延迟分布和写回积压并清零
+     */
+    void report(long intervalMillis) {
+        long count = processed.sumThenReset();
+        if (count == 0 && persistQueue.isEmpty()) {
+            return;
+        }
+        log.info("内存记账分片 shard={}, processed={}, tps={}, {}, {}, ringSize={}, persistPending={}, persistFailed={}, rebased={}, deadLettered={}, accounts={}",
+                index, count, intervalMillis > 0 ? count * 1000 / intervalMillis : count, latencyMicros, persistLagMillis,
+                ring.size(), persistQueue.size(), persistFailed.sumThenReset(), rebased.sumThenReset(), deadLettered.sumThenReset(), accounts.size());
+        latencyMicros.reset();
+        persistLagMillis.reset();
+    }
+
+    /**
+     * 环形队列中的一条指令
+     */
+    static class Event {
+        final LedgerCommand command;
+        final CompletableFuture<Account> future = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+        /** 重复请求，返回的是之前的结果；在future完成前写入 **/
+        volatile boolean replayed;
+
+        Event(LedgerCommand command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * 内存账户；写回线程遇到版本冲突或写库失败时置为作废，分片线程下次访问时重新加载，
+     * 作废前入队的写回任务在数据库当前行上重新计算
+     */
+    private static class AccountSlot {
+        private Account account;
+        private volatile boolean fenced;
+
+        private AccountSlot(Account account) {
+            this.account = account;
+        }
+    }
+
+    private static class PersistTask {
+        private final Event event;
+        private final String key;
+        private final AccountSlot slot;
+        private final Account account;
+        /** 写回前数据库中应有的版本号 **/
+        private final Integer expectedVersion;
+        private final AccountHistory history;
+        private final long createdAt = System.currentTimeMillis();
+
+        private PersistTask(Event event, String key, AccountSlot slot, Account account, Integer expectedVersion,
+                AccountHistory history) {
+            this.event = event;
+            this.key = key;
+            this.slot = slot;
+            this.account = account;
+            this.expectedVersion = expectedVersion;
+            this.history = history;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.zhangpeng.account.core.engine;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.LedgerResult;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.api.ex.BizException;
+import com.zhangpeng.account.core.enums.MutationModeEnum;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.IdempotencyRegistry;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 内存记账引擎
+ *
+ * account.ledger.mutation-mode=ENGINE时开启。账户按userNo哈希分到N个分片，每个分片一个环形队列和一个计算线程，
+ * 余额、冻结金额等校验在分片线程内无锁完成；各分片的写回线程按批写库，提交后才返回调用方。
+ *
+ * 约束：
+ * 1. 开启后记账应经过引擎；写回按版本号校验，数据库行被引擎之外修改时在数据库当前行上重新计算未写回的指令，内存账户重新加载；
+ * 2. 账户首次被访问时从数据库加载(有分桶的先归集)，之后以内存为准；
+ * 3. 调用方收到成功时变更已提交；进程异常退出时未写回的变更没有返回成功，调用方按超时处理，按原请求号重试即可；
+ * 4. 写回重试persist-retries次仍失败的变更记入死信日志，调用方收到写库失败，不会无限重试阻塞后续写回。
+ */
+@Slf4j
+@Component
+public class LedgerEngine {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+    @Autowired
+    private IdempotencyRegistry idempotencyRegistry;
+    @Autowired
+    private LedgerJournal ledgerJournal;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${account.ledger.mutation-mode:LEGACY}")
+    private MutationModeEnum mutationMode;
+
+    /** 分片数 **/
+    @Value("${account.ledger.engine.shards:4}")
+    private int shards;
+
+    /** 每个分片的环形队列容量，向上取整为2的幂 **/
+    @Value("${account.ledger.engine.ring-size:65536}")
+    private int ringSize;
+
+    /** 环形队列满时调用方最多等待多久(毫秒)，超时返回账户繁忙 **/
+    @Value("${account.ledger.engine.offer-timeout-millis:1000}")
+    private long offerTimeoutMillis;
+
+    /** 调用方等待计算结果的最长时间(毫秒) **/
+    @Value("${account.ledger.engine.await-millis:30000}")
+    private long awaitMillis;
+
+    /** 每个分片待写回队列容量，写满时分片线程等待，压力传导到环形队列 **/
+    @Value("${account.ledger.engine.persist-queue-capacity:100000}")
+    private int persistQueueCapacity;
+
+    /** 单次写回的最大变更数 **/
+    @Value("${account.ledger.engine.persist-batch:500}")
+    private int persistBatch;
+
+    /** 整批写回失败后的重试次数，仍失败则逐个账户写回，写不进去的记入死信 **/
+    @Value("${account.ledger.engine.persist-retries:3}")
+    private int persistRetries;
+
+    @Value("${account.ledger.stats-report-interval:60000}")
+    private long reportIntervalMillis;
+
+    private TransactionTemplate transactionTemplate;
+    private EngineShard[] shardArray;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        if (MutationModeEnum.ENGINE != mutationMode) {
+            return;
+        }
+        shardArray = new EngineShard[Math.max(shards, 1)];
+        for (int i = 0; i < shardArray.length; i++) {
+            shardArray[i] = new EngineShard(i, this, ringSize, persistQueueCapacity, persistBatch, persistRetries);
+            shardArray[i].start();
+        }
+        running = true;
+        log.info("内存记账已开启，shards={}, ringSize={}, persistBatch={}, persistRetries={}", shardArray.length, ringSize, persistBatch,
+                persistRetries);
+    }
+
+    /**
+     * 是否为内存记账模式；停机过程中仍返回true，新指令直接拒绝，不会退回数据库记账
+     */
+    public boolean isEnabled() {
+        return shardArray != null;
+    }
+
+    /**
+     * 执行单条指令并等待结果，业务异常原样抛出
+     *
+     * @return 记账后的账户
+     */
+    public Account execute(LedgerCommand command) {
+        AccountBizException illegal = LedgerCalculator.validate(command);
+        if (illegal != null) {
+            throw illegal;
+        }
+        return await(submit(command));
+    }
+
+    /**
+     * 批量执行：全部入队后再逐条等待，各分片并行计算
+     *
+     * @return 与commands下标一一对应的执行结果
+     */
+    public List<LedgerResult> execute(List<LedgerCommand> commands) {
+        List<LedgerResult> results = new ArrayList<>();
+        if (commands == null || commands.isEmpty()) {
+            return results;
+        }
+        EngineShard.Event[] events = new EngineShard.Event[commands.size()];
+        for (int i = 0; i < commands.size(); i++) {
+            LedgerCommand command = commands.get(i);
+            AccountBizException illegal = LedgerCalculator.validate(command);
+            if (illegal != null) {
+                results.add(LedgerResult.fail(command, illegal.getCode(), illegal.getMsg()));
+                continue;
+            }
+            try {
+                events[i] = submit(command);
+                results.add(null);
+            } catch (AccountBizException e) {
+                results.add(LedgerResult.fail(command, e.getCode(), e.getMsg()));
+            }
+        }
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] == null) {
+                continue;
+            }
+            LedgerCommand command = commands.get(i);
+            try {
+                Account account = await(events[i]);
+                results.set(i, events[i].replayed ? LedgerResult.replay(command, account.getBalance(), account.getUnbalance())
+                        : LedgerResult.ok(command, account.getBalance(), account.getUnbalance()));
+            } catch (BizException e) {
+                results.set(i, LedgerResult.fail(command, e.getCode(), e.getMsg()));
+            }
+        }
+        return results;
+    }
+
+    private EngineShard.Event submit(LedgerCommand command) {
+        EngineShard.Event event = new EngineShard.Event(command);
+        int h = command.getUserNo().hashCode();
+        EngineShard shard = shardArray[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shardArray.length];
+        if (!shard.offer(event, offerTimeoutMillis)) {
+            throw AccountBizException.ACCOUNT_LOCK_TIMEOUT;
+        }
+        return event;
+    }
+
+    private Account await(EngineShard.Event event) {
+        try {
+            return event.future.get(awaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED;
+        } catch (TimeoutException e) {
+            throw AccountBizException.ACCOUNT_GROUP_COMMIT_TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AccountBizException.ACCOUNT_GROUP_COMMIT_TIMEOUT;
+        }
+    }
+
+    /**
+     * 从数据库加载账户，有分桶的先把分桶余额归集到主账户
+     */
+    Account load(String userNo) {
+        return transactionTemplate.execute(status -> {
+            if (accountBucketManager.bucketCount(userNo) > 0) {
+                accountBucketManager.sweep(userNo);
+            }
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("userNo", userNo);
+            params.put("isPessimist", true);
+            return accountMapper.getBy(params);
+        });
+    }
+
+    Account lookupIdempotent(LedgerCommand command) {
+        if (!command.getType().recordsHistory()) {
+            return null;
+        }
+        return idempotencyRegistry.lookup(command.getUserNo(), command.getRequestNo());
+    }
+
+    void recordIdempotent(LedgerCommand command, Account account) {
+        if (command.getType().recordsHistory()) {
+            idempotencyRegistry.record(command.getUserNo(), command.getRequestNo(), account);
+        }
+    }
+
+    void journal(Account account, LedgerCommand command) {
+        ledgerJournal.append(account, command.getType(), command.getAmount(), command.getTrxType(), command.getRequestNo());
+    }
+
+    /**
+     * 一个事务内写回各账户的最新快照并写入账户历史；数据库版本号与引擎上次写回的不一致时整个事务回滚
+     *
+     * @param expectedVersions
+     *            userNo -> 写回前数据库中应有的版本号
+     */
+    void persist(Collection<Account> accounts, Map<String, Integer> expectedVersions, List<AccountHistory> histories) {
+        transactionTemplate.execute(status -> {
+            for (Account account : accounts) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put("account", account);
+                params.put("expectedVersion", expectedVersions.get(account.getUserNo()));
+                if (accountMapper.updateFromEngine(params) != 1) {
+                    log.warn("内存记账写回版本冲突，账户被引擎之外修改，userNo={}, expectedVersion={}", account.getUserNo(),
+                            expectedVersions.get(account.getUserNo()));
+                    throw new OptimisticLockingFailureException("account version changed, userNo=" + account.getUserNo());
+                }
+            }
+            if (!histories.isEmpty()) {
+                accountHistoryMapper.insertBatch(histories);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 数据库行被引擎之外修改后，在加锁读出的当前行上按顺序重新计算这组指令，一个事务写回账户和账户历史
+     *
+     * @param after
+     *            与commands一一对应，重新计算后的账户，校验不通过的为null
+     * @param rejected
+     *            与commands一一对应，校验不通过的业务异常
+     */
+    void rebase(String userNo, List<LedgerCommand> commands, Account[] after, AccountBizException[] rejected) {
+        transactionTemplate.execute(status -> {
+            Account current = load(userNo);
+            if (current == null) {
+                throw AccountBizException.ACCOUNT_NOT_EXIT;
+            }
+            Integer expectedVersion = current.getVersion();
+            Integer version = expectedVersion == null ? 1 : expectedVersion + 1;
+            List<AccountHistory> histories = new ArrayList<>();
+            boolean changed = false;
+            for (int i = 0; i < commands.size(); i++) {
+                Account working = new Account();
+                BeanUtils.copyProperties(current, working);
+                try {
+                    AccountHistory history = LedgerCalculator.apply(working, commands.get(i));
+                    if (history != null) {
+                        histories.add(history);
+                    }
+                } catch (AccountBizException e) {
+                    rejected[i] = e;
+                    continue;
+                }
+                working.setVersion(version);
+                after[i] = working;
+                current = working;
+                changed = true;
+            }
+            if (!changed) {
+                return null;
+            }
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("account", current);
+            params.put("expectedVersion", expectedVersion);
+            if (accountMapper.updateFromEngine(params) != 1) {
+                throw new OptimisticLockingFailureException("account version changed, userNo=" + userNo);
+            }
+            if (!histories.isEmpty()) {
+                accountHistoryMapper.insertBatch(histories);
+            }
+            log.info("内存记账在数据库当前行上重新计算，userNo={}, commands={}, expectedVersion={}", userNo, commands.size(),
+                    expectedVersion);
+            return null;
+        });
+    }
+
+    /**
+     * 周期性输出各分片吞吐和延迟分布
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!running) {
+            return;
+        }
+        for (EngineShard shard : shardArray) {
+            shard.report(reportIntervalMillis);
+        }
+    }
+
+    /**
+     * 停止接收新指令，各分片算完队列中的指令并写回后退出
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (EngineShard shard : shardArray) {
+            try {
+                shard.stop(awaitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
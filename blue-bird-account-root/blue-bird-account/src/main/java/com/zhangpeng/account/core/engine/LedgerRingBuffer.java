@@ -0,0 +1,107 @@
+package com.zhangpeng.account.core.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者单消费者环形队列
+ *
+ * 生产者CAS申请序号，写入槽位后按序号发布；消费者按序号顺序读取已发布的槽位，
+ * 每批处理完再推进消费序号释放槽位。槽位预分配，不加锁，不产生队列节点。
+ */
+public class LedgerRingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    /** 每个槽位最近一次发布的序号，等于待读序号时表示可读 **/
+    private final AtomicLongArray published;
+    /** 已申请的最大序号 **/
+    private final AtomicLong claimed = new AtomicLong(-1);
+    /** 已消费的最大序号，只由消费线程写 **/
+    private volatile long consumed = -1;
+
+    /**
+     * @param capacity
+     *            容量，向上取整为2的幂
+     */
+    public LedgerRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * 放入一个元素，队列满时等待消费者腾出槽位
+     *
+     * @return 超时仍无空位返回false
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long sequence;
+        while (true) {
+            long current = claimed.get();
+            sequence = current + 1;
+            if (sequence - entries.length > consumed) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(1000);
+                continue;
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                break;
+            }
+        }
+        int index = (int) sequence & mask;
+        entries[index] = e;
+        published.lazySet(index, sequence);
+        return true;
+    }
+
+    /**
+     * 按序处理已发布的元素，只能由唯一的消费线程调用
+     *
+     * @return 本次处理的个数
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<E> handler, int max) {
+        long next = consumed + 1;
+        int count = 0;
+        try {
+            while (count < max) {
+                int index = (int) next & mask;
+                if (published.get(index) != next) {
+                    break;
+                }
+                E e = (E) entries[index];
+                entries[index] = null;
+                next++;
+                count++;
+                handler.accept(e);
+            }
+        } finally {
+            if (count > 0) {
+                consumed = next - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 已发布未消费的大致个数
+     */
+    public int size() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+}
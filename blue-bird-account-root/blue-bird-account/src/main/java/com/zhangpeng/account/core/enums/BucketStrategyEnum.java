@@ -0,0 +1,18 @@
+package com.zhangpeng.account.core.enums;
+
+/**
+ * 热点账户分桶选择策略
+ */
+public enum BucketStrategyEnum {
+
+    /**
+     * 轮询
+     */
+    ROUND_ROBIN,
+
+    /**
+     * 按请求号hash，同一请求号总是落到同一分桶
+     */
+    HASH,
+    ;
+}
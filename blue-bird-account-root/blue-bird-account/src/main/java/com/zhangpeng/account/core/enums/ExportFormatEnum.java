@@ -0,0 +1,36 @@
+package com.zhangpeng.account.core.enums;
+
+/**
+ * 账户历史导出格式
+ */
+public enum ExportFormatEnum {
+
+    /**
+     * 每行一个JSON对象
+     */
+    NDJSON("application/x-ndjson", ".ndjson"),
+
+    /**
+     * 逗号分隔，首行为列名，带UTF-8 BOM便于Excel识别中文
+     */
+    CSV("text/csv", ".csv"),
+    ;
+
+    public final String contentType;
+    public final String suffix;
+
+    ExportFormatEnum(String contentType, String suffix) {
+        this.contentType = contentType;
+        this.suffix = suffix;
+    }
+
+    public static ExportFormatEnum getEnum(String name) {
+        ExportFormatEnum[] arry = ExportFormatEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.zhangpeng.account.core.enums;
+
+/**
+ * 账户余额变更模式
+ */
+public enum MutationModeEnum {
+
+    /**
+     * 先读出整行，内存中计算后整行写回
+     */
+    LEGACY,
+
+    /**
+     * 条件增量更新(balance = balance + ?)，不先读后写
+     */
+    DELTA,
+
+    /**
+     * 不加锁读取，按版本号CAS更新，冲突时退避重试
+     */
+    OPTIMISTIC,
+
+    /**
+     * 余额常驻内存，按userNo分片由单线程计算，异步写回数据库
+     */
+    ENGINE,
+    ;
+
+    public static MutationModeEnum getEnum(String name) {
+        MutationModeEnum[] arry = MutationModeEnum.values();
+        for (int i = 0; i < arry.length; i++) {
+            if (arry[i].name().equalsIgnoreCase(name)) {
+                return arry[i];
+            }
+        }
+        return null;
+    }
+}
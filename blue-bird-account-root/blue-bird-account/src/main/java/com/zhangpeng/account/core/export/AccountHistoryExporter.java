@@ -0,0 +1,261 @@
+package com.zhangpeng.account.core.export;
+
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.api.utils.DateFormats;
+import com.zhangpeng.account.core.enums.ExportFormatEnum;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 账户历史流式导出
+ *
+ * MySQL逐行读取(fetchSize=Integer.MIN_VALUE)，每行格式化后直接写入输出流，不生成List，内存占用与行数无关。
+ * 导出期间一直占用一个数据库连接，同时进行的导出数受max-concurrent限制，超出时抛出ACCOUNT_EXPORT_BUSY。
+ */
+@Slf4j
+@Component
+public class AccountHistoryExporter {
+
+    private static final String[] COLUMNS = { "id", "createTime", "accountNo", "userNo", "trxType", "fundDirection",
+            "amount", "balance", "requestNo", "bankTrxNo", "isAllowSett", "isCompleteSett", "riskDay", "remark" };
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+
+    /** 同时进行的导出数 **/
+    @Value("${account.history.export.max-concurrent:2}")
+    private int maxConcurrent;
+
+    /** 输出缓冲区大小(字符) **/
+    @Value("${account.history.export.buffer-size:65536}")
+    private int bufferSize;
+
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * 导出到输出流，不关闭输出流
+     *
+     * @param params
+     *            查询条件：accountNo、userNo、trxType、fundDirection、startTime(含)、endTime(不含)
+     * @return 导出行数
+     */
+    public long export(Map<String, Object> params, ExportFormatEnum format, OutputStream out) throws IOException {
+        if (!permits.tryAcquire()) {
+            throw AccountBizException.ACCOUNT_EXPORT_BUSY;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), bufferSize);
+            RowWriter rowWriter = new RowWriter(writer, format);
+            rowWriter.header();
+            try {
+                accountHistoryMapper.streamHistory(params, context -> rowWriter.write(context.getResultObject()));
+            } catch (UncheckedIOException e) {
+                // 多为客户端断开，中止读取
+                throw e.getCause();
+            }
+            writer.flush();
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            log.info("账户历史导出完成，format={}, rows={}, cost={}ms, rowsPerSecond={}", format, rowWriter.rows, cost,
+                    rowWriter.rows * 1000 / cost);
+            return rowWriter.rows;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 导出到文件，已存在时覆盖
+     *
+     * @return 导出行数
+     */
+    public long export(Map<String, Object> params, ExportFormatEnum format, Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return export(params, format, out);
+        }
+    }
+
+    /**
+     * 单次导出的行格式化，复用同一个StringBuilder
+     */
+    private static final class RowWriter {
+        private final Writer writer;
+        private final ExportFormatEnum format;
+        private final StringBuilder sb = new StringBuilder(512);
+        private long rows;
+
+        private RowWriter(Writer writer, ExportFormatEnum format) {
+            this.writer = writer;
+            this.format = format;
+        }
+
+        private void header() throws IOException {
+            if (ExportFormatEnum.CSV != format) {
+                return;
+            }
+            writer.write('\uFEFF');
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        private void write(AccountHistory history) {
+            sb.setLength(0);
+            if (ExportFormatEnum.CSV == format) {
+                appendCsv(history);
+            } else {
+                appendJson(history);
+            }
+            try {
+                writer.append(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows++;
+        }
+
+        private void appendCsv(AccountHistory h) {
+            sb.append(h.getId()).append(',');
+            if (h.getCreateTime() != null) {
+                DateFormats.appendDateTime(sb, h.getCreateTime().getTime());
+            }
+            sb.append(',');
+            csvText(h.getAccountNo()).append(',');
+            csvText(h.getUserNo()).append(',');
+            csvText(h.getTrxType()).append(',');
+            csvText(h.getFundDirection()).append(',');
+            decimal(h.getAmount(), "", "").append(',');
+            decimal(h.getBalance(), "", "").append(',');
+            csvText(h.getRequestNo()).append(',');
+            csvText(h.getBankTrxNo()).append(',');
+            csvText(h.getIsAllowSett()).append(',');
+            csvText(h.getIsCompleteSett()).append(',');
+            if (h.getRiskDay() != null) {
+                sb.append(h.getRiskDay());
+            }
+            sb.append(',');
+            csvText(h.getRemark()).append("\r\n");
+        }
+
+        private void appendJson(AccountHistory h) {
+            sb.append("{\"id\":").append(h.getId());
+            sb.append(",\"createTime\":");
+            if (h.getCreateTime() == null) {
+                sb.append("null");
+            } else {
+                DateFormats.appendDateTime(sb.append('"'), h.getCreateTime().getTime()).append('"');
+            }
+            jsonText(",\"accountNo\":", h.getAccountNo());
+            jsonText(",\"userNo\":", h.getUserNo());
+            jsonText(",\"trxType\":", h.getTrxType());
+            jsonText(",\"fundDirection\":", h.getFundDirection());
+            decimal(h.getAmount(), ",\"amount\":", "null");
+            decimal(h.getBalance(), ",\"balance\":", "null");
+            jsonText(",\"requestNo\":", h.getRequestNo());
+            jsonText(",\"bankTrxNo\":", h.getBankTrxNo());
+            jsonText(",\"isAllowSett\":", h.getIsAllowSett());
+            jsonText(",\"isCompleteSett\":", h.getIsCompleteSett());
+            sb.append(",\"riskDay\":").append(h.getRiskDay());
+            jsonText(",\"remark\":", h.getRemark());
+            sb.append("}\n");
+        }
+
+        private StringBuilder decimal(BigDecimal value, String name, String nullText) {
+            return sb.append(name).append(value == null ? nullText : value.toPlainString());
+        }
+
+        /**
+         * CSV文本列：含逗号、引号、换行时加引号；以=+-@开头时前置单引号，避免被表格软件当作公式
+         */
+        private StringBuilder csvText(String value) {
+            if (value == null || value.isEmpty()) {
+                return sb;
+            }
+            char first = value.charAt(0);
+            boolean formula = first == '=' || first == '+' || first == '-' || first == '@';
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote && !formula) {
+                return sb.append(value);
+            }
+            if (quote) {
+                sb.append('"');
+            }
+            if (formula) {
+                sb.append('\'');
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+            if (quote) {
+                sb.append('"');
+            }
+            return sb;
+        }
+
+        private void jsonText(String name, String value) {
+            sb.append(name);
+            if (value == null) {
+                sb.append("null");
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.zhangpeng.account.core.hold;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHold;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.HoldStatusEnum;
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+import com.zhangpeng.account.api.enums.PublicEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountHoldMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 冻结单管理
+ *
+ * 冻结时生成冻结单并放入时间轮，扣款/释放把冻结单从冻结中改为完结状态后再解冻；
+ * 到期未完结的由过期线程从时间轮取出后批量释放，不轮询冻结单表。
+ * 冻结单状态用条件更新从HELD改为完结状态，扣款、释放、到期并发时只有一个生效，
+ * 因此时间轮不做取消：已完结的冻结单到期时直接跳过。
+ *
+ * 时间轮在内存中，进程启动时从冻结单表加载冻结中的冻结单；多节点部署时各节点都会加载，
+ * 同一冻结单只会被其中一个节点释放。内存记账模式下不支持冻结单。
+ */
+@Slf4j
+@Component
+public class AccountHoldManager {
+
+    @Autowired
+    private AccountHoldMapper accountHoldMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private LedgerStatsAccumulator ledgerStatsAccumulator;
+    @Autowired
+    private LedgerJournal ledgerJournal;
+    @Autowired
+    private LedgerEngine ledgerEngine;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    /** 是否由本节点释放到期冻结单 **/
+    @Value("${account.ledger.hold.expire-enabled:true}")
+    private boolean expireEnabled;
+
+    /** 时间轮每tick毫秒数，即到期释放的最大延迟 **/
+    @Value("${account.ledger.hold.tick-millis:100}")
+    private long tickMillis;
+
+    /** 未指定到期时间时的默认有效期(毫秒) **/
+    @Value("${account.ledger.hold.default-ttl-millis:1800000}")
+    private long defaultTtlMillis;
+
+    /** 到期释放每个事务处理的冻结单数，启动加载时每页条数同此 **/
+    @Value("${account.ledger.hold.expire-batch:200}")
+    private int expireBatch;
+
+    /** 时间轮每层槽数2^9，4层覆盖约2^36个tick **/
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_LEVELS = 4;
+
+    private TransactionTemplate transactionTemplate;
+    private HierarchicalTimingWheel<Integer> wheel;
+    private volatile boolean running;
+    private Thread expirer;
+
+    private final LongAdder held = new LongAdder();
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder expireFailed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.wheel = new HierarchicalTimingWheel<>(tickMillis, WHEEL_BITS, WHEEL_LEVELS);
+        if (!expireEnabled || ledgerEngine.isEnabled()) {
+            return;
+        }
+        running = true;
+        expirer = new Thread(this::expireLoop, "account-hold-expirer");
+        expirer.setDaemon(true);
+        expirer.start();
+    }
+
+    /**
+     * 冻结并生成冻结单，同一账户同一请求号重复请求返回已有的冻结单
+     *
+     * @param expireTime
+     *            到期时间，为空时按默认有效期
+     */
+    public AccountHold hold(String userNo, BigDecimal amount, String requestNo, Date expireTime) {
+        if (userNo == null || requestNo == null || requestNo.isEmpty()) {
+            throw AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+        }
+        if (amount == null || amount.signum() <= 0) {
+            throw AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
+        }
+        Money money = Money.of(amount);
+        AccountHold prior = getByRequestNo(userNo, requestNo);
+        if (prior != null) {
+            log.info("重复的冻结请求，直接返回，userNo={}, requestNo={}, holdId={}", userNo, requestNo, prior.getId());
+            return prior;
+        }
+        Date deadline = expireTime != null ? expireTime : new Date(System.currentTimeMillis() + defaultTtlMillis);
+        List<Lock> locks = lock(Collections.singletonList(userNo));
+        try {
+            Account[] after = new Account[1];
+            AccountHold hold;
+            try {
+                hold = transactionTemplate.execute(status -> {
+                    Map<String, Object> params = deltaParams(userNo, money);
+                    if (accountMapper.freezeByDelta(params) == 0) {
+                        if (accountBucketManager.bucketCount(userNo) == 0 || accountBucketManager.sweep(userNo).signum() == 0
+                                || accountMapper.freezeByDelta(params) == 0) {
+                            throw getAccount(userNo, false) == null ? AccountBizException.ACCOUNT_NOT_EXIT
+                                    : AccountBizException.ACCOUNT_FROZEN_AMOUNT_OUTLIMIT;
+                        }
+                    }
+                    after[0] = getAccount(userNo, true);
+                    Date now = new Date();
+                    AccountHold entity = new AccountHold();
+                    entity.setCreateTime(now);
+                    entity.setEditTime(now);
+                    entity.setAccountNo(after[0].getAccountNo());
+                    entity.setUserNo(userNo);
+                    entity.setAmount(amount);
+                    entity.setRequestNo(requestNo);
+                    entity.setHoldStatus(HoldStatusEnum.HELD.name());
+                    entity.setExpireTime(deadline);
+                    accountHoldMapper.insert(entity);
+                    return entity;
+                });
+            } catch (DuplicateKeyException e) {
+                // 其他节点并发的重复请求被唯一键(user_no, request_no)拦下，冻结已回滚
+                prior = getByRequestNo(userNo, requestNo);
+                if (prior == null) {
+                    throw e;
+                }
+                return prior;
+            }
+            held.increment();
+            wheel.add(hold.getId(), deadline.getTime());
+            ledgerJournal.append(after[0], LedgerCommandTypeEnum.FREEZE, amount, null, requestNo);
+            return hold;
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    /**
+     * 冻结单扣款：解冻+减款并记录账户历史，重复扣款返回当前账户
+     */
+    public Account capture(Integer holdId, String trxType, String remark) {
+        return finish(holdId, HoldStatusEnum.CAPTURED, trxType, remark);
+    }
+
+    /**
+     * 冻结单释放：解冻，重复释放返回当前账户
+     */
+    public Account release(Integer holdId) {
+        return finish(holdId, HoldStatusEnum.RELEASED, null, null);
+    }
+
+    private Account finish(Integer holdId, HoldStatusEnum toStatus, String trxType, String remark) {
+        AccountHold hold = holdId == null ? null : getHold(holdId);
+        if (hold == null) {
+            throw AccountBizException.ACCOUNT_HOLD_NOT_EXIST;
+        }
+        String userNo = hold.getUserNo();
+        BigDecimal amount = hold.getAmount();
+        Money money = Money.of(amount);
+        List<Lock> locks = lock(Collections.singletonList(userNo));
+        try {
+            boolean[] replayed = new boolean[1];
+            Account account = transactionTemplate.execute(status -> {
+                if (accountHoldMapper.finish(finishParams(holdId, toStatus)) == 0) {
+                    AccountHold current = getHold(holdId);
+                    if (!toStatus.name().equals(current.getHoldStatus())) {
+                        throw AccountBizException.ACCOUNT_HOLD_FINISHED;
+                    }
+                    replayed[0] = true;
+                    return accountBucketManager.mergeInto(getAccount(userNo, false));
+                }
+                Map<String, Object> params = deltaParams(userNo, money);
+                if (HoldStatusEnum.CAPTURED == toStatus) {
+                    if (accountMapper.unFreezeByDelta(params) == 0) {
+                        throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+                    }
+                    addStatsAsync(userNo, money, money.negate());
+                    Account updated = getAccount(userNo, true);
+                    accountHistoryMapper.insert(LedgerCalculator.buildHistory(updated, amount, hold.getRequestNo(), null,
+                            trxType, remark, AccountFundDirectionEnum.SUB, PublicEnum.NO));
+                    return updated;
+                }
+                if (accountMapper.unFreezeSettByDelta(params) == 0) {
+                    throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+                }
+                return getAccount(userNo, true);
+            });
+            if (replayed[0]) {
+                log.info("冻结单已完结，直接返回，holdId={}, holdStatus={}", holdId, toStatus);
+                return account;
+            }
+            if (HoldStatusEnum.CAPTURED == toStatus) {
+                captured.increment();
+                ledgerJournal.append(account, LedgerCommandTypeEnum.UNFREEZE, amount, trxType, hold.getRequestNo());
+            } else {
+                released.increment();
+                ledgerJournal.append(account, LedgerCommandTypeEnum.UNFREEZE_SETT, amount, null, hold.getRequestNo());
+            }
+            return accountBucketManager.mergeInto(account);
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    /////////////////////// 到期释放 ///////////////////////////
+
+    private void expireLoop() {
+        load();
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(tickMillis);
+                List<Integer> ids = wheel.advance(System.currentTimeMillis());
+                for (int from = 0; from < ids.size(); from += expireBatch) {
+                    expire(ids.subList(from, Math.min(from + expireBatch, ids.size())));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 按id分页加载冻结中的冻结单到时间轮，已过期的在第一次推进时释放
+     */
+    private void load() {
+        int afterId = 0;
+        int loaded = 0;
+        try {
+            while (running) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put("holdStatus", HoldStatusEnum.HELD.name());
+                params.put("afterId", afterId);
+                params.put("limit", expireBatch);
+                List<AccountHold> page = accountHoldMapper.listHeld(params);
+                for (AccountHold hold : page) {
+                    wheel.add(hold.getId(), hold.getExpireTime().getTime());
+                    afterId = hold.getId();
+                }
+                loaded += page.size();
+                if (page.size() < expireBatch) {
+                    break;
+                }
+            }
+            log.info("冻结单时间轮加载完成，held={}", loaded);
+        } catch (Exception e) {
+            log.error("冻结单时间轮加载失败，已加载={}, afterId={}", loaded, afterId, e);
+        }
+    }
+
+    /**
+     * 一个事务内释放一批到期冻结单：按userNo升序加锁，同一账户的冻结单合并成一次解冻；
+     * 失败时整批回滚，逐条重试
+     */
+    private void expire(List<Integer> ids) {
+        List<AccountHold> holds = accountHoldMapper.listByIds(ids);
+        List<AccountHold> due = new ArrayList<>(holds.size());
+        for (AccountHold hold : holds) {
+            if (HoldStatusEnum.HELD.name().equals(hold.getHoldStatus())) {
+                due.add(hold);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        due.sort(Comparator.comparing(AccountHold::getUserNo).thenComparing(AccountHold::getId));
+        try {
+            expireChunk(due);
+        } catch (Exception e) {
+            if (due.size() == 1) {
+                expireFailed.increment();
+                log.error("冻结单到期释放失败，holdId={}", due.get(0).getId(), e);
+                return;
+            }
+            log.error("冻结单批量到期释放失败，逐条重试，size={}", due.size(), e);
+            for (AccountHold hold : due) {
+                try {
+                    expireChunk(Collections.singletonList(hold));
+                } catch (Exception single) {
+                    expireFailed.increment();
+                    log.error("冻结单到期释放失败，holdId={}", hold.getId(), single);
+                }
+            }
+        }
+    }
+
+    private void expireChunk(List<AccountHold> due) {
+        TreeMap<String, Money> amounts = new TreeMap<>();
+        for (AccountHold hold : due) {
+            amounts.putIfAbsent(hold.getUserNo(), Money.ZERO);
+        }
+        List<Lock> locks = lock(amounts.keySet());
+        try {
+            int[] finished = new int[1];
+            Map<String, Account> accounts = transactionTemplate.execute(status -> {
+                for (AccountHold hold : due) {
+                    // 已被扣款或释放的跳过
+                    if (accountHoldMapper.finish(finishParams(hold.getId(), HoldStatusEnum.EXPIRED)) > 0) {
+                        amounts.merge(hold.getUserNo(), Money.ofStored(hold.getAmount()), Money::plus);
+                        finished[0]++;
+                    }
+                }
+                Map<String, Account> updated = new TreeMap<>();
+                for (Map.Entry<String, Money> entry : amounts.entrySet()) {
+                    if (entry.getValue().isZero()) {
+                        continue;
+                    }
+                    if (accountMapper.unFreezeSettByDelta(deltaParams(entry.getKey(), entry.getValue())) == 0) {
+                        throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+                    }
+                    updated.put(entry.getKey(), getAccount(entry.getKey(), true));
+                }
+                return updated;
+            });
+            for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                ledgerJournal.append(entry.getValue(), LedgerCommandTypeEnum.UNFREEZE_SETT,
+                        amounts.get(entry.getKey()).toBigDecimal(), null, null);
+            }
+            expired.add(finished[0]);
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    /**
+     * 周期性输出冻结单数量
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        long heldCount = held.sumThenReset();
+        long capturedCount = captured.sumThenReset();
+        long releasedCount = released.sumThenReset();
+        long expiredCount = expired.sumThenReset();
+        long failedCount = expireFailed.sumThenReset();
+        if (heldCount + capturedCount + releasedCount + expiredCount + failedCount == 0) {
+            return;
+        }
+        log.info("冻结单 held={}, captured={}, released={}, expired={}, expireFailed={}, wheelSize={}", heldCount,
+                capturedCount, releasedCount, expiredCount, failedCount, wheel.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (expirer != null) {
+            expirer.interrupt();
+        }
+    }
+
+    private List<Lock> lock(Collection<String> userNos) {
+        return stripedAccountLock.isEnabled() ? stripedAccountLock.lockAll(userNos) : new ArrayList<>();
+    }
+
+    private Map<String, Object> finishParams(Integer holdId, HoldStatusEnum toStatus) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", holdId);
+        params.put("fromStatus", HoldStatusEnum.HELD.name());
+        params.put("toStatus", toStatus.name());
+        params.put("finishTime", new Date());
+        return params;
+    }
+
+    private Map<String, Object> deltaParams(String userNo, Money amount) {
+        Date now = new Date();
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("userNo", userNo);
+        map.put("amount", amount);
+        map.put("todayBegin", ledgerClock.todayBegin());
+        map.put("editTime", now);
+        map.put("asyncStats", ledgerStatsAccumulator.isEnabled());
+        return map;
+    }
+
+    private void addStatsAsync(String userNo, Money expend, Money sett) {
+        if (ledgerStatsAccumulator.isEnabled()) {
+            ledgerStatsAccumulator.addAfterCommit(userNo, Money.ZERO, expend, sett);
+        }
+    }
+
+    private AccountHold getHold(Integer holdId) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", holdId);
+        params.put("isPessimist", false);
+        return accountHoldMapper.getById(params);
+    }
+
+    private AccountHold getByRequestNo(String userNo, String requestNo) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("requestNo", requestNo);
+        return accountHoldMapper.getByRequestNo(params);
+    }
+
+    private Account getAccount(String userNo, boolean isPessimist) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("isPessimist", isPessimist);
+        return accountMapper.getBy(params);
+    }
+}
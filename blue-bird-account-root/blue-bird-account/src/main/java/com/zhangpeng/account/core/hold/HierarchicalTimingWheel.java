@@ -0,0 +1,150 @@
+package com.zhangpeng.account.core.hold;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分层时间轮
+ *
+ * 每层2^bits个槽，第0层每槽一个tick，第n层每槽覆盖第n-1层一整圈；到期时间按距当前tick的跨度放入对应层的槽，
+ * 低层转完一圈时把高层当前槽中的元素按剩余时间重新放入低层。放入O(1)，推进每tick摊销O(1)，与元素总数无关。
+ * 超出最高层范围的元素先放在最高层最远的槽，降级时按实际到期时间重新放置。
+ *
+ * 任意线程可add，放入待处理队列；advance只能由唯一的推进线程调用。不支持取消，调用方在到期时自行判断是否仍需处理。
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final int bits;
+    private final int mask;
+    private final Entry<T>[][] wheels;
+    /** 全部层能表示的最大跨度(tick) **/
+    private final long maxSpan;
+
+    private final Queue<Entry<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** 已推进到的tick，只由推进线程访问 **/
+    private long currentTick;
+
+    /**
+     * @param tickMillis
+     *            每tick毫秒数
+     * @param bits
+     *            每层槽数为2^bits
+     * @param levels
+     *            层数
+     */
+    public HierarchicalTimingWheel(long tickMillis, int bits, int levels) {
+        this(tickMillis, bits, levels, System.currentTimeMillis());
+    }
+
+    /**
+     * @param startMillis
+     *            第0个tick的时间戳，测试可传入固定值
+     */
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimingWheel(long tickMillis, int bits, int levels, long startMillis) {
+        if (tickMillis <= 0 || bits <= 0 || levels <= 0 || (long) bits * levels >= 62) {
+            throw new IllegalArgumentException("tickMillis=" + tickMillis + ", bits=" + bits + ", levels=" + levels);
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.wheels = new Entry[levels][1 << bits];
+        this.maxSpan = 1L << (bits * levels);
+    }
+
+    /**
+     * 放入一个元素，到期时间已过的在下一次推进时返回
+     *
+     * @param deadlineMillis
+     *            到期时间戳(毫秒)
+     */
+    public void add(T item, long deadlineMillis) {
+        // 向上取整，保证不早于到期时间返回
+        long ticks = (deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        pending.offer(new Entry<>(item, Math.max(ticks, 0)));
+        size.incrementAndGet();
+    }
+
+    /**
+     * 推进到nowMillis，返回期间到期的元素
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        Entry<T> entry;
+        while ((entry = pending.poll()) != null) {
+            place(entry, expired);
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            // 从高到低降级：第n层的槽先降到第n-1层，再随第n-1层一起降到更低层
+            int level = 1;
+            while (level < wheels.length && (currentTick & ((1L << (bits * level)) - 1)) == 0) {
+                level++;
+            }
+            for (int l = level - 1; l >= 1; l--) {
+                int slot = (int) (currentTick >>> (bits * l)) & mask;
+                Entry<T> head = wheels[l][slot];
+                wheels[l][slot] = null;
+                while (head != null) {
+                    Entry<T> next = head.next;
+                    head.next = null;
+                    place(head, expired);
+                    head = next;
+                }
+            }
+            int slot = (int) currentTick & mask;
+            Entry<T> head = wheels[0][slot];
+            wheels[0][slot] = null;
+            while (head != null) {
+                expired.add(head.item);
+                head = head.next;
+            }
+        }
+        size.addAndGet(-expired.size());
+        return expired;
+    }
+
+    private void place(Entry<T> entry, List<T> expired) {
+        long span = entry.deadlineTick - currentTick;
+        if (span <= 0) {
+            expired.add(entry.item);
+            return;
+        }
+        long tick = span < maxSpan ? entry.deadlineTick : currentTick + maxSpan - 1;
+        span = tick - currentTick;
+        int level = 0;
+        while (level < wheels.length - 1 && (span >>> (bits * (level + 1))) != 0) {
+            level++;
+        }
+        int slot = (int) (tick >>> (bits * level)) & mask;
+        entry.next = wheels[level][slot];
+        wheels[level][slot] = entry;
+    }
+
+    /**
+     * 未到期的元素个数，含待处理队列中的
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long deadlineTick;
+        private Entry<T> next;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
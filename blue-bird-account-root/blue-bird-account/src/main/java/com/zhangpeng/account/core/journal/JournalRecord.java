@@ -0,0 +1,192 @@
+package com.zhangpeng.account.core.journal;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 流水日志记录，定长64字节，大端序
+ *
+ * <pre>
+ * offset  size  field
+ * 0       4     crc32(字节4~63)
+ * 4       8     sequence，从1开始递增，0表示空位
+ * 12      8     timestamp(毫秒)
+ * 20      4     accountId(blue_bird_account.id)
+ * 24      1     op(LedgerCommandTypeEnum序号+1)
+ * 25      1     direction(0无 1加款 2减款)
+ * 26      1     trxType(TrxTypeEnum序号+1，0无)
+ * 27      1     保留
+ * 28      8     amount，金额*10^6
+ * 36      8     balanceAfter，金额*10^6
+ * 44      8     unbalanceAfter，金额*10^6
+ * 52      8     requestNo的64位FNV-1a哈希，0无
+ * 60      4     保留
+ * </pre>
+ */
+public class JournalRecord {
+
+    public static final int SIZE = 64;
+
+    /** 金额按6位小数转为long，与表字段DECIMAL(20,6)一致 **/
+    public static final int AMOUNT_SCALE = 6;
+
+    public static final byte DIRECTION_NONE = 0;
+    public static final byte DIRECTION_ADD = 1;
+    public static final byte DIRECTION_SUB = 2;
+
+    private long sequence;
+    private long timestamp;
+    private int accountId;
+    private byte op;
+    private byte direction;
+    private byte trxType;
+    private long amount;
+    private long balanceAfter;
+    private long unbalanceAfter;
+    private long requestNoHash;
+
+    public JournalRecord() {
+    }
+
+    public JournalRecord(long sequence, long timestamp, int accountId, byte op, byte direction, byte trxType, long amount,
+                         long balanceAfter, long unbalanceAfter, long requestNoHash) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.accountId = accountId;
+        this.op = op;
+        this.direction = direction;
+        this.trxType = trxType;
+        this.amount = amount;
+        this.balanceAfter = balanceAfter;
+        this.unbalanceAfter = unbalanceAfter;
+        this.requestNoHash = requestNoHash;
+    }
+
+    /**
+     * 写入buffer的offset处，不改变buffer的position
+     */
+    public void writeTo(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset + 4, sequence);
+        buffer.putLong(offset + 12, timestamp);
+        buffer.putInt(offset + 20, accountId);
+        buffer.put(offset + 24, op);
+        buffer.put(offset + 25, direction);
+        buffer.put(offset + 26, trxType);
+        buffer.put(offset + 27, (byte) 0);
+        buffer.putLong(offset + 28, amount);
+        buffer.putLong(offset + 36, balanceAfter);
+        buffer.putLong(offset + 44, unbalanceAfter);
+        buffer.putLong(offset + 52, requestNoHash);
+        buffer.putInt(offset + 60, 0);
+        // crc最后写，读到crc匹配即说明整条记录已完整落盘
+        buffer.putInt(offset, crc(buffer, offset));
+    }
+
+    /**
+     * 从buffer的offset处读取
+     *
+     * @return 空位(sequence为0)或crc不匹配(写了一半)时返回null
+     */
+    public static JournalRecord readFrom(ByteBuffer buffer, int offset) {
+        long sequence = buffer.getLong(offset + 4);
+        if (sequence == 0) {
+            return null;
+        }
+        if (buffer.getInt(offset) != crc(buffer, offset)) {
+            return null;
+        }
+        return new JournalRecord(sequence, buffer.getLong(offset + 12), buffer.getInt(offset + 20), buffer.get(offset + 24),
+                buffer.get(offset + 25), buffer.get(offset + 26), buffer.getLong(offset + 28), buffer.getLong(offset + 36),
+                buffer.getLong(offset + 44), buffer.getLong(offset + 52));
+    }
+
+    /**
+     * offset处是否为从未写过的空位
+     */
+    public static boolean isEmpty(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < SIZE; i += 8) {
+            if (buffer.getLong(offset + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int crc(ByteBuffer buffer, int offset) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + SIZE);
+        body.position(offset + 4);
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        return (int) crc32.getValue();
+    }
+
+    public static long toUnits(BigDecimal amount) {
+        if (amount == null) {
+            return 0;
+        }
+        return amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromUnits(long units) {
+        return BigDecimal.valueOf(units, AMOUNT_SCALE);
+    }
+
+    /**
+     * 64位FNV-1a，请求号为空时返回0
+     */
+    public static long hash(String requestNo) {
+        if (requestNo == null || requestNo.isEmpty()) {
+            return 0;
+        }
+        long h = 0xcbf29ce484222325L;
+        for (byte b : requestNo.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public byte getOp() {
+        return op;
+    }
+
+    public byte getDirection() {
+        return direction;
+    }
+
+    public byte getTrxType() {
+        return trxType;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    public long getUnbalanceAfter() {
+        return unbalanceAfter;
+    }
+
+    public long getRequestNoHash() {
+        return requestNoHash;
+    }
+}
@@ -0,0 +1,148 @@
+package com.zhangpeng.account.core.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/**
+ * 流水日志段文件
+ *
+ * 文件名为段内第一条记录的sequence(20位补零)，创建时预分配固定大小并整体映射到内存，
+ * 未写过的位置全为0，据此判断写到了哪里。
+ */
+public class JournalSegment implements Closeable {
+
+    public static final String SUFFIX = ".seg";
+
+    private final File file;
+    private final long firstSequence;
+    private final int capacity;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+
+    /** 下一条记录的写入位置 **/
+    private int writePosition;
+
+    private JournalSegment(File file, long firstSequence, int capacity) throws IOException {
+        this.file = file;
+        this.firstSequence = firstSequence;
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < capacity) {
+            raf.setLength(capacity);
+        }
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * 新建段文件
+     *
+     * @param segmentBytes
+     *            段大小，向下取整为记录长度的整数倍
+     */
+    public static JournalSegment create(File dir, long firstSequence, int segmentBytes) throws IOException {
+        File file = new File(dir, fileName(firstSequence));
+        return new JournalSegment(file, firstSequence, segmentBytes / JournalRecord.SIZE * JournalRecord.SIZE);
+    }
+
+    /**
+     * 打开已有段文件，调用方需随后调用recover确定写入位置
+     */
+    public static JournalSegment open(File file) throws IOException {
+        long firstSequence = parseFirstSequence(file.getName());
+        int capacity = (int) (file.length() / JournalRecord.SIZE * JournalRecord.SIZE);
+        return new JournalSegment(file, firstSequence, capacity);
+    }
+
+    public static String fileName(long firstSequence) {
+        return String.format("%020d", firstSequence) + SUFFIX;
+    }
+
+    public static long parseFirstSequence(String fileName) {
+        return Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+    }
+
+    /**
+     * 从头扫描，对每条完整记录回调，遇到空位或crc不匹配即停止
+     *
+     * @param truncateTornTail
+     *            是否把停止位置之后的内容清零(写了一半的尾部记录)
+     * @return 完整记录的条数
+     */
+    public int recover(Consumer<JournalRecord> consumer, boolean truncateTornTail) {
+        int position = 0;
+        int count = 0;
+        long expected = firstSequence;
+        while (position + JournalRecord.SIZE <= capacity) {
+            JournalRecord record = JournalRecord.readFrom(buffer, position);
+            if (record == null || record.getSequence() != expected) {
+                break;
+            }
+            consumer.accept(record);
+            position += JournalRecord.SIZE;
+            expected++;
+            count++;
+        }
+        this.writePosition = position;
+        if (truncateTornTail) {
+            boolean dirty = false;
+            for (int slot = position; slot + JournalRecord.SIZE <= capacity && !JournalRecord.isEmpty(buffer, slot); slot += JournalRecord.SIZE) {
+                for (int i = 0; i < JournalRecord.SIZE; i += 8) {
+                    buffer.putLong(slot + i, 0L);
+                }
+                dirty = true;
+            }
+            if (dirty) {
+                buffer.force();
+            }
+        }
+        return count;
+    }
+
+    public boolean hasRoom() {
+        return writePosition + JournalRecord.SIZE <= capacity;
+    }
+
+    /**
+     * 追加一条记录，调用方保证单线程写入且hasRoom
+     */
+    public void append(JournalRecord record) {
+        record.writeTo(buffer, writePosition);
+        writePosition += JournalRecord.SIZE;
+    }
+
+    /**
+     * 刷盘
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * 段内已写入的最后一条记录的sequence，没有记录时为firstSequence-1
+     */
+    public long getLastSequence() {
+        return firstSequence + writePosition / JournalRecord.SIZE - 1;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 刷盘并关闭文件；映射由GC释放，不主动unmap，避免与并发的force访问已释放的内存
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        raf.close();
+    }
+}
@@ -0,0 +1,467 @@
+package com.zhangpeng.account.core.journal;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.core.ledger.LedgerHistogram;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 记账流水日志
+ *
+ * 每笔记账在数据库提交后追加一条64字节定长记录到内存映射的段文件，段写满后滚动到新段；
+ * 定时刷盘，定时把各账户最新余额写成快照，快照之前的段文件删除。
+ * 启动时加载最新的有效快照，再按sequence重放其后的段文件，尾部写了一半的记录(crc不匹配)截掉。
+ *
+ * 恢复后按verify-on-startup把各账户在流水日志中的最新余额与数据库核对，不一致的记日志告警。
+ *
+ * 流水日志是数据库之外的第二份顺序记录，用于故障后核对各账户余额，不参与记账判断；
+ * 追加失败只记日志，不影响记账结果。
+ */
+@Slf4j
+@Component
+public class LedgerJournal {
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int SNAPSHOT_MAGIC = 0x424A534E;
+    private static final int SNAPSHOT_VERSION = 1;
+    /** 保留的快照个数，最新快照损坏时退回上一个 **/
+    private static final int SNAPSHOTS_KEPT = 2;
+    /** 启动核对每批查询的账户数 **/
+    private static final int VERIFY_CHUNK = 500;
+    /** 启动核对逐条打印的不一致账户上限 **/
+    private static final int VERIFY_LOG_LIMIT = 100;
+
+    @Value("${account.ledger.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${account.ledger.journal.dir:./journal}")
+    private String dir;
+
+    /** 段文件大小，默认64MB即一百万条记录 **/
+    @Value("${account.ledger.journal.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    /** 启动恢复后是否与数据库核对余额；多节点各自写流水日志时，其他节点的记账会表现为不一致 **/
+    @Value("${account.ledger.journal.verify-on-startup:true}")
+    private boolean verifyOnStartup;
+
+    @Autowired
+    private AccountMapper accountMapper;
+
+    private File directory;
+
+    /** 按sequence升序，最后一个为当前写入段 **/
+    private final List<JournalSegment> segments = new ArrayList<>();
+    private JournalSegment current;
+    private long lastSequence;
+    private long snapshotSequence;
+
+    /** accountId -> 最新余额，只在append/recover的同步块内修改，用于写快照和启动核对 **/
+    private final Map<Integer, AccountState> states = new HashMap<>();
+
+    private final LedgerHistogram appendMicros = new LedgerHistogram("journalAppend", "us");
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            // 恢复失败不阻止启动，本次运行不写流水日志
+            log.error("记账流水日志恢复失败，流水日志停用，dir={}", dir, e);
+            return;
+        }
+        if (verifyOnStartup) {
+            try {
+                verify();
+            } catch (Exception e) {
+                // 核对失败不阻止启动
+                log.error("记账流水日志启动核对失败", e);
+            }
+        }
+        ready = true;
+    }
+
+    public boolean isEnabled() {
+        return ready;
+    }
+
+    /**
+     * 加载最新有效快照，再重放快照之后的段文件
+     */
+    public synchronized void recover() throws IOException {
+        directory = new File(dir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建流水日志目录 " + directory.getAbsolutePath());
+        }
+        long begin = System.currentTimeMillis();
+        closeSegments();
+        states.clear();
+        snapshotSequence = 0;
+        for (File file : listFiles(SNAPSHOT_SUFFIX, true)) {
+            if (loadSnapshot(file)) {
+                break;
+            }
+            log.warn("流水日志快照无效，跳过 {}", file.getName());
+        }
+        lastSequence = snapshotSequence;
+        int replayed = 0;
+        List<File> files = listFiles(JournalSegment.SUFFIX, false);
+        for (int i = 0; i < files.size(); i++) {
+            JournalSegment segment = JournalSegment.open(files.get(i));
+            if (segment.getFirstSequence() > lastSequence + 1) {
+                log.warn("流水日志sequence不连续，expected={}, segment={}", lastSequence + 1, files.get(i).getName());
+            }
+            boolean last = i == files.size() - 1;
+            replayed += segment.recover(record -> {
+                if (record.getSequence() > snapshotSequence) {
+                    states.put(record.getAccountId(), new AccountState(record.getBalanceAfter(), record.getUnbalanceAfter()));
+                }
+            }, last);
+            lastSequence = Math.max(lastSequence, segment.getLastSequence());
+            segments.add(segment);
+        }
+        if (segments.isEmpty() || !segments.get(segments.size() - 1).hasRoom()) {
+            roll();
+        } else {
+            current = segments.get(segments.size() - 1);
+        }
+        log.info("记账流水日志恢复完成，snapshotSequence={}, replayed={}, lastSequence={}, accounts={}, cost={}ms",
+                snapshotSequence, replayed, lastSequence, states.size(), System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 记账提交后追加一条记录
+     *
+     * @param after
+     *            记账后的账户
+     * @param op
+     *            指令类型
+     * @param amount
+     *            记账金额
+     * @param trxType
+     *            业务类型(TrxTypeEnum)，可为空
+     * @param requestNo
+     *            请求号，可为空
+     */
+    public void append(Account after, LedgerCommandTypeEnum op, BigDecimal amount, String trxType, String requestNo) {
+        if (!ready || after == null || after.getId() == null) {
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            long balance = JournalRecord.toUnits(after.getBalance());
+            long unbalance = JournalRecord.toUnits(after.getUnbalance());
+            synchronized (this) {
+                if (!current.hasRoom()) {
+                    roll();
+                }
+                long sequence = lastSequence + 1;
+                current.append(new JournalRecord(sequence, System.currentTimeMillis(), after.getId(), (byte) (op.ordinal() + 1),
+                        direction(op), trxTypeCode(trxType), JournalRecord.toUnits(amount), balance, unbalance,
+                        JournalRecord.hash(requestNo)));
+                lastSequence = sequence;
+                states.put(after.getId(), new AccountState(balance, unbalance));
+            }
+        } catch (Exception e) {
+            failed.increment();
+            log.error("记账流水日志追加失败，userNo={}, op={}, requestNo={}", after.getUserNo(), op, requestNo, e);
+        } finally {
+            appendMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        }
+    }
+
+    /**
+     * 流水日志中各账户的最新余额与数据库(主账户+分桶)逐批比较，只告警不修改。
+     * 数据库提交后才追加流水，进程在两者之间退出时数据库会领先流水日志，按不一致处理
+     *
+     * @return 不一致的账户数
+     */
+    public int verify() {
+        long begin = System.currentTimeMillis();
+        Map<Integer, AccountState> copy;
+        synchronized (this) {
+            copy = new HashMap<>(states);
+        }
+        List<Integer> ids = new ArrayList<>(copy.keySet());
+        int mismatched = 0;
+        for (int from = 0; from < ids.size(); from += VERIFY_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + VERIFY_CHUNK, ids.size()));
+            Map<Integer, Map<String, Object>> rows = new HashMap<>();
+            for (Map<String, Object> row : accountMapper.listJournalBalances(chunk)) {
+                rows.put(((Number) row.get("id")).intValue(), row);
+            }
+            for (Integer id : chunk) {
+                AccountState state = copy.get(id);
+                Map<String, Object> row = rows.get(id);
+                long balance = row == null ? 0 : JournalRecord.toUnits((BigDecimal) row.get("balance"));
+                long unbalance = row == null ? 0 : JournalRecord.toUnits((BigDecimal) row.get("unbalance"));
+                if (row != null && balance == state.balance && unbalance == state.unbalance) {
+                    continue;
+                }
+                mismatched++;
+                if (mismatched <= VERIFY_LOG_LIMIT) {
+                    log.warn("记账流水日志与数据库不一致，accountId={}, userNo={}, journal=[{}, {}], db=[{}, {}]", id,
+                            row == null ? null : row.get("userNo"), JournalRecord.fromUnits(state.balance),
+                            JournalRecord.fromUnits(state.unbalance), row == null ? null : JournalRecord.fromUnits(balance),
+                            row == null ? null : JournalRecord.fromUnits(unbalance));
+                }
+            }
+        }
+        if (mismatched > 0) {
+            log.error("记账流水日志启动核对完成，accounts={}, mismatched={}, cost={}ms", ids.size(), mismatched,
+                    System.currentTimeMillis() - begin);
+        } else {
+            log.info("记账流水日志启动核对完成，accounts={}, mismatched=0, cost={}ms", ids.size(), System.currentTimeMillis() - begin);
+        }
+        return mismatched;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * 定时刷盘
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.journal.force-interval:200}")
+    public void force() {
+        if (!ready) {
+            return;
+        }
+        JournalSegment segment;
+        synchronized (this) {
+            segment = current;
+        }
+        try {
+            segment.force();
+        } catch (Exception e) {
+            log.error("记账流水日志刷盘失败", e);
+        }
+    }
+
+    /**
+     * 定时写快照：先写临时文件再原子改名，之后删除已被快照完全覆盖的段文件和多余的旧快照
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.journal.snapshot-interval:300000}")
+    public void snapshot() {
+        if (!ready) {
+            return;
+        }
+        long sequence;
+        Map<Integer, AccountState> copy;
+        synchronized (this) {
+            if (lastSequence == snapshotSequence) {
+                return;
+            }
+            // 快照之前先刷盘，保证快照覆盖的记录都已落盘
+            current.force();
+            sequence = lastSequence;
+            copy = new HashMap<>(states);
+        }
+        try {
+            writeSnapshot(sequence, copy);
+        } catch (IOException e) {
+            log.error("记账流水日志快照失败，sequence={}", sequence, e);
+            return;
+        }
+        synchronized (this) {
+            snapshotSequence = sequence;
+            purgeSegments();
+        }
+        List<File> snapshots = listFiles(SNAPSHOT_SUFFIX, true);
+        for (int i = SNAPSHOTS_KEPT; i < snapshots.size(); i++) {
+            delete(snapshots.get(i));
+        }
+        log.info("记账流水日志快照完成，sequence={}, accounts={}", sequence, copy.size());
+    }
+
+    /**
+     * 周期性输出追加耗时并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!ready || appendMicros.getCount() == 0) {
+            return;
+        }
+        log.info("记账流水日志统计 {}, lastSequence={}, segments={}, failed={}", appendMicros, getLastSequence(), segments.size(),
+                failed.sumThenReset());
+        appendMicros.reset();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (!ready) {
+            return;
+        }
+        ready = false;
+        closeSegments();
+    }
+
+    private void roll() throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        current = JournalSegment.create(directory, lastSequence + 1, segmentBytes);
+        segments.add(current);
+    }
+
+    /**
+     * 删除最后一条记录不晚于快照的段文件，当前写入段保留
+     */
+    private void purgeSegments() {
+        while (segments.size() > 1 && segments.get(1).getFirstSequence() - 1 <= snapshotSequence) {
+            JournalSegment segment = segments.remove(0);
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("关闭流水日志段失败 {}", segment.getFile().getName(), e);
+            }
+            delete(segment.getFile());
+        }
+    }
+
+    private void writeSnapshot(long sequence, Map<Integer, AccountState> copy) throws IOException {
+        File target = new File(directory, String.format("%020d", sequence) + SNAPSHOT_SUFFIX);
+        File temp = new File(directory, target.getName() + ".tmp");
+        CRC32 crc32 = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc32)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeInt(copy.size());
+            for (Map.Entry<Integer, AccountState> entry : copy.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue().balance);
+                out.writeLong(entry.getValue().unbalance);
+            }
+            out.flush();
+            // crc不计入自身
+            new DataOutputStream(fos).writeLong(crc32.getValue());
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return 快照完整且crc匹配时加载并返回true
+     */
+    private boolean loadSnapshot(File file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < 28) {
+                return false;
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes, 0, bytes.length - 8);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getLong(bytes.length - 8) != crc32.getValue()) {
+                return false;
+            }
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            long sequence = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || bytes.length != 20 + count * 20 + 8) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                states.put(buffer.getInt(), new AccountState(buffer.getLong(), buffer.getLong()));
+            }
+            snapshotSequence = sequence;
+            return true;
+        } catch (IOException e) {
+            log.warn("读取流水日志快照失败 {}", file.getName(), e);
+            return false;
+        }
+    }
+
+    private List<File> listFiles(String suffix, boolean descending) {
+        File[] files = directory.listFiles((d, name) -> name.endsWith(suffix));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        // 文件名为20位补零的sequence，字典序即数值序
+        Arrays.sort(files, (a, b) -> descending ? b.getName().compareTo(a.getName()) : a.getName().compareTo(b.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private void closeSegments() {
+        for (JournalSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("关闭流水日志段失败 {}", segment.getFile().getName(), e);
+            }
+        }
+        segments.clear();
+        current = null;
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            log.warn("删除流水日志文件失败 {}", file.getName());
+        }
+    }
+
+    private static byte direction(LedgerCommandTypeEnum op) {
+        switch (op) {
+            case CREDIT:
+                return JournalRecord.DIRECTION_ADD;
+            case DEBIT:
+            case UNFREEZE:
+                return JournalRecord.DIRECTION_SUB;
+            default:
+                return JournalRecord.DIRECTION_NONE;
+        }
+    }
+
+    private static byte trxTypeCode(String trxType) {
+        TrxTypeEnum type = trxType == null ? null : TrxTypeEnum.getEnum(trxType);
+        return type == null ? 0 : (byte) (type.ordinal() + 1);
+    }
+
+    private static class AccountState {
+        private final long balance;
+        private final long unbalance;
+
+        private AccountState(long balance, long unbalance) {
+            this.balance = balance;
+            this.unbalance = unbalance;
+        }
+    }
+}
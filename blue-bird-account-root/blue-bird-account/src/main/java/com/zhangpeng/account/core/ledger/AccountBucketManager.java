@@ -0,0 +1,192 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountBucket;
+import com.zhangpeng.account.core.enums.BucketStrategyEnum;
+import com.zhangpeng.account.core.mapper.AccountBucketMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 热点账户分桶管理
+ *
+ * 开启分桶的账户：加款只更新某一个分桶行，减款/冻结仍在主账户行上进行，
+ * 主账户可用余额不足时先把全部分桶余额归集到主账户再重试。
+ * 锁顺序固定为 分桶 -> 主账户，加款只锁分桶，不会与归集形成死锁。
+ */
+@Slf4j
+@Component
+public class AccountBucketManager {
+
+    @Autowired
+    private AccountBucketMapper accountBucketMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    @Value("${account.ledger.bucket.strategy:ROUND_ROBIN}")
+    private BucketStrategyEnum strategy;
+
+    /** userNo -> 分桶数，写时复制，定时从数据库刷新 **/
+    private volatile Map<String, Integer> bucketCounts = Collections.emptyMap();
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    /**
+     * 定时刷新各账户分桶数，其他节点修改的分桶配置在一个周期内生效
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.bucket.refresh-interval:60000}")
+    public void refresh() {
+        try {
+            List<Map<String, Object>> rows = accountBucketMapper.listBucketCounts();
+            Map<String, Integer> counts = new HashMap<>(rows.size() * 2);
+            for (Map<String, Object> row : rows) {
+                counts.put((String) row.get("userNo"), ((Number) row.get("bucketCount")).intValue());
+            }
+            this.bucketCounts = counts;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 账户分桶数，未开启分桶返回0
+     */
+    public int bucketCount(String userNo) {
+        Integer count = bucketCounts.get(userNo);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 为一次加款选择分桶
+     */
+    public int pickBucket(String requestNo, int bucketCount) {
+        int seed;
+        if (BucketStrategyEnum.HASH == strategy && requestNo != null) {
+            seed = requestNo.hashCode();
+        } else {
+            seed = roundRobin.getAndIncrement();
+        }
+        return (seed & Integer.MAX_VALUE) % bucketCount + 1;
+    }
+
+    /**
+     * 把分桶汇总合并到主账户上，调用方不能再把合并后的账户整行写回
+     */
+    public Account mergeInto(Account account) {
+        if (account == null || bucketCount(account.getUserNo()) == 0) {
+            return account;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", account.getUserNo());
+        params.put("todayBegin", ledgerClock.todayBegin());
+        AccountBucket sum = accountBucketMapper.sumByUserNo(params);
+        if (sum != null) {
+            account.setBalance(account.getBalance().add(sum.getBalance()));
+            account.setTotalIncome(account.getTotalIncome().add(sum.getTotalIncome()));
+            account.setTodayIncome(account.getTodayIncome().add(sum.getTodayIncome()));
+        }
+        return account;
+    }
+
+    /**
+     * 把全部分桶余额归集到主账户，需在事务内调用
+     *
+     * @return 归集的金额
+     */
+    public BigDecimal sweep(String userNo) {
+        return sweep(userNo, accountBucketMapper.listForUpdate(userNo));
+    }
+
+    private BigDecimal sweep(String userNo, List<AccountBucket> buckets) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (AccountBucket bucket : buckets) {
+            total = total.add(bucket.getBalance());
+        }
+        if (total.signum() == 0) {
+            return total;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("amount", total);
+        params.put("editTime", new Date());
+        accountBucketMapper.clearBalance(params);
+        accountMapper.absorbBucketBalance(params);
+        log.info("账户分桶余额归集，userNo={}, amount={}", userNo, total);
+        return total;
+    }
+
+    /**
+     * 调整账户分桶数，0表示关闭分桶，需在事务内调用
+     * 先归集全部分桶余额，把要删除的分桶的总收益、今日收益并入主账户，再删除多余分桶、补齐缺少的分桶
+     */
+    public void reconfigure(Account account, int bucketCount) {
+        String userNo = account.getUserNo();
+        List<AccountBucket> buckets = accountBucketMapper.listForUpdate(userNo);
+        sweep(userNo, buckets);
+        absorbIncome(userNo, buckets, bucketCount);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("bucketCount", bucketCount);
+        accountBucketMapper.deleteAbove(params);
+        Date now = new Date();
+        for (int i = 1; i <= bucketCount; i++) {
+            AccountBucket bucket = new AccountBucket();
+            bucket.setCreateTime(now);
+            bucket.setEditTime(now);
+            bucket.setAccountNo(account.getAccountNo());
+            bucket.setUserNo(userNo);
+            bucket.setBucketNo(i);
+            accountBucketMapper.insertIgnore(bucket);
+        }
+        Map<String, Integer> counts = new HashMap<>(bucketCounts);
+        if (bucketCount > 0) {
+            counts.put(userNo, bucketCount);
+        } else {
+            counts.remove(userNo);
+        }
+        this.bucketCounts = counts;
+        log.info("账户分桶数调整，userNo={}, bucketCount={}", userNo, bucketCount);
+    }
+
+    /**
+     * 序号大于bucketCount的分桶即将删除，其总收益、今日收益(counter_day为今天的)并入主账户
+     */
+    private void absorbIncome(String userNo, List<AccountBucket> buckets, int bucketCount) {
+        BigDecimal totalIncome = BigDecimal.ZERO;
+        BigDecimal todayIncome = BigDecimal.ZERO;
+        for (AccountBucket bucket : buckets) {
+            if (bucket.getBucketNo() <= bucketCount) {
+                continue;
+            }
+            totalIncome = totalIncome.add(bucket.getTotalIncome());
+            if (ledgerClock.isToday(bucket.getCounterDay())) {
+                todayIncome = todayIncome.add(bucket.getTodayIncome());
+            }
+        }
+        if (totalIncome.signum() == 0 && todayIncome.signum() == 0) {
+            return;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("totalIncome", totalIncome);
+        params.put("todayIncome", todayIncome);
+        params.put("todayBegin", ledgerClock.todayBegin());
+        params.put("editTime", new Date());
+        accountMapper.absorbBucketIncome(params);
+        log.info("删除分桶并入收益，userNo={}, totalIncome={}, todayIncome={}", userNo, totalIncome, todayIncome);
+    }
+}
@@ -0,0 +1,94 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 今日统计跨天批量清0
+ *
+ * 查询不再因为跨天写库，返回值中的今日统计按counter_day在内存中判断；
+ * 库中前一天的today_income/today_expend由本任务在低峰期按id区间分块清0，每块一条条件update，块之间停顿，
+ * 避免长事务和大范围行锁。只更新counter_day早于今天的行，可重复执行，多节点同时执行也不会重复清0当天的统计。
+ * 内存记账模式下不执行：引擎内的账户按counter_day在下一笔记账时清0，写回时一并落库。
+ */
+@Slf4j
+@Component
+public class CounterRolloverJob {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+    @Autowired
+    private LedgerEngine ledgerEngine;
+
+    @Value("${account.ledger.counter-rollover.enabled:true}")
+    private boolean enabled;
+
+    /** 每块的id区间长度 **/
+    @Value("${account.ledger.counter-rollover.chunk-size:1000}")
+    private int chunkSize;
+
+    /** 块之间的停顿(毫秒) **/
+    @Value("${account.ledger.counter-rollover.pause-millis:20}")
+    private long pauseMillis;
+
+    /**
+     * 按cron在低峰期执行，默认每天02:30
+     */
+    @Scheduled(cron = "${account.ledger.counter-rollover.cron:0 30 2 * * ?}")
+    public void rollover() {
+        if (!enabled) {
+            return;
+        }
+        if (ledgerEngine.isEnabled()) {
+            log.info("内存记账模式下不执行今日统计跨天清0");
+            return;
+        }
+        try {
+            rollover(ledgerClock.todayBegin());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把统计日期早于todayBegin的账户今日统计清0
+     *
+     * @return 清0的账户数
+     */
+    public long rollover(Date todayBegin) throws InterruptedException {
+        Integer maxId = accountMapper.getMaxId();
+        if (maxId == null) {
+            return 0;
+        }
+        long begin = System.currentTimeMillis();
+        long total = 0;
+        for (int fromId = 0; fromId < maxId; fromId += chunkSize) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("todayBegin", todayBegin);
+            params.put("fromId", fromId);
+            params.put("toId", (int) Math.min((long) fromId + chunkSize, maxId));
+            total += accountMapper.rolloverCounters(params);
+            if (pauseMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(pauseMillis);
+            }
+        }
+        log.info("今日统计跨天清0完成，counterDay={}, accounts={}, maxId={}, costMillis={}",
+                DateUtils.formatDate(todayBegin, "yyyy-MM-dd"), total, maxId, System.currentTimeMillis() - begin);
+        return total;
+    }
+}
@@ -0,0 +1,296 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.LedgerResult;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 组提交记账
+ *
+ * 调用方把加/减款指令放入有界队列后等待CompletableFuture；写线程每隔几毫秒取走一批，
+ * 交给LedgerBatchExecutor在一个事务内完成：同一账户的多条指令合并为一次带锁读取和一次update，
+ * 账户历史一次多行insert，提交后再逐条回调。以几毫秒的延迟换热点账户上成倍的吞吐。
+ *
+ * 按userNo哈希到固定的写线程，同一账户的指令始终由同一线程按入队顺序处理，写线程之间不争抢行锁。
+ * 某一块因非业务异常(唯一键冲突、锁等待超时等)整块回滚时，该块的指令逐条重新执行，只有出错的那条失败。
+ */
+@Slf4j
+@Component
+public class GroupCommitWriter {
+
+    @Autowired
+    private LedgerBatchExecutor ledgerBatchExecutor;
+
+    @Value("${account.ledger.group-commit.enabled:false}")
+    private boolean enabled;
+
+    /** 走组提交的业务类型(TrxTypeEnum)，逗号分隔 **/
+    @Value("${account.ledger.group-commit.trx-types:}")
+    private String trxTypes;
+
+    /** 写线程数 **/
+    @Value("${account.ledger.group-commit.writers:2}")
+    private int writers;
+
+    /** 每个写线程的队列容量，队列满时退回同步记账 **/
+    @Value("${account.ledger.group-commit.queue-capacity:10000}")
+    private int queueCapacity;
+
+    /** 单批最大指令数 **/
+    @Value("${account.ledger.group-commit.max-batch:200}")
+    private int maxBatch;
+
+    /** 取到第一条指令后最多再等待多久凑批(毫秒) **/
+    @Value("${account.ledger.group-commit.linger-millis:5}")
+    private long lingerMillis;
+
+    /** 调用方等待提交结果的最长时间(毫秒) **/
+    @Value("${account.ledger.group-commit.await-millis:30000}")
+    private long awaitMillis;
+
+    private final Set<String> enabledTrxTypes = new HashSet<>();
+    private final LedgerHistogram batchSize = new LedgerHistogram("batchSize", "");
+    private final LedgerHistogram commitMillis = new LedgerHistogram("commitLatency", "ms");
+    private final LedgerHistogram waitMillis = new LedgerHistogram("callerWait", "ms");
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    private Writer[] writerArray;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        for (String type : trxTypes.split(",")) {
+            if (!type.trim().isEmpty()) {
+                enabledTrxTypes.add(type.trim().toUpperCase());
+            }
+        }
+        if (!enabled || enabledTrxTypes.isEmpty()) {
+            return;
+        }
+        running = true;
+        writerArray = new Writer[Math.max(writers, 1)];
+        for (int i = 0; i < writerArray.length; i++) {
+            writerArray[i] = new Writer(new ArrayBlockingQueue<>(queueCapacity));
+            Thread thread = new Thread(writerArray[i], "ledger-group-commit-" + i);
+            thread.setDaemon(true);
+            writerArray[i].thread = thread;
+            thread.start();
+        }
+        log.info("组提交记账已开启，trxTypes={}, writers={}, maxBatch={}, lingerMillis={}",
+                enabledTrxTypes, writerArray.length, maxBatch, lingerMillis);
+    }
+
+    /**
+     * 该业务类型是否走组提交
+     */
+    public boolean accepts(String trxType) {
+        return running && trxType != null && enabledTrxTypes.contains(trxType);
+    }
+
+    /**
+     * 指令入队
+     *
+     * @return 提交完成后回调的future；队列已满返回null，由调用方退回同步记账
+     */
+    public CompletableFuture<Account> submit(LedgerCommand command) {
+        Pending pending = new Pending(command);
+        int h = command.getUserNo().hashCode();
+        Writer writer = writerArray[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % writerArray.length];
+        if (!writer.queue.offer(pending)) {
+            rejected.increment();
+            return null;
+        }
+        return pending.future;
+    }
+
+    /**
+     * 等待提交结果，业务异常原样抛出
+     */
+    public Account await(CompletableFuture<Account> future) {
+        long begin = System.nanoTime();
+        try {
+            return future.get(awaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED;
+        } catch (TimeoutException e) {
+            throw AccountBizException.ACCOUNT_GROUP_COMMIT_TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AccountBizException.ACCOUNT_GROUP_COMMIT_TIMEOUT;
+        } finally {
+            waitMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        }
+    }
+
+    /**
+     * 周期性输出批大小和提交耗时分布并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!running || batchSize.getCount() == 0) {
+            return;
+        }
+        int queued = 0;
+        for (Writer writer : writerArray) {
+            queued += writer.queue.size();
+        }
+        log.info("组提交统计 {}, {}, {}, queued={}, rejected={}, retried={}", batchSize, commitMillis, waitMillis, queued,
+                rejected.sumThenReset(), retried.sumThenReset());
+        batchSize.reset();
+        commitMillis.reset();
+        waitMillis.reset();
+    }
+
+    /**
+     * 停止接收新指令，写线程处理完队列中剩余指令后退出
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Writer writer : writerArray) {
+            try {
+                writer.thread.join(awaitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        List<LedgerCommand> commands = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            commands.add(pending.command);
+        }
+        Account[] snapshots = new Account[batch.size()];
+        long begin = System.nanoTime();
+        List<LedgerResult> results;
+        try {
+            results = ledgerBatchExecutor.execute(commands, snapshots);
+            if (batch.size() > 1) {
+                retryChunkFailures(commands, results, snapshots);
+            }
+        } catch (RuntimeException e) {
+            log.error("组提交批次执行失败，size={}", batch.size(), e);
+            for (Pending pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+        commitMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        batchSize.record(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            LedgerResult result = results.get(i);
+            if (result.isSuccess()) {
+                batch.get(i).future.complete(snapshots[i]);
+            } else {
+                batch.get(i).future.completeExceptionally(new AccountBizException(result.getCode(), result.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * 整块回滚的指令按下标顺序逐条重新执行，每条一个事务；同一账户的指令总在同一块内，逐条执行仍保持入队顺序
+     */
+    private void retryChunkFailures(List<LedgerCommand> commands, List<LedgerResult> results, Account[] snapshots) {
+        int failedCode = AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED.getCode();
+        int count = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            if (results.get(i).isSuccess() || results.get(i).getCode() != failedCode) {
+                continue;
+            }
+            Account[] single = new Account[1];
+            results.set(i, ledgerBatchExecutor.execute(Collections.singletonList(commands.get(i)), single).get(0));
+            snapshots[i] = single[0];
+            count++;
+        }
+        if (count > 0) {
+            retried.add(count);
+            log.warn("组提交整块回滚，逐条重新执行，size={}, retried={}", commands.size(), count);
+        }
+    }
+
+    private static class Pending {
+        private final LedgerCommand command;
+        private final CompletableFuture<Account> future = new CompletableFuture<>();
+
+        private Pending(LedgerCommand command) {
+            this.command = command;
+        }
+    }
+
+    private class Writer implements Runnable {
+        private final BlockingQueue<Pending> queue;
+        private Thread thread;
+
+        private Writer(BlockingQueue<Pending> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            List<Pending> batch = new ArrayList<>(maxBatch);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                    while (batch.size() < maxBatch) {
+                        queue.drainTo(batch, maxBatch - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatch || remaining <= 0) {
+                            break;
+                        }
+                        Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    commit(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (Pending pending : batch) {
+                        pending.future.completeExceptionally(AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED);
+                    }
+                    break;
+                } catch (RuntimeException e) {
+                    log.error("组提交写线程异常", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记账请求号幂等登记
+ *
+ * 三层判断同一账户的requestNo是否已记过账：
+ * 1. 最近结果LRU：命中直接返回当时的账户快照，不碰行锁也不查库；
+ * 2. 布隆过滤器：判定不存在的请求(绝大多数首次请求)跳过数据库存在性检查；
+ * 3. 数据库：布隆过滤器判定可能存在时按唯一键(account_no, request_no)查账户历史确认，兜底也由该唯一键保证。
+ *
+ * 布隆过滤器在启动时流式扫描账户历史重建，重建完成前所有请求都查库。
+ * 重放结果：LRU命中返回当时记账后的账户；LRU已淘汰、由数据库确认的重复请求不保存当时的结果，返回账户的当前状态
+ * (之后的记账已反映在余额中)，调用方只能据此判断请求已处理，不能当作该笔记账后的余额。
+ */
+@Slf4j
+@Component
+public class IdempotencyRegistry {
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+
+    @Value("${account.ledger.idempotency.enabled:true}")
+    private boolean enabled;
+
+    /** 布隆过滤器预计容量，超出后误判率上升，但不影响正确性 **/
+    @Value("${account.ledger.idempotency.expected-insertions:10000000}")
+    private long expectedInsertions;
+
+    /** 布隆过滤器误判率 **/
+    @Value("${account.ledger.idempotency.fpp:0.001}")
+    private double fpp;
+
+    /** 最近结果LRU容量 **/
+    @Value("${account.ledger.idempotency.recent-size:100000}")
+    private long recentSize;
+
+    private volatile BloomFilter<CharSequence> bloomFilter;
+    private volatile boolean ready;
+    private Cache<String, Account> recent;
+
+    private final LongAdder recentHits = new LongAdder();
+    private final LongAdder bloomSkips = new LongAdder();
+    private final LongAdder dbChecks = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        this.recent = CacheBuilder.newBuilder().maximumSize(recentSize).build();
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "idempotency-bloom-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 流式扫描账户历史重建布隆过滤器；扫描期间新登记的请求号直接写入新过滤器，扫描完成前不用过滤器做判定
+     */
+    public void rebuild() {
+        long begin = System.currentTimeMillis();
+        BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp);
+        this.ready = false;
+        this.bloomFilter = filter;
+        LongAdder loaded = new LongAdder();
+        try {
+            accountHistoryMapper.streamRequestKeys(context -> {
+                Map<String, Object> row = context.getResultObject();
+                if (row.get("userNo") != null) {
+                    put(filter, key((String) row.get("userNo"), (String) row.get("requestNo")));
+                    loaded.increment();
+                }
+            });
+        } catch (Exception e) {
+            // 重建失败保持未就绪，所有请求继续查库
+            log.error("幂等布隆过滤器重建失败", e);
+            return;
+        }
+        this.ready = true;
+        if (loaded.sum() > expectedInsertions) {
+            log.warn("幂等布隆过滤器超出预计容量，expected={}, loaded={}", expectedInsertions, loaded.sum());
+        }
+        log.info("幂等布隆过滤器重建完成，loaded={}, fpp={}, cost={}ms", loaded.sum(), filter.expectedFpp(),
+                System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 查找该请求号之前的记账结果
+     *
+     * @return 之前记账后的账户；从数据库确认的重复请求返回账户当前状态；首次请求返回null
+     */
+    public Account lookup(String userNo, String requestNo) {
+        if (!enabled || userNo == null || requestNo == null || requestNo.isEmpty()) {
+            return null;
+        }
+        String key = key(userNo, requestNo);
+        Account cached = recent.getIfPresent(key);
+        if (cached != null) {
+            recentHits.increment();
+            replays.increment();
+            return cached;
+        }
+        BloomFilter<CharSequence> filter = this.bloomFilter;
+        if (ready && filter != null && !filter.mightContain(key)) {
+            bloomSkips.increment();
+            return null;
+        }
+        return lookupFromDb(userNo, requestNo);
+    }
+
+    /**
+     * 跳过LRU和布隆过滤器直接查库，唯一键冲突后确认用；先取账户得到accountNo，再按唯一键(account_no, request_no)查账户历史
+     *
+     * @return 重复请求返回账户当前状态，不是该笔记账后的快照；首次请求返回null
+     */
+    public Account lookupFromDb(String userNo, String requestNo) {
+        dbChecks.increment();
+        Map<String, Object> accountParams = new HashMap<String, Object>();
+        accountParams.put("userNo", userNo);
+        accountParams.put("isPessimist", false);
+        Account account = accountMapper.getBy(accountParams);
+        if (account == null) {
+            return null;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("accountNo", account.getAccountNo());
+        params.put("requestNo", requestNo);
+        if (accountHistoryMapper.countByAccountRequest(params) == 0) {
+            return null;
+        }
+        replays.increment();
+        recent.put(key(userNo, requestNo), account);
+        return account;
+    }
+
+    /**
+     * 记账事务提交后登记请求号
+     */
+    public void record(String userNo, String requestNo, Account account) {
+        if (!enabled || userNo == null || requestNo == null || requestNo.isEmpty() || account == null) {
+            return;
+        }
+        String key = key(userNo, requestNo);
+        BloomFilter<CharSequence> filter = this.bloomFilter;
+        if (filter != null) {
+            put(filter, key);
+        }
+        recent.put(key, account);
+    }
+
+    /**
+     * 周期性输出命中情况并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!enabled) {
+            return;
+        }
+        long checks = dbChecks.sumThenReset();
+        long skips = bloomSkips.sumThenReset();
+        long hits = recentHits.sumThenReset();
+        long replayed = replays.sumThenReset();
+        if (checks + skips + hits == 0) {
+            return;
+        }
+        log.info("幂等登记统计 ready={}, recentHits={}, bloomSkips={}, dbChecks={}, replays={}, recentSize={}",
+                ready, hits, skips, checks, replayed, recent.size());
+    }
+
+    /**
+     * guava 19的BloomFilter写入不是线程安全的，写入串行化；读取与写入并发最多造成短暂的漏判，由唯一键兜底
+     */
+    private static void put(BloomFilter<CharSequence> filter, String key) {
+        synchronized (filter) {
+            filter.put(key);
+        }
+    }
+
+    private static String key(String userNo, String requestNo) {
+        return userNo + "|" + requestNo;
+    }
+}
@@ -0,0 +1,300 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.LedgerResult;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.api.ex.BizException;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 批量记账
+ *
+ * 指令按userNo分组、按userNo升序切块，每块一个事务：
+ * 每个账户只带锁读取一次，内存中依次计算全部指令后整行写回一次，账户历史多行insert一次写入。
+ * 同一账户的指令保持请求中的先后顺序，单条业务校验失败不影响同块其他指令。
+ */
+@Slf4j
+@Component
+public class LedgerBatchExecutor {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private IdempotencyRegistry idempotencyRegistry;
+    @Autowired
+    private LedgerStatsAccumulator ledgerStatsAccumulator;
+    @Autowired
+    private LedgerJournal ledgerJournal;
+
+    /** 每块的指令条数上限，同一账户的指令不会被拆到两块 **/
+    @Value("${account.ledger.batch.chunk-size:200}")
+    private int chunkSize;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    /**
+     * 执行批量指令
+     *
+     * @return 与commands下标一一对应的执行结果
+     */
+    public List<LedgerResult> execute(List<LedgerCommand> commands) {
+        return execute(commands, null);
+    }
+
+    /**
+     * 执行批量指令，并记录每条成功指令执行后的账户快照
+     *
+     * @param snapshots
+     *            与commands等长，为null时不返回快照
+     * @return 与commands下标一一对应的执行结果
+     */
+    public List<LedgerResult> execute(List<LedgerCommand> commands, Account[] snapshots) {
+        if (commands == null || commands.isEmpty()) {
+            return new ArrayList<>();
+        }
+        LedgerResult[] results = new LedgerResult[commands.size()];
+        // 成功指令的快照用于事务提交后登记幂等结果
+        Account[] accounts = snapshots != null ? snapshots : new Account[commands.size()];
+
+        // userNo -> 该账户的指令下标，保持请求内顺序
+        TreeMap<String, List<Integer>> groups = new TreeMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            LedgerCommand command = commands.get(i);
+            AccountBizException illegal = LedgerCalculator.validate(command);
+            if (illegal != null) {
+                results[i] = LedgerResult.fail(command, illegal.getCode(), illegal.getMsg());
+                continue;
+            }
+            groups.computeIfAbsent(command.getUserNo(), k -> new ArrayList<>()).add(i);
+        }
+
+        Map<String, List<Integer>> chunk = new TreeMap<>();
+        int chunkCommands = 0;
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            chunkCommands += entry.getValue().size();
+            if (chunkCommands >= chunkSize) {
+                executeChunk(commands, chunk, results, accounts);
+                chunk = new TreeMap<>();
+                chunkCommands = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            executeChunk(commands, chunk, results, accounts);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 一块一个事务，先在事务外按分段顺序加JVM锁
+     */
+    private void executeChunk(List<LedgerCommand> commands, Map<String, List<Integer>> chunk, LedgerResult[] results,
+                              Account[] snapshots) {
+        List<Lock> locks = stripedAccountLock.isEnabled() ? stripedAccountLock.lockAll(chunk.keySet()) : new ArrayList<>();
+        try {
+            transactionTemplate.execute(status -> {
+                applyChunk(commands, chunk, results, snapshots);
+                return null;
+            });
+            // 已提交，仍持有分段锁时追加流水日志，同一账户按提交顺序
+            journal(commands, chunk, results, snapshots);
+        } catch (RuntimeException e) {
+            log.error("批量记账整块回滚，accounts={}", chunk.size(), e);
+            int code = e instanceof BizException ? ((BizException) e).getCode() : AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED.getCode();
+            String message = e instanceof BizException ? ((BizException) e).getMsg() : AccountBizException.ACCOUNT_BATCH_CHUNK_FAILED.getMsg();
+            for (List<Integer> indexes : chunk.values()) {
+                for (Integer i : indexes) {
+                    results[i] = LedgerResult.fail(commands.get(i), code, message);
+                }
+            }
+            return;
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+        recordIdempotency(commands, chunk, results, snapshots);
+    }
+
+    /**
+     * 按userNo升序逐个账户：(分桶归集) -> 带锁读取 -> 内存计算 -> 整行写回，最后一次性写入账户历史。
+     * 加锁顺序与单笔接口一致(先分桶后主账户)，且各账户按userNo升序，块之间不会死锁。
+     */
+    private void applyChunk(List<LedgerCommand> commands, Map<String, List<Integer>> chunk, LedgerResult[] results,
+                            Account[] snapshots) {
+        List<AccountHistory> histories = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : chunk.entrySet()) {
+            String userNo = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            if (accountBucketManager.bucketCount(userNo) > 0 && hasOutflow(commands, indexes)) {
+                accountBucketManager.sweep(userNo);
+            }
+            Account account = getForUpdate(userNo);
+            if (account == null) {
+                for (Integer i : indexes) {
+                    results[i] = LedgerResult.fail(commands.get(i), AccountBizException.ACCOUNT_NOT_EXIT.getCode(),
+                            AccountBizException.ACCOUNT_NOT_EXIT.getMsg());
+                }
+                continue;
+            }
+            boolean changed = false;
+            Set<String> applied = new HashSet<>();
+            for (Integer i : indexes) {
+                LedgerCommand command = commands.get(i);
+                if (isIdempotent(command)) {
+                    // 本块内已执行过的请求号返回当前状态，之前已提交的请求号返回登记的结果
+                    Account prior = applied.contains(command.getRequestNo()) ? account : idempotencyRegistry.lookup(userNo, command.getRequestNo());
+                    if (prior != null) {
+                        results[i] = LedgerResult.replay(command, prior.getBalance(), prior.getUnbalance());
+                        snapshots[i] = copyOf(prior);
+                        continue;
+                    }
+                }
+                try {
+                    AccountHistory history = LedgerCalculator.apply(account, command);
+                    if (history != null) {
+                        histories.add(history);
+                    }
+                    results[i] = LedgerResult.ok(command, account.getBalance(), account.getUnbalance());
+                    snapshots[i] = copyOf(account);
+                    if (isIdempotent(command)) {
+                        applied.add(command.getRequestNo());
+                    }
+                    addStatsAsync(command);
+                    changed = true;
+                } catch (AccountBizException e) {
+                    results[i] = LedgerResult.fail(command, e.getCode(), e.getMsg());
+                }
+            }
+            if (changed) {
+                if (ledgerStatsAccumulator.isEnabled()) {
+                    // 统计字段由LedgerStatsAccumulator异步写回
+                    accountMapper.updateBalance(account);
+                } else {
+                    accountMapper.update(account);
+                }
+            }
+        }
+        if (!histories.isEmpty()) {
+            accountHistoryMapper.insertBatch(histories);
+        }
+    }
+
+    /**
+     * 统计字段异步写回时，按指令类型在事务提交后累计统计增量
+     */
+    private void addStatsAsync(LedgerCommand command) {
+        if (!ledgerStatsAccumulator.isEnabled()) {
+            return;
+        }
+        Money amount = Money.of(command.getAmount());
+        switch (command.getType()) {
+            case CREDIT:
+                if (TrxTypeEnum.EXPENSE.name().equals(command.getTrxType())) {
+                    ledgerStatsAccumulator.addAfterCommit(command.getUserNo(), amount, Money.ZERO, Money.ZERO);
+                }
+                break;
+            case DEBIT:
+                ledgerStatsAccumulator.addAfterCommit(command.getUserNo(), Money.ZERO, amount, Money.ZERO);
+                break;
+            case UNFREEZE:
+                ledgerStatsAccumulator.addAfterCommit(command.getUserNo(), Money.ZERO, amount, amount.negate());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private boolean isIdempotent(LedgerCommand command) {
+        return command.getType().recordsHistory() && command.getRequestNo() != null && !command.getRequestNo().isEmpty();
+    }
+
+    /**
+     * 事务提交后登记本块成功指令的请求号
+     */
+    private void recordIdempotency(List<LedgerCommand> commands, Map<String, List<Integer>> chunk, LedgerResult[] results,
+                                   Account[] snapshots) {
+        for (List<Integer> indexes : chunk.values()) {
+            for (Integer i : indexes) {
+                LedgerCommand command = commands.get(i);
+                if (results[i].isSuccess() && !results[i].isReplayed() && isIdempotent(command)) {
+                    idempotencyRegistry.record(command.getUserNo(), command.getRequestNo(), snapshots[i]);
+                }
+            }
+        }
+    }
+
+    private void journal(List<LedgerCommand> commands, Map<String, List<Integer>> chunk, LedgerResult[] results,
+                         Account[] snapshots) {
+        if (!ledgerJournal.isEnabled()) {
+            return;
+        }
+        for (List<Integer> indexes : chunk.values()) {
+            for (Integer i : indexes) {
+                LedgerCommand command = commands.get(i);
+                if (results[i].isSuccess() && !results[i].isReplayed()) {
+                    ledgerJournal.append(snapshots[i], command.getType(), command.getAmount(), command.getTrxType(),
+                            command.getRequestNo());
+                }
+            }
+        }
+    }
+
+    private Account copyOf(Account account) {
+        Account snapshot = new Account();
+        BeanUtils.copyProperties(account, snapshot);
+        return snapshot;
+    }
+
+    private boolean hasOutflow(List<LedgerCommand> commands, List<Integer> indexes) {
+        for (Integer i : indexes) {
+            if (commands.get(i).getType().isOutflow()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Account getForUpdate(String userNo) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("userNo", userNo);
+        map.put("isPessimist", true);
+        return accountMapper.getBy(map);
+    }
+}
@@ -0,0 +1,247 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.PublicEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 账户变更的内存计算
+ *
+ * 先校验后修改：校验不通过直接抛出业务异常，账户对象保持原样，
+ * 批量场景下单条失败不会污染同一账户后续指令的计算。
+ */
+public final class LedgerCalculator {
+
+    private LedgerCalculator() {
+    }
+
+    /**
+     * 加款：累加余额，交易类型累计收益
+     */
+    public static void applyCredit(Account account, BigDecimal amount, String trxType) {
+        applyCredit(account, Money.toMinor(amount), trxType);
+    }
+
+    /**
+     * 减款：校验可用余额后减少总余额
+     */
+    public static void applyDebit(Account account, BigDecimal amount) {
+        applyDebit(account, Money.toMinor(amount));
+    }
+
+    /**
+     * 冻结：校验可用余额后增加不可用余额
+     */
+    public static void applyFreeze(Account account, BigDecimal freezeAmount) {
+        applyFreeze(account, Money.toMinor(freezeAmount));
+    }
+
+    /**
+     * 解冻+减款
+     */
+    public static void applyUnFreeze(Account account, BigDecimal amount) {
+        applyUnFreeze(account, Money.toMinor(amount));
+    }
+
+    /**
+     * 解冻
+     */
+    public static void applyUnFreezeSett(Account account, BigDecimal amount) {
+        applyUnFreezeSett(account, Money.toMinor(amount));
+    }
+
+    /////////////////////// 按分计算 ///////////////////////////
+    // 请求金额按分做long运算，溢出抛出ArithmeticException；只写回本次修改的字段，库中分以下的尾数原样保留
+
+    private static void applyCredit(Account account, long amount, String trxType) {
+        BigDecimal balance = Money.addToStored(account.getBalance(), amount);
+        // 不是同一天直接清0
+        rollover(account);
+
+        // 总收益累加和今日收益
+        if (TrxTypeEnum.EXPENSE.name().equals(trxType)) {// 业务类型是交易
+            BigDecimal totalIncome = Money.addToStored(account.getTotalIncome(), amount);
+            BigDecimal todayIncome = Money.addToStored(account.getTodayIncome(), amount);
+            account.setTotalIncome(totalIncome);
+            account.setTodayIncome(todayIncome);
+        }
+
+        /** 设置余额的值 **/
+        account.setBalance(balance);
+        account.setEditTime(LedgerClock.current().now());
+    }
+
+    private static void applyDebit(Account account, long amount) {
+        // 获取可用余额
+        if (Money.availableMinor(account.getBalance(), account.getUnbalance()) < amount) {
+            throw AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT;
+        }
+        BigDecimal balance = Money.addToStored(account.getBalance(), Math.negateExact(amount));
+
+        /** 减少总余额 **/
+        addExpend(account, amount);
+        account.setBalance(balance);
+        account.setEditTime(LedgerClock.current().now());
+    }
+
+    private static void applyFreeze(Account account, long freezeAmount) {
+        // 比较可用余额和冻结金额
+        if (Money.availableMinor(account.getBalance(), account.getUnbalance()) < freezeAmount) {
+            // 可用余额不足
+            throw AccountBizException.ACCOUNT_FROZEN_AMOUNT_OUTLIMIT;
+        }
+        BigDecimal unbalance = Money.addToStored(account.getUnbalance(), freezeAmount);
+        account.setEditTime(LedgerClock.current().now());
+        account.setUnbalance(unbalance);
+    }
+
+    private static void applyUnFreeze(Account account, long amount) {
+        // 判断解冻金额是否充足
+        if (Money.storedFloorMinor(account.getUnbalance()) < amount) {
+            // 解冻金额超限
+            throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+        }
+        BigDecimal balance = Money.addToStored(account.getBalance(), Math.negateExact(amount));
+        BigDecimal unbalance = Money.addToStored(account.getUnbalance(), Math.negateExact(amount));
+        BigDecimal settAmount = Money.addToStored(account.getSettAmount(), Math.negateExact(amount));
+        addExpend(account, amount);
+        account.setEditTime(LedgerClock.current().now());
+        account.setBalance(balance);// 减款
+        account.setUnbalance(unbalance);// 解冻
+        account.setSettAmount(settAmount);// 减少可结算金额
+    }
+
+    private static void applyUnFreezeSett(Account account, long amount) {
+        // 判断解冻金额是否充足
+        if (Money.storedFloorMinor(account.getUnbalance()) < amount) {
+            // 解冻金额超限
+            throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+        }
+        BigDecimal unbalance = Money.addToStored(account.getUnbalance(), Math.negateExact(amount));
+        rollover(account);
+        account.setEditTime(LedgerClock.current().now());
+        account.setUnbalance(unbalance);// 解冻
+    }
+
+    /**
+     * 累计今日支出和总支出，跨天先清0今日统计
+     */
+    private static void addExpend(Account account, long amount) {
+        BigDecimal totalExpend = Money.addToStored(account.getTotalExpend(), amount);
+        rollover(account);
+        BigDecimal todayExpend = Money.addToStored(account.getTodayExpend(), amount);
+        account.setTodayExpend(todayExpend);
+        account.setTotalExpend(totalExpend);
+    }
+
+    /**
+     * 今日统计是否属于今天：按counter_day判断，升级前没有counter_day的按edit_time判断
+     */
+    public static boolean isCountedToday(Account account) {
+        Date counted = account.getCounterDay() != null ? account.getCounterDay() : account.getEditTime();
+        return LedgerClock.current().isToday(counted);
+    }
+
+    /**
+     * 读取时跨天：今日统计不属于今天的只在内存中清0，不写库
+     */
+    public static Account rolloverOnRead(Account account) {
+        if (account != null && !isCountedToday(account)) {
+            account.setTodayExpend(BigDecimal.ZERO);
+            account.setTodayIncome(BigDecimal.ZERO);
+        }
+        return account;
+    }
+
+    /**
+     * 记账时跨天：今日统计不属于今天时清0，并归到今天
+     */
+    private static void rollover(Account account) {
+        if (!isCountedToday(account)) {
+            account.setTodayExpend(BigDecimal.ZERO);
+            account.setTodayIncome(BigDecimal.ZERO);
+        }
+        account.setCounterDay(LedgerClock.current().todayBegin());
+    }
+
+    /**
+     * 校验指令的必填项和金额
+     *
+     * @return 不合法时返回对应的业务异常，合法返回null
+     */
+    public static AccountBizException validate(LedgerCommand command) {
+        if (command == null || command.getType() == null || command.getUserNo() == null || command.getAmount() == null) {
+            return AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+        }
+        if (command.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            return AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
+        }
+        // 金额精确到分
+        if (Money.hasRemainder(command.getAmount())) {
+            return AccountBizException.ACCOUNT_AMOUNT_SCALE_ILLEGAL;
+        }
+        return null;
+    }
+
+    /**
+     * 在内存账户上执行一条指令
+     *
+     * @return 需要记录的账户历史，冻结/解冻不记历史时返回null
+     */
+    public static AccountHistory apply(Account account, LedgerCommand command) {
+        BigDecimal amount = command.getAmount();
+        long minor = Money.toMinor(amount);
+        switch (command.getType()) {
+            case CREDIT:
+                applyCredit(account, minor, command.getTrxType());
+                return buildHistory(account, amount, command.getRequestNo(), command.getBankTrxNo(),
+                        command.getTrxType(), command.getRemark(), AccountFundDirectionEnum.ADD, PublicEnum.YES);
+            case DEBIT:
+                applyDebit(account, minor);
+                return buildHistory(account, amount, command.getRequestNo(), command.getBankTrxNo(),
+                        command.getTrxType(), command.getRemark(), AccountFundDirectionEnum.SUB, PublicEnum.YES);
+            case FREEZE:
+                applyFreeze(account, minor);
+                return null;
+            case UNFREEZE:
+                applyUnFreeze(account, minor);
+                return buildHistory(account, amount, command.getRequestNo(), null,
+                        command.getTrxType(), command.getRemark(), AccountFundDirectionEnum.SUB, PublicEnum.NO);
+            case UNFREEZE_SETT:
+                applyUnFreezeSett(account, minor);
+                return null;
+            default:
+                throw AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+        }
+    }
+
+    /**
+     * 根据变更后的账户构造账户历史
+     */
+    public static AccountHistory buildHistory(Account account, BigDecimal amount, String requestNo, String bankTrxNo, String trxType,
+                                              String remark, AccountFundDirectionEnum fundDirection, PublicEnum isAllowSett) {
+        Date now = LedgerClock.current().now();
+        AccountHistory accountHistoryEntity = new AccountHistory();
+        accountHistoryEntity.setCreateTime(now);
+        accountHistoryEntity.setEditTime(now);
+        accountHistoryEntity.setIsAllowSett(isAllowSett.name());
+        accountHistoryEntity.setAmount(amount);
+        accountHistoryEntity.setBalance(account.getBalance());
+        accountHistoryEntity.setRequestNo(requestNo);
+        accountHistoryEntity.setBankTrxNo(bankTrxNo);
+        accountHistoryEntity.setIsCompleteSett(PublicEnum.NO.name());
+        accountHistoryEntity.setRemark(remark);
+        accountHistoryEntity.setFundDirection(fundDirection.name());
+        accountHistoryEntity.setAccountNo(account.getAccountNo());
+        accountHistoryEntity.setTrxType(trxType);
+        accountHistoryEntity.setUserNo(account.getUserNo());
+        return accountHistoryEntity;
+    }
+}
@@ -0,0 +1,150 @@
+package com.zhangpeng.account.core.ledger;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * 记账日期时钟
+ *
+ * 缓存当天的epoch-day和起止时间戳，判断是否今天只比较两个long，不创建Calendar/Date。
+ * 定时刷新，调用时发现已过下一个0点也会立即刷新，0点前后不会误判。
+ * 静态工具类(LedgerCalculator)通过current()取得Spring中的实例；测试可传入固定或偏移的Clock构造后调用use()替换。
+ */
+@Component
+public class LedgerClock {
+
+    private static volatile LedgerClock current;
+
+    private final Clock clock;
+    private final ZoneId zone;
+
+    /** 当天，整体替换，读取方无需加锁 **/
+    private volatile Day day;
+
+    public LedgerClock() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public LedgerClock(Clock clock) {
+        this.clock = clock;
+        this.zone = clock.getZone();
+        this.day = computeDay();
+    }
+
+    @PostConstruct
+    public void init() {
+        use(this);
+    }
+
+    /**
+     * 当前使用的时钟，Spring容器未启动时使用系统时钟
+     */
+    public static LedgerClock current() {
+        LedgerClock clock = current;
+        if (clock == null) {
+            synchronized (LedgerClock.class) {
+                if (current == null) {
+                    current = new LedgerClock();
+                }
+                clock = current;
+            }
+        }
+        return clock;
+    }
+
+    /**
+     * 替换当前使用的时钟
+     */
+    public static void use(LedgerClock clock) {
+        current = clock;
+    }
+
+    /**
+     * 定时检查是否跨天
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.clock.tick-millis:1000}")
+    public void tick() {
+        today();
+    }
+
+    public long currentTimeMillis() {
+        return clock.millis();
+    }
+
+    /**
+     * 当前时间，记账写入的edit_time/create_time取自这里，与跨天判断用同一个时钟
+     */
+    public Date now() {
+        return new Date(clock.millis());
+    }
+
+    /**
+     * 今天的epoch-day(1970-01-01起的天数，按本地时区)
+     */
+    public long todayEpochDay() {
+        return today().epochDay;
+    }
+
+    /**
+     * 今天0点的时间戳
+     */
+    public long todayStartMillis() {
+        return today().startMillis;
+    }
+
+    /**
+     * 今天0点
+     */
+    public Date todayBegin() {
+        return new Date(today().startMillis);
+    }
+
+    /**
+     * 时间戳是否在今天
+     */
+    public boolean isToday(long epochMillis) {
+        Day d = today();
+        return epochMillis >= d.startMillis && epochMillis < d.nextStartMillis;
+    }
+
+    /**
+     * 日期是否在今天，为空返回false
+     */
+    public boolean isToday(Date date) {
+        return date != null && isToday(date.getTime());
+    }
+
+    private Day today() {
+        Day d = day;
+        if (clock.millis() >= d.nextStartMillis) {
+            // 并发刷新的结果相同，重复计算无害
+            d = computeDay();
+            day = d;
+        }
+        return d;
+    }
+
+    private Day computeDay() {
+        LocalDate today = LocalDate.now(clock);
+        return new Day(today.toEpochDay(), today.atStartOfDay(zone).toInstant().toEpochMilli(),
+                today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+    }
+
+    private static class Day {
+        private final long epochDay;
+        private final long startMillis;
+        private final long nextStartMillis;
+
+        private Day(long epochDay, long startMillis, long nextStartMillis) {
+            this.epochDay = epochDay;
+            this.startMillis = startMillis;
+            this.nextStartMillis = nextStartMillis;
+        }
+    }
+}
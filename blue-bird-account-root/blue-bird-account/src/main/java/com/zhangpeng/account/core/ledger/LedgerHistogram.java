@@ -0,0 +1,85 @@
+package com.zhangpeng.account.core.ledger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按2的幂分桶的无锁直方图，用于批大小、提交耗时等统计
+ *
+ * 第i个桶记录[2^(i-1), 2^i)范围内的值(第0个桶只记0)，分位数返回所在桶的上界，精度在2倍以内，够定位问题用。
+ */
+public class LedgerHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LedgerHistogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(v));
+        total.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / count;
+    }
+
+    /**
+     * 分位数，返回所在桶的上界
+     *
+     * @param quantile
+     *            0~1之间
+     */
+    public long percentile(double quantile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min((1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{count=" + getCount() + ", mean=" + getMean() + unit + ", p50=" + percentile(0.5) + unit
+                + ", p99=" + percentile(0.99) + unit + ", max=" + getMax() + unit + "}";
+    }
+}
@@ -0,0 +1,187 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 账户统计字段异步累计
+ *
+ * 开启后记账同步路径只更新balance/unbalance，total_income、today_income、today_expend、total_expend、sett_amount
+ * 的增量在记账事务提交后累计到内存，按账户+日期合并，定时每个账户一条update写回。
+ * 今日统计按counter_day判断归属日期，不再依赖edit_time。统计字段最终一致，滞后时间作为指标输出。
+ * 写回同时增加version：OPTIMISTIC模式的updateIfVersion和记账引擎的updateFromEngine会按版本冲突重新读取，不会用旧值覆盖写回的统计。
+ *
+ * 进程异常退出会丢失尚未写回的增量，可由账户历史重算。
+ */
+@Slf4j
+@Component
+public class LedgerStatsAccumulator {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    @Value("${account.ledger.async-stats.enabled:false}")
+    private boolean enabled;
+
+    /** userNo|yyyy-MM-dd -> 待写回的增量 **/
+    private final ConcurrentHashMap<String, StatsDelta> pending = new ConcurrentHashMap<>();
+
+    /** 从记账提交到统计写回的耗时 **/
+    private final LedgerHistogram flushLagMillis = new LedgerHistogram("flushLag", "ms");
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 在当前事务提交后累计；没有事务时直接累计
+     *
+     * @param income
+     *            收益增量
+     * @param expend
+     *            支出增量
+     * @param sett
+     *            可结算金额增量
+     */
+    public void addAfterCommit(String userNo, Money income, Money expend, Money sett) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add(userNo, income, expend, sett);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                add(userNo, income, expend, sett);
+            }
+        });
+    }
+
+    /**
+     * 立即累计，调用方保证记账已提交
+     */
+    public void add(String userNo, Money income, Money expend, Money sett) {
+        if (income.isZero() && expend.isZero() && sett.isZero()) {
+            return;
+        }
+        StatsDelta delta = new StatsDelta(userNo, ledgerClock.todayBegin(), income.getMinor(), expend.getMinor(),
+                sett.getMinor(), ledgerClock.currentTimeMillis());
+        pending.merge(userNo + "|" + ledgerClock.todayEpochDay(), delta, StatsDelta::merge);
+    }
+
+    /**
+     * 最早一条未写回增量距今的时间(毫秒)，没有待写回增量时为0
+     */
+    public long getLagMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (StatsDelta delta : pending.values()) {
+            oldest = Math.min(oldest, delta.firstAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    public int getPendingAccounts() {
+        return pending.size();
+    }
+
+    /**
+     * 写回全部待写回增量；同一账户较早日期的增量先写回
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.async-stats.flush-interval:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pending.keySet());
+        keys.sort(null);
+        for (String key : keys) {
+            StatsDelta delta = pending.remove(key);
+            if (delta == null) {
+                continue;
+            }
+            try {
+                accountMapper.addStats(delta.toParams());
+                flushed.increment();
+                flushLagMillis.record(System.currentTimeMillis() - delta.firstAt);
+            } catch (Exception e) {
+                // 写回失败放回，下个周期重试
+                failed.increment();
+                pending.merge(key, delta, StatsDelta::merge);
+                log.error("账户统计写回失败，userNo={}", delta.userNo, e);
+            }
+        }
+    }
+
+    /**
+     * 周期性输出滞后情况并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!enabled) {
+            return;
+        }
+        log.info("账户统计异步写回 lagMillis={}, pendingAccounts={}, flushed={}, failed={}, {}",
+                getLagMillis(), getPendingAccounts(), flushed.sumThenReset(), failed.sumThenReset(), flushLagMillis);
+        flushLagMillis.reset();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 单个账户单日的统计增量(分)，不可变，合并时生成新对象
+     */
+    private static class StatsDelta {
+        private final String userNo;
+        private final Date day;
+        private final long income;
+        private final long expend;
+        private final long sett;
+        /** 最早一笔增量的时间 **/
+        private final long firstAt;
+
+        private StatsDelta(String userNo, Date day, long income, long expend, long sett, long firstAt) {
+            this.userNo = userNo;
+            this.day = day;
+            this.income = income;
+            this.expend = expend;
+            this.sett = sett;
+            this.firstAt = firstAt;
+        }
+
+        private StatsDelta merge(StatsDelta other) {
+            return new StatsDelta(userNo, day, Math.addExact(income, other.income), Math.addExact(expend, other.expend),
+                    Math.addExact(sett, other.sett), Math.min(firstAt, other.firstAt));
+        }
+
+        private Map<String, Object> toParams() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("userNo", userNo);
+            map.put("counterDay", day);
+            map.put("incomeAmount", Money.ofMinor(income));
+            map.put("expendAmount", Money.ofMinor(expend));
+            map.put("settAmount", Money.ofMinor(sett));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.TransferLeg;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+import com.zhangpeng.account.api.enums.PublicEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 多方转账
+ *
+ * 各方按userNo升序依次加JVM分段锁、开启事务后按同一顺序条件增量更新，
+ * 与批量记账的加锁顺序一致，转账之间、转账与批量记账之间不会互相死锁；
+ * 减款方的可用余额校验放在update的where条件中，任何一方失败整笔回滚。
+ * 各方账户历史一次多行insert写入。
+ */
+@Slf4j
+@Component
+public class LedgerTransferExecutor {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private IdempotencyRegistry idempotencyRegistry;
+    @Autowired
+    private LedgerStatsAccumulator ledgerStatsAccumulator;
+    @Autowired
+    private LedgerJournal ledgerJournal;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    /**
+     * 执行一笔转账
+     *
+     * @return 与legs下标一一对应的转账后账户
+     */
+    public List<Account> transfer(String requestNo, List<TransferLeg> legs, String trxType, String remark) {
+        // userNo -> legs下标，升序即加锁和更新顺序
+        TreeMap<String, Integer> ordered = validate(legs);
+        List<Account> prior = replay(requestNo, legs, false);
+        if (prior != null) {
+            return prior;
+        }
+        List<Lock> locks = stripedAccountLock.isEnabled() ? stripedAccountLock.lockAll(ordered.keySet()) : new ArrayList<>();
+        try {
+            Account[] accounts;
+            try {
+                accounts = transactionTemplate.execute(status -> apply(requestNo, legs, ordered, trxType, remark));
+            } catch (DuplicateKeyException e) {
+                // 并发的重复请求被唯一键(account_no, request_no)拦下，整笔已回滚
+                prior = replay(requestNo, legs, true);
+                if (prior == null) {
+                    throw e;
+                }
+                return prior;
+            }
+            List<Account> results = new ArrayList<>(legs.size());
+            for (int i = 0; i < legs.size(); i++) {
+                TransferLeg leg = legs.get(i);
+                boolean credit = leg.getAmount().signum() > 0;
+                idempotencyRegistry.record(leg.getUserNo(), requestNo, accounts[i]);
+                ledgerJournal.append(accounts[i], credit ? LedgerCommandTypeEnum.CREDIT : LedgerCommandTypeEnum.DEBIT,
+                        leg.getAmount().abs(), trxType, requestNo);
+                results.add(accounts[i]);
+            }
+            return results;
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    /**
+     * 该请求号已转过账时返回各方当前账户，否则返回null
+     */
+    private List<Account> replay(String requestNo, List<TransferLeg> legs, boolean fromDb) {
+        if (requestNo == null || requestNo.isEmpty()) {
+            return null;
+        }
+        List<Account> accounts = new ArrayList<>(legs.size());
+        for (TransferLeg leg : legs) {
+            Account account = fromDb ? idempotencyRegistry.lookupFromDb(leg.getUserNo(), requestNo)
+                    : idempotencyRegistry.lookup(leg.getUserNo(), requestNo);
+            if (account == null) {
+                return null;
+            }
+            accounts.add(account);
+        }
+        log.info("重复的转账请求，直接返回，requestNo={}", requestNo);
+        return accounts;
+    }
+
+    /**
+     * 各方非空、金额非0、账户不重复，且合计为0
+     */
+    private TreeMap<String, Integer> validate(List<TransferLeg> legs) {
+        if (legs == null || legs.size() < 2) {
+            throw AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+        }
+        TreeMap<String, Integer> ordered = new TreeMap<>();
+        Money sum = Money.ZERO;
+        for (int i = 0; i < legs.size(); i++) {
+            TransferLeg leg = legs.get(i);
+            if (leg == null || leg.getUserNo() == null || leg.getAmount() == null) {
+                throw AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+            }
+            if (leg.getAmount().signum() == 0) {
+                throw AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
+            }
+            if (ordered.put(leg.getUserNo(), i) != null) {
+                throw AccountBizException.ACCOUNT_LEDGER_COMMAND_ILLEGAL;
+            }
+            sum = sum.plus(Money.of(leg.getAmount()));
+        }
+        if (sum.signum() != 0) {
+            throw AccountBizException.ACCOUNT_TRANSFER_NOT_BALANCED;
+        }
+        return ordered;
+    }
+
+    /**
+     * 按userNo升序：(减款方有分桶时先归集) -> 条件增量更新 -> 带锁读回，最后一次性写入各方账户历史
+     */
+    private Account[] apply(String requestNo, List<TransferLeg> legs, TreeMap<String, Integer> ordered, String trxType,
+                            String remark) {
+        Account[] accounts = new Account[legs.size()];
+        List<AccountHistory> histories = new ArrayList<>(legs.size());
+        for (Map.Entry<String, Integer> entry : ordered.entrySet()) {
+            String userNo = entry.getKey();
+            TransferLeg leg = legs.get(entry.getValue());
+            BigDecimal amount = leg.getAmount().abs();
+            Money money = Money.of(amount);
+            Map<String, Object> params = deltaParams(userNo, money);
+            if (leg.getAmount().signum() > 0) {
+                Money income = TrxTypeEnum.EXPENSE.name().equals(trxType) ? money : Money.ZERO;
+                params.put("incomeAmount", income);
+                if (accountMapper.creditByDelta(params) == 0) {
+                    throw AccountBizException.ACCOUNT_NOT_EXIT;
+                }
+                addStatsAsync(userNo, income, Money.ZERO);
+            } else {
+                if (accountBucketManager.bucketCount(userNo) > 0) {
+                    accountBucketManager.sweep(userNo);
+                }
+                if (accountMapper.debitByDelta(params) == 0) {
+                    throw getAccount(userNo, false) == null ? AccountBizException.ACCOUNT_NOT_EXIT
+                            : AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT;
+                }
+                addStatsAsync(userNo, Money.ZERO, money);
+            }
+            // 本事务已持有行锁，读到的就是本次更新后的值
+            Account account = getAccount(userNo, true);
+            accounts[entry.getValue()] = account;
+            histories.add(LedgerCalculator.buildHistory(account, amount, requestNo, leg.getBankTrxNo(), trxType, remark,
+                    leg.getAmount().signum() > 0 ? AccountFundDirectionEnum.ADD : AccountFundDirectionEnum.SUB, PublicEnum.YES));
+        }
+        accountHistoryMapper.insertBatch(histories);
+        return accounts;
+    }
+
+    private Map<String, Object> deltaParams(String userNo, Money amount) {
+        Date now = ledgerClock.now();
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("userNo", userNo);
+        map.put("amount", amount);
+        map.put("todayBegin", ledgerClock.todayBegin());
+        map.put("editTime", now);
+        map.put("asyncStats", ledgerStatsAccumulator.isEnabled());
+        return map;
+    }
+
+    private void addStatsAsync(String userNo, Money income, Money expend) {
+        if (ledgerStatsAccumulator.isEnabled()) {
+            ledgerStatsAccumulator.addAfterCommit(userNo, income, expend, Money.ZERO);
+        }
+    }
+
+    private Account getAccount(String userNo, boolean isPessimist) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNo", userNo);
+        params.put("isPessimist", isPessimist);
+        return accountMapper.getBy(params);
+    }
+}
@@ -0,0 +1,188 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.ex.AccountBizException;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 金额，以分为单位的long定点数
+ *
+ * 记账内部的累加、比较只做long运算，溢出直接抛出异常，不会静默回绕；
+ * 只在MyBatis(MoneyTypeHandler)和Dubbo接口(Account、AccountHistory的BigDecimal字段)处与BigDecimal互转。
+ * 请求金额精确到分，超过两位小数返回ACCOUNT_AMOUNT_SCALE_ILLEGAL(of/toMinor)；库中已有的值(列为DECIMAL(20,6)，
+ * 历史数据可能有分以下的尾数)只读汇总时按四舍五入到分读取(ofStored/storedToMinor)。记账修改的字段用addToStored
+ * 在原值上加减，尾数原样保留；可用余额校验用availableMinor向下取整，不会因取整放过透支。
+ */
+public final class Money implements Comparable<Money>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** 小数位数 **/
+    public static final int SCALE = 2;
+
+    public static final Money ZERO = new Money(0L);
+
+    /** 分 **/
+    private final long minor;
+
+    private Money(long minor) {
+        this.minor = minor;
+    }
+
+    public static Money ofMinor(long minor) {
+        return minor == 0 ? ZERO : new Money(minor);
+    }
+
+    /**
+     * 请求金额转金额，为空按0处理
+     *
+     * @throws AccountBizException
+     *             超过两位小数或超出long范围时抛出ACCOUNT_AMOUNT_ILLEGAL
+     */
+    public static Money of(BigDecimal amount) {
+        return ofMinor(toMinor(amount));
+    }
+
+    /**
+     * 请求金额转分，为空按0处理
+     *
+     * @throws AccountBizException
+     *             超过两位小数时抛出ACCOUNT_AMOUNT_SCALE_ILLEGAL，超出long范围时抛出ACCOUNT_AMOUNT_ILLEGAL
+     */
+    public static long toMinor(BigDecimal amount) {
+        if (hasRemainder(amount)) {
+            throw AccountBizException.ACCOUNT_AMOUNT_SCALE_ILLEGAL;
+        }
+        return toMinor(amount, RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * 是否有分以下的尾数，末尾的0不算
+     */
+    public static boolean hasRemainder(BigDecimal amount) {
+        return amount != null && amount.scale() > SCALE && amount.stripTrailingZeros().scale() > SCALE;
+    }
+
+    /**
+     * 库中读出的金额转金额，四舍五入到分，为空按0处理
+     *
+     * @throws AccountBizException
+     *             超出long范围时抛出ACCOUNT_AMOUNT_ILLEGAL
+     */
+    public static Money ofStored(BigDecimal amount) {
+        return ofMinor(storedToMinor(amount));
+    }
+
+    /**
+     * 库中读出的金额转分，四舍五入到分，为空按0处理
+     *
+     * @throws AccountBizException
+     *             超出long范围时抛出ACCOUNT_AMOUNT_ILLEGAL
+     */
+    public static long storedToMinor(BigDecimal amount) {
+        return toMinor(amount, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * 库中的字段加上若干分(减款传负数)，只用于本次记账修改的字段：没有尾数时按long计算，
+     * 有分以下尾数时在原值上精确相加，尾数原样保留
+     *
+     * @throws ArithmeticException
+     *             超出long范围
+     */
+    public static BigDecimal addToStored(BigDecimal stored, long minor) {
+        if (stored == null || stored.signum() == 0) {
+            return toBigDecimal(minor);
+        }
+        if (hasRemainder(stored)) {
+            return stored.add(toBigDecimal(minor));
+        }
+        return toBigDecimal(Math.addExact(toMinor(stored, RoundingMode.UNNECESSARY), minor));
+    }
+
+    /**
+     * 库中金额向下取整到分，用于"是否足够"的校验，为空按0处理
+     */
+    public static long storedFloorMinor(BigDecimal amount) {
+        return toMinor(amount, RoundingMode.FLOOR);
+    }
+
+    /**
+     * 可用余额(balance - unbalance)向下取整到分
+     */
+    public static long availableMinor(BigDecimal balance, BigDecimal unbalance) {
+        if (!hasRemainder(balance) && !hasRemainder(unbalance)) {
+            return Math.subtractExact(toMinor(balance, RoundingMode.UNNECESSARY), toMinor(unbalance, RoundingMode.UNNECESSARY));
+        }
+        BigDecimal available = (balance == null ? BigDecimal.ZERO : balance).subtract(unbalance == null ? BigDecimal.ZERO : unbalance);
+        return storedFloorMinor(available);
+    }
+
+    private static long toMinor(BigDecimal amount, RoundingMode roundingMode) {
+        if (amount == null || amount.signum() == 0) {
+            return 0L;
+        }
+        try {
+            return amount.setScale(SCALE, roundingMode).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
+        }
+    }
+
+    /**
+     * 分转BigDecimal，固定两位小数
+     */
+    public static BigDecimal toBigDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    public long getMinor() {
+        return minor;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return toBigDecimal(minor);
+    }
+
+    public Money plus(Money other) {
+        return other.minor == 0 ? this : ofMinor(Math.addExact(minor, other.minor));
+    }
+
+    public Money minus(Money other) {
+        return other.minor == 0 ? this : ofMinor(Math.subtractExact(minor, other.minor));
+    }
+
+    public Money negate() {
+        return ofMinor(Math.negateExact(minor));
+    }
+
+    public int signum() {
+        return Long.signum(minor);
+    }
+
+    public boolean isZero() {
+        return minor == 0;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minor, other.minor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Money && ((Money) o).minor == minor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minor);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
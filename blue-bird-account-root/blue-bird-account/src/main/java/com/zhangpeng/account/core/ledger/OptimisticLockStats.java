@@ -0,0 +1,96 @@
+package com.zhangpeng.account.core.ledger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 乐观锁冲突/重试计数，用于定位热点账户
+ */
+@Slf4j
+@Component
+public class OptimisticLockStats {
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /** 按账户统计的冲突次数，每个统计周期清空一次 **/
+    private final Map<String, LongAdder> conflictsByAccount = new ConcurrentHashMap<>();
+
+    /** 单周期最多跟踪的账户数，防止冲突账户过多撑爆内存 **/
+    @Value("${account.ledger.optimistic.max-tracked-accounts:10000}")
+    private int maxTrackedAccounts;
+
+    @Value("${account.ledger.optimistic.report-top:10}")
+    private int reportTop;
+
+    public void recordAttempt() {
+        attempts.increment();
+    }
+
+    public void recordConflict(String userNo) {
+        conflicts.increment();
+        LongAdder counter = conflictsByAccount.get(userNo);
+        if (counter == null) {
+            if (conflictsByAccount.size() >= maxTrackedAccounts) {
+                return;
+            }
+            counter = conflictsByAccount.computeIfAbsent(userNo, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public void recordExhausted(String userNo) {
+        exhausted.increment();
+        log.warn("账户乐观锁重试次数耗尽，userNo={}", userNo);
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * 当前周期冲突最多的账户
+     *
+     * @param topN 返回条数
+     * @return userNo -> 冲突次数，按次数倒序
+     */
+    public List<Map.Entry<String, Long>> hotAccounts(int topN) {
+        List<Map.Entry<String, Long>> list = new ArrayList<>(conflictsByAccount.size());
+        for (Map.Entry<String, LongAdder> entry : conflictsByAccount.entrySet()) {
+            list.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        list.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return list.size() > topN ? list.subList(0, topN) : list;
+    }
+
+    /**
+     * 周期性输出统计并清空账户维度计数
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (conflictsByAccount.isEmpty()) {
+            return;
+        }
+        log.info("乐观锁统计 attempts={}, conflicts={}, exhausted={}, hotAccounts={}",
+                getAttempts(), getConflicts(), getExhausted(), hotAccounts(reportTop));
+        conflictsByAccount.clear();
+    }
+}
@@ -0,0 +1,231 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.ex.AccountBizException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按账户分段的JVM内锁
+ *
+ * 固定2的幂个分段，key经hash后落到某一段，不为每个账户单独分配锁对象。
+ * 同一账户的并发变更在内存中排队，避免大量请求同时持有数据库连接等待InnoDB行锁。
+ */
+@Slf4j
+@Component
+public class StripedAccountLock {
+
+    @Value("${account.ledger.lock.enabled:true}")
+    private boolean enabled;
+
+    /** 分段数，向上取整为2的幂 **/
+    @Value("${account.ledger.lock.stripes:1024}")
+    private int stripes;
+
+    /** 获取锁的最长等待时间(毫秒) **/
+    @Value("${account.ledger.lock.timeout-millis:3000}")
+    private long timeoutMillis;
+
+    @Value("${account.ledger.lock.report-top:10}")
+    private int reportTop;
+
+    private ReentrantLock[] locks;
+    private int mask;
+
+    /** 每段累计等待时间、获取次数、最大等待时间(纳秒)，每个统计周期清零 **/
+    private AtomicLongArray waitNanos;
+    private AtomicLongArray acquisitions;
+    private AtomicLongArray maxWaitNanos;
+
+    @PostConstruct
+    public void init() {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.waitNanos = new AtomicLongArray(size);
+        this.acquisitions = new AtomicLongArray(size);
+        this.maxWaitNanos = new AtomicLongArray(size);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * key所在分段下标
+     */
+    public int stripeOf(String key) {
+        int h = key.hashCode();
+        // 高位参与运算，减少低位相同的key落到同一段
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 获取key所在分段的锁，超时抛出业务异常
+     *
+     * @param key
+     *            userNo或accountNo
+     * @return 已加锁的Lock，调用方负责unlock
+     */
+    public Lock lock(String key) {
+        return lockStripe(stripeOf(key), key);
+    }
+
+    /**
+     * 一次锁住多个key：分段去重后按下标升序加锁，多个批量请求之间不会互相死锁。
+     * 任一分段超时则释放已获取的分段并抛出业务异常。
+     *
+     * @param keys
+     *            userNo或accountNo
+     * @return 已加锁的Lock列表，调用方负责调用unlockAll
+     */
+    public List<Lock> lockAll(Collection<String> keys) {
+        TreeSet<Integer> stripeSet = new TreeSet<>();
+        for (String key : keys) {
+            stripeSet.add(stripeOf(key));
+        }
+        List<Lock> acquired = new ArrayList<>(stripeSet.size());
+        try {
+            for (Integer stripe : stripeSet) {
+                acquired.add(lockStripe(stripe, "stripe-" + stripe));
+            }
+        } catch (RuntimeException e) {
+            unlockAll(acquired);
+            throw e;
+        }
+        return acquired;
+    }
+
+    /**
+     * 按加锁的逆序释放
+     */
+    public void unlockAll(List<Lock> acquired) {
+        for (int i = acquired.size() - 1; i >= 0; i--) {
+            acquired.get(i).unlock();
+        }
+    }
+
+    private Lock lockStripe(int stripe, String key) {
+        ReentrantLock lock = locks[stripe];
+        long begin = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AccountBizException.ACCOUNT_LOCK_TIMEOUT;
+        }
+        long waited = System.nanoTime() - begin;
+        waitNanos.addAndGet(stripe, waited);
+        acquisitions.incrementAndGet(stripe);
+        long max;
+        while (waited > (max = maxWaitNanos.get(stripe)) && !maxWaitNanos.compareAndSet(stripe, max, waited)) {
+            // 自旋更新最大等待时间
+        }
+        if (!acquired) {
+            log.warn("获取账户锁超时，key={}, stripe={}, queueLength={}", key, stripe, lock.getQueueLength());
+            throw AccountBizException.ACCOUNT_LOCK_TIMEOUT;
+        }
+        return lock;
+    }
+
+    /**
+     * 各分段当前快照，只返回本周期有获取记录或有排队线程的分段
+     */
+    public List<StripeStat> snapshot() {
+        List<StripeStat> list = new ArrayList<>();
+        for (int i = 0; i < locks.length; i++) {
+            long count = acquisitions.get(i);
+            int queueLength = locks[i].getQueueLength();
+            if (count == 0 && queueLength == 0) {
+                continue;
+            }
+            list.add(new StripeStat(i, queueLength, count, waitNanos.get(i), maxWaitNanos.get(i)));
+        }
+        return list;
+    }
+
+    /**
+     * 周期性输出等待最久的分段并清零
+     */
+    @Scheduled(fixedDelayString = "${account.ledger.stats-report-interval:60000}")
+    public void report() {
+        if (!enabled || locks == null) {
+            return;
+        }
+        List<StripeStat> list = snapshot();
+        if (list.isEmpty()) {
+            return;
+        }
+        list.sort((a, b) -> Long.compare(b.getTotalWaitNanos(), a.getTotalWaitNanos()));
+        log.info("账户分段锁统计 activeStripes={}, top={}", list.size(), list.size() > reportTop ? list.subList(0, reportTop) : list);
+        for (int i = 0; i < locks.length; i++) {
+            waitNanos.set(i, 0);
+            acquisitions.set(i, 0);
+            maxWaitNanos.set(i, 0);
+        }
+    }
+
+    /**
+     * 单个分段的统计快照
+     */
+    public static class StripeStat {
+        private final int stripe;
+        private final int queueLength;
+        private final long acquisitions;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        public StripeStat(int stripe, int queueLength, long acquisitions, long totalWaitNanos, long maxWaitNanos) {
+            this.stripe = stripe;
+            this.queueLength = queueLength;
+            this.acquisitions = acquisitions;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public int getStripe() {
+            return stripe;
+        }
+
+        public int getQueueLength() {
+            return queueLength;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            long avgMicros = acquisitions == 0 ? 0 : totalWaitNanos / acquisitions / 1000;
+            return "{stripe=" + stripe + ", queue=" + queueLength + ", count=" + acquisitions
+                    + ", avgWaitUs=" + avgMicros + ", maxWaitUs=" + maxWaitNanos / 1000 + "}";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.AccountBucket;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 账户分桶mapper
+ */
+@Mapper
+public interface AccountBucketMapper {
+
+	/** 插入分桶，已存在时忽略 **/
+	void insertIgnore(AccountBucket accountBucket);
+
+	/** 分桶增量加款，分桶不存在时返回0 **/
+	int creditByDelta(Map<String, Object> params);
+
+	/** 锁定账户的全部分桶 **/
+	List<AccountBucket> listForUpdate(String userNo);
+
+	/** 清空账户全部分桶余额 **/
+	int clearBalance(Map<String, Object> params);
+
+	/** 删除序号大于bucketCount的分桶 **/
+	int deleteAbove(Map<String, Object> params);
+
+	/** 按用户编号查询分桶，按user_no、bucket_no排序，forUpdate为true时加锁 **/
+	List<AccountBucket> listForRebuild(Map<String, Object> params);
+
+	/** 汇总账户全部分桶 **/
+	AccountBucket sumByUserNo(Map<String, Object> params);
+
+	/** 各账户的分桶数：userNo -> bucketCount **/
+	List<Map<String, Object>> listBucketCounts();
+}
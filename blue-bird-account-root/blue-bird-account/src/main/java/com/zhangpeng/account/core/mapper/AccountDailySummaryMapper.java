@@ -0,0 +1,26 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.AccountDailySummary;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 账户日汇总mapper
+ */
+@Mapper
+public interface AccountDailySummaryMapper {
+
+	/** 多行insert ... on duplicate key update，金额、笔数按增量累加 **/
+	int addDeltas(List<AccountDailySummary> list);
+
+	/** 按账户查询日期区间[fromDate, toDate]的日汇总，各分片合计为一行 **/
+	List<AccountDailySummary> listByAccount(Map<String, Object> params);
+
+	/** 按账户历史重算一批账户cutoff之前各天的汇总，写入分片0并覆盖已有的汇总行 **/
+	int backfill(Map<String, Object> params);
+
+	/** 删除一批账户cutoff之前各天分片0以外的汇总行，回填前执行 **/
+	int deleteShards(Map<String, Object> params);
+}
@@ -2,7 +2,10 @@ package com.zhangpeng.account.core.mapper;
 
 import com.zhangpeng.account.api.domain.AccountHistory;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.session.ResultHandler;
 
+import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,10 +19,21 @@ public interface AccountHistoryMapper {
 
 	Long listPageCount(Map<String, Object> params);
 
+	/** 按表统计信息估算总行数 **/
+	Long estimateCount();
+
+	/** 游标分页，cursorTime/cursorId为上一页最后一行，limit为本次取的行数 **/
+	List<AccountHistory> listSeek(Map<String, Object> params);
+
 	List<AccountHistory>  listBy(Map<String, Object> params);
 
+	/** 按(accountNo, requestNo)统计账户历史行数，走唯一键 **/
+	int countByAccountRequest(Map<String, Object> params);
+
 	void insert(AccountHistory accountHistory);
 
+	int insertBatch(List<AccountHistory> list);
+
 	void update(AccountHistory accountHistory);
 
 	AccountHistory selectById(Integer id);
@@ -27,4 +41,37 @@ public interface AccountHistoryMapper {
 	AccountHistory getBy(Map<String, Object> params);
 
 	void deleteById(Integer id);
+
+	/** 最小的未结算id，没有时返回null **/
+	Long getMinUnsettledId();
+
+	/** 最大账户历史id，没有时返回null **/
+	Long getMaxId();
+
+	/** fromId之后、create_time早于createTime的最大账户历史id，没有时返回null **/
+	Long getMaxIdBefore(Map<String, Object> params);
+
+	/** 按id升序取一块可结算的账户历史，lastId/toId为id区间(lastId, toId] **/
+	List<AccountHistory> listSettleChunk(Map<String, Object> params);
+
+	/** id区间(fromId, toId]内的可结算记录记为结算完成，返回更新行数 **/
+	int completeSett(Map<String, Object> params);
+
+	/** 流式读取id区间(fromId, toId]内的账户历史用于对账，按id升序，只含id、账户、金额、方向、余额快照 **/
+	void streamReconcile(Map<String, Object> params, ResultHandler<AccountHistory> handler);
+
+	/** 账户在afterId之后的账户历史重放金额合计(分方向带符号)，没有时返回0 **/
+	BigDecimal sumSignedAfter(Map<String, Object> params);
+
+	/** 流式读取账户历史用于重算账户，条件fromId(不含)、toId(含)、accountNos均可为空，不排序 **/
+	void streamRebuild(Map<String, Object> params, ResultHandler<AccountHistory> handler);
+
+	/** 流式读取[startTime, endTime)内有bankTrxNo的账户历史用于银行对账，只含id、账户、金额、方向、bankTrxNo **/
+	void streamBankTrx(Map<String, Object> params, ResultHandler<AccountHistory> handler);
+
+	/** 流式读取全部(userNo, requestNo)，用于重建幂等布隆过滤器 **/
+	void streamRequestKeys(ResultHandler<HashMap<String, Object>> handler);
+
+	/** 流式读取账户历史用于导出，按create_time, id升序，逐行回调 **/
+	void streamHistory(Map<String, Object> params, ResultHandler<AccountHistory> handler);
 }
\ No newline at end of file
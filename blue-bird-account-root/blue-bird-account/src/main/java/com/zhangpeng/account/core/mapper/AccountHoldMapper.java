@@ -0,0 +1,32 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.AccountHold;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 冻结单mapper
+ */
+@Mapper
+public interface AccountHoldMapper {
+
+	/** 插入冻结单，回填id **/
+	void insert(AccountHold accountHold);
+
+	/** 按id查询，isPessimist为true时加行锁 **/
+	AccountHold getById(Map<String, Object> params);
+
+	/** 按userNo+requestNo查询 **/
+	AccountHold getByRequestNo(Map<String, Object> params);
+
+	/** 冻结中 -> 完结状态，已完结时返回0 **/
+	int finish(Map<String, Object> params);
+
+	/** 按id升序分页查询冻结中的冻结单 **/
+	List<AccountHold> listHeld(Map<String, Object> params);
+
+	/** 按id批量查询 **/
+	List<AccountHold> listByIds(List<Integer> ids);
+}
@@ -2,6 +2,7 @@ package com.zhangpeng.account.core.mapper;
 
 import com.zhangpeng.account.api.domain.Account;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
 import java.util.Map;
@@ -18,14 +19,83 @@ public interface AccountMapper{
 
 	Long listPageCount(Map<String, Object> params);
 
+	/** 按表统计信息估算总行数 **/
+	Long estimateCount();
+
 	List<Account> listBy(Map<String, Object> params);
 
 	void insert(Account accountHistory);
 
 	void update(Account accountHistory);
 
+	/** 乐观锁更新，版本号不一致时返回0 **/
+	int updateIfVersion(Account account);
+
+	/** 内存记账写回，params: account、expectedVersion，版本号不一致时返回0 **/
+	int updateFromEngine(Map<String, Object> params);
+
 	Account selectById(Integer id);
 
 	void deleteById(Integer id);
 
+	/** 增量加款，返回影响行数 **/
+	int creditByDelta(Map<String, Object> params);
+
+	/** 增量减款，可用余额不足时返回0 **/
+	int debitByDelta(Map<String, Object> params);
+
+	/** 增量冻结，可用余额不足时返回0 **/
+	int freezeByDelta(Map<String, Object> params);
+
+	/** 增量解冻+减款，冻结金额不足时返回0 **/
+	int unFreezeByDelta(Map<String, Object> params);
+
+	/** 增量解冻，冻结金额不足时返回0 **/
+	int unFreezeSettByDelta(Map<String, Object> params);
+
+	/** 分桶余额归集到主账户 **/
+	int absorbBucketBalance(Map<String, Object> params);
+
+	/** 删除分桶前并入分桶的总收益、今日收益 **/
+	int absorbBucketIncome(Map<String, Object> params);
+
+	/** 异步写回统计字段增量 **/
+	int addStats(Map<String, Object> params);
+
+	/** 结算入账，按账户编号增加可结算金额 **/
+	int addSettAmount(Map<String, Object> params);
+
+	/** 只写回balance/unbalance **/
+	int updateBalance(Account account);
+
+	/** id在(fromId, toId]内统计日期早于今天的账户清0今日统计，返回影响行数 **/
+	int rolloverCounters(Map<String, Object> params);
+
+	/** id在(fromId, toId]内的账户编号 **/
+	List<String> listAccountNoByIdRange(Map<String, Object> params);
+
+	/** 按账户编号批量查询余额，accountNo、userNo、balance(主账户)、bucketBalance(分桶合计，无分桶时为null) **/
+	List<Map<String, Object>> listReconcileBalances(List<String> accountNos);
+
+	/** 流式读取edit_time不早于editTime的账户，只含accountNo、userNo **/
+	void streamChangedSince(Map<String, Object> params, ResultHandler<Account> handler);
+
+	/** 流水日志启动核对，按id取余额(含分桶)、冻结金额 **/
+	List<Map<String, Object>> listJournalBalances(List<Integer> ids);
+
+	/** 按账户编号查询账户，按account_no排序，forUpdate为true时加锁 **/
+	List<Account> listForRebuild(Map<String, Object> params);
+
+	/** 按账户编号批量写回重算的余额和统计字段，一条多行update **/
+	int rebuildBatch(Map<String, Object> params);
+
+	/** 按id升序取afterId之后的limit条，条件同listBy **/
+	List<Account> scanAccounts(Map<String, Object> params);
+
+	/** 流式读取账户，条件同listBy，不排序 **/
+	void streamAccounts(Map<String, Object> params, ResultHandler<Account> handler);
+
+	/** 最大账户id，没有账户时返回null **/
+	Integer getMaxId();
+
 }
\ No newline at end of file
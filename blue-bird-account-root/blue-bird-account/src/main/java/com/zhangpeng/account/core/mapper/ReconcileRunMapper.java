@@ -0,0 +1,28 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.ReconcileRun;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.Map;
+
+/**
+ * 对账批次mapper
+ */
+@Mapper
+public interface ReconcileRunMapper {
+
+	/** 插入批次，回填id **/
+	void insert(ReconcileRun run);
+
+	/** 最近一个未完成的批次，没有时返回null **/
+	ReconcileRun getUnfinished();
+
+	/** 对账水位：已完成批次的最大toId，没有时返回null **/
+	Long getWatermark();
+
+	/** 最近一个已完成的批次，没有时返回null **/
+	ReconcileRun getLastFinished();
+
+	/** 记录对账结果并完成 **/
+	int finish(Map<String, Object> params);
+}
@@ -0,0 +1,22 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.ReconcileState;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+
+/**
+ * 账户对账状态mapper
+ */
+@Mapper
+public interface ReconcileStateMapper {
+
+	/** 按账户编号批量查询 **/
+	List<ReconcileState> listByAccountNos(List<String> accountNos);
+
+	/** 多行insert ... on duplicate key update，已有的整行覆盖 **/
+	int saveBatch(List<ReconcileState> list);
+
+	/** 最近一次对账不一致的账户 **/
+	List<ReconcileState> listMismatch();
+}
@@ -0,0 +1,29 @@
+package com.zhangpeng.account.core.mapper;
+
+import com.zhangpeng.account.api.domain.SettleCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 结算检查点mapper
+ */
+@Mapper
+public interface SettleCheckpointMapper {
+
+	/** 插入分段，回填id；同一结算日期同一分段唯一 **/
+	void insert(SettleCheckpoint checkpoint);
+
+	/** 按结算日期查询全部分段 **/
+	List<SettleCheckpoint> listByStatDate(Map<String, Object> params);
+
+	/** 查询未完成的分段，按结算日期、分段序号排序 **/
+	List<SettleCheckpoint> listUnfinished();
+
+	/** last_id从expectLastId推进到lastId并累加结算笔数、金额，last_id已被推进时返回0 **/
+	int advance(Map<String, Object> params);
+
+	/** 结算中 -> 已完成 **/
+	int finish(Map<String, Object> params);
+}
@@ -0,0 +1,45 @@
+package com.zhangpeng.account.core.mapper.handler;
+
+import com.zhangpeng.account.core.ledger.Money;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Money与DECIMAL列互转，参数和结果都按两位小数处理，读出的值四舍五入到分
+ */
+@MappedTypes(Money.class)
+@MappedJdbcTypes(value = JdbcType.DECIMAL, includeNullJdbcType = true)
+public class MoneyTypeHandler extends BaseTypeHandler<Money> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, Money parameter, JdbcType jdbcType) throws SQLException {
+        ps.setBigDecimal(i, parameter.toBigDecimal());
+    }
+
+    @Override
+    public Money getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return toMoney(rs.getBigDecimal(columnName));
+    }
+
+    @Override
+    public Money getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return toMoney(rs.getBigDecimal(columnIndex));
+    }
+
+    @Override
+    public Money getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return toMoney(cs.getBigDecimal(columnIndex));
+    }
+
+    private Money toMoney(BigDecimal value) {
+        return value == null ? null : Money.ofStored(value);
+    }
+}
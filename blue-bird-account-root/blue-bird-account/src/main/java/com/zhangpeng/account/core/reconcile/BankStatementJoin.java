@@ -0,0 +1,508 @@
+package com.zhangpeng.account.core.reconcile;
+
+import com.zhangpeng.account.core.ledger.Money;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 银行对账单与账户历史按bankTrxNo关联
+ *
+ * 分区哈希关联，内存占用与对账单行数无关：
+ * 1. 对账单用FileChannel分块读取，按行解析，账户历史由调用方逐行传入；两边都按bankTrxNo的哈希写入同样P个分区文件；
+ * 2. 逐个分区：把对账单分区文件读入内存，建立开放寻址的索引(int/long数组，key直接引用文件内容)，
+ *    再顺序读取同一分区的账户历史逐条查找，最后未被匹配的对账单记录即为银行有、账户历史没有的。
+ * 同一bankTrxNo出现多次时逐条配对。单个分区的内存约为对账单大小/P，分区数按对账单大小配置。
+ *
+ * 对账单为UTF-8 CSV，首行为表头，列依次为bankTrxNo,fundDirection(ADD/SUB),amount(元，最多两位小数)，其余列忽略，不支持引号。
+ * 输出目录下四个CSV：matched、amount_mismatch、missing_in_bank、missing_in_ledger。金额按方向带符号比较。
+ * 非线程安全，用完后close删除分区文件。
+ */
+final class BankStatementJoin implements Closeable {
+
+    private static final String STATEMENT = "statement-";
+    private static final String LEDGER = "ledger-";
+
+    private final Path workDir;
+    private final int partitions;
+    private final int bufferSize;
+    private final SpillWriter[] statementSpills;
+    private final SpillWriter[] ledgerSpills;
+    private long statementLines;
+    private long ledgerRows;
+
+    /**
+     * @param partitions
+     *            分区数，2的幂
+     */
+    BankStatementJoin(Path workDir, int partitions, int bufferSize) throws IOException {
+        if (Integer.bitCount(partitions) != 1) {
+            throw new IllegalArgumentException("partitions must be a power of 2: " + partitions);
+        }
+        this.workDir = Files.createDirectories(workDir);
+        this.partitions = partitions;
+        this.bufferSize = bufferSize;
+        this.statementSpills = new SpillWriter[partitions];
+        this.ledgerSpills = new SpillWriter[partitions];
+        for (int i = 0; i < partitions; i++) {
+            statementSpills[i] = new SpillWriter(workDir.resolve(STATEMENT + i), bufferSize);
+            ledgerSpills[i] = new SpillWriter(workDir.resolve(LEDGER + i), bufferSize);
+        }
+    }
+
+    /**
+     * 读取对账单并分区，可多次调用读取多个文件
+     *
+     * @return 本文件的数据行数
+     */
+    long addStatement(Path statement) throws IOException {
+        long before = statementLines;
+        byte[] line = new byte[256];
+        int length = 0;
+        long lineNo = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (FileChannel channel = FileChannel.open(statement, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                byte[] array = buffer.array();
+                int end = buffer.position();
+                for (int i = 0; i < end; i++) {
+                    byte b = array[i];
+                    if (b == '\n') {
+                        if (++lineNo > 1) {
+                            statementLine(line, length, lineNo);
+                        }
+                        length = 0;
+                    } else if (b != '\r') {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = b;
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        if (length > 0 && ++lineNo > 1) {
+            statementLine(line, length, lineNo);
+        }
+        return statementLines - before;
+    }
+
+    private void statementLine(byte[] line, int length, long lineNo) throws IOException {
+        int c1 = indexOf(line, 0, length, (byte) ',');
+        int c2 = c1 < 0 ? -1 : indexOf(line, c1 + 1, length, (byte) ',');
+        if (c2 < 0) {
+            if (trimEnd(line, 0, length) == trimStart(line, 0, length)) {
+                return;// 空行
+            }
+            throw new IllegalArgumentException("对账单第" + lineNo + "行格式错误");
+        }
+        int c3 = indexOf(line, c2 + 1, length, (byte) ',');
+        int keyFrom = trimStart(line, 0, c1);
+        int keyTo = trimEnd(line, keyFrom, c1);
+        int dirFrom = trimStart(line, c1 + 1, c2);
+        int dirTo = trimEnd(line, dirFrom, c2);
+        if (keyTo == keyFrom) {
+            throw new IllegalArgumentException("对账单第" + lineNo + "行bankTrxNo为空");
+        }
+        long amount = parseMinor(line, c2 + 1, c3 < 0 ? length : c3, lineNo);
+        if (dirTo - dirFrom == 3 && line[dirFrom] == 'S' && line[dirFrom + 1] == 'U' && line[dirFrom + 2] == 'B') {
+            amount = -amount;
+        } else if (!(dirTo - dirFrom == 3 && line[dirFrom] == 'A' && line[dirFrom + 1] == 'D' && line[dirFrom + 2] == 'D')) {
+            throw new IllegalArgumentException("对账单第" + lineNo + "行fundDirection错误");
+        }
+        long hash = hash(line, keyFrom, keyTo);
+        statementSpills[partition(hash)].writeStatement(line, keyFrom, keyTo - keyFrom, amount, lineNo);
+        statementLines++;
+    }
+
+    /**
+     * 传入一条账户历史
+     *
+     * @param signedAmount
+     *            带符号金额(分)，减款为负
+     */
+    void addLedger(String bankTrxNo, long signedAmount, long historyId, String accountNo) throws IOException {
+        byte[] key = bankTrxNo.getBytes(StandardCharsets.UTF_8);
+        byte[] account = accountNo == null ? new byte[0] : accountNo.getBytes(StandardCharsets.UTF_8);
+        ledgerSpills[partition(hash(key, 0, key.length))].writeLedger(key, signedAmount, historyId, account);
+        ledgerRows++;
+    }
+
+    /**
+     * 逐个分区关联，结果写入outputDir
+     */
+    Result join(Path outputDir, boolean writeMatched) throws IOException {
+        for (int i = 0; i < partitions; i++) {
+            statementSpills[i].close();
+            ledgerSpills[i].close();
+        }
+        Files.createDirectories(outputDir);
+        Result result = new Result();
+        result.statementLines = statementLines;
+        result.ledgerRows = ledgerRows;
+        try (Writer matched = writeMatched ? open(outputDir.resolve("matched.csv"), "bankTrxNo,historyId,accountNo,amount") : null;
+             Writer mismatch = open(outputDir.resolve("amount_mismatch.csv"), "bankTrxNo,historyId,accountNo,ledgerAmount,bankAmount");
+             Writer missingInBank = open(outputDir.resolve("missing_in_bank.csv"), "bankTrxNo,historyId,accountNo,ledgerAmount");
+             Writer missingInLedger = open(outputDir.resolve("missing_in_ledger.csv"), "bankTrxNo,lineNo,bankAmount")) {
+            StringBuilder sb = new StringBuilder(128);
+            for (int p = 0; p < partitions; p++) {
+                PartitionIndex index = new PartitionIndex(Files.readAllBytes(workDir.resolve(STATEMENT + p)));
+                Files.delete(workDir.resolve(STATEMENT + p));
+                Path ledgerFile = workDir.resolve(LEDGER + p);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(FileChannel.open(ledgerFile, StandardOpenOption.READ)), bufferSize))) {
+                    byte[] key = new byte[64];
+                    byte[] account = new byte[64];
+                    while (true) {
+                        int keyLength;
+                        try {
+                            keyLength = in.readUnsignedShort();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        key = ensure(key, keyLength);
+                        in.readFully(key, 0, keyLength);
+                        long amount = in.readLong();
+                        long historyId = in.readLong();
+                        int accountLength = in.readUnsignedShort();
+                        account = ensure(account, accountLength);
+                        in.readFully(account, 0, accountLength);
+
+                        sb.setLength(0);
+                        appendUtf8(sb, key, 0, keyLength).append(',').append(historyId).append(',');
+                        appendUtf8(sb, account, 0, accountLength).append(',').append(Money.toBigDecimal(amount).toPlainString());
+                        int record = index.take(key, keyLength, hash(key, 0, keyLength));
+                        if (record < 0) {
+                            result.missingInBank++;
+                            missingInBank.append(sb).append('\n');
+                        } else if (index.amount(record) != amount) {
+                            result.amountMismatch++;
+                            mismatch.append(sb).append(',').append(Money.toBigDecimal(index.amount(record)).toPlainString()).append('\n');
+                        } else {
+                            result.matched++;
+                            if (matched != null) {
+                                matched.append(sb).append('\n');
+                            }
+                        }
+                    }
+                }
+                Files.delete(ledgerFile);
+                for (int record = 0; record < index.size(); record++) {
+                    if (index.taken(record)) {
+                        continue;
+                    }
+                    result.missingInLedger++;
+                    sb.setLength(0);
+                    index.appendKey(sb, record).append(',').append(index.lineNo(record)).append(',')
+                            .append(Money.toBigDecimal(index.amount(record)).toPlainString()).append('\n');
+                    missingInLedger.append(sb);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除剩余的分区文件
+     */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < partitions; i++) {
+            statementSpills[i].close();
+            ledgerSpills[i].close();
+            Files.deleteIfExists(workDir.resolve(STATEMENT + i));
+            Files.deleteIfExists(workDir.resolve(LEDGER + i));
+        }
+        try {
+            Files.deleteIfExists(workDir);
+        } catch (IOException e) {
+            // 目录下有其他文件时保留
+        }
+    }
+
+    private int partition(long hash) {
+        return (int) (hash >>> 40) & (partitions - 1);
+    }
+
+    /** FNV-1a后再做一次混合 **/
+    static long hash(byte[] bytes, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= bytes[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 解析金额为分，不创建BigDecimal；超过两位小数(非0)时报错
+     */
+    static long parseMinor(byte[] line, int from, int to, long lineNo) {
+        from = trimStart(line, from, to);
+        to = trimEnd(line, from, to);
+        boolean negative = from < to && line[from] == '-';
+        if (negative || (from < to && line[from] == '+')) {
+            from++;
+        }
+        long value = 0;
+        int scale = -1;
+        boolean digits = false;
+        for (int i = from; i < to; i++) {
+            byte b = line[i];
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9') {
+                digits = true;
+                if (scale >= 2) {
+                    if (b != '0') {
+                        throw new IllegalArgumentException("对账单第" + lineNo + "行金额超过两位小数");
+                    }
+                    continue;
+                }
+                value = Math.addExact(Math.multiplyExact(value, 10), b - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                throw new IllegalArgumentException("对账单第" + lineNo + "行金额格式错误");
+            }
+        }
+        if (!digits) {
+            throw new IllegalArgumentException("对账单第" + lineNo + "行金额为空");
+        }
+        for (int i = Math.max(scale, 0); i < 2; i++) {
+            value = Math.multiplyExact(value, 10);
+        }
+        return negative ? -value : value;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] bytes, int from, int to) {
+        while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static byte[] ensure(byte[] bytes, int length) {
+        return bytes.length >= length ? bytes : new byte[Integer.highestOneBit(length) << 1];
+    }
+
+    private static StringBuilder appendUtf8(StringBuilder sb, byte[] bytes, int from, int length) {
+        return sb.append(new String(bytes, from, length, StandardCharsets.UTF_8));
+    }
+
+    private static Writer open(Path file, String header) throws IOException {
+        Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+        writer.write(header);
+        writer.write('\n');
+        return writer;
+    }
+
+    /**
+     * 关联结果计数，明细在输出文件中
+     */
+    static final class Result {
+        long statementLines;
+        long ledgerRows;
+        long matched;
+        long amountMismatch;
+        long missingInBank;
+        long missingInLedger;
+
+        @Override
+        public String toString() {
+            return "statementLines=" + statementLines + ", ledgerRows=" + ledgerRows + ", matched=" + matched
+                    + ", amountMismatch=" + amountMismatch + ", missingInBank=" + missingInBank + ", missingInLedger="
+                    + missingInLedger;
+        }
+    }
+
+    /**
+     * 一个分区文件的写缓冲
+     */
+    private static final class SpillWriter {
+        private final Path file;
+        private final ByteBuffer buffer;
+        private FileChannel channel;
+
+        private SpillWriter(Path file, int bufferSize) {
+            this.file = file;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        /** 记录：keyLength(2) key amount(8) lineNo(8) **/
+        private void writeStatement(byte[] line, int keyFrom, int keyLength, long amount, long lineNo) throws IOException {
+            checkFieldLength(keyLength, "bankTrxNo");
+            reserve(2 + keyLength + 16);
+            buffer.putShort((short) keyLength).put(line, keyFrom, keyLength).putLong(amount).putLong(lineNo);
+        }
+
+        /** 记录：keyLength(2) key amount(8) historyId(8) accountLength(2) accountNo **/
+        private void writeLedger(byte[] key, long amount, long historyId, byte[] account) throws IOException {
+            checkFieldLength(key.length, "bankTrxNo");
+            checkFieldLength(account.length, "accountNo");
+            reserve(2 + key.length + 18 + account.length);
+            buffer.putShort((short) key.length).put(key).putLong(amount).putLong(historyId)
+                    .putShort((short) account.length).put(account);
+        }
+
+        /** 长度按2字节无符号数写入 **/
+        private static void checkFieldLength(int length, String field) {
+            if (length > 0xFFFF) {
+                throw new IllegalArgumentException(field + "过长，length=" + length);
+            }
+        }
+
+        /**
+         * 记录不跨缓冲区写入，超过缓冲区容量的记录直接拒绝，提示调大buffer-size
+         */
+        private void reserve(int length) throws IOException {
+            if (length > buffer.capacity()) {
+                throw new IllegalArgumentException("记录长度" + length + "超过缓冲区大小" + buffer.capacity() + "，file=" + file);
+            }
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void close() throws IOException {
+            if (buffer.position() > 0 || channel == null) {
+                flush();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * 一个分区的对账单索引：开放寻址(线性探测)，槽位存记录序号，key为分区文件中的字节
+     */
+    private static final class PartitionIndex {
+        private final byte[] data;
+        private int[] offsets = new int[1024];
+        private long[] hashes = new long[1024];
+        private boolean[] taken = new boolean[1024];
+        private int size;
+        private final int[] slots;
+
+        private PartitionIndex(byte[] data) {
+            this.data = data;
+            int offset = 0;
+            while (offset < data.length) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                }
+                int keyLength = keyLength(offset);
+                offsets[size] = offset;
+                hashes[size] = hash(data, offset + 2, offset + 2 + keyLength);
+                size++;
+                offset += 2 + keyLength + 16;
+            }
+            taken = new boolean[size];
+            slots = new int[Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int record = 0; record < size; record++) {
+                int slot = (int) hashes[record] & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = record;
+            }
+        }
+
+        /**
+         * 取一条key相同且未配对的记录并标记为已配对
+         *
+         * @return 记录序号，没有时返回-1
+         */
+        private int take(byte[] key, int keyLength, long hash) {
+            int mask = slots.length - 1;
+            for (int slot = (int) hash & mask; slots[slot] >= 0; slot = (slot + 1) & mask) {
+                int record = slots[slot];
+                if (taken[record] || hashes[record] != hash || keyLength(offsets[record]) != keyLength) {
+                    continue;
+                }
+                int from = offsets[record] + 2;
+                boolean equal = true;
+                for (int i = 0; i < keyLength && equal; i++) {
+                    equal = data[from + i] == key[i];
+                }
+                if (equal) {
+                    taken[record] = true;
+                    return record;
+                }
+            }
+            return -1;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private boolean taken(int record) {
+            return taken[record];
+        }
+
+        private long amount(int record) {
+            return ByteBuffer.wrap(data, offsets[record] + 2 + keyLength(offsets[record]), 8).getLong();
+        }
+
+        private long lineNo(int record) {
+            return ByteBuffer.wrap(data, offsets[record] + 2 + keyLength(offsets[record]) + 8, 8).getLong();
+        }
+
+        private StringBuilder appendKey(StringBuilder sb, int record) {
+            return appendUtf8(sb, data, offsets[record] + 2, keyLength(offsets[record]));
+        }
+
+        private int keyLength(int offset) {
+            return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        }
+    }
+}
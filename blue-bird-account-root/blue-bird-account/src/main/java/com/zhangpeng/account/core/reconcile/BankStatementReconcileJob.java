@@ -0,0 +1,146 @@
+package com.zhangpeng.account.core.reconcile;
+
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.cache.RedisClientUtils;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 银行对账单对账
+ *
+ * 按cron检查statement-dir下前一天的对账单(yyyyMMdd.csv)，与当天有bankTrxNo的账户历史按bankTrxNo关联，
+ * 结果写入output-dir/yyyyMMdd/，最后写入report.txt作为完成标记，已有report.txt的日期不再执行。
+ * 关联方式见BankStatementJoin，对账单按行数配置partitions，使单个分区能放入内存。
+ * 跨日入账(银行日切与记账日期不一致)的记录会出现在两个缺失文件中，需人工核对。
+ */
+@Slf4j
+@Component
+public class BankStatementReconcileJob {
+
+    private static final String LOCK_KEY = "account:bank-reconcile:lock";
+    private static final String REPORT = "report.txt";
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    @Value("${account.bank-reconcile.enabled:false}")
+    private boolean enabled;
+
+    /** 对账单目录，文件名为yyyyMMdd.csv **/
+    @Value("${account.bank-reconcile.statement-dir:/data/bank/statement}")
+    private String statementDir;
+
+    /** 结果目录 **/
+    @Value("${account.bank-reconcile.output-dir:/data/bank/reconcile}")
+    private String outputDir;
+
+    /** 分区数(2的幂) **/
+    @Value("${account.bank-reconcile.partitions:64}")
+    private int partitions;
+
+    /** 读写缓冲区大小(字节)，每个分区文件各一个 **/
+    @Value("${account.bank-reconcile.buffer-size:65536}")
+    private int bufferSize;
+
+    /** 是否输出已匹配的明细 **/
+    @Value("${account.bank-reconcile.write-matched:true}")
+    private boolean writeMatched;
+
+    /** Redis锁有效期(秒) **/
+    @Value("${account.bank-reconcile.lock-seconds:7200}")
+    private int lockSeconds;
+
+    /**
+     * 按cron检查前一天的对账单，默认每小时一次，对账单到达后的下一次执行
+     */
+    @Scheduled(cron = "${account.bank-reconcile.cron:0 10 * * * ?}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        Date day = DateUtils.addDay(ledgerClock.todayBegin(), -1);
+        String date = DateUtils.formatDate(day, "yyyyMMdd");
+        Path statement = Paths.get(statementDir, date + ".csv");
+        Path output = Paths.get(outputDir, date);
+        if (!Files.exists(statement) || Files.exists(output.resolve(REPORT))) {
+            return;
+        }
+        String requestId = UUID.randomUUID().toString();
+        if (!RedisClientUtils.tryGetDistributedLock(LOCK_KEY, requestId, lockSeconds)) {
+            return;
+        }
+        try {
+            if (!Files.exists(output.resolve(REPORT))) {
+                reconcile(statement, day, output);
+            }
+        } catch (Exception e) {
+            log.error("银行对账失败，statement=" + statement, e);
+        } finally {
+            RedisClientUtils.releaseDistributedLock(LOCK_KEY, requestId);
+        }
+    }
+
+    /**
+     * 对账单与day当天的账户历史关联
+     *
+     * @param output
+     *            结果目录，分区文件也临时放在其下
+     * @return 差异笔数(金额不一致+银行缺失+账户历史缺失)
+     */
+    public long reconcile(Path statement, Date day, Path output) throws IOException {
+        long begin = System.currentTimeMillis();
+        BankStatementJoin.Result result;
+        try (BankStatementJoin join = new BankStatementJoin(output.resolve("work"), partitions, bufferSize)) {
+            join.addStatement(statement);
+            long statementCost = System.currentTimeMillis() - begin;
+
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("startTime", day);
+            params.put("endTime", DateUtils.addDay(day, 1));
+            try {
+                accountHistoryMapper.streamBankTrx(params, context -> {
+                    AccountHistory history = context.getResultObject();
+                    long amount = Money.storedToMinor(history.getAmount());
+                    if (AccountFundDirectionEnum.SUB.name().equals(history.getFundDirection())) {
+                        amount = -amount;
+                    }
+                    try {
+                        join.addLedger(history.getBankTrxNo(), amount, history.getId(), history.getAccountNo());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            result = join.join(output, writeMatched);
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            String report = result + ", statementCost=" + statementCost + "ms, cost=" + cost + "ms, linesPerSecond="
+                    + (result.statementLines + result.ledgerRows) * 1000 / cost;
+            Files.write(output.resolve(REPORT), report.getBytes(StandardCharsets.UTF_8));
+            log.info("银行对账完成，statement={}, {}", statement, report);
+        }
+        return result.amountMismatch + result.missingInBank + result.missingInLedger;
+    }
+}
@@ -0,0 +1,477 @@
+package com.zhangpeng.account.core.reconcile;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountBucket;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.PublicEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import com.zhangpeng.account.core.mapper.AccountBucketMapper;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 按账户历史重算账户
+ *
+ * 重算balance、total_income、total_expend、sett_amount及今日统计，unbalance(冻结不记账户历史)和其他字段不变：
+ * 1. 读取：多个线程并行流式读取账户历史(全部账户时按主键区间切分，指定账户时按账户切分)，各自累加到自己的Map，再合并；
+ * 2. 写回：按账户分块并行，事务外先按userNo顺序持有本块账户的分段锁，再每块一个事务，先锁分桶再按account_no顺序锁主账户，
+ *    补上读取之后新增的账户历史，扣除分桶部分后与当前值比较，有差异的用一条多行update写回。
+ * dry-run只输出差异不写回：每块在一个REPEATABLE_READ只读事务内读取分桶、主账户并补上新增的账户历史，
+ * 三者出自同一个一致性快照，读取期间的并发记账不会产生差异；只有读取开始时(upperId附近)尚未提交的记账可能出现差异，
+ * 可对这些账户单独再执行一次确认。内存记账模式或统计字段异步累计开启时内存中的值会覆盖写回的结果，只按dry-run执行。
+ * 开启后在启动时于后台线程执行一次，差异写入diff-file，未配置时输出到日志。
+ */
+@Slf4j
+@Component
+public class LedgerRebuildJob {
+
+    private static final int BALANCE = 0;
+    private static final int TOTAL_INCOME = 1;
+    private static final int TOTAL_EXPEND = 2;
+    private static final int SETT_AMOUNT = 3;
+    private static final int TODAY_INCOME = 4;
+    private static final int TODAY_EXPEND = 5;
+    private static final String[] FIELDS = { "balance", "totalIncome", "totalExpend", "settAmount", "todayIncome", "todayExpend" };
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountBucketMapper accountBucketMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+    @Autowired
+    private LedgerEngine ledgerEngine;
+    @Autowired
+    private LedgerStatsAccumulator ledgerStatsAccumulator;
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${account.rebuild.enabled:false}")
+    private boolean enabled;
+
+    @Value("${account.rebuild.dry-run:true}")
+    private boolean dryRun;
+
+    /** 逗号分隔的账户编号，为空时重算全部账户 **/
+    @Value("${account.rebuild.account-nos:}")
+    private String accountNos;
+
+    /** 差异输出文件(CSV)，为空时输出到日志 **/
+    @Value("${account.rebuild.diff-file:}")
+    private String diffFile;
+
+    /** 并行读取账户历史的线程数 **/
+    @Value("${account.rebuild.readers:4}")
+    private int readers;
+
+    /** 并行写回的块数 **/
+    @Value("${account.rebuild.parallelism:4}")
+    private int parallelism;
+
+    /** 每块的账户数，也是一条多行update的行数 **/
+    @Value("${account.rebuild.chunk-size:500}")
+    private int chunkSize;
+
+    private TransactionTemplate transactionTemplate;
+    /** dry-run比较用的一致性快照 **/
+    private TransactionTemplate snapshotTemplate;
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTemplate.setReadOnly(true);
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            List<String> targets = StringUtils.isBlank(accountNos) ? null
+                    : new ArrayList<>(new LinkedHashSet<>(Arrays.asList(StringUtils.split(accountNos.replace(" ", ""), ','))));
+            try {
+                if (StringUtils.isBlank(diffFile)) {
+                    rebuild(targets, dryRun, null);
+                } else {
+                    try (Writer writer = Files.newBufferedWriter(Paths.get(diffFile), StandardCharsets.UTF_8)) {
+                        rebuild(targets, dryRun, writer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("重算账户失败", e);
+            }
+        }, "ledger-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 重算账户
+     *
+     * @param targets
+     *            账户编号，为null时重算全部账户
+     * @param dryRun
+     *            只输出差异不写回
+     * @param diff
+     *            差异输出(CSV：accountNo,field,current,rebuilt)，为null时输出到日志
+     * @return 有差异的账户数
+     */
+    public long rebuild(List<String> targets, boolean dryRun, Writer diff) throws InterruptedException, IOException {
+        if (!dryRun && (ledgerEngine.isEnabled() || ledgerStatsAccumulator.isEnabled())) {
+            log.warn("内存记账模式或统计字段异步累计开启，重算账户只输出差异不写回");
+            dryRun = true;
+        }
+        Long upperId = accountHistoryMapper.getMaxId();
+        if (upperId == null) {
+            upperId = 0L;
+        }
+        long todayBegin = ledgerClock.todayBegin().getTime();
+
+        // 读取
+        long begin = System.currentTimeMillis();
+        LongAdder rows = new LongAdder();
+        List<Callable<Map<String, long[]>>> readTasks = new ArrayList<>(readers);
+        for (int i = 0; i < readers; i++) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            if (targets == null) {
+                params.put("fromId", upperId * i / readers);
+                params.put("toId", upperId * (i + 1) / readers);
+            } else {
+                List<String> part = targets.subList(targets.size() * i / readers, targets.size() * (i + 1) / readers);
+                if (part.isEmpty()) {
+                    continue;
+                }
+                params.put("toId", upperId);
+                params.put("accountNos", part);
+            }
+            readTasks.add(() -> {
+                Map<String, long[]> sums = new HashMap<>();
+                accountHistoryMapper.streamRebuild(params, context -> {
+                    accumulate(sums, context.getResultObject(), todayBegin);
+                    rows.increment();
+                });
+                return sums;
+            });
+        }
+        Map<String, long[]> sums = null;
+        for (Map<String, long[]> part : invokeAll(readTasks, readers, "读取")) {
+            sums = merge(sums, part);
+        }
+        if (sums == null) {
+            sums = Collections.emptyMap();
+        }
+        long readCost = Math.max(System.currentTimeMillis() - begin, 1);
+        log.info("重算账户读取完成，upperId={}, rows={}, accounts={}, cost={}ms, rowsPerSecond={}", upperId, rows.sum(),
+                sums.size(), readCost, rows.sum() * 1000 / readCost);
+
+        // 比较/写回
+        begin = System.currentTimeMillis();
+        LongAdder accounts = new LongAdder();
+        LongAdder changed = new LongAdder();
+        Writer out = diff == null ? null : new BufferedWriter(diff);
+        if (out != null) {
+            out.write("accountNo,field,current,rebuilt\n");
+        }
+        Map<String, long[]> merged = sums;
+        long readUpperId = upperId;
+        boolean write = !dryRun;
+        List<Callable<Void>> chunkTasks = new ArrayList<>();
+        if (targets == null) {
+            Integer maxAccountId = accountMapper.getMaxId();
+            for (int fromId = 0; maxAccountId != null && fromId < maxAccountId; fromId += chunkSize) {
+                int from = fromId;
+                int to = (int) Math.min((long) fromId + chunkSize, maxAccountId);
+                chunkTasks.add(() -> {
+                    Map<String, Object> params = new HashMap<String, Object>();
+                    params.put("fromId", from);
+                    params.put("toId", to);
+                    List<String> chunk = accountMapper.listAccountNoByIdRange(params);
+                    if (!chunk.isEmpty()) {
+                        rebuildChunk(chunk, merged, readUpperId, todayBegin, write, out, accounts, changed);
+                    }
+                    return null;
+                });
+            }
+        } else {
+            for (int i = 0; i < targets.size(); i += chunkSize) {
+                List<String> chunk = targets.subList(i, Math.min(i + chunkSize, targets.size()));
+                chunkTasks.add(() -> {
+                    rebuildChunk(chunk, merged, readUpperId, todayBegin, write, out, accounts, changed);
+                    return null;
+                });
+            }
+        }
+        invokeAll(chunkTasks, parallelism, dryRun ? "比较" : "写回");
+        if (out != null) {
+            out.flush();
+        }
+        long writeCost = Math.max(System.currentTimeMillis() - begin, 1);
+        log.info("重算账户完成，dryRun={}, upperId={}, accounts={}, changed={}, cost={}ms, accountsPerSecond={}{}", dryRun,
+                upperId, accounts.sum(), changed.sum(), writeCost, accounts.sum() * 1000 / writeCost,
+                dryRun ? "，每块按一致性快照比较，upperId附近未提交的记账可能产生差异，可对差异账户单独重跑确认" : "");
+        return changed.sum();
+    }
+
+    /**
+     * 一块账户：补上upperId之后的账户历史再比较。
+     * 写回时先在事务外按userNo顺序持有本块账户的分段锁(LEGACY记账先读后整行写回，只靠分段锁与重算互斥)，
+     * 再在一个事务内加行锁后读取；dry-run不加锁，在只读的一致性快照内读取，账户与账户历史对应同一时刻
+     */
+    private void rebuildChunk(List<String> chunk, Map<String, long[]> sums, long upperId, long todayBegin, boolean write,
+                              Writer out, LongAdder accounts, LongAdder changed) {
+        if (!write || !stripedAccountLock.isEnabled()) {
+            rebuildLocked(chunk, sums, upperId, todayBegin, write, out, accounts, changed);
+            return;
+        }
+        Set<String> userNos = new TreeSet<>();
+        for (Account account : listAccounts(chunk, false)) {
+            userNos.add(account.getUserNo());
+        }
+        List<Lock> locks = stripedAccountLock.lockAll(userNos);
+        try {
+            rebuildLocked(chunk, sums, upperId, todayBegin, write, out, accounts, changed);
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    private void rebuildLocked(List<String> chunk, Map<String, long[]> sums, long upperId, long todayBegin, boolean write,
+                               Writer out, LongAdder accounts, LongAdder changed) {
+        (write ? transactionTemplate : snapshotTemplate).execute(status -> {
+            // 写回时先锁分桶再锁主账户，与归集的加锁顺序一致
+            List<AccountBucket> buckets = listBuckets(listAccounts(chunk, false), write);
+            List<Account> accountList = listAccounts(chunk, write);
+            // 补上读取之后新增的账户历史
+            Map<String, long[]> current = new HashMap<>(chunk.size() * 2);
+            for (String accountNo : chunk) {
+                long[] sum = sums.get(accountNo);
+                if (sum != null) {
+                    current.put(accountNo, sum.clone());
+                }
+            }
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("fromId", upperId);
+            params.put("accountNos", chunk);
+            accountHistoryMapper.streamRebuild(params, context -> accumulate(current, context.getResultObject(), todayBegin));
+            compare(accountList, buckets, current, todayBegin, write, out, accounts, changed);
+            return null;
+        });
+    }
+
+    private List<Account> listAccounts(List<String> chunk, boolean forUpdate) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("accountNos", chunk);
+        params.put("forUpdate", forUpdate);
+        return accountMapper.listForRebuild(params);
+    }
+
+    private List<AccountBucket> listBuckets(List<Account> accountList, boolean forUpdate) {
+        Set<String> userNos = new LinkedHashSet<>();
+        for (Account account : accountList) {
+            userNos.add(account.getUserNo());
+        }
+        if (userNos.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userNos", new ArrayList<>(userNos));
+        params.put("forUpdate", forUpdate);
+        return accountBucketMapper.listForRebuild(params);
+    }
+
+    private void compare(List<Account> accountList, List<AccountBucket> buckets, Map<String, long[]> sums, long todayBegin,
+                         boolean write, Writer out, LongAdder accounts, LongAdder changed) {
+        Map<String, long[]> bucketSums = new HashMap<>();
+        for (AccountBucket bucket : buckets) {
+            long[] sum = bucketSums.computeIfAbsent(bucket.getUserNo(), k -> new long[FIELDS.length]);
+            sum[BALANCE] = Math.addExact(sum[BALANCE], Money.storedToMinor(bucket.getBalance()));
+            sum[TOTAL_INCOME] = Math.addExact(sum[TOTAL_INCOME], Money.storedToMinor(bucket.getTotalIncome()));
+            if (bucket.getCounterDay() != null && bucket.getCounterDay().getTime() >= todayBegin) {
+                sum[TODAY_INCOME] = Math.addExact(sum[TODAY_INCOME], Money.storedToMinor(bucket.getTodayIncome()));
+            }
+        }
+
+        List<Account> rebuilt = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (Account account : accountList) {
+            LedgerCalculator.rolloverOnRead(account);
+            long[] sum = sums.get(account.getAccountNo());
+            long[] expected = sum == null ? new long[FIELDS.length] : sum.clone();
+            long[] bucket = bucketSums.get(account.getUserNo());
+            if (bucket != null) {
+                // 分桶部分不在主账户行上
+                for (int i = 0; i < FIELDS.length; i++) {
+                    expected[i] = Math.subtractExact(expected[i], bucket[i]);
+                }
+            }
+            long[] actual = { Money.storedToMinor(account.getBalance()), Money.storedToMinor(account.getTotalIncome()),
+                    Money.storedToMinor(account.getTotalExpend()), Money.storedToMinor(account.getSettAmount()),
+                    Money.storedToMinor(account.getTodayIncome()), Money.storedToMinor(account.getTodayExpend()) };
+            accounts.increment();
+            if (Arrays.equals(expected, actual)) {
+                continue;
+            }
+            changed.increment();
+            sb.setLength(0);
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (expected[i] != actual[i]) {
+                    sb.append(account.getAccountNo()).append(',').append(FIELDS[i]).append(',')
+                            .append(Money.toBigDecimal(actual[i]).toPlainString()).append(',')
+                            .append(Money.toBigDecimal(expected[i]).toPlainString()).append('\n');
+                }
+            }
+            writeDiff(out, sb);
+            Account target = new Account();
+            target.setAccountNo(account.getAccountNo());
+            target.setBalance(Money.toBigDecimal(expected[BALANCE]));
+            target.setTotalIncome(Money.toBigDecimal(expected[TOTAL_INCOME]));
+            target.setTotalExpend(Money.toBigDecimal(expected[TOTAL_EXPEND]));
+            target.setSettAmount(Money.toBigDecimal(expected[SETT_AMOUNT]));
+            target.setTodayIncome(Money.toBigDecimal(expected[TODAY_INCOME]));
+            target.setTodayExpend(Money.toBigDecimal(expected[TODAY_EXPEND]));
+            rebuilt.add(target);
+        }
+        if (write && !rebuilt.isEmpty()) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("list", rebuilt);
+            params.put("counterDay", new Date(todayBegin));
+            params.put("editTime", new Date());
+            accountMapper.rebuildBatch(params);
+        }
+    }
+
+    private void writeDiff(Writer out, StringBuilder sb) {
+        if (out == null) {
+            log.info("重算账户差异：{}", sb.substring(0, sb.length() - 1).replace('\n', ';'));
+            return;
+        }
+        synchronized (out) {
+            try {
+                out.append(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 累加一行账户历史，与LedgerCalculator及结算入账的口径一致：
+     * 交易类型的加款计收益，减款(含解冻减款)计支出；已结算的可结算记录计入可结算金额，解冻减款(不可结算)减少可结算金额
+     */
+    static void accumulate(Map<String, long[]> sums, AccountHistory history, long todayBegin) {
+        long amount = Money.storedToMinor(history.getAmount());
+        boolean sub = AccountFundDirectionEnum.SUB.name().equals(history.getFundDirection());
+        boolean today = history.getCreateTime() != null && history.getCreateTime().getTime() >= todayBegin;
+        long[] sum = sums.computeIfAbsent(history.getAccountNo(), k -> new long[FIELDS.length]);
+        if (sub) {
+            sum[BALANCE] = Math.subtractExact(sum[BALANCE], amount);
+            sum[TOTAL_EXPEND] = Math.addExact(sum[TOTAL_EXPEND], amount);
+            if (today) {
+                sum[TODAY_EXPEND] = Math.addExact(sum[TODAY_EXPEND], amount);
+            }
+        } else {
+            sum[BALANCE] = Math.addExact(sum[BALANCE], amount);
+            if (TrxTypeEnum.EXPENSE.name().equals(history.getTrxType())) {
+                sum[TOTAL_INCOME] = Math.addExact(sum[TOTAL_INCOME], amount);
+                if (today) {
+                    sum[TODAY_INCOME] = Math.addExact(sum[TODAY_INCOME], amount);
+                }
+            }
+        }
+        if (PublicEnum.YES.name().equals(history.getIsAllowSett())) {
+            if (PublicEnum.YES.name().equals(history.getIsCompleteSett())) {
+                sum[SETT_AMOUNT] = sub ? Math.subtractExact(sum[SETT_AMOUNT], amount) : Math.addExact(sum[SETT_AMOUNT], amount);
+            }
+        } else if (sub) {
+            sum[SETT_AMOUNT] = Math.subtractExact(sum[SETT_AMOUNT], amount);
+        }
+    }
+
+    /**
+     * 合并两个线程的累加结果，较小的并入较大的
+     */
+    static Map<String, long[]> merge(Map<String, long[]> target, Map<String, long[]> part) {
+        if (target == null) {
+            return part;
+        }
+        if (part.size() > target.size()) {
+            Map<String, long[]> swap = target;
+            target = part;
+            part = swap;
+        }
+        for (Map.Entry<String, long[]> entry : part.entrySet()) {
+            long[] sum = target.get(entry.getKey());
+            if (sum == null) {
+                target.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] = Math.addExact(sum[i], entry.getValue()[i]);
+            }
+        }
+        return target;
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks, int parallelism, String stage) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("重算账户" + stage + "失败", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.zhangpeng.account.core.reconcile;
+
+/**
+ * 按账户累加重放金额
+ *
+ * 开放寻址(线性探测)的accountNo -> 槽位表，金额、最后id、余额快照放在并行的long数组中，
+ * 每个账户只占一个槽位，不为每行账户历史创建对象。只由一个对账线程访问。
+ */
+final class ReconcileAccumulator {
+
+    /** 余额快照为空 **/
+    static final long NO_SNAPSHOT = Long.MIN_VALUE;
+
+    private String[] accountNos;
+    private String[] userNos;
+    private long[] deltas;
+    private long[] lastIds;
+    private long[] snapshots;
+    private int size;
+
+    ReconcileAccumulator(int expectedAccounts) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedAccounts * 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * 累加一行账户历史，同一账户的行须按id升序
+     *
+     * @param signedMinor
+     *            带符号金额(分)
+     * @param snapshotMinor
+     *            该行的余额快照(分)，为空时传NO_SNAPSHOT
+     */
+    void add(String accountNo, String userNo, long signedMinor, long id, long snapshotMinor) {
+        int slot = slotOf(accountNo);
+        if (accountNos[slot] == null) {
+            accountNos[slot] = accountNo;
+            userNos[slot] = userNo;
+            if (++size * 2 > accountNos.length) {
+                resize();
+                slot = slotOf(accountNo);
+            }
+        }
+        deltas[slot] = Math.addExact(deltas[slot], signedMinor);
+        lastIds[slot] = id;
+        snapshots[slot] = snapshotMinor;
+    }
+
+    /**
+     * 登记一个没有新增账户历史的账户，只占槽位，增量为0、最后id为0、没有余额快照；已登记的账户不变
+     */
+    void touch(String accountNo, String userNo) {
+        int slot = slotOf(accountNo);
+        if (accountNos[slot] != null) {
+            return;
+        }
+        accountNos[slot] = accountNo;
+        userNos[slot] = userNo;
+        snapshots[slot] = NO_SNAPSHOT;
+        if (++size * 2 > accountNos.length) {
+            resize();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** 槽位数，遍历时跳过accountNo为null的槽位 **/
+    int capacity() {
+        return accountNos.length;
+    }
+
+    String accountNo(int slot) {
+        return accountNos[slot];
+    }
+
+    String userNo(int slot) {
+        return userNos[slot];
+    }
+
+    long delta(int slot) {
+        return deltas[slot];
+    }
+
+    long lastId(int slot) {
+        return lastIds[slot];
+    }
+
+    long snapshot(int slot) {
+        return snapshots[slot];
+    }
+
+    private int slotOf(String accountNo) {
+        int mask = accountNos.length - 1;
+        int h = accountNo.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (accountNos[slot] != null && !accountNos[slot].equals(accountNo)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        String[] oldAccountNos = accountNos;
+        String[] oldUserNos = userNos;
+        long[] oldDeltas = deltas;
+        long[] oldLastIds = lastIds;
+        long[] oldSnapshots = snapshots;
+        allocate(oldAccountNos.length * 2);
+        for (int i = 0; i < oldAccountNos.length; i++) {
+            if (oldAccountNos[i] == null) {
+                continue;
+            }
+            int slot = slotOf(oldAccountNos[i]);
+            accountNos[slot] = oldAccountNos[i];
+            userNos[slot] = oldUserNos[i];
+            deltas[slot] = oldDeltas[i];
+            lastIds[slot] = oldLastIds[i];
+            snapshots[slot] = oldSnapshots[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        accountNos = new String[capacity];
+        userNos = new String[capacity];
+        deltas = new long[capacity];
+        lastIds = new long[capacity];
+        snapshots = new long[capacity];
+    }
+}
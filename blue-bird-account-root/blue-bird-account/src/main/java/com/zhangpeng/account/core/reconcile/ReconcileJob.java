@@ -0,0 +1,453 @@
+package com.zhangpeng.account.core.reconcile;
+
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.domain.ReconcileRun;
+import com.zhangpeng.account.api.domain.ReconcileState;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.ReconcileStatusEnum;
+import com.zhangpeng.account.core.cache.RedisClientUtils;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import com.zhangpeng.account.core.mapper.ReconcileRunMapper;
+import com.zhangpeng.account.core.mapper.ReconcileStateMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 账户余额对账
+ *
+ * 按主键顺序流式读取水位之后的账户历史，按accountNo哈希分给N个对账线程，各线程在自己的ReconcileAccumulator中累加重放金额；
+ * 读取完成后各线程分块取出账户余额(含分桶)和上次的重放结果，比较：
+ * 1. 上次重放余额 + 本次增量 与 账户余额；
+ * 2. 同一重放余额 与 最后一条账户历史的余额快照(分桶账户的快照不含分桶，跳过)。
+ * 余额不一致的账户在一个可重复读事务内取对账区间之后新增的账户历史和当前余额再比较一次，排除对账期间的正常记账；
+ * 仍不一致时重新合计该账户截至toId的全部账户历史，补上读取时还未提交的行。
+ *
+ * 水位延迟：toId取创建早于lag-seconds的最大id，id已分配但还未提交的事务大多落在延迟窗口内，留给下次对账。
+ * 只修改余额、没有写账户历史的账户不会出现在读取的行中，因此把上次对账以来edit_time有变化的账户也登记进来(增量为0)一起比较。
+ *
+ * 内存占用：读取与对账线程之间是有界队列，累加器只为本次涉及的账户各占一个槽位，与账户历史行数无关。
+ * 每个账户的重放余额和已重放到的id保存在对账状态表，批次完成后toId成为下次的水位，夜间只处理新增的账户历史；
+ * 中断的批次按原区间重做，已在该批次中更新过的账户跳过。多节点通过Redis锁只由一个节点执行。
+ */
+@Slf4j
+@Component
+public class ReconcileJob {
+
+    private static final String LOCK_KEY = "account:reconcile:lock";
+    private static final AccountHistory[] END = new AccountHistory[0];
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private ReconcileRunMapper reconcileRunMapper;
+    @Autowired
+    private ReconcileStateMapper reconcileStateMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${account.reconcile.enabled:true}")
+    private boolean enabled;
+
+    /** 对账线程数 **/
+    @Value("${account.reconcile.workers:4}")
+    private int workers;
+
+    /** 读取线程每攒够多少行交给对账线程 **/
+    @Value("${account.reconcile.batch-size:1000}")
+    private int batchSize;
+
+    /** 每个对账线程的队列长度(批) **/
+    @Value("${account.reconcile.queue-capacity:16}")
+    private int queueCapacity;
+
+    /** 比较时每次查询的账户数 **/
+    @Value("${account.reconcile.compare-chunk:500}")
+    private int compareChunk;
+
+    /** Redis锁有效期(秒)，应大于一次对账的耗时 **/
+    @Value("${account.reconcile.lock-seconds:21600}")
+    private int lockSeconds;
+
+    /** 水位延迟(秒)，只对账创建早于该时长的账户历史 **/
+    @Value("${account.reconcile.lag-seconds:300}")
+    private int lagSeconds;
+
+    private TransactionTemplate verifyTemplate;
+
+    @PostConstruct
+    public void init() {
+        this.verifyTemplate = new TransactionTemplate(transactionManager);
+        this.verifyTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.verifyTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 按cron在低峰期执行，默认每天04:00
+     */
+    @Scheduled(cron = "${account.reconcile.cron:0 0 4 * * ?}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        String requestId = UUID.randomUUID().toString();
+        if (!RedisClientUtils.tryGetDistributedLock(LOCK_KEY, requestId, lockSeconds)) {
+            log.info("其他节点正在对账");
+            return;
+        }
+        try {
+            reconcileOnce();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            RedisClientUtils.releaseDistributedLock(LOCK_KEY, requestId);
+        }
+    }
+
+    /**
+     * 最近一次对账不一致的账户
+     */
+    public List<ReconcileState> listMismatch() {
+        return reconcileStateMapper.listMismatch();
+    }
+
+    /**
+     * 续跑未完成的批次，或从水位到延迟水位新建一个批次
+     *
+     * @return 不一致的账户数
+     */
+    public long reconcileOnce() throws InterruptedException, ExecutionException {
+        ReconcileRun run = reconcileRunMapper.getUnfinished();
+        if (run == null) {
+            Long watermark = reconcileRunMapper.getWatermark();
+            long fromId = watermark == null ? 0L : watermark;
+            Date now = new Date();
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("fromId", fromId);
+            params.put("createTime", new Date(now.getTime() - lagSeconds * 1000L));
+            Long maxId = accountHistoryMapper.getMaxIdBefore(params);
+            if (maxId == null || maxId <= fromId) {
+                return 0;
+            }
+            run = new ReconcileRun();
+            run.setCreateTime(now);
+            run.setEditTime(now);
+            run.setFromId(fromId);
+            run.setToId(maxId);
+            run.setAccountNum(0L);
+            run.setMismatchNum(0L);
+            reconcileRunMapper.insert(run);
+        }
+
+        long begin = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Worker> workerList = new ArrayList<>(workers);
+            List<Future<?>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                Worker worker = new Worker(new ArrayBlockingQueue<AccountHistory[]>(queueCapacity));
+                workerList.add(worker);
+                futures.add(executor.submit(worker::accumulate));
+            }
+            long rows = stream(run, changedSince(), workerList, futures);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            // 全部读取完成后再比较，同一账户的增量已完整
+            ReconcileRun current = run;
+            futures.clear();
+            for (Worker worker : workerList) {
+                futures.add(executor.submit(() -> worker.compare(current)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            long accounts = 0;
+            long mismatches = 0;
+            for (Worker worker : workerList) {
+                accounts += worker.accounts;
+                mismatches += worker.mismatches;
+            }
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("id", run.getId());
+            params.put("accountNum", accounts);
+            params.put("mismatchNum", mismatches);
+            params.put("finishTime", new Date());
+            reconcileRunMapper.finish(params);
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            log.info("对账完成，fromId={}, toId={}, rows={}, accounts={}, mismatches={}, cost={}ms, rowsPerSecond={}",
+                    run.getFromId(), run.getToId(), rows, accounts, mismatches, cost, rows * 1000 / cost);
+            return mismatches;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 上次对账以来修改过的账户的起始时间：上次已完成批次的创建时间再往前延迟窗口；没有已完成的批次时返回null，只比较有账户历史的账户
+     */
+    private Date changedSince() {
+        ReconcileRun last = reconcileRunMapper.getLastFinished();
+        return last == null ? null : new Date(last.getCreateTime().getTime() - lagSeconds * 1000L);
+    }
+
+    /**
+     * 流式读取(fromId, toId]，按accountNo哈希分批交给对账线程；再读取changedSince以来修改过的账户，以id为空的账户历史交给对账线程登记；
+     * 最后给每个线程一个结束标记
+     *
+     * @return 读取的账户历史行数
+     */
+    private long stream(ReconcileRun run, Date changedSince, List<Worker> workerList, List<Future<?>> futures) throws InterruptedException {
+        AccountHistory[][] pending = new AccountHistory[workerList.size()][];
+        int[] counts = new int[workerList.size()];
+        long[] rows = new long[1];
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("fromId", run.getFromId());
+        params.put("toId", run.getToId());
+        try {
+            accountHistoryMapper.streamReconcile(params, context -> {
+                dispatch(context.getResultObject(), pending, counts, workerList, futures);
+                rows[0]++;
+            });
+            if (changedSince != null) {
+                Map<String, Object> changedParams = new HashMap<String, Object>();
+                changedParams.put("editTime", changedSince);
+                accountMapper.streamChangedSince(changedParams, context -> {
+                    AccountHistory touched = new AccountHistory();
+                    touched.setAccountNo(context.getResultObject().getAccountNo());
+                    touched.setUserNo(context.getResultObject().getUserNo());
+                    dispatch(touched, pending, counts, workerList, futures);
+                });
+            }
+            for (int i = 0; i < pending.length; i++) {
+                if (counts[i] > 0) {
+                    AccountHistory[] last = new AccountHistory[counts[i]];
+                    System.arraycopy(pending[i], 0, last, 0, counts[i]);
+                    put(workerList.get(i), futures.get(i), last);
+                }
+            }
+        } finally {
+            for (int i = 0; i < workerList.size(); i++) {
+                workerList.get(i).queue.offer(END);
+            }
+        }
+        return rows[0];
+    }
+
+    /**
+     * 按accountNo哈希放入对应对账线程的待发批次，攒满batchSize时发出
+     */
+    private void dispatch(AccountHistory history, AccountHistory[][] pending, int[] counts, List<Worker> workerList, List<Future<?>> futures) {
+        int index = (history.getAccountNo().hashCode() & Integer.MAX_VALUE) % pending.length;
+        if (pending[index] == null) {
+            pending[index] = new AccountHistory[batchSize];
+        }
+        pending[index][counts[index]++] = history;
+        if (counts[index] == batchSize) {
+            put(workerList.get(index), futures.get(index), pending[index]);
+            pending[index] = null;
+            counts[index] = 0;
+        }
+    }
+
+    /**
+     * 放入对账线程的队列，队列满时等待；对账线程已异常退出时不再等待
+     */
+    private void put(Worker worker, Future<?> future, AccountHistory[] batch) {
+        try {
+            while (!worker.queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                if (future.isDone()) {
+                    throw new IllegalStateException("对账线程已退出");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("对账读取被中断", e);
+        }
+    }
+
+    /**
+     * 余额不一致时在同一快照内再比较：
+     * 1. 对账期间又有记账，重放余额 + toId之后的账户历史 与 当前余额；
+     * 2. 有读取时还未提交的行(id不大于toId，本次或以前的批次读取时漏掉)，该账户全部账户历史的合计 与 当前余额，一致时以截至toId的合计作为重放余额
+     *
+     * @return 一致时返回截至toId的重放余额，不一致时返回null
+     */
+    private Long verifyAgain(String accountNo, long replay, long toId) {
+        return verifyTemplate.execute(status -> {
+            List<Map<String, Object>> rows = accountMapper.listReconcileBalances(Collections.singletonList(accountNo));
+            if (rows.isEmpty()) {
+                return null;
+            }
+            long balance = totalBalance(rows.get(0));
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("accountNo", accountNo);
+            params.put("afterId", toId);
+            long tail = Money.storedToMinor(accountHistoryMapper.sumSignedAfter(params));
+            if (balance == Math.addExact(replay, tail)) {
+                return replay;
+            }
+            params.put("afterId", 0L);
+            long total = Money.storedToMinor(accountHistoryMapper.sumSignedAfter(params));
+            if (balance != total) {
+                return null;
+            }
+            long rescanned = Math.subtractExact(total, tail);
+            log.info("对账补入延迟提交的账户历史，accountNo={}, replayBalance={}, rescannedBalance={}", accountNo,
+                    Money.toBigDecimal(replay), Money.toBigDecimal(rescanned));
+            return rescanned;
+        });
+    }
+
+    private static long totalBalance(Map<String, Object> row) {
+        return Math.addExact(Money.storedToMinor((BigDecimal) row.get("balance")), Money.storedToMinor((BigDecimal) row.get("bucketBalance")));
+    }
+
+    /**
+     * 对账线程，只处理哈希到自己的账户
+     */
+    private final class Worker {
+        private final BlockingQueue<AccountHistory[]> queue;
+        private final ReconcileAccumulator accumulator = new ReconcileAccumulator(1024);
+        private long accounts;
+        private long mismatches;
+
+        private Worker(BlockingQueue<AccountHistory[]> queue) {
+            this.queue = queue;
+        }
+
+        private void accumulate() {
+            try {
+                AccountHistory[] batch;
+                while ((batch = queue.take()) != END) {
+                    for (AccountHistory history : batch) {
+                        if (history.getId() == null) {
+                            accumulator.touch(history.getAccountNo(), history.getUserNo());
+                            continue;
+                        }
+                        long amount = Money.storedToMinor(history.getAmount());
+                        long signed = AccountFundDirectionEnum.SUB.name().equals(history.getFundDirection()) ? -amount : amount;
+                        long snapshot = history.getBalance() == null ? ReconcileAccumulator.NO_SNAPSHOT
+                                : Money.storedToMinor(history.getBalance());
+                        accumulator.add(history.getAccountNo(), history.getUserNo(), signed, history.getId(), snapshot);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void compare(ReconcileRun run) {
+            List<Integer> slots = new ArrayList<>(compareChunk);
+            for (int slot = 0; slot < accumulator.capacity(); slot++) {
+                if (accumulator.accountNo(slot) == null) {
+                    continue;
+                }
+                slots.add(slot);
+                if (slots.size() == compareChunk) {
+                    compareChunk(run, slots);
+                    slots.clear();
+                }
+            }
+            if (!slots.isEmpty()) {
+                compareChunk(run, slots);
+            }
+        }
+
+        private void compareChunk(ReconcileRun run, List<Integer> slots) {
+            List<String> accountNos = new ArrayList<>(slots.size());
+            for (Integer slot : slots) {
+                accountNos.add(accumulator.accountNo(slot));
+            }
+            Map<String, ReconcileState> states = new HashMap<>();
+            for (ReconcileState state : reconcileStateMapper.listByAccountNos(accountNos)) {
+                states.put(state.getAccountNo(), state);
+            }
+            Map<String, Map<String, Object>> balances = new HashMap<>();
+            for (Map<String, Object> row : accountMapper.listReconcileBalances(accountNos)) {
+                balances.put((String) row.get("accountNo"), row);
+            }
+
+            Date now = new Date();
+            List<ReconcileState> changed = new ArrayList<>(slots.size());
+            for (Integer slot : slots) {
+                String accountNo = accumulator.accountNo(slot);
+                ReconcileState previous = states.get(accountNo);
+                if (previous != null && previous.getLastHistoryId() != null && previous.getLastHistoryId() > run.getFromId()) {
+                    // 中断前已在本批次中更新
+                    continue;
+                }
+                long replay = Math.addExact(previous == null ? 0L : Money.storedToMinor(previous.getReplayBalance()),
+                        accumulator.delta(slot));
+                long snapshot = accumulator.snapshot(slot);
+                Map<String, Object> row = balances.get(accountNo);
+                boolean match = row != null;
+                if (match && totalBalance(row) != replay) {
+                    Long verified = verifyAgain(accountNo, replay, run.getToId());
+                    match = verified != null;
+                    if (match) {
+                        replay = verified;
+                    }
+                }
+                if (match && row.get("bucketBalance") == null && snapshot != ReconcileAccumulator.NO_SNAPSHOT) {
+                    match = snapshot == replay;
+                }
+
+                ReconcileState state = new ReconcileState();
+                state.setCreateTime(now);
+                state.setEditTime(now);
+                state.setAccountNo(accountNo);
+                state.setUserNo(accumulator.userNo(slot));
+                state.setReplayBalance(Money.toBigDecimal(replay));
+                long previousId = previous == null || previous.getLastHistoryId() == null ? 0L : previous.getLastHistoryId();
+                state.setLastHistoryId(Math.max(accumulator.lastId(slot), previousId));
+                state.setSnapshotBalance(snapshot == ReconcileAccumulator.NO_SNAPSHOT ? null : Money.toBigDecimal(snapshot));
+                state.setAccountBalance(row == null ? null : Money.toBigDecimal(totalBalance(row)));
+                state.setReconcileStatus(match ? ReconcileStatusEnum.MATCH.name() : ReconcileStatusEnum.MISMATCH.name());
+                state.setRunId(run.getId());
+                changed.add(state);
+                accounts++;
+                if (!match) {
+                    mismatches++;
+                    log.warn("对账不一致，accountNo={}, accountBalance={}, replayBalance={}, snapshotBalance={}, lastHistoryId={}",
+                            accountNo, state.getAccountBalance(), state.getReplayBalance(), state.getSnapshotBalance(),
+                            state.getLastHistoryId());
+                }
+            }
+            if (!changed.isEmpty()) {
+                reconcileStateMapper.saveBatch(changed);
+            }
+        }
+    }
+}
@@ -3,25 +3,33 @@ package com.zhangpeng.account.core.service;
 import com.alibaba.dubbo.config.annotation.Service;
 import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Maps;
+import com.zhangpeng.account.api.CursorPage;
+import com.zhangpeng.account.api.CursorParam;
 import com.zhangpeng.account.api.PageBean;
 import com.zhangpeng.account.api.PageParam;
 import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountDailySummary;
 import com.zhangpeng.account.api.domain.AccountHistory;
 import com.zhangpeng.account.api.enums.PublicStatusEnum;
 import com.zhangpeng.account.api.ex.AccountBizException;
 import com.zhangpeng.account.api.service.AccountQueryService;
-import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.cache.PageCounter;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.mapper.AccountDailySummaryMapper;
 import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
 import com.zhangpeng.account.core.mapper.AccountMapper;
+import com.zhangpeng.account.core.utils.SeekCursor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 账户查询service实现类
@@ -30,10 +38,20 @@ import java.util.Map;
 @Service(timeout = 60000,retries = 0,interfaceClass = AccountQueryService.class)
 @Component("accountQueryService")
 public class AccountQueryServiceImpl implements AccountQueryService {
+
+	/** scanAccounts每批最大条数 **/
+	private static final int MAX_SCAN_LIMIT = 1000;
+
 	@Autowired
 	private AccountMapper accountMapper;
 	@Autowired
 	private AccountHistoryMapper accountHistoryMapper;
+	@Autowired
+	private AccountBucketManager accountBucketManager;
+	@Autowired
+	private PageCounter pageCounter;
+	@Autowired
+	private AccountDailySummaryMapper accountDailySummaryMapper;
 
 
 	/**
@@ -58,18 +76,10 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(account.getEditTime())) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
-			account.setEditTime(new Date());
-			try {
-				accountMapper.update(account);
-			} catch (Exception e) {
-				log.error(e.getMessage(),e);
-			}
-		}
-		return account;
+		// 不是同一天的今日统计只在返回值中清0，不写库，库中由跨天任务批量清0
+		LedgerCalculator.rolloverOnRead(account);
+		// 热点账户合并分桶余额
+		return accountBucketManager.mergeInto(account);
 	}
 
 	/**
@@ -93,18 +103,10 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(account.getEditTime())) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
-			account.setEditTime(new Date());
-			try {
-				accountMapper.update(account);
-			} catch (Exception e) {
-				log.error(e.getMessage(),e);
-			}
-		}
-		return account;
+		// 不是同一天的今日统计只在返回值中清0，不写库，库中由跨天任务批量清0
+		LedgerCalculator.rolloverOnRead(account);
+		// 热点账户合并分桶余额
+		return accountBucketManager.mergeInto(account);
 	}
 
 	@Override
@@ -144,18 +146,72 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 	 * @return
 	 */
     @Override
+    @Deprecated
     public List<Account> listAll(){
     	Map<String, Object> paramMap = new HashMap<String, Object>();
 		paramMap.put("status", PublicStatusEnum.ACTIVE.name());
 		List<Account> accounts = null;
 		try {
 			accounts = accountMapper.listBy(paramMap);
+			accounts.forEach(LedgerCalculator::rolloverOnRead);
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
 		return accounts;
 	}
 
+	/**
+	 * 按账户id升序分批扫描账户
+	 */
+	@Override
+	public List<Account> scanAccounts(Integer afterId, int limit, Map<String, Object> filter) {
+		Map<String, Object> paramMap = filter == null ? Maps.newHashMap() : new HashMap<String, Object>(filter);
+		// 条件里的for update会落在limit之前
+		paramMap.remove("isPessimist");
+		paramMap.put("afterId", afterId == null ? 0 : afterId);
+		paramMap.put("limit", limit <= 0 ? PageParam.DEFAULT_NUM_PER_PAGE : Math.min(limit, MAX_SCAN_LIMIT));
+		List<Account> accounts = null;
+		try {
+			accounts = accountMapper.scanAccounts(paramMap);
+			accounts.forEach(LedgerCalculator::rolloverOnRead);
+		} catch (Exception e) {
+			log.error(e.getMessage(),e);
+		}
+		return accounts;
+	}
+
+	/**
+	 * 逐条处理全部ACTIVE账户，供服务内批处理使用，不经Dubbo暴露
+	 *
+	 * @return 处理的账户数
+	 */
+	public long forEachAccount(Consumer<Account> consumer) {
+		Map<String, Object> paramMap = new HashMap<String, Object>();
+		paramMap.put("status", PublicStatusEnum.ACTIVE.name());
+		return forEachAccount(paramMap, consumer);
+	}
+
+	/**
+	 * 按条件逐条处理账户，流式读取，内存占用与账户数无关；处理期间一直占用一个数据库连接，consumer的异常中止读取并抛出
+	 *
+	 * @param filter
+	 *            查询条件，同listBy，可以为null
+	 * @return 处理的账户数
+	 */
+	public long forEachAccount(Map<String, Object> filter, Consumer<Account> consumer) {
+		Map<String, Object> paramMap = filter == null ? Maps.newHashMap() : new HashMap<String, Object>(filter);
+		paramMap.remove("isPessimist");
+		long begin = System.currentTimeMillis();
+		long[] rows = new long[1];
+		accountMapper.streamAccounts(paramMap, context -> {
+			consumer.accept(LedgerCalculator.rolloverOnRead(context.getResultObject()));
+			rows[0]++;
+		});
+		long cost = Math.max(System.currentTimeMillis() - begin, 1);
+		log.info("账户遍历完成，rows={}, cost={}ms, rowsPerSecond={}", rows[0], cost, rows[0] * 1000 / cost);
+		return rows[0];
+	}
+
 
 	/**
 	 * 根据参数分页查询账户.
@@ -186,6 +242,73 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 	}
 
 
+	/**
+	 * 根据参数游标分页查询账户历史.
+	 *
+	 * @param cursorParam
+	 *            游标分页参数.
+	 * @param map
+	 *            查询参数，可以为null.
+	 * @return 本页账户历史及下一页游标.
+	 */
+	@Override
+	public CursorPage<AccountHistory> cursorAccountHistory(CursorParam cursorParam, Map<String, Object> map) {
+		Map<String, Object> paramMap = map == null ? Maps.newHashMap() : new HashMap<String, Object>(map);
+		SeekCursor cursor = SeekCursor.decode(cursorParam.getCursor());
+		if (cursor != null) {
+			paramMap.put("cursorTime", cursor.getCreateTime());
+			paramMap.put("cursorId", cursor.getId());
+		}
+		int numPerPage = PageBean.checkNumPerPage(cursorParam.getNumPerPage());
+		// 多取一条判断有无下一页，代替count
+		paramMap.put("limit", cursorParam.isProbeHasMore() ? numPerPage + 1 : numPerPage);
+
+		List<AccountHistory> list = null;
+		try {
+			list = accountHistoryMapper.listSeek(paramMap);
+		} catch (Exception e) {
+			log.error(e.getMessage(),e);
+		}
+		if (list == null) {
+			return new CursorPage<>(new ArrayList<AccountHistory>(0), null, cursorParam.isProbeHasMore() ? Boolean.FALSE : null);
+		}
+
+		Boolean hasMore = null;
+		if (cursorParam.isProbeHasMore()) {
+			hasMore = list.size() > numPerPage;
+			if (hasMore) {
+				list = new ArrayList<>(list.subList(0, numPerPage));
+			}
+		}
+		// 探测到有下一页，或未探测但本页已取满时返回下一页游标
+		String nextCursor = null;
+		if (!list.isEmpty() && (hasMore != null ? hasMore : list.size() >= numPerPage)) {
+			AccountHistory last = list.get(list.size() - 1);
+			nextCursor = new SeekCursor(last.getCreateTime(), last.getId()).encode();
+		}
+		return new CursorPage<>(list, nextCursor, hasMore);
+	}
+
+	/**
+	 * 查询账户日汇总，读取预先汇总的行，行数与天数成正比
+	 *
+	 * @param accountNo
+	 *            账户编号
+	 * @param from
+	 *            开始日期(含)
+	 * @param to
+	 *            结束日期(含)
+	 * @return
+	 */
+	@Override
+	public List<AccountDailySummary> dailySummary(String accountNo, Date from, Date to) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("accountNo", accountNo);
+		params.put("fromDate", from);
+		params.put("toDate", to);
+		return accountDailySummaryMapper.listByAccount(params);
+	}
+
 	/**
 	 * 分页查询数据 .
 	 */
@@ -194,10 +317,12 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 			paramMap = Maps.newHashMap();
 		}
 
-		// 统计总记录数
+		// 统计总记录数，按调用方指定的统计方式
 		Long totalCount = null;
 		try {
-			totalCount = accountHistoryMapper.listPageCount(paramMap);
+			Map<String, Object> countParams = paramMap;
+			totalCount = pageCounter.count(pageParam.getCountMode(), PageCounter.TABLE_HISTORY, countParams,
+					() -> accountHistoryMapper.listPageCount(countParams), accountHistoryMapper::estimateCount);
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
@@ -241,13 +366,18 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 			paramMap = Maps.newHashMap();
 		}
 
-		// 统计总记录数
+		// 统计总记录数，按调用方指定的统计方式
 		Long totalCount = null;
 		try {
-			totalCount = accountMapper.listPageCount(paramMap);
+			Map<String, Object> countParams = paramMap;
+			totalCount = pageCounter.count(pageParam.getCountMode(), PageCounter.TABLE_ACCOUNT, countParams,
+					() -> accountMapper.listPageCount(countParams), accountMapper::estimateCount);
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
+		if(null == totalCount){
+			totalCount = 0L;
+		}
 
 		// 校验当前页数
 		int currentPage = PageBean.checkCurrentPage(totalCount.intValue(), pageParam.getNumPerPage(), pageParam.getPageNum());
@@ -266,6 +396,7 @@ public class AccountQueryServiceImpl implements AccountQueryService {
 		List<Account> list = null;
 		try {
 			list = accountMapper.listPage(paramMap);
+			list.forEach(LedgerCalculator::rolloverOnRead);
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
@@ -4,11 +4,15 @@ package com.zhangpeng.account.core.service;
 import com.alibaba.dubbo.config.annotation.Service;
 import com.google.common.collect.Maps;
 import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.ex.AccountBizException;
 import com.zhangpeng.account.api.service.AccountService;
+import com.zhangpeng.account.core.aop.LedgerLock;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
 import com.zhangpeng.account.core.mapper.AccountMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Map;
 
@@ -22,6 +26,9 @@ public class AccountServiceImpl implements AccountService {
 
 	@Autowired
 	private AccountMapper accountMapper;
+
+	@Autowired
+	private AccountBucketManager accountBucketManager;
 	
 	@Override
 	public void saveData(Account account) {
@@ -64,4 +71,18 @@ public class AccountServiceImpl implements AccountService {
 		}
 		return account;
 	}
-}
\ No newline at end of file
+
+	@Override
+	@LedgerLock
+	@Transactional(rollbackFor = Exception.class)
+	public void configureBuckets(String userNo, int bucketCount) {
+		if (bucketCount < 0) {
+			throw AccountBizException.ACCOUNT_PARAM_ILLEGAL.newInstance("分桶数不能小于0");
+		}
+		Account account = getAccount(userNo);
+		if (account == null) {
+			throw AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		accountBucketManager.reconfigure(account, bucketCount);
+	}
+}
@@ -1,30 +1,61 @@
 package com.zhangpeng.account.core.service;
 
 import com.alibaba.dubbo.config.annotation.Service;
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.LedgerResult;
+import com.zhangpeng.account.api.TransferLeg;
 import com.zhangpeng.account.api.domain.Account;
 import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.domain.AccountHold;
 import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
 import com.zhangpeng.account.api.enums.PublicEnum;
 import com.zhangpeng.account.api.enums.TrxTypeEnum;
 import com.zhangpeng.account.api.ex.AccountBizException;
 import com.zhangpeng.account.api.service.AccountTransactionService;
-import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.aop.EngineRoute;
+import com.zhangpeng.account.core.aop.GroupCommit;
+import com.zhangpeng.account.core.aop.Idempotent;
+import com.zhangpeng.account.core.aop.Journaled;
+import com.zhangpeng.account.core.aop.LedgerLock;
+import com.zhangpeng.account.core.aop.OptimisticRetry;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.enums.MutationModeEnum;
+import com.zhangpeng.account.core.hold.AccountHoldManager;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerBatchExecutor;
+import com.zhangpeng.account.core.ledger.LedgerCalculator;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.LedgerTransferExecutor;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.ledger.OptimisticLockStats;
+import com.zhangpeng.account.core.mapper.AccountBucketMapper;
 import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
 import com.zhangpeng.account.core.mapper.AccountMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 /**
  * 账户操作service实现类
+ *
+ * 事务隔离级别使用READ_COMMITTED：乐观锁模式下重试时需要读到其他事务已提交的最新版本
  */
 @Slf4j
 @Service(timeout = 60000,retries = 0,interfaceClass = AccountTransactionService.class)
@@ -37,6 +68,29 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	private AccountMapper accountMapper;
 	@Autowired
 	private AccountHistoryMapper accountHistoryMapper;
+	@Autowired
+	private OptimisticLockStats optimisticLockStats;
+	@Autowired
+	private AccountBucketMapper accountBucketMapper;
+	@Autowired
+	private AccountBucketManager accountBucketManager;
+	@Autowired
+	private LedgerBatchExecutor ledgerBatchExecutor;
+	@Autowired
+	private LedgerStatsAccumulator ledgerStatsAccumulator;
+	@Autowired
+	private LedgerEngine ledgerEngine;
+	@Autowired
+	private LedgerTransferExecutor ledgerTransferExecutor;
+	@Autowired
+	private AccountHoldManager accountHoldManager;
+	@Autowired
+	private LedgerClock ledgerClock;
+
+	/** 余额变更模式，默认沿用先读后写 **/
+	@Value("${account.ledger.mutation-mode:LEGACY}")
+	private MutationModeEnum mutationMode;
+
 	
 	
 
@@ -77,7 +131,13 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            备注
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@Idempotent
+	@EngineRoute(LedgerCommandTypeEnum.CREDIT)
+	@GroupCommit(LedgerCommandTypeEnum.CREDIT)
+	@LedgerLock(skipForBuckets = true)
+	@Journaled(LedgerCommandTypeEnum.CREDIT)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account creditToAccount(String userNo, BigDecimal amount, String requestNo, String trxType, String remark){
 		return this.creditToAccount(userNo, amount, requestNo, null, trxType, remark);
 	}
@@ -97,65 +157,45 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            备注
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@Idempotent
+	@EngineRoute(LedgerCommandTypeEnum.CREDIT)
+	@GroupCommit(LedgerCommandTypeEnum.CREDIT)
+	@LedgerLock(skipForBuckets = true)
+	@Journaled(LedgerCommandTypeEnum.CREDIT)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account creditToAccount(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
 		if (amount.compareTo(BigDecimal.ZERO) <=0) {
 			throw AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
 		}
+		int bucketCount = accountBucketManager.bucketCount(userNo);
+		if (bucketCount > 0) {
+			return this.creditToBucket(userNo, bucketCount, amount, requestNo, bankTrxNo, trxType, remark);
+		}
+		if (MutationModeEnum.DELTA == mutationMode) {
+			return this.creditByDelta(userNo, amount, requestNo, bankTrxNo, trxType, remark);
+		}
+		if (MutationModeEnum.OPTIMISTIC == mutationMode) {
+			Account account = this.mutateOptimistic(userNo, a -> LedgerCalculator.applyCredit(a, amount, trxType));
+			this.insertHistory(account, amount, requestNo, bankTrxNo, trxType, remark, AccountFundDirectionEnum.ADD, PublicEnum.YES);
+			return account;
+		}
 
 		Account account = this.getByUserNo_IsPessimist(userNo, false);
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
-
-		Date lastModifyDate = account.getEditTime();
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(lastModifyDate)) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
-		}
-
-		// 总收益累加和今日收益
-		if (TrxTypeEnum.EXPENSE.name().equals(trxType)) {// 业务类型是交易
-			account.setTotalIncome(account.getTotalIncome().add(amount));
-
-			/***** 根据上次修改时间，统计今日收益 *******/
-			if (DateUtils.isSameDayWithToday(lastModifyDate)) {
-				// 如果是同一天
-				account.setTodayIncome(account.getTodayIncome().add(amount));
-			} else {
-				// 不是同一天
-				account.setTodayIncome(amount);
-			}
-			/************************************/
-		}
-
-		String completeSett = PublicEnum.NO.name();
-		String isAllowSett = PublicEnum.YES.name();
-
-		/** 设置余额的值 **/
-		account.setBalance(account.getBalance().add(amount));
-		account.setEditTime(new Date());
+		LedgerCalculator.applyCredit(account, amount, trxType);
 
 		// 记录账户历史
-		AccountHistory accountHistoryEntity = new AccountHistory();
-		accountHistoryEntity.setCreateTime(new Date());
-		accountHistoryEntity.setEditTime(new Date());
-		accountHistoryEntity.setIsAllowSett(isAllowSett);
-		accountHistoryEntity.setAmount(amount);
-		accountHistoryEntity.setBalance(account.getBalance());
-		accountHistoryEntity.setRequestNo(requestNo);
-		accountHistoryEntity.setBankTrxNo(bankTrxNo);
-		accountHistoryEntity.setIsCompleteSett(completeSett);
-		accountHistoryEntity.setRemark(remark);
-		accountHistoryEntity.setFundDirection(AccountFundDirectionEnum.ADD.name());
-		accountHistoryEntity.setAccountNo(account.getAccountNo());
-		accountHistoryEntity.setTrxType(trxType);
-		accountHistoryEntity.setUserNo(userNo);
-
+		AccountHistory accountHistoryEntity = LedgerCalculator.buildHistory(account, amount, requestNo, bankTrxNo, trxType, remark,
+				AccountFundDirectionEnum.ADD, PublicEnum.YES);
 		try {
 			this.accountHistoryMapper.insert(accountHistoryEntity);
 			this.accountMapper.update(account);
+		} catch (DuplicateKeyException e) {
+			// 并发的重复请求由唯一键拦下，抛出让事务回滚，由幂等切面返回之前的结果
+			throw e;
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
@@ -178,7 +218,13 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            备注
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@Idempotent
+	@EngineRoute(LedgerCommandTypeEnum.DEBIT)
+	@GroupCommit(LedgerCommandTypeEnum.DEBIT)
+	@LedgerLock
+	@Journaled(LedgerCommandTypeEnum.DEBIT)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account debitToAccount(String userNo, BigDecimal amount, String requestNo, String trxType, String remark){
 		return this.debitToAccount(userNo, amount, requestNo, null, trxType, remark);
 	}
@@ -198,59 +244,41 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            备注
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@Idempotent
+	@EngineRoute(LedgerCommandTypeEnum.DEBIT)
+	@GroupCommit(LedgerCommandTypeEnum.DEBIT)
+	@LedgerLock
+	@Journaled(LedgerCommandTypeEnum.DEBIT)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account debitToAccount(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
 		if (amount.compareTo(BigDecimal.ZERO) <=0) {
 			throw AccountBizException.ACCOUNT_AMOUNT_ILLEGAL;
 		}
+		if (MutationModeEnum.DELTA == mutationMode || accountBucketManager.bucketCount(userNo) > 0) {
+			return this.debitByDelta(userNo, amount, requestNo, bankTrxNo, trxType, remark);
+		}
+		if (MutationModeEnum.OPTIMISTIC == mutationMode) {
+			Account account = this.mutateOptimistic(userNo, a -> LedgerCalculator.applyDebit(a, amount));
+			this.insertHistory(account, amount, requestNo, bankTrxNo, trxType, remark, AccountFundDirectionEnum.SUB, PublicEnum.YES);
+			return account;
+		}
 
 		Account account = this.getByUserNo_IsPessimist(userNo, false);
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
-		// 获取可用余额
-		BigDecimal availableBalance = account.getAvailableBalance();
-
-		String isAllowSett = PublicEnum.YES.name();
-		String completeSett = PublicEnum.NO.name();
-
-		if (availableBalance.compareTo(amount) == -1) {
-			throw AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT;
-		}
-
-		/** 减少总余额 **/
-		account.setBalance(account.getBalance().subtract(amount));
-
-		Date lastModifyDate = account.getEditTime();
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(lastModifyDate)) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
-			account.setTodayExpend(amount);
-		}else{
-			account.setTodayExpend(account.getTodayExpend().add(amount));
-		}
-		account.setTotalExpend(account.getTodayExpend().add(amount));
-		account.setEditTime(new Date());
+		LedgerCalculator.applyDebit(account, amount);
 
 		// 记录账户历史
-		AccountHistory accountHistoryEntity = new AccountHistory();
-		accountHistoryEntity.setCreateTime(new Date());
-		accountHistoryEntity.setEditTime(new Date());
-		accountHistoryEntity.setIsAllowSett(isAllowSett);
-		accountHistoryEntity.setAmount(amount);
-		accountHistoryEntity.setBalance(account.getBalance());
-		accountHistoryEntity.setRequestNo(requestNo);
-		accountHistoryEntity.setBankTrxNo(bankTrxNo);
-		accountHistoryEntity.setIsCompleteSett(completeSett);
-		accountHistoryEntity.setRemark(remark);
-		accountHistoryEntity.setFundDirection(AccountFundDirectionEnum.SUB.name());
-		accountHistoryEntity.setAccountNo(account.getAccountNo());
-		accountHistoryEntity.setTrxType(trxType);
-		accountHistoryEntity.setUserNo(userNo);
+		AccountHistory accountHistoryEntity = LedgerCalculator.buildHistory(account, amount, requestNo, bankTrxNo, trxType, remark,
+				AccountFundDirectionEnum.SUB, PublicEnum.YES);
 		try {
 			this.accountHistoryMapper.insert(accountHistoryEntity);
 			this.accountMapper.update(account);
+		} catch (DuplicateKeyException e) {
+			// 并发的重复请求由唯一键拦下，抛出让事务回滚，由幂等切面返回之前的结果
+			throw e;
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
@@ -266,19 +294,23 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            冻结金额
 	 **/
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@EngineRoute(LedgerCommandTypeEnum.FREEZE)
+	@LedgerLock
+	@Journaled(LedgerCommandTypeEnum.FREEZE)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account freezeAmount(String userNo, BigDecimal freezeAmount) {
+		if (MutationModeEnum.DELTA == mutationMode || accountBucketManager.bucketCount(userNo) > 0) {
+			return this.freezeByDelta(userNo, freezeAmount);
+		}
+		if (MutationModeEnum.OPTIMISTIC == mutationMode) {
+			return this.mutateOptimistic(userNo, a -> LedgerCalculator.applyFreeze(a, freezeAmount));
+		}
 		Account account = this.getByUserNo_IsPessimist(userNo, false);
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
-		account.setEditTime(new Date());
-		// 比较可用余额和冻结金额
-		if (!account.availableBalanceIsEnough(freezeAmount)) {
-			// 可用余额不足
-			throw AccountBizException.ACCOUNT_FROZEN_AMOUNT_OUTLIMIT;
-		}
-		account.setUnbalance(account.getUnbalance().add(freezeAmount));
+		LedgerCalculator.applyFreeze(account, freezeAmount);
 		try {
 			this.accountMapper.update(account);
 		} catch (Exception e) {
@@ -302,53 +334,36 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            备注
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@Idempotent
+	@EngineRoute(LedgerCommandTypeEnum.UNFREEZE)
+	@LedgerLock
+	@Journaled(LedgerCommandTypeEnum.UNFREEZE)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account unFreezeAmount(String userNo, BigDecimal amount, String requestNo, String trxType, String remark) {
+		if (MutationModeEnum.DELTA == mutationMode) {
+			return this.unFreezeByDelta(userNo, amount, requestNo, trxType, remark);
+		}
+		if (MutationModeEnum.OPTIMISTIC == mutationMode) {
+			Account account = this.mutateOptimistic(userNo, a -> LedgerCalculator.applyUnFreeze(a, amount));
+			this.insertHistory(account, amount, requestNo, null, trxType, remark, AccountFundDirectionEnum.SUB, PublicEnum.NO);
+			return account;
+		}
 		Account account = this.getByUserNo_IsPessimist(userNo, false);
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
+		LedgerCalculator.applyUnFreeze(account, amount);
 
-		Date lastModifyDate = account.getEditTime();
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(lastModifyDate)) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
-			account.setTodayExpend(amount);
-		}else{
-			account.setTodayExpend(account.getTodayExpend().add(amount));
-		}
-		account.setTotalExpend(account.getTodayExpend().add(amount));
-
-		// 判断解冻金额是否充足
-		if (account.getUnbalance().subtract(amount).compareTo(BigDecimal.ZERO) == -1) {
-			// 解冻金额超限
-			throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
-		}
-		account.setEditTime(new Date());
-		account.setBalance(account.getBalance().subtract(amount));// 减款
-		account.setUnbalance(account.getUnbalance().subtract(amount));// 解冻
-		account.setSettAmount(account.getSettAmount().subtract(amount));// 减少可结算金额
-
-		String isAllowSett = PublicEnum.NO.name();
-		String completeSett = PublicEnum.NO.name();
 		// 记录账户历史
-		AccountHistory accountHistoryEntity = new AccountHistory();
-		accountHistoryEntity.setCreateTime(new Date());
-		accountHistoryEntity.setEditTime(new Date());
-		accountHistoryEntity.setIsAllowSett(isAllowSett);
-		accountHistoryEntity.setAmount(amount);
-		accountHistoryEntity.setBalance(account.getBalance());
-		accountHistoryEntity.setRequestNo(requestNo);
-		accountHistoryEntity.setIsCompleteSett(completeSett);
-		accountHistoryEntity.setRemark(remark);
-		accountHistoryEntity.setFundDirection(AccountFundDirectionEnum.SUB.name());
-		accountHistoryEntity.setAccountNo(account.getAccountNo());
-		accountHistoryEntity.setTrxType(trxType);
-		accountHistoryEntity.setUserNo(userNo);
+		AccountHistory accountHistoryEntity = LedgerCalculator.buildHistory(account, amount, requestNo, null, trxType, remark,
+				AccountFundDirectionEnum.SUB, PublicEnum.NO);
 		try {
 			this.accountHistoryMapper.insert(accountHistoryEntity);
 			this.accountMapper.update(account);
+		} catch (DuplicateKeyException e) {
+			// 并发的重复请求由唯一键拦下，抛出让事务回滚，由幂等切面返回之前的结果
+			throw e;
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
 		}
@@ -364,33 +379,323 @@ public class AccountTransactionServiceImpl implements AccountTransactionService
 	 *            解冻和减款金额
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
+	@EngineRoute(LedgerCommandTypeEnum.UNFREEZE_SETT)
+	@LedgerLock
+	@Journaled(LedgerCommandTypeEnum.UNFREEZE_SETT)
+	@OptimisticRetry
+	@Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
 	public Account unFreezeSettAmount(String userNo, BigDecimal amount) {
+		if (MutationModeEnum.DELTA == mutationMode) {
+			return this.unFreezeSettByDelta(userNo, amount);
+		}
+		if (MutationModeEnum.OPTIMISTIC == mutationMode) {
+			return this.mutateOptimistic(userNo, a -> LedgerCalculator.applyUnFreezeSett(a, amount));
+		}
 		Account account = this.getByUserNo_IsPessimist(userNo, false);
 		if (account == null) {
 			throw AccountBizException.ACCOUNT_NOT_EXIT;
 		}
+		LedgerCalculator.applyUnFreezeSett(account, amount);
 
-		Date lastModifyDate = account.getEditTime();
-		// 不是同一天直接清0
-		if (!DateUtils.isSameDayWithToday(lastModifyDate)) {
-			account.setTodayExpend(BigDecimal.ZERO);
-			account.setTodayIncome(BigDecimal.ZERO);
+		try {
+			this.accountMapper.update(account);
+		} catch (Exception e) {
+			log.error(e.getMessage(),e);
 		}
+		return account;
+	}
 
-		// 判断解冻金额是否充足
-		if (account.getUnbalance().subtract(amount).compareTo(BigDecimal.ZERO) == -1) {
-			// 解冻金额超限
-			throw AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT;
+	/**
+	 * 批量记账，每块一个事务，不在方法上开启事务；内存记账模式下交给引擎
+	 * 
+	 * @param commands
+	 *            记账指令
+	 * @return 与commands下标一一对应的执行结果
+	 */
+	@Override
+	public List<LedgerResult> executeBatch(List<LedgerCommand> commands) {
+		if (this.ledgerEngine.isEnabled()) {
+			return this.ledgerEngine.execute(commands);
+		}
+		return this.ledgerBatchExecutor.execute(commands);
+	}
+
+	/**
+	 * 多方转账，各方按userNo升序加锁和更新，事务在执行器内开启
+	 * 
+	 * @param requestNo
+	 *            请求号
+	 * @param legs
+	 *            转账各方，金额合计为0
+	 * @param trxType
+	 *            业务类型
+	 * @param remark
+	 *            备注
+	 * @return 与legs下标一一对应的转账后账户
+	 */
+	@Override
+	public List<Account> transfer(String requestNo, List<TransferLeg> legs, String trxType, String remark) {
+		if (this.ledgerEngine.isEnabled()) {
+			// 各方可能落在不同分片，内存记账模式下无法保证原子性
+			throw AccountBizException.ACCOUNT_MODE_UNSUPPORTED;
 		}
-		account.setEditTime(new Date());
-		account.setUnbalance(account.getUnbalance().subtract(amount));// 解冻
+		return this.ledgerTransferExecutor.transfer(requestNo, legs, trxType, remark);
+	}
 
+	/**
+	 * 冻结并生成冻结单，事务在冻结单管理内开启
+	 * 
+	 * @param userNo
+	 *            用户编号
+	 * @param freezeAmount
+	 *            冻结金额
+	 * @param requestNo
+	 *            请求号，同一账户重复请求返回已有的冻结单
+	 * @param expireTime
+	 *            到期时间，为空时按默认有效期
+	 * @return 冻结单
+	 */
+	@Override
+	public AccountHold freezeAmount(String userNo, BigDecimal freezeAmount, String requestNo, Date expireTime) {
+		this.checkHoldSupported();
+		return this.accountHoldManager.hold(userNo, freezeAmount, requestNo, expireTime);
+	}
+
+	/**
+	 * 冻结单扣款 解冻金额+减款
+	 * 
+	 * @param holdId
+	 *            冻结单号
+	 * @param trxType
+	 *            业务类型
+	 * @param remark
+	 *            备注
+	 */
+	@Override
+	public Account captureHold(Integer holdId, String trxType, String remark) {
+		this.checkHoldSupported();
+		return this.accountHoldManager.capture(holdId, trxType, remark);
+	}
+
+	/**
+	 * 冻结单释放 解冻金额
+	 * 
+	 * @param holdId
+	 *            冻结单号
+	 */
+	@Override
+	public Account releaseHold(Integer holdId) {
+		this.checkHoldSupported();
+		return this.accountHoldManager.release(holdId);
+	}
+
+	/**
+	 * 冻结单直接更新数据库，内存记账模式下不支持
+	 */
+	private void checkHoldSupported() {
+		if (this.ledgerEngine.isEnabled()) {
+			throw AccountBizException.ACCOUNT_MODE_UNSUPPORTED;
+		}
+	}
+
+	/////////////////////// 乐观锁模式 ///////////////////////////
+
+	/**
+	 * 不加锁读取 -> 内存计算 -> 按版本号更新；版本冲突时抛出OptimisticLockingFailureException回滚本次事务，
+	 * 由OptimisticRetryHandler在事务之外退避后重新执行整个方法
+	 * 
+	 * @param userNo
+	 *            用户编号
+	 * @param mutator
+	 *            内存中的变更逻辑，校验失败直接抛出业务异常
+	 * @return 更新成功后的账户
+	 */
+	private Account mutateOptimistic(String userNo, Consumer<Account> mutator) {
+		optimisticLockStats.recordAttempt();
+		Account account = this.getByUserNo_IsPessimist(userNo, false);
+		if (account == null) {
+			throw AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		mutator.accept(account);
+		if (this.accountMapper.updateIfVersion(account) == 1) {
+			account.setVersion(account.getVersion() + 1);
+			return account;
+		}
+		optimisticLockStats.recordConflict(userNo);
+		throw new OptimisticLockingFailureException("账户版本冲突，userNo=" + userNo);
+	}
+
+	/////////////////////// 增量更新模式 ///////////////////////////
+
+	/**
+	 * 增量加款：一条条件update完成余额及统计累加，再带锁读取最新行
+	 */
+	private Account creditByDelta(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
+		Money money = Money.of(amount);
+		Map<String, Object> params = this.deltaParams(userNo, money);
+		// 只有交易类型才累计收益
+		Money income = TrxTypeEnum.EXPENSE.name().equals(trxType) ? money : Money.ZERO;
+		params.put("incomeAmount", income);
+		if (this.accountMapper.creditByDelta(params) == 0) {
+			throw AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		this.addStatsAsync(userNo, income, Money.ZERO, Money.ZERO);
+		Account account = this.getUpdatedAccount(userNo);
+		this.insertHistory(account, amount, requestNo, bankTrxNo, trxType, remark, AccountFundDirectionEnum.ADD, PublicEnum.YES);
+		LOG.info("账户加款成功，并记录了账户历史");
+		return account;
+	}
+
+	/**
+	 * 增量减款：可用余额校验放在where条件中
+	 */
+	private Account debitByDelta(String userNo, BigDecimal amount, String requestNo, String bankTrxNo, String trxType, String remark) {
+		Money money = Money.of(amount);
+		if (!this.updateWithSweep(userNo, this.accountMapper::debitByDelta, this.deltaParams(userNo, money))) {
+			throw this.explainRejected(userNo, AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT);
+		}
+		this.addStatsAsync(userNo, Money.ZERO, money, Money.ZERO);
+		Account account = this.accountBucketManager.mergeInto(this.getUpdatedAccount(userNo));
+		this.insertHistory(account, amount, requestNo, bankTrxNo, trxType, remark, AccountFundDirectionEnum.SUB, PublicEnum.YES);
+		return account;
+	}
+
+	/**
+	 * 增量冻结
+	 */
+	private Account freezeByDelta(String userNo, BigDecimal freezeAmount) {
+		if (!this.updateWithSweep(userNo, this.accountMapper::freezeByDelta, this.deltaParams(userNo, Money.of(freezeAmount)))) {
+			throw this.explainRejected(userNo, AccountBizException.ACCOUNT_FROZEN_AMOUNT_OUTLIMIT);
+		}
+		return this.accountBucketManager.mergeInto(this.getUpdatedAccount(userNo));
+	}
+
+	/**
+	 * 增量解冻+减款
+	 */
+	private Account unFreezeByDelta(String userNo, BigDecimal amount, String requestNo, String trxType, String remark) {
+		Money money = Money.of(amount);
+		if (this.accountMapper.unFreezeByDelta(this.deltaParams(userNo, money)) == 0) {
+			throw this.explainRejected(userNo, AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT);
+		}
+		this.addStatsAsync(userNo, Money.ZERO, money, money.negate());
+		Account account = this.getUpdatedAccount(userNo);
+		this.insertHistory(account, amount, requestNo, null, trxType, remark, AccountFundDirectionEnum.SUB, PublicEnum.NO);
+		return account;
+	}
+
+	/**
+	 * 增量解冻
+	 */
+	private Account unFreezeSettByDelta(String userNo, BigDecimal amount) {
+		if (this.accountMapper.unFreezeSettByDelta(this.deltaParams(userNo, Money.of(amount))) == 0) {
+			throw this.explainRejected(userNo, AccountBizException.ACCOUNT_UN_FROZEN_AMOUNT_OUTLIMIT);
+		}
+		return this.getUpdatedAccount(userNo);
+	}
+
+	/**
+	 * 主账户条件更新；分桶账户更新失败时先归集分桶余额再重试一次
+	 *
+	 * @return 是否更新成功
+	 */
+	private boolean updateWithSweep(String userNo, ToIntFunction<Map<String, Object>> update, Map<String, Object> params) {
+		if (update.applyAsInt(params) > 0) {
+			return true;
+		}
+		if (this.accountBucketManager.bucketCount(userNo) == 0) {
+			return false;
+		}
+		if (this.accountBucketManager.sweep(userNo).signum() == 0) {
+			return false;
+		}
+		return update.applyAsInt(params) > 0;
+	}
+
+	/////////////////////// 热点账户分桶 ///////////////////////////
+
+	/**
+	 * 分桶加款：只更新选中的一个分桶行，不锁主账户
+	 */
+	private Account creditToBucket(String userNo, int bucketCount, BigDecimal amount, String requestNo, String bankTrxNo,
+								   String trxType, String remark) {
+		Money money = Money.of(amount);
+		Map<String, Object> params = this.deltaParams(userNo, money);
+		// 只有交易类型才累计收益
+		params.put("incomeAmount", TrxTypeEnum.EXPENSE.name().equals(trxType) ? money : Money.ZERO);
+		params.put("bucketNo", this.accountBucketManager.pickBucket(requestNo, bucketCount));
+		if (this.accountBucketMapper.creditByDelta(params) == 0) {
+			// 本地分桶配置已过期，退回主账户加款
+			return this.creditByDelta(userNo, amount, requestNo, bankTrxNo, trxType, remark);
+		}
+		Account account = this.getByUserNo_IsPessimist(userNo, false);
+		if (account == null) {
+			throw AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		this.accountBucketManager.mergeInto(account);
+		this.insertHistory(account, amount, requestNo, bankTrxNo, trxType, remark, AccountFundDirectionEnum.ADD, PublicEnum.YES);
+		return account;
+	}
+
+	/**
+	 * 增量update的公共参数
+	 */
+	private Map<String, Object> deltaParams(String userNo, Money amount) {
+		Date now = this.ledgerClock.now();
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("userNo", userNo);
+		map.put("amount", amount);
+		map.put("todayBegin", this.ledgerClock.todayBegin());
+		map.put("editTime", now);
+		// 统计字段异步写回时update只改余额
+		map.put("asyncStats", this.ledgerStatsAccumulator.isEnabled());
+		return map;
+	}
+
+	/**
+	 * 统计字段异步写回时，事务提交后累计统计增量
+	 */
+	private void addStatsAsync(String userNo, Money income, Money expend, Money sett) {
+		if (this.ledgerStatsAccumulator.isEnabled()) {
+			this.ledgerStatsAccumulator.addAfterCommit(userNo, income, expend, sett);
+		}
+	}
+
+	/**
+	 * update之后带锁读取，本事务已持有行锁，读到的就是本次更新后的值
+	 */
+	private Account getUpdatedAccount(String userNo) {
+		Account account = this.getByUserNo_IsPessimist(userNo, true);
+		if (account == null) {
+			throw AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		return account;
+	}
+
+	/**
+	 * 条件update没有命中时，区分是账户不存在还是金额超限
+	 */
+	private AccountBizException explainRejected(String userNo, AccountBizException outLimit) {
+		if (this.getByUserNo_IsPessimist(userNo, false) == null) {
+			return AccountBizException.ACCOUNT_NOT_EXIT;
+		}
+		return outLimit;
+	}
+
+	/////////////////////// 账户历史 ///////////////////////////
+
+	/**
+	 * 记录账户历史，失败直接抛出让事务回滚
+	 */
+	private void insertHistory(Account account, BigDecimal amount, String requestNo, String bankTrxNo, String trxType,
+							   String remark, AccountFundDirectionEnum fundDirection, PublicEnum isAllowSett) {
+		AccountHistory accountHistoryEntity = LedgerCalculator.buildHistory(account, amount, requestNo, bankTrxNo, trxType, remark,
+				fundDirection, isAllowSett);
 		try {
-			this.accountMapper.update(account);
+			this.accountHistoryMapper.insert(accountHistoryEntity);
 		} catch (Exception e) {
 			log.error(e.getMessage(),e);
+			throw e;
 		}
-		return account;
 	}
-}
\ No newline at end of file
+}
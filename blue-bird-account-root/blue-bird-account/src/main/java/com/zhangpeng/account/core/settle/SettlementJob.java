@@ -0,0 +1,357 @@
+package com.zhangpeng.account.core.settle;
+
+import com.zhangpeng.account.api.DailyCollectAccountHistoryVO;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.domain.SettleCheckpoint;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.SettleStatusEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import com.zhangpeng.account.core.mapper.SettleCheckpointMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * T+riskDay结算
+ *
+ * 允许结算、未结算且已过风险预存期(date(create_time) <= 结算日期 - risk_day，risk_day为空按默认)的账户历史，
+ * 按账户汇总后增加账户的可结算金额(sett_amount)，并把这些记录记为结算完成。
+ *
+ * 从最小的未结算id到结算开始时的最大id切成若干段，在ForkJoinPool上并行执行；每段按id > lastId取一块，
+ * 一个事务内依次推进检查点、按id区间条件更新结算完成、按账户编号顺序增加可结算金额。
+ * LEGACY等整行写回的记账先读后写，只靠账户分段锁串行，结算在事务之外先按用户编号取得本块账户的分段锁，
+ * 提交后再释放，避免记账用结算前读到的sett_amount覆盖结算入账；取锁超时的块留到下次续跑。
+ * 检查点与结算同时提交，中断后从last_id续跑；多节点同时执行同一分段时，检查点条件更新只有一个生效。
+ * 内存记账模式下账户整行异步写回，会覆盖可结算金额，不执行结算。
+ */
+@Slf4j
+@Component
+public class SettlementJob {
+
+    @Autowired
+    private AccountHistoryMapper accountHistoryMapper;
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private SettleCheckpointMapper settleCheckpointMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private LedgerClock ledgerClock;
+    @Autowired
+    private LedgerEngine ledgerEngine;
+    @Autowired
+    private StripedAccountLock stripedAccountLock;
+
+    @Value("${account.settlement.enabled:true}")
+    private boolean enabled;
+
+    /** 并行的分段数 **/
+    @Value("${account.settlement.parallelism:4}")
+    private int parallelism;
+
+    /** 每个事务结算的账户历史笔数 **/
+    @Value("${account.settlement.chunk-size:2000}")
+    private int chunkSize;
+
+    /** 账户历史未设置risk_day时的风险预存期(天) **/
+    @Value("${account.settlement.default-risk-day:1}")
+    private int defaultRiskDay;
+
+    private TransactionTemplate transactionTemplate;
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 按cron在低峰期执行，默认每天03:00，结算日期为当天
+     */
+    @Scheduled(cron = "${account.settlement.cron:0 0 3 * * ?}")
+    public void settle() {
+        if (!enabled) {
+            return;
+        }
+        if (ledgerEngine.isEnabled()) {
+            log.warn("内存记账模式下不执行结算");
+            return;
+        }
+        try {
+            settle(ledgerClock.todayBegin());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 先续跑之前中断的分段，再按结算日期切分新的分段；同一结算日期只切分一次
+     *
+     * @param statDate
+     *            结算日期(当天0点)
+     * @return 本次结算的账户历史笔数
+     */
+    public long settle(Date statDate) throws InterruptedException {
+        long begin = System.currentTimeMillis();
+        List<SettleCheckpoint> partitions = new ArrayList<>(settleCheckpointMapper.listUnfinished());
+        if (listByStatDate(statDate).isEmpty()) {
+            partitions.addAll(createPartitions(statDate));
+        }
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+
+        List<Callable<Long>> tasks = new ArrayList<>(partitions.size());
+        for (SettleCheckpoint partition : partitions) {
+            tasks.add(() -> settlePartition(partition));
+        }
+        long total = 0;
+        for (Future<Long> future : pool.invokeAll(tasks)) {
+            try {
+                total += future.get();
+            } catch (ExecutionException e) {
+                log.error("结算分段执行失败", e.getCause());
+            }
+        }
+        long cost = Math.max(System.currentTimeMillis() - begin, 1);
+        log.info("结算完成，statDate={}, partitions={}, settled={}, cost={}ms, rowsPerSecond={}",
+                DateUtils.formatDate(statDate, "yyyy-MM-dd"), partitions.size(), total, cost, total * 1000 / cost);
+        return total;
+    }
+
+    /**
+     * 按账户汇总一块账户历史，ADD计正、SUB计负，按账户编号排序
+     */
+    public static List<DailyCollectAccountHistoryVO> collect(List<AccountHistory> chunk, Date statDate, int defaultRiskDay) {
+        Map<String, long[]> sums = new TreeMap<>();
+        Map<String, Integer> riskDays = new HashMap<>();
+        for (AccountHistory history : chunk) {
+            long amount = Money.storedToMinor(history.getAmount());
+            long[] sum = sums.computeIfAbsent(history.getAccountNo(), k -> new long[3]);
+            sum[0] = Math.addExact(sum[0], AccountFundDirectionEnum.SUB.name().equals(history.getFundDirection()) ? -amount : amount);
+            sum[1]++;
+            sum[2] = Math.max(sum[2], history.getId());
+            riskDays.putIfAbsent(history.getAccountNo(), history.getRiskDay() != null ? history.getRiskDay() : defaultRiskDay);
+        }
+        List<DailyCollectAccountHistoryVO> list = new ArrayList<>(sums.size());
+        for (Map.Entry<String, long[]> entry : sums.entrySet()) {
+            DailyCollectAccountHistoryVO vo = new DailyCollectAccountHistoryVO();
+            vo.setAccountNo(entry.getKey());
+            vo.setCollectDate(statDate);
+            vo.setTotalAmount(Money.toBigDecimal(entry.getValue()[0]));
+            vo.setTotalNum((int) entry.getValue()[1]);
+            vo.setLastId(entry.getValue()[2]);
+            vo.setRiskDay(riskDays.get(entry.getKey()));
+            list.add(vo);
+        }
+        return list;
+    }
+
+    /**
+     * 从检查点逐块结算直到分段结束
+     *
+     * @return 结算笔数
+     */
+    private long settlePartition(SettleCheckpoint partition) {
+        Date settleBefore = DateUtils.addDay(partition.getStatDate(), 1);
+        long lastId = partition.getLastId();
+        long settled = 0;
+        while (true) {
+            Map<String, Object> params = settleParams(settleBefore);
+            params.put("lastId", lastId);
+            params.put("toId", partition.getToId());
+            params.put("limit", chunkSize);
+            List<AccountHistory> chunk = accountHistoryMapper.listSettleChunk(params);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            long chunkEnd = chunk.get(chunk.size() - 1).getId();
+            try {
+                settleChunk(partition, settleBefore, lastId, chunkEnd, chunk);
+            } catch (AccountBizException e) {
+                if (e != AccountBizException.ACCOUNT_SETTLE_CONFLICT) {
+                    // 账户分段锁超时等，分段保持未完成，下次结算时从检查点续跑
+                    log.warn("结算分段{}暂停，statDate={}, lastId={}, 原因={}", partition.getPartitionNo(),
+                            DateUtils.formatDate(partition.getStatDate(), "yyyy-MM-dd"), lastId, e.getMessage());
+                    return settled;
+                }
+                // 其他节点已推进该分段，由其继续
+                log.info("结算分段{}已被其他节点处理，statDate={}, lastId={}", partition.getPartitionNo(),
+                        DateUtils.formatDate(partition.getStatDate(), "yyyy-MM-dd"), lastId);
+                return settled;
+            }
+            settled += chunk.size();
+            lastId = chunkEnd;
+            if (chunk.size() < chunkSize) {
+                break;
+            }
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", partition.getId());
+        params.put("editTime", new Date());
+        settleCheckpointMapper.finish(params);
+        return settled;
+    }
+
+    private void settleChunk(SettleCheckpoint partition, Date settleBefore, long fromId, long toId, List<AccountHistory> chunk) {
+        List<DailyCollectAccountHistoryVO> collects = collect(chunk, partition.getStatDate(), defaultRiskDay);
+        Money chunkAmount = Money.ZERO;
+        for (DailyCollectAccountHistoryVO vo : collects) {
+            chunkAmount = chunkAmount.plus(Money.ofStored(vo.getTotalAmount()));
+        }
+        Money settledAmount = chunkAmount;
+        Date now = new Date();
+        // 与记账切面相同按用户编号取分段锁，在事务之外排队
+        Set<String> userNos = new TreeSet<>();
+        for (AccountHistory history : chunk) {
+            userNos.add(history.getUserNo());
+        }
+        List<Lock> locks = stripedAccountLock.isEnabled() ? stripedAccountLock.lockAll(userNos) : new ArrayList<>();
+        try {
+            settleLocked(partition, settleBefore, fromId, toId, chunk, collects, settledAmount, now);
+        } finally {
+            stripedAccountLock.unlockAll(locks);
+        }
+    }
+
+    /**
+     * 已持有本块账户的分段锁，一个事务内推进检查点、记为结算完成并增加可结算金额
+     */
+    private void settleLocked(SettleCheckpoint partition, Date settleBefore, long fromId, long toId, List<AccountHistory> chunk,
+                              List<DailyCollectAccountHistoryVO> collects, Money settledAmount, Date now) {
+        transactionTemplate.execute(status -> {
+            // 先推进检查点：同一分段并发时后到的事务在此等待，随后更新0行退出
+            Map<String, Object> checkpoint = new HashMap<String, Object>();
+            checkpoint.put("id", partition.getId());
+            checkpoint.put("expectLastId", fromId);
+            checkpoint.put("lastId", toId);
+            checkpoint.put("settledNum", chunk.size());
+            checkpoint.put("settledAmount", settledAmount);
+            checkpoint.put("editTime", now);
+            if (settleCheckpointMapper.advance(checkpoint) != 1) {
+                throw AccountBizException.ACCOUNT_SETTLE_CONFLICT;
+            }
+
+            Map<String, Object> params = settleParams(settleBefore);
+            params.put("fromId", fromId);
+            params.put("toId", toId);
+            params.put("editTime", now);
+            if (accountHistoryMapper.completeSett(params) != chunk.size()) {
+                throw AccountBizException.ACCOUNT_SETTLE_CONFLICT;
+            }
+
+            // 按账户编号顺序加锁，并行的分段之间不会死锁
+            for (DailyCollectAccountHistoryVO vo : collects) {
+                if (vo.getTotalAmount().signum() == 0) {
+                    continue;
+                }
+                Map<String, Object> account = new HashMap<String, Object>();
+                account.put("accountNo", vo.getAccountNo());
+                account.put("settAmount", Money.ofStored(vo.getTotalAmount()));
+                account.put("editTime", now);
+                accountMapper.addSettAmount(account);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 从最小的未结算id到当前最大id切成parallelism段，一次事务写入；其他节点已切分时返回其分段
+     */
+    private List<SettleCheckpoint> createPartitions(Date statDate) {
+        Long minId = accountHistoryMapper.getMinUnsettledId();
+        Long maxId = accountHistoryMapper.getMaxId();
+        if (minId == null || maxId == null) {
+            return new ArrayList<>(0);
+        }
+        long fromId = minId - 1;
+        long span = maxId - fromId;
+        int count = (int) Math.max(1, Math.min(parallelism, span / chunkSize));
+        long size = (span + count - 1) / count;
+        List<SettleCheckpoint> partitions = new ArrayList<>(count);
+        Date now = new Date();
+        for (int i = 0; i < count; i++) {
+            SettleCheckpoint partition = new SettleCheckpoint();
+            partition.setCreateTime(now);
+            partition.setEditTime(now);
+            partition.setStatDate(statDate);
+            partition.setPartitionNo(i);
+            partition.setFromId(fromId + i * size);
+            partition.setToId(Math.min(fromId + (i + 1) * size, maxId));
+            partition.setLastId(partition.getFromId());
+            partition.setSettleStatus(SettleStatusEnum.RUNNING.name());
+            partition.setSettledNum(0L);
+            partition.setSettledAmount(Money.ZERO.toBigDecimal());
+            partitions.add(partition);
+        }
+        try {
+            transactionTemplate.execute(status -> {
+                partitions.forEach(settleCheckpointMapper::insert);
+                return null;
+            });
+        } catch (DuplicateKeyException e) {
+            List<SettleCheckpoint> existing = new ArrayList<>();
+            for (SettleCheckpoint partition : listByStatDate(statDate)) {
+                if (SettleStatusEnum.RUNNING.name().equals(partition.getSettleStatus())) {
+                    existing.add(partition);
+                }
+            }
+            return existing;
+        }
+        log.info("结算分段完成，statDate={}, fromId={}, toId={}, partitions={}", DateUtils.formatDate(statDate, "yyyy-MM-dd"),
+                fromId, maxId, count);
+        return partitions;
+    }
+
+    private List<SettleCheckpoint> listByStatDate(Date statDate) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("statDate", statDate);
+        return settleCheckpointMapper.listByStatDate(params);
+    }
+
+    private Map<String, Object> settleParams(Date settleBefore) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("settleBefore", settleBefore);
+        params.put("defaultRiskDay", defaultRiskDay);
+        return params;
+    }
+}
@@ -0,0 +1,128 @@
+package com.zhangpeng.account.core.summary;
+
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.mapper.AccountDailySummaryMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 账户日汇总回填
+ *
+ * 按账户id区间分块，每块取一批账户，先删除这些账户今天0点之前分片0以外的汇总行，
+ * 再用一条insert ... select ... group by重算各天的汇总写入分片0并覆盖已有行；
+ * 每块包含账户的全部历史，覆盖的结果即完整汇总，可重复执行，中断后重新执行即可。
+ * 今天的汇总只由写入时的增量维护，因此应在开启增量维护的次日之后执行。
+ * 开启后在启动时于后台线程执行一次，各块在ForkJoinPool上并行。
+ */
+@Slf4j
+@Component
+public class DailySummaryBackfillJob {
+
+    @Autowired
+    private AccountMapper accountMapper;
+    @Autowired
+    private AccountDailySummaryMapper accountDailySummaryMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+
+    @Value("${account.daily-summary.backfill.enabled:false}")
+    private boolean enabled;
+
+    /** 并行的块数 **/
+    @Value("${account.daily-summary.backfill.parallelism:4}")
+    private int parallelism;
+
+    /** 每块的账户id区间长度 **/
+    @Value("${account.daily-summary.backfill.chunk-size:200}")
+    private int chunkSize;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                backfill(ledgerClock.todayBegin());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("账户日汇总回填失败", e);
+            }
+        }, "daily-summary-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 重算全部账户cutoff之前的日汇总
+     *
+     * @return 写入的汇总行数(MySQL对更新的行按2计)
+     */
+    public long backfill(Date cutoff) throws InterruptedException {
+        Integer maxId = accountMapper.getMaxId();
+        if (maxId == null) {
+            return 0;
+        }
+        long begin = System.currentTimeMillis();
+        LongAdder rows = new LongAdder();
+        LongAdder accounts = new LongAdder();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int fromId = 0; fromId < maxId; fromId += chunkSize) {
+            int from = fromId;
+            int to = (int) Math.min((long) fromId + chunkSize, maxId);
+            tasks.add(() -> {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put("fromId", from);
+                params.put("toId", to);
+                List<String> accountNos = accountMapper.listAccountNoByIdRange(params);
+                if (accountNos.isEmpty()) {
+                    return null;
+                }
+                params = new HashMap<String, Object>();
+                params.put("accountNos", accountNos);
+                params.put("cutoff", cutoff);
+                params.put("editTime", new Date());
+                accountDailySummaryMapper.deleteShards(params);
+                rows.add(accountDailySummaryMapper.backfill(params));
+                accounts.add(accountNos.size());
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        int failed = 0;
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    log.error("账户日汇总回填分块失败", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        log.info("账户日汇总回填完成，cutoff={}, accounts={}, rows={}, chunks={}, failed={}, costMillis={}",
+                DateUtils.formatDate(cutoff, "yyyy-MM-dd"), accounts.sum(), rows.sum(), tasks.size(), failed,
+                System.currentTimeMillis() - begin);
+        return rows.sum();
+    }
+}
@@ -0,0 +1,173 @@
+package com.zhangpeng.account.core.summary;
+
+import com.zhangpeng.account.api.domain.AccountDailySummary;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.utils.DateUtils;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.mapper.AccountDailySummaryMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 账户日汇总增量写入
+ *
+ * 由DailySummaryHandler在账户历史insert之后调用，与账户历史在同一事务内提交。
+ * 事务内的账户历史先按(账户, 日期, 业务类型, 资金方向)合并，在提交前(beforeCommit)排序成一条多行
+ * insert ... on duplicate key update：汇总行总是在主账户行之后加锁，各记账路径加锁顺序一致，
+ * 且只从提交前持有到提交，缩短热点汇总行的锁定时间。没有事务时直接写入。
+ * 分桶账户的加款不锁主账户，若都累加到同一汇总行又会在该行上排队：这类加款按requestNo哈希到分片1..分桶数
+ * (HASH策略下与所选分桶一致)，其余账户历史写分片0，查询时按分片合计。
+ */
+@Component
+public class DailySummaryWriter {
+
+    private static final char SEPARATOR = '\u0001';
+
+    @Autowired
+    private AccountDailySummaryMapper accountDailySummaryMapper;
+    @Autowired
+    private LedgerClock ledgerClock;
+    @Autowired
+    private AccountBucketManager accountBucketManager;
+
+    @Value("${account.daily-summary.enabled:true}")
+    private boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 累加一批账户历史，在调用方事务内执行
+     */
+    public void add(Collection<AccountHistory> histories) {
+        if (histories.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Map<String, Delta> deltas = new TreeMap<>();
+            merge(deltas, histories);
+            write(deltas);
+            return;
+        }
+        merge(pending(), histories);
+    }
+
+    /**
+     * 当前事务待写入的汇总，首次调用时注册提交前写入
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Delta> pending() {
+        Map<String, Delta> deltas = (Map<String, Delta>) TransactionSynchronizationManager.getResource(this);
+        if (deltas != null) {
+            return deltas;
+        }
+        Map<String, Delta> created = new TreeMap<>();
+        TransactionSynchronizationManager.bindResource(this, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                write(created);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(DailySummaryWriter.this);
+            }
+        });
+        return created;
+    }
+
+    private void merge(Map<String, Delta> deltas, Collection<AccountHistory> histories) {
+        for (AccountHistory history : histories) {
+            Date day = dayOf(history.getCreateTime());
+            String trxType = history.getTrxType() == null ? "" : history.getTrxType();
+            int shardNo = shardOf(history);
+            String key = history.getAccountNo() + SEPARATOR + day.getTime() + SEPARATOR + trxType + SEPARATOR
+                    + history.getFundDirection() + SEPARATOR + shardNo;
+            Delta delta = deltas.get(key);
+            if (delta == null) {
+                delta = new Delta(history.getAccountNo(), day, trxType, history.getFundDirection(), shardNo);
+                deltas.put(key, delta);
+            }
+            delta.amount = Math.addExact(delta.amount, Money.storedToMinor(history.getAmount()));
+            delta.num++;
+        }
+    }
+
+    private void write(Map<String, Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        List<AccountDailySummary> list = new ArrayList<>(deltas.size());
+        for (Delta delta : deltas.values()) {
+            AccountDailySummary summary = new AccountDailySummary();
+            summary.setCreateTime(now);
+            summary.setEditTime(now);
+            summary.setAccountNo(delta.accountNo);
+            summary.setSummaryDate(delta.day);
+            summary.setTrxType(delta.trxType);
+            summary.setFundDirection(delta.fundDirection);
+            summary.setAmount(Money.toBigDecimal(delta.amount));
+            summary.setNum(delta.num);
+            summary.setShardNo(delta.shardNo);
+            list.add(summary);
+        }
+        accountDailySummaryMapper.addDeltas(list);
+    }
+
+    /**
+     * 分桶账户的加款按requestNo哈希到1..分桶数，没有requestNo时随机；其余为0
+     */
+    private int shardOf(AccountHistory history) {
+        if (!AccountFundDirectionEnum.ADD.name().equals(history.getFundDirection())) {
+            return 0;
+        }
+        int bucketCount = accountBucketManager.bucketCount(history.getUserNo());
+        if (bucketCount == 0) {
+            return 0;
+        }
+        int seed = history.getRequestNo() == null ? ThreadLocalRandom.current().nextInt() : history.getRequestNo().hashCode();
+        return (seed & Integer.MAX_VALUE) % bucketCount + 1;
+    }
+
+    private Date dayOf(Date createTime) {
+        if (createTime == null || ledgerClock.isToday(createTime)) {
+            return ledgerClock.todayBegin();
+        }
+        return DateUtils.getDayStart(createTime);
+    }
+
+    private static final class Delta {
+        private final String accountNo;
+        private final Date day;
+        private final String trxType;
+        private final String fundDirection;
+        private final int shardNo;
+        private long amount;
+        private long num;
+
+        private Delta(String accountNo, Date day, String trxType, String fundDirection, int shardNo) {
+            this.accountNo = accountNo;
+            this.day = day;
+            this.trxType = trxType;
+            this.fundDirection = fundDirection;
+            this.shardNo = shardNo;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.zhangpeng.account.core.utils;
+
+import com.zhangpeng.account.api.ex.AccountBizException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * 游标分页的位置：上一页最后一行的(create_time, id)
+ *
+ * 编码为URL安全的Base64，调用方只透传不解析；按create_time desc, id desc排序时，
+ * 下一页条件为 create_time &lt; t or (create_time = t and id &lt; id)，不需要跳过前面的行。
+ */
+public final class SeekCursor {
+
+    private static final char SEPARATOR = ':';
+
+    private final Date createTime;
+    private final Integer id;
+
+    public SeekCursor(Date createTime, Integer id) {
+        this.createTime = createTime;
+        this.id = id;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = createTime.getTime() + String.valueOf(SEPARATOR) + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 解析游标，为空返回null(第一页)
+     *
+     * @throws AccountBizException
+     *             游标不合法时抛出ACCOUNT_CURSOR_ILLEGAL
+     */
+    public static SeekCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int split = raw.indexOf(SEPARATOR);
+            return new SeekCursor(new Date(Long.parseLong(raw.substring(0, split))), Integer.valueOf(raw.substring(split + 1)));
+        } catch (RuntimeException e) {
+            throw AccountBizException.ACCOUNT_CURSOR_ILLEGAL;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+-- 账户服务表结构升级脚本，按顺序执行
+
+-- 账户乐观锁版本号
+ALTER TABLE blue_bird_account
+  ADD COLUMN version INT NOT NULL DEFAULT 0 COMMENT '乐观锁版本号';
+
+-- 热点账户余额分桶，存在分桶行即表示该账户开启分桶
+CREATE TABLE blue_bird_account_bucket (
+  id           INT           NOT NULL AUTO_INCREMENT,
+  create_time  DATETIME      NOT NULL,
+  edit_time    DATETIME      DEFAULT NULL,
+  account_no   VARCHAR(50)   NOT NULL COMMENT '账户编号',
+  user_no      VARCHAR(50)   NOT NULL COMMENT '用户编号',
+  bucket_no    INT           NOT NULL COMMENT '分桶序号，从1开始',
+  balance      DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '分桶余额',
+  total_income DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '分桶总收益',
+  today_income DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '分桶今日收益',
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_user_bucket (user_no, bucket_no)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='账户余额分桶';
+
+-- 记账幂等：同一账户同一请求号只能记一次账(执行前需先清理已有的重复记录)
+ALTER TABLE blue_bird_account_history
+  ADD UNIQUE KEY uk_account_request (account_no, request_no);
+
+-- 今日统计(today_income/today_expend)所属日期，统计字段异步写回时按它判断跨天
+ALTER TABLE blue_bird_account
+  ADD COLUMN counter_day DATE DEFAULT NULL COMMENT '今日统计所属日期';
+
+-- 冻结单：带请求号的冻结，扣款/释放/到期后完结
+CREATE TABLE blue_bird_account_hold (
+  id           INT           NOT NULL AUTO_INCREMENT COMMENT '冻结单号',
+  create_time  DATETIME      NOT NULL,
+  edit_time    DATETIME      DEFAULT NULL,
+  account_no   VARCHAR(50)   NOT NULL COMMENT '账户编号',
+  user_no      VARCHAR(50)   NOT NULL COMMENT '用户编号',
+  amount       DECIMAL(20,6) NOT NULL COMMENT '冻结金额',
+  request_no   VARCHAR(64)   NOT NULL COMMENT '请求号',
+  hold_status  VARCHAR(20)   NOT NULL COMMENT '状态 HELD/CAPTURED/RELEASED/EXPIRED',
+  expire_time  DATETIME      NOT NULL COMMENT '到期时间',
+  finish_time  DATETIME      DEFAULT NULL COMMENT '完结时间',
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_hold_request (user_no, request_no),
+  KEY idx_status_expire (hold_status, expire_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='账户冻结单';
+
+-- 今日统计改为按counter_day判断跨天，已有账户按最后修改日期补齐(执行后读写路径不再依赖edit_time)
+UPDATE blue_bird_account
+  SET counter_day = DATE(edit_time)
+  WHERE counter_day IS NULL AND edit_time IS NOT NULL;
+
+-- 账户历史游标分页：按账户/用户的(create_time, id)倒序定位，深分页不再扫描丢弃前面的行
+ALTER TABLE blue_bird_account_history
+  ADD KEY idx_account_time (account_no, create_time, id),
+  ADD KEY idx_user_time (user_no, create_time, id);
+
+-- 结算：按(是否结算完成, 是否允许结算, id)定位未结算记录，结算任务按id分块扫描
+ALTER TABLE blue_bird_account_history
+  ADD KEY idx_settle (is_complete_sett, is_allow_sett, id);
+
+-- 结算检查点：每次结算按账户历史id区间分段，last_id与该块的结算在同一事务内推进
+CREATE TABLE blue_bird_settle_checkpoint (
+  id             INT           NOT NULL AUTO_INCREMENT,
+  create_time    DATETIME      NOT NULL,
+  edit_time      DATETIME      DEFAULT NULL,
+  stat_date      DATE          NOT NULL COMMENT '结算日期',
+  partition_no   INT           NOT NULL COMMENT '分段序号，从0开始',
+  from_id        BIGINT        NOT NULL COMMENT '分段起始id(不含)',
+  to_id          BIGINT        NOT NULL COMMENT '分段结束id(含)',
+  last_id        BIGINT        NOT NULL COMMENT '已结算到的账户历史id',
+  settle_status  VARCHAR(20)   NOT NULL COMMENT '状态 RUNNING/FINISHED',
+  settled_num    BIGINT        NOT NULL DEFAULT 0 COMMENT '已结算笔数',
+  settled_amount DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '已结算金额',
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_date_partition (stat_date, partition_no),
+  KEY idx_status (settle_status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='结算检查点';
+
+-- 账户日汇总：写入账户历史时在同一事务内按增量累加，历史数据由回填任务生成；
+-- 分桶账户的加款按分片(1..分桶数)写不同的行，避免热点账户的加款在同一汇总行上排队，查询时按分片合计
+CREATE TABLE blue_bird_account_daily_summary (
+  id             INT           NOT NULL AUTO_INCREMENT,
+  create_time    DATETIME      NOT NULL,
+  edit_time      DATETIME      DEFAULT NULL,
+  account_no     VARCHAR(50)   NOT NULL COMMENT '账户编号',
+  summary_date   DATE          NOT NULL COMMENT '汇总日期',
+  trx_type       VARCHAR(50)   NOT NULL DEFAULT '' COMMENT '业务类型',
+  fund_direction VARCHAR(20)   NOT NULL COMMENT '资金方向',
+  amount         DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '金额合计',
+  num            BIGINT        NOT NULL DEFAULT 0 COMMENT '笔数',
+  shard_no       INT           NOT NULL DEFAULT 0 COMMENT '汇总分片，0为主账户',
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_account_day (account_no, summary_date, trx_type, fund_direction, shard_no)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='账户日汇总';
+
+-- 余额对账批次：每批重放(from_id, to_id]的账户历史，已完成批次的最大to_id为下次的水位
+CREATE TABLE blue_bird_reconcile_run (
+  id             INT           NOT NULL AUTO_INCREMENT,
+  create_time    DATETIME      NOT NULL,
+  edit_time      DATETIME      DEFAULT NULL,
+  from_id        BIGINT        NOT NULL COMMENT '起始账户历史id(不含)',
+  to_id          BIGINT        NOT NULL COMMENT '结束账户历史id(含)',
+  account_num    BIGINT        NOT NULL DEFAULT 0 COMMENT '对账账户数',
+  mismatch_num   BIGINT        NOT NULL DEFAULT 0 COMMENT '不一致账户数',
+  finish_time    DATETIME      DEFAULT NULL COMMENT '完成时间，为空表示未完成',
+  PRIMARY KEY (id),
+  KEY idx_finish (finish_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='余额对账批次';
+
+-- 余额对账状态：每个账户累计的重放余额及已重放到的账户历史id
+CREATE TABLE blue_bird_reconcile_state (
+  id               INT           NOT NULL AUTO_INCREMENT,
+  create_time      DATETIME      NOT NULL,
+  edit_time        DATETIME      DEFAULT NULL,
+  account_no       VARCHAR(50)   NOT NULL COMMENT '账户编号',
+  user_no          VARCHAR(50)   DEFAULT NULL COMMENT '用户编号',
+  replay_balance   DECIMAL(20,6) NOT NULL DEFAULT 0 COMMENT '账户历史重放余额',
+  last_history_id  BIGINT        NOT NULL COMMENT '已重放到的账户历史id',
+  snapshot_balance DECIMAL(20,6) DEFAULT NULL COMMENT '最后一条账户历史的余额快照',
+  account_balance  DECIMAL(20,6) DEFAULT NULL COMMENT '对账时的账户余额(含分桶)',
+  reconcile_status VARCHAR(20)   NOT NULL COMMENT '对账结果 MATCH/MISMATCH',
+  run_id           INT           NOT NULL COMMENT '对账批次id',
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_account_no (account_no),
+  KEY idx_status (reconcile_status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='余额对账状态';
+
+-- 银行对账：按create_time取一天内有bank_trx_no的账户历史，索引覆盖查询的全部列(id为主键，二级索引自带)
+ALTER TABLE blue_bird_account_history
+  ADD KEY idx_bank_trx (create_time, bank_trx_no, account_no, fund_direction, amount);
+
+-- 金额按分记账：请求金额最多两位小数(否则返回10010020)；库中已有分以下尾数的字段，记账时在原值上加减，尾数原样保留，
+-- 可用余额校验向下取整到分。
+-- 升级前用以下查询列出这些账户，确认尾数的处理方式(如对账后手工调账)
+SELECT id, account_no, balance, unbalance, sett_amount, total_income, total_expend, today_income, today_expend
+  FROM blue_bird_account
+  WHERE balance != ROUND(balance, 2) OR unbalance != ROUND(unbalance, 2) OR sett_amount != ROUND(sett_amount, 2)
+     OR total_income != ROUND(total_income, 2) OR total_expend != ROUND(total_expend, 2)
+     OR today_income != ROUND(today_income, 2) OR today_expend != ROUND(today_expend, 2);
+
+-- 分桶今日收益所属日期：归集会修改分桶的edit_time，今日收益改为按counter_day判断跨天；已有分桶按最后修改日期补齐
+ALTER TABLE blue_bird_account_bucket
+  ADD COLUMN counter_day DATE DEFAULT NULL COMMENT '今日收益所属日期';
+UPDATE blue_bird_account_bucket
+  SET counter_day = DATE(edit_time)
+  WHERE counter_day IS NULL AND edit_time IS NOT NULL AND today_income != 0;
+
+-- 余额对账：没有新增账户历史、但余额被修改过的账户也要比较，按edit_time取上次对账以来修改过的账户
+ALTER TABLE blue_bird_account
+  ADD KEY idx_edit_time (edit_time);
@@ -0,0 +1,195 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHold;
+import com.zhangpeng.account.api.enums.HoldStatusEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.hold.AccountHoldManager;
+import com.zhangpeng.account.core.hold.HierarchicalTimingWheel;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 冻结单到期：时间轮不取消，提前释放的冻结单到期时被HELD条件更新跳过；
+ * 到期释放与显式释放并发时每张冻结单只完结一次，冻结金额只解冻一次。
+ * 不开账户分段锁，只靠冻结单行上的条件更新决出胜者。
+ */
+class AccountHoldExpiryTests {
+
+    private static final long TICK_MILLIS = 10;
+
+    @Test
+    void releasedBeforeExpiryIsSkipped() {
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        store.addAccount("H1", new BigDecimal("100.00"));
+        AccountHoldManager manager = manager(store, 200);
+        Date deadline = new Date(System.currentTimeMillis() + 60_000);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(manager.hold("H1", new BigDecimal("10.00"), "R" + i, deadline).getId());
+        }
+        assertAmount("30.00", store.account("H1").getUnbalance());
+
+        // 到期前取消：显式释放
+        manager.release(ids.get(1));
+        assertAmount("20.00", store.account("H1").getUnbalance());
+
+        HierarchicalTimingWheel<Integer> wheel = wheel(manager);
+        assertTrue(wheel.advance(deadline.getTime() - TICK_MILLIS).isEmpty());
+        List<Integer> due = wheel.advance(deadline.getTime() + TICK_MILLIS);
+        assertEquals(3, due.size());
+        ReflectionTestUtils.invokeMethod(manager, "expire", due);
+
+        assertEquals(HoldStatusEnum.EXPIRED.name(), store.hold(ids.get(0)).getHoldStatus());
+        assertEquals(HoldStatusEnum.RELEASED.name(), store.hold(ids.get(1)).getHoldStatus());
+        assertEquals(HoldStatusEnum.EXPIRED.name(), store.hold(ids.get(2)).getHoldStatus());
+        Account account = store.account("H1");
+        assertAmount("0", account.getUnbalance());
+        assertAmount("100.00", account.getBalance());
+        assertEquals(2, counter(manager, "expired"));
+        assertEquals(1, counter(manager, "released"));
+
+        AccountBizException e = assertThrows(AccountBizException.class, () -> manager.release(ids.get(0)));
+        assertEquals(AccountBizException.ACCOUNT_HOLD_FINISHED.getCode(), e.getCode());
+        // 重复释放返回当前账户，不再解冻
+        manager.release(ids.get(1));
+        assertAmount("0", store.account("H1").getUnbalance());
+    }
+
+    @Test
+    void expiryRacesExplicitRelease() throws Exception {
+        String[] users = { "H1", "H2" };
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        for (String userNo : users) {
+            store.addAccount(userNo, new BigDecimal("1000.00"));
+        }
+        AccountHoldManager manager = manager(store, 16);
+        Date deadline = new Date(System.currentTimeMillis() + 60_000);
+        int count = 400;
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(manager.hold(users[i % users.length], new BigDecimal("1.00"), "R" + i, deadline).getId());
+        }
+        List<Integer> due = wheel(manager).advance(deadline.getTime() + TICK_MILLIS);
+        assertEquals(count, due.size());
+
+        List<Integer> releaseOrder = new ArrayList<>(ids);
+        Collections.shuffle(releaseOrder, new Random(3));
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> releasers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            List<Integer> part = releaseOrder.subList(t * count / 2, (t + 1) * count / 2);
+            releasers.add(executor.submit(() -> {
+                start.await();
+                int released = 0;
+                for (Integer id : part) {
+                    try {
+                        manager.release(id);
+                        released++;
+                    } catch (AccountBizException e) {
+                        assertEquals(AccountBizException.ACCOUNT_HOLD_FINISHED.getCode(), e.getCode());
+                    }
+                }
+                return released;
+            }));
+        }
+        Future<?> expirer = executor.submit(() -> {
+            start.await();
+            // 与过期线程一样按批释放
+            for (int from = 0; from < due.size(); from += 16) {
+                ReflectionTestUtils.invokeMethod(manager, "expire", due.subList(from, Math.min(from + 16, due.size())));
+            }
+            return null;
+        });
+        start.countDown();
+        int released = 0;
+        for (Future<Integer> future : releasers) {
+            released += future.get(60, TimeUnit.SECONDS);
+        }
+        expirer.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        int releasedHolds = 0;
+        int expiredHolds = 0;
+        for (Integer id : ids) {
+            AccountHold hold = store.hold(id);
+            if (HoldStatusEnum.RELEASED.name().equals(hold.getHoldStatus())) {
+                releasedHolds++;
+            } else {
+                assertEquals(HoldStatusEnum.EXPIRED.name(), hold.getHoldStatus(), "holdId=" + id);
+                expiredHolds++;
+            }
+        }
+        assertEquals(released, releasedHolds);
+        assertEquals(releasedHolds, counter(manager, "released"));
+        assertEquals(expiredHolds, counter(manager, "expired"));
+        assertEquals(0, counter(manager, "expireFailed"));
+        assertEquals(0, store.lockTimeouts());
+        for (String userNo : users) {
+            Account account = store.account(userNo);
+            assertAmount("0", account.getUnbalance());
+            assertAmount("1000.00", account.getBalance());
+        }
+    }
+
+    private static AccountHoldManager manager(InMemoryLedgerStore store, int expireBatch) {
+        AccountHoldManager manager = new AccountHoldManager();
+        ReflectionTestUtils.setField(manager, "accountHoldMapper", store.accountHoldMapper());
+        ReflectionTestUtils.setField(manager, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(manager, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(manager, "accountBucketManager", new AccountBucketManager());
+        StripedAccountLock stripedAccountLock = new StripedAccountLock();
+        ReflectionTestUtils.setField(stripedAccountLock, "enabled", false);
+        ReflectionTestUtils.setField(manager, "stripedAccountLock", stripedAccountLock);
+        ReflectionTestUtils.setField(manager, "transactionManager", store.transactionManager());
+        ReflectionTestUtils.setField(manager, "ledgerStatsAccumulator", new LedgerStatsAccumulator());
+        ReflectionTestUtils.setField(manager, "ledgerJournal", new LedgerJournal());
+        ReflectionTestUtils.setField(manager, "ledgerEngine", new LedgerEngine());
+        ReflectionTestUtils.setField(manager, "ledgerClock", new LedgerClock());
+        // 不启动过期线程，由测试推进时间轮并调用expire
+        ReflectionTestUtils.setField(manager, "expireEnabled", false);
+        ReflectionTestUtils.setField(manager, "tickMillis", TICK_MILLIS);
+        ReflectionTestUtils.setField(manager, "defaultTtlMillis", 60_000L);
+        ReflectionTestUtils.setField(manager, "expireBatch", expireBatch);
+        manager.init();
+        return manager;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HierarchicalTimingWheel<Integer> wheel(AccountHoldManager manager) {
+        return (HierarchicalTimingWheel<Integer>) ReflectionTestUtils.getField(manager, "wheel");
+    }
+
+    private static long counter(AccountHoldManager manager, String name) {
+        return ((LongAdder) ReflectionTestUtils.getField(manager, name)).sum();
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), expected + " != " + actual);
+    }
+}
@@ -0,0 +1,63 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.utils.DateFormats;
+import com.zhangpeng.account.api.utils.DateUtils;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多线程并发格式化/解析，结果与DateTimeFormatter逐条比对
+ */
+class DateFormatsConcurrencyTests {
+
+    private static final String[] PATTERNS = { "yyyy-MM-dd", "yyyyMMdd", "yyyy-MM-dd HH:mm:ss", "HH:mm:ss",
+            "yyyyMMddHHmmss" };
+
+    @Test
+    void formatAndParseConcurrently() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                ZoneId zone = ZoneId.systemDefault();
+                long base = System.currentTimeMillis();
+                for (int i = 0; i < 20000; i++) {
+                    // 集中在前后几天，交替命中和替换缓存的一天
+                    long millis = base + (random.nextInt(6 * 24 * 3600) - 3 * 24 * 3600) * 1000L;
+                    Date date = new Date(millis);
+                    for (String pattern : PATTERNS) {
+                        String expected = DateTimeFormatter.ofPattern(pattern).format(Instant.ofEpochMilli(millis).atZone(zone));
+                        String actual = DateUtils.formatDate(date, pattern);
+                        assertEquals(expected, actual, pattern);
+                        if (pattern.startsWith("yyyy")) {
+                            assertEquals(actual, DateFormats.format(DateFormats.parse(actual, pattern), pattern), pattern);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
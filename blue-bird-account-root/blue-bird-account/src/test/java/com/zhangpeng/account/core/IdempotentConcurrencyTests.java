@@ -0,0 +1,121 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.service.AccountTransactionService;
+import com.zhangpeng.account.core.aop.IdempotentHandler;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.IdempotencyRegistry;
+import com.zhangpeng.account.core.service.AccountTransactionServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一请求号并发记账(LEGACY模式)：两个请求都通过幂等前置判断，只有一个写入成功，
+ * 另一个被唯一键拦下后由幂等切面返回已提交的结果，不能返回自己算出但未写入的账户
+ */
+class IdempotentConcurrencyTests {
+
+    @Test
+    void concurrentCreditWithSameRequestNo() throws Exception {
+        CyclicBarrier bothRead = new CyclicBarrier(2);
+        CountDownLatch committed = new CountDownLatch(1);
+        InMemoryLedgerStore store = new InMemoryLedgerStore() {
+            @Override
+            protected void historyInsert(AccountHistory history) {
+                // 两个请求都读过账户、都未写入时才开始insert
+                await(bothRead);
+                try {
+                    super.historyInsert(history);
+                } catch (RuntimeException e) {
+                    // 与InnoDB一致：重复键在先写入的事务提交后才报错
+                    await(committed);
+                    throw e;
+                }
+            }
+
+            @Override
+            protected void accountUpdate(Account account) {
+                super.accountUpdate(account);
+                committed.countDown();
+            }
+        };
+        store.addAccount("U1", new BigDecimal("100.00"));
+        AccountTransactionService service = proxy(store);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Account>> futures = new ArrayList<>();
+        // 金额不同，便于区分返回的是哪一次的计算结果
+        for (String amount : new String[] { "10.00", "20.00" }) {
+            futures.add(executor.submit(() -> service.creditToAccount("U1", new BigDecimal(amount), "REQ-1",
+                    TrxTypeEnum.EXPENSE.name(), "test")));
+        }
+        List<Account> results = new ArrayList<>();
+        for (Future<Account> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, store.histories().size());
+        assertEquals(1, store.accountUpdates());
+        BigDecimal committedBalance = store.account("U1").getBalance();
+        BigDecimal expected = new BigDecimal("100.00").add(store.histories().get(0).getAmount());
+        assertEquals(0, expected.compareTo(committedBalance));
+        for (Account result : results) {
+            assertEquals(0, committedBalance.compareTo(result.getBalance()), "返回的余额与已提交的不一致");
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static AccountTransactionService proxy(InMemoryLedgerStore store) {
+        AccountTransactionServiceImpl target = new AccountTransactionServiceImpl();
+        ReflectionTestUtils.setField(target, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(target, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(target, "accountBucketManager", new AccountBucketManager());
+
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        ReflectionTestUtils.setField(registry, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(registry, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(registry, "recentSize", 1000L);
+        // 不启动布隆过滤器重建，所有请求都查库
+        registry.init();
+        ReflectionTestUtils.setField(registry, "enabled", true);
+        IdempotentHandler handler = new IdempotentHandler();
+        ReflectionTestUtils.setField(handler, "idempotencyRegistry", registry);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(handler);
+        return factory.getProxy();
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
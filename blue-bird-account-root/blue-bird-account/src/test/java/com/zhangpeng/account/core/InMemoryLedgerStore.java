@@ -0,0 +1,537 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.domain.AccountHold;
+import com.zhangpeng.account.core.ledger.Money;
+import com.zhangpeng.account.core.mapper.AccountHistoryMapper;
+import com.zhangpeng.account.core.mapper.AccountHoldMapper;
+import com.zhangpeng.account.core.mapper.AccountMapper;
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 测试用的内存账户表/账户历史表/冻结单表，替代AccountMapper、AccountHistoryMapper、AccountHoldMapper
+ *
+ * 读出和写入都复制一份，与数据库一样调用方拿到的对象互不影响；账户历史按(account_no, request_no)唯一。
+ * 通过transactionManager()开启的事务按READ_COMMITTED处理：写入和带锁读取对账户行、冻结单行加锁直到提交或回滚，
+ * 未提交的修改只有本事务可见；行锁等待超过LOCK_WAIT_MILLIS抛出CannotAcquireLockException，
+ * 与innodb_lock_wait_timeout一样，测试据此判断是否死锁。没有事务时直接写入。
+ * 只实现用到的方法，其他方法抛出UnsupportedOperationException；子类可覆盖单个方法在调用前后插入等待。
+ */
+class InMemoryLedgerStore {
+
+    static final long LOCK_WAIT_MILLIS = 2000;
+
+    /** 已提交的账户，userNo -> 账户 **/
+    private final Map<String, Account> accounts = new HashMap<>();
+    private final List<AccountHistory> histories = new ArrayList<>();
+    private final Set<String> requestKeys = new HashSet<>();
+    private final Map<String, ReentrantLock> rowLocks = new ConcurrentHashMap<>();
+    /** 已提交的冻结单，id -> 冻结单 **/
+    private final Map<Integer, AccountHold> holds = new HashMap<>();
+    private final AtomicInteger historyIds = new AtomicInteger();
+    private final AtomicInteger holdIds = new AtomicInteger();
+    private final AtomicInteger accountUpdates = new AtomicInteger();
+    private final AtomicInteger lockTimeouts = new AtomicInteger();
+    private final ThreadLocal<Tx> current = new ThreadLocal<>();
+
+    private final AccountMapper accountMapper = proxy(AccountMapper.class);
+    private final AccountHistoryMapper accountHistoryMapper = proxy(AccountHistoryMapper.class);
+    private final AccountHoldMapper accountHoldMapper = proxy(AccountHoldMapper.class);
+    private final PlatformTransactionManager transactionManager = new MemoryTransactionManager();
+
+    AccountMapper accountMapper() {
+        return accountMapper;
+    }
+
+    AccountHistoryMapper accountHistoryMapper() {
+        return accountHistoryMapper;
+    }
+
+    AccountHoldMapper accountHoldMapper() {
+        return accountHoldMapper;
+    }
+
+    PlatformTransactionManager transactionManager() {
+        return transactionManager;
+    }
+
+    synchronized void addAccount(String userNo, BigDecimal balance) {
+        Account account = new Account();
+        account.setId(accounts.size() + 1);
+        account.setUserNo(userNo);
+        account.setAccountNo("A" + userNo);
+        account.setBalance(balance);
+        account.setUnbalance(BigDecimal.ZERO);
+        account.setSettAmount(BigDecimal.ZERO);
+        account.setTotalIncome(BigDecimal.ZERO);
+        account.setTotalExpend(BigDecimal.ZERO);
+        account.setTodayIncome(BigDecimal.ZERO);
+        account.setTodayExpend(BigDecimal.ZERO);
+        account.setVersion(0);
+        accounts.put(userNo, account);
+    }
+
+    synchronized Account account(String userNo) {
+        return copyOf(accounts.get(userNo));
+    }
+
+    synchronized List<AccountHistory> histories() {
+        return new ArrayList<>(histories);
+    }
+
+    synchronized AccountHold hold(Integer id) {
+        return copyOf(holds.get(id));
+    }
+
+    int accountUpdates() {
+        return accountUpdates.get();
+    }
+
+    /** 行锁等待超时次数 **/
+    int lockTimeouts() {
+        return lockTimeouts.get();
+    }
+
+    /////////////////////// AccountMapper ///////////////////////////
+
+    protected Account accountGetBy(Map<String, Object> params) {
+        String userNo = (String) params.get("userNo");
+        if (Boolean.TRUE.equals(params.get("isPessimist"))) {
+            lockRow(userNo);
+        }
+        return read(userNo);
+    }
+
+    protected void accountUpdate(Account account) {
+        lockRow(account.getUserNo());
+        write(account);
+        accountUpdates.incrementAndGet();
+    }
+
+    protected int accountUpdateIfVersion(Account account) {
+        lockRow(account.getUserNo());
+        Account stored = read(account.getUserNo());
+        if (stored == null || !stored.getVersion().equals(account.getVersion())) {
+            return 0;
+        }
+        Account updated = copyOf(account);
+        updated.setVersion(account.getVersion() + 1);
+        write(updated);
+        accountUpdates.incrementAndGet();
+        return 1;
+    }
+
+    protected int accountUpdateFromEngine(Map<String, Object> params) {
+        Account account = (Account) params.get("account");
+        lockRow(account.getUserNo());
+        Account stored = read(account.getUserNo());
+        if (stored == null || !stored.getVersion().equals(params.get("expectedVersion"))) {
+            return 0;
+        }
+        write(account);
+        accountUpdates.incrementAndGet();
+        return 1;
+    }
+
+    protected int accountCreditByDelta(Map<String, Object> params) {
+        String userNo = (String) params.get("userNo");
+        lockRow(userNo);
+        Account account = read(userNo);
+        if (account == null) {
+            return 0;
+        }
+        BigDecimal amount = ((Money) params.get("amount")).toBigDecimal();
+        BigDecimal income = ((Money) params.get("incomeAmount")).toBigDecimal();
+        account.setBalance(account.getBalance().add(amount));
+        account.setTotalIncome(account.getTotalIncome().add(income));
+        account.setTodayIncome(account.getTodayIncome().add(income));
+        account.setVersion(account.getVersion() + 1);
+        write(account);
+        return 1;
+    }
+
+    protected int accountDebitByDelta(Map<String, Object> params) {
+        String userNo = (String) params.get("userNo");
+        lockRow(userNo);
+        Account account = read(userNo);
+        BigDecimal amount = ((Money) params.get("amount")).toBigDecimal();
+        if (account == null || account.getBalance().subtract(account.getUnbalance()).compareTo(amount) < 0) {
+            return 0;
+        }
+        account.setBalance(account.getBalance().subtract(amount));
+        account.setTotalExpend(account.getTotalExpend().add(amount));
+        account.setTodayExpend(account.getTodayExpend().add(amount));
+        account.setVersion(account.getVersion() + 1);
+        write(account);
+        return 1;
+    }
+
+    protected int accountFreezeByDelta(Map<String, Object> params) {
+        String userNo = (String) params.get("userNo");
+        lockRow(userNo);
+        Account account = read(userNo);
+        BigDecimal amount = ((Money) params.get("amount")).toBigDecimal();
+        if (account == null || account.getBalance().subtract(account.getUnbalance()).compareTo(amount) < 0) {
+            return 0;
+        }
+        account.setUnbalance(account.getUnbalance().add(amount));
+        account.setVersion(account.getVersion() + 1);
+        write(account);
+        return 1;
+    }
+
+    protected int accountUnFreezeSettByDelta(Map<String, Object> params) {
+        String userNo = (String) params.get("userNo");
+        lockRow(userNo);
+        Account account = read(userNo);
+        BigDecimal amount = ((Money) params.get("amount")).toBigDecimal();
+        if (account == null || account.getUnbalance().compareTo(amount) < 0) {
+            return 0;
+        }
+        account.setUnbalance(account.getUnbalance().subtract(amount));
+        account.setVersion(account.getVersion() + 1);
+        write(account);
+        return 1;
+    }
+
+    protected synchronized List<Map<String, Object>> accountListJournalBalances(List<Integer> ids) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            if (ids.contains(account.getId())) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", account.getId());
+                row.put("userNo", account.getUserNo());
+                row.put("balance", account.getBalance());
+                row.put("unbalance", account.getUnbalance());
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /////////////////////// AccountHistoryMapper ///////////////////////////
+
+    protected void historyInsert(AccountHistory history) {
+        Tx tx = current.get();
+        if (history.getRequestNo() != null) {
+            String key = history.getAccountNo() + "|" + history.getRequestNo();
+            synchronized (this) {
+                if (!requestKeys.add(key)) {
+                    throw new DuplicateKeyException("Duplicate entry for key 'uk_account_request'");
+                }
+            }
+            if (tx != null) {
+                tx.requestKeys.add(key);
+            }
+        }
+        history.setId(historyIds.incrementAndGet());
+        if (tx != null) {
+            tx.histories.add(history);
+            return;
+        }
+        synchronized (this) {
+            histories.add(history);
+        }
+    }
+
+    protected int historyInsertBatch(List<AccountHistory> list) {
+        for (AccountHistory history : list) {
+            historyInsert(history);
+        }
+        return list.size();
+    }
+
+    protected synchronized int historyCountByAccountRequest(Map<String, Object> params) {
+        int count = 0;
+        for (AccountHistory history : histories) {
+            if (matches(params.get("accountNo"), history.getAccountNo()) && matches(params.get("requestNo"), history.getRequestNo())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /////////////////////// AccountHoldMapper ///////////////////////////
+
+    protected void holdInsert(AccountHold hold) {
+        hold.setId(holdIds.incrementAndGet());
+        lockRow(holdKey(hold.getId()));
+        writeHold(hold);
+    }
+
+    protected AccountHold holdGetById(Map<String, Object> params) {
+        Integer id = (Integer) params.get("id");
+        if (Boolean.TRUE.equals(params.get("isPessimist"))) {
+            lockRow(holdKey(id));
+        }
+        return readHold(id);
+    }
+
+    protected synchronized AccountHold holdGetByRequestNo(Map<String, Object> params) {
+        for (AccountHold hold : holds.values()) {
+            if (hold.getUserNo().equals(params.get("userNo")) && hold.getRequestNo().equals(params.get("requestNo"))) {
+                return copyOf(hold);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 与条件update一样先锁行再判断状态：并发完结时后到的等前一个提交后读到完结状态，返回0
+     */
+    protected int holdFinish(Map<String, Object> params) {
+        Integer id = (Integer) params.get("id");
+        lockRow(holdKey(id));
+        AccountHold hold = readHold(id);
+        if (hold == null || !hold.getHoldStatus().equals(params.get("fromStatus"))) {
+            return 0;
+        }
+        hold.setHoldStatus((String) params.get("toStatus"));
+        hold.setFinishTime((Date) params.get("finishTime"));
+        hold.setEditTime((Date) params.get("finishTime"));
+        writeHold(hold);
+        return 1;
+    }
+
+    protected synchronized List<AccountHold> holdListByIds(List<Integer> ids) {
+        List<AccountHold> list = new ArrayList<>();
+        for (Integer id : ids) {
+            if (holds.containsKey(id)) {
+                list.add(copyOf(holds.get(id)));
+            }
+        }
+        return list;
+    }
+
+    /////////////////////// 事务 ///////////////////////////
+
+    /**
+     * 本事务未提交的修改优先，否则读已提交的值
+     */
+    private Account read(String userNo) {
+        Tx tx = current.get();
+        if (tx != null && tx.accounts.containsKey(userNo)) {
+            return copyOf(tx.accounts.get(userNo));
+        }
+        synchronized (this) {
+            return copyOf(accounts.get(userNo));
+        }
+    }
+
+    private AccountHold readHold(Integer id) {
+        Tx tx = current.get();
+        if (tx != null && tx.holds.containsKey(id)) {
+            return copyOf(tx.holds.get(id));
+        }
+        synchronized (this) {
+            return copyOf(holds.get(id));
+        }
+    }
+
+    private void writeHold(AccountHold hold) {
+        Tx tx = current.get();
+        if (tx != null) {
+            tx.holds.put(hold.getId(), copyOf(hold));
+            return;
+        }
+        synchronized (this) {
+            holds.put(hold.getId(), copyOf(hold));
+        }
+    }
+
+    private void write(Account account) {
+        Tx tx = current.get();
+        if (tx != null) {
+            tx.accounts.put(account.getUserNo(), copyOf(account));
+            return;
+        }
+        synchronized (this) {
+            accounts.put(account.getUserNo(), copyOf(account));
+        }
+    }
+
+    /**
+     * 事务内对账户行(userNo)或冻结单行(holdKey)加锁，持有到提交或回滚；没有事务时不加锁
+     */
+    private void lockRow(String userNo) {
+        Tx tx = current.get();
+        if (tx == null) {
+            return;
+        }
+        ReentrantLock lock = rowLocks.computeIfAbsent(userNo, k -> new ReentrantLock());
+        if (lock.isHeldByCurrentThread()) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            lockTimeouts.incrementAndGet();
+            throw new CannotAcquireLockException("Lock wait timeout exceeded, userNo=" + userNo);
+        }
+        tx.locks.add(lock);
+    }
+
+    private void end(Tx tx, boolean commit) {
+        current.remove();
+        synchronized (this) {
+            if (commit) {
+                accounts.putAll(tx.accounts);
+                histories.addAll(tx.histories);
+                holds.putAll(tx.holds);
+            } else {
+                requestKeys.removeAll(tx.requestKeys);
+            }
+        }
+        for (ReentrantLock lock : tx.locks) {
+            lock.unlock();
+        }
+    }
+
+    private static final class Tx {
+        private final Map<String, Account> accounts = new LinkedHashMap<>();
+        private final List<AccountHistory> histories = new ArrayList<>();
+        private final Map<Integer, AccountHold> holds = new LinkedHashMap<>();
+        private final List<String> requestKeys = new ArrayList<>();
+        private final List<ReentrantLock> locks = new ArrayList<>();
+    }
+
+    /**
+     * 已有事务时加入，否则开启新事务；提交时先执行beforeCommit，再写入已提交的数据并释放行锁
+     */
+    private final class MemoryTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            if (current.get() != null) {
+                return new SimpleTransactionStatus(false);
+            }
+            current.set(new Tx());
+            TransactionSynchronizationManager.initSynchronization();
+            return new SimpleTransactionStatus(true);
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            if (!status.isNewTransaction()) {
+                return;
+            }
+            if (status.isRollbackOnly()) {
+                rollback(status);
+                return;
+            }
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            try {
+                for (TransactionSynchronization synchronization : synchronizations) {
+                    synchronization.beforeCommit(false);
+                }
+            } catch (RuntimeException e) {
+                rollback(status);
+                throw e;
+            }
+            TransactionSynchronizationManager.clearSynchronization();
+            end(current.get(), true);
+            for (TransactionSynchronization synchronization : synchronizations) {
+                synchronization.afterCommit();
+            }
+            for (TransactionSynchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            if (!status.isNewTransaction()) {
+                status.setRollbackOnly();
+                return;
+            }
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+            end(current.get(), false);
+            for (TransactionSynchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        }
+    }
+
+    private static boolean matches(Object condition, String value) {
+        return condition == null || condition.equals(value);
+    }
+
+    private static Account copyOf(Account account) {
+        if (account == null) {
+            return null;
+        }
+        Account copy = new Account();
+        BeanUtils.copyProperties(account, copy);
+        return copy;
+    }
+
+    private static AccountHold copyOf(AccountHold hold) {
+        if (hold == null) {
+            return null;
+        }
+        AccountHold copy = new AccountHold();
+        BeanUtils.copyProperties(hold, copy);
+        return copy;
+    }
+
+    private static String holdKey(Integer id) {
+        return "hold#" + id;
+    }
+
+    /**
+     * 映射到本类的同名方法，AccountMapper加前缀account，AccountHistoryMapper加前缀history，AccountHoldMapper加前缀hold
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> mapperType) {
+        String prefix = mapperType == AccountMapper.class ? "account" : mapperType == AccountHoldMapper.class ? "hold" : "history";
+        return (T) Proxy.newProxyInstance(mapperType.getClassLoader(), new Class<?>[] { mapperType }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            Method target;
+            try {
+                String name = prefix + Character.toUpperCase(method.getName().charAt(0)) + method.getName().substring(1);
+                target = InMemoryLedgerStore.class.getDeclaredMethod(name, method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException(mapperType.getSimpleName() + "." + method.getName());
+            }
+            try {
+                return target.invoke(this, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
@@ -0,0 +1,171 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.LedgerCommand;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.engine.LedgerEngine;
+import com.zhangpeng.account.core.enums.MutationModeEnum;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.IdempotencyRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 内存记账写回：写库提交后才返回调用方；写库一直失败时调用方收到写库失败，账户作废后从数据库重新加载；
+ * 数据库行被引擎之外修改时在数据库当前行上重新计算，不覆盖外部写入
+ */
+class LedgerEngineDurabilityTests {
+
+    private static final BigDecimal INITIAL = new BigDecimal("100.00");
+
+    @Test
+    void acknowledgesOnlyAfterCommit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryLedgerStore store = new InMemoryLedgerStore() {
+            @Override
+            protected int historyInsertBatch(List<AccountHistory> list) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.historyInsertBatch(list);
+            }
+        };
+        store.addAccount("E1", INITIAL);
+        LedgerEngine engine = engine(store);
+        try {
+            CompletableFuture<Account> result = CompletableFuture.supplyAsync(() -> engine.execute(credit("E1", "10.00", "R1")));
+            Thread.sleep(300);
+            assertFalse(result.isDone(), "写库提交前已返回");
+            release.countDown();
+            assertEquals(0, new BigDecimal("110.00").compareTo(result.get(10, TimeUnit.SECONDS).getBalance()));
+            assertEquals(0, new BigDecimal("110.00").compareTo(store.account("E1").getBalance()));
+            assertEquals(1, store.histories().size());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void failsCallersAndReloadsWhenPersistKeepsFailing() {
+        boolean[] broken = { true };
+        InMemoryLedgerStore store = new InMemoryLedgerStore() {
+            @Override
+            protected int historyInsertBatch(List<AccountHistory> list) {
+                if (broken[0]) {
+                    throw new QueryTimeoutException("database unavailable");
+                }
+                return super.historyInsertBatch(list);
+            }
+        };
+        store.addAccount("E2", INITIAL);
+        LedgerEngine engine = engine(store);
+        try {
+            AccountBizException e = assertThrows(AccountBizException.class, () -> engine.execute(credit("E2", "10.00", "R1")));
+            assertEquals(AccountBizException.ACCOUNT_ENGINE_PERSIST_FAILED.getCode(), e.getCode());
+            assertEquals(0, INITIAL.compareTo(store.account("E2").getBalance()));
+
+            broken[0] = false;
+            // 重新加载后不包含写库失败的变更，原请求号可以重试
+            Account account = engine.execute(credit("E2", "10.00", "R1"));
+            assertEquals(0, new BigDecimal("110.00").compareTo(account.getBalance()));
+            assertEquals(0, new BigDecimal("110.00").compareTo(store.account("E2").getBalance()));
+            assertEquals(1, store.histories().size());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void rebasesOverExternalChange() {
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        store.addAccount("E3", INITIAL);
+        LedgerEngine engine = engine(store);
+        try {
+            engine.execute(credit("E3", "10.00", "R1"));
+            // 引擎之外的写入，如跨天清0、结算
+            external(store, "E3", "5.00");
+
+            Account account = engine.execute(credit("E3", "1.00", "R2"));
+            assertEquals(0, new BigDecimal("116.00").compareTo(account.getBalance()), "引擎之外的写入被覆盖");
+            assertEquals(0, new BigDecimal("116.00").compareTo(store.account("E3").getBalance()));
+            assertEquals(account.getVersion(), store.account("E3").getVersion());
+
+            // 重新加载后继续以数据库为准
+            assertEquals(0, new BigDecimal("117.00").compareTo(engine.execute(credit("E3", "1.00", "R3")).getBalance()));
+            assertEquals(0, new BigDecimal("117.00").compareTo(store.account("E3").getBalance()));
+            assertEquals(3, store.histories().size());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void rebaseRejectsCommandsNoLongerCovered() {
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        store.addAccount("E4", INITIAL);
+        LedgerEngine engine = engine(store);
+        try {
+            engine.execute(credit("E4", "10.00", "R1"));
+            external(store, "E4", "-100.00");
+
+            // 内存中余额110足够，数据库当前行只有10
+            AccountBizException e = assertThrows(AccountBizException.class, () -> engine.execute(
+                    LedgerCommand.debit("E4", new BigDecimal("50.00"), "R2", null, TrxTypeEnum.EXPENSE.name(), "test")));
+            assertEquals(AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT.getCode(), e.getCode());
+            assertEquals(0, new BigDecimal("10.00").compareTo(store.account("E4").getBalance()));
+            assertEquals(1, store.histories().size());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * 模拟引擎之外的整行写入：余额变化并且版本号加1
+     */
+    private static void external(InMemoryLedgerStore store, String userNo, String delta) {
+        Account external = store.account(userNo);
+        external.setBalance(external.getBalance().add(new BigDecimal(delta)));
+        external.setVersion(external.getVersion() + 1);
+        store.accountMapper().update(external);
+    }
+
+    private static LedgerCommand credit(String userNo, String amount, String requestNo) {
+        return LedgerCommand.credit(userNo, new BigDecimal(amount), requestNo, null, TrxTypeEnum.EXPENSE.name(), "test");
+    }
+
+    private static LedgerEngine engine(InMemoryLedgerStore store) {
+        LedgerEngine engine = new LedgerEngine();
+        ReflectionTestUtils.setField(engine, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(engine, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(engine, "accountBucketManager", new AccountBucketManager());
+        ReflectionTestUtils.setField(engine, "idempotencyRegistry", new IdempotencyRegistry());
+        ReflectionTestUtils.setField(engine, "ledgerJournal", new LedgerJournal());
+        ReflectionTestUtils.setField(engine, "transactionManager", store.transactionManager());
+        ReflectionTestUtils.setField(engine, "mutationMode", MutationModeEnum.ENGINE);
+        ReflectionTestUtils.setField(engine, "shards", 2);
+        ReflectionTestUtils.setField(engine, "ringSize", 1024);
+        ReflectionTestUtils.setField(engine, "offerTimeoutMillis", 1000L);
+        ReflectionTestUtils.setField(engine, "awaitMillis", 10000L);
+        ReflectionTestUtils.setField(engine, "persistQueueCapacity", 1024);
+        ReflectionTestUtils.setField(engine, "persistBatch", 64);
+        ReflectionTestUtils.setField(engine, "persistRetries", 1);
+        engine.init();
+        return engine;
+    }
+}
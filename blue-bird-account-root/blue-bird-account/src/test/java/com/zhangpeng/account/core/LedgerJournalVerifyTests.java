@@ -0,0 +1,63 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.enums.LedgerCommandTypeEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流水日志重启恢复后与数据库核对：余额一致时没有不一致账户，数据库被流水日志之外修改时报出该账户
+ */
+class LedgerJournalVerifyTests {
+
+    @Test
+    void verifiesRecoveredBalancesAgainstDatabase() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        store.addAccount("J1", new BigDecimal("100.00"));
+        store.addAccount("J2", new BigDecimal("50.00"));
+
+        LedgerJournal journal = journal(store, dir);
+        assertTrue(journal.isEnabled());
+        for (String userNo : new String[] { "J1", "J2" }) {
+            Account account = store.account(userNo);
+            account.setBalance(account.getBalance().add(new BigDecimal("10.00")));
+            store.accountMapper().update(account);
+            journal.append(account, LedgerCommandTypeEnum.CREDIT, new BigDecimal("10.00"), TrxTypeEnum.EXPENSE.name(), userNo + "-1");
+        }
+        journal.shutdown();
+
+        // 重启：重放段文件后与数据库一致
+        LedgerJournal restarted = journal(store, dir);
+        assertEquals(0, restarted.verify());
+        restarted.shutdown();
+
+        // 流水日志之外修改了J2
+        Account changed = store.account("J2");
+        changed.setBalance(new BigDecimal("1.00"));
+        store.accountMapper().update(changed);
+        restarted = journal(store, dir);
+        assertEquals(1, restarted.verify());
+        restarted.shutdown();
+    }
+
+    private static LedgerJournal journal(InMemoryLedgerStore store, File dir) {
+        LedgerJournal journal = new LedgerJournal();
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "dir", dir.getAbsolutePath());
+        ReflectionTestUtils.setField(journal, "segmentBytes", 64 * 1024);
+        ReflectionTestUtils.setField(journal, "verifyOnStartup", true);
+        ReflectionTestUtils.setField(journal, "accountMapper", store.accountMapper());
+        journal.init();
+        return journal;
+    }
+}
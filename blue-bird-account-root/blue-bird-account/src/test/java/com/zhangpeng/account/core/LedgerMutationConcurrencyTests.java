@@ -0,0 +1,206 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.api.service.AccountTransactionService;
+import com.zhangpeng.account.core.aop.LedgerLockHandler;
+import com.zhangpeng.account.core.aop.OptimisticRetryHandler;
+import com.zhangpeng.account.core.enums.MutationModeEnum;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.OptimisticLockStats;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import com.zhangpeng.account.core.service.AccountTransactionServiceImpl;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一批账户上多线程并发加款/减款：LEGACY(先读后写，靠账户分段锁串行)、DELTA(条件增量更新)
+ * 与OPTIMISTIC(不加分段锁，按版本号更新，冲突时在事务之外重试)三种模式下都不能丢失更新，
+ * 每个账户最终余额 = 初始余额 + 已提交的加款 - 已提交的减款，且余额不为负
+ */
+class LedgerMutationConcurrencyTests {
+
+    private static final String[] USERS = { "M1", "M2", "M3" };
+    private static final BigDecimal INITIAL = new BigDecimal("500.00");
+
+    @Test
+    void legacyUnderStripeLockLosesNoUpdates() throws Exception {
+        stress(MutationModeEnum.LEGACY);
+    }
+
+    @Test
+    void deltaLosesNoUpdates() throws Exception {
+        stress(MutationModeEnum.DELTA);
+    }
+
+    @Test
+    void optimisticRetriesOutsideTransactionLoseNoUpdates() throws Exception {
+        stress(MutationModeEnum.OPTIMISTIC);
+    }
+
+    private static void stress(MutationModeEnum mode) throws Exception {
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        for (String userNo : USERS) {
+            store.addAccount(userNo, INITIAL);
+        }
+        AccountTransactionService service = proxy(store, mode);
+
+        int threads = 8;
+        int perThread = 400;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                // 成功笔数、余额不足被拒绝的笔数
+                int[] counts = new int[2];
+                for (int i = 0; i < perThread; i++) {
+                    String userNo = USERS[random.nextInt(USERS.length)];
+                    BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(5000), 2);
+                    String requestNo = "T" + seed + "-" + i;
+                    try {
+                        if (random.nextBoolean()) {
+                            service.creditToAccount(userNo, amount, requestNo, TrxTypeEnum.EXPENSE.name(), "test");
+                        } else {
+                            service.debitToAccount(userNo, amount, requestNo, TrxTypeEnum.EXPENSE.name(), "test");
+                        }
+                        counts[0]++;
+                    } catch (AccountBizException e) {
+                        // 乐观锁模式重试次数耗尽时整笔失败，不能留下部分写入
+                        assertTrue(e.getCode() == AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT.getCode()
+                                || mode == MutationModeEnum.OPTIMISTIC && e.getCode() == AccountBizException.ACCOUNT_CONCURRENT_CONFLICT.getCode(),
+                                e.getMsg());
+                        counts[1]++;
+                    }
+                }
+                return counts;
+            }));
+        }
+        int succeeded = 0;
+        for (Future<int[]> future : futures) {
+            succeeded += future.get(60, TimeUnit.SECONDS)[0];
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, store.lockTimeouts(), mode + " 出现行锁等待超时");
+        List<AccountHistory> histories = store.histories();
+        assertEquals(succeeded, histories.size(), mode + " 账户历史笔数与成功笔数不一致");
+        Map<String, BigDecimal> expected = new HashMap<>();
+        Map<String, BigDecimal> income = new HashMap<>();
+        for (String userNo : USERS) {
+            expected.put(userNo, INITIAL);
+            income.put(userNo, BigDecimal.ZERO);
+        }
+        for (AccountHistory history : histories) {
+            boolean add = AccountFundDirectionEnum.ADD.name().equals(history.getFundDirection());
+            expected.merge(history.getUserNo(), add ? history.getAmount() : history.getAmount().negate(), BigDecimal::add);
+            if (add) {
+                income.merge(history.getUserNo(), history.getAmount(), BigDecimal::add);
+            }
+        }
+        for (String userNo : USERS) {
+            Account account = store.account(userNo);
+            assertEquals(0, expected.get(userNo).compareTo(account.getBalance()),
+                    mode + " " + userNo + " 丢失更新，期望余额" + expected.get(userNo) + "，实际" + account.getBalance());
+            assertEquals(0, income.get(userNo).compareTo(account.getTotalIncome()), mode + " " + userNo + " 总收益不一致");
+            assertTrue(account.getBalance().signum() >= 0, mode + " " + userNo + " 余额为负");
+            assertTrue(account.getBalance().compareTo(account.getUnbalance()) >= 0, mode + " " + userNo + " 可用余额为负");
+        }
+    }
+
+    /**
+     * 与Spring容器中的切面顺序一致：分段锁、乐观锁重试在事务之外，分段锁提交后才释放；
+     * 乐观锁模式不开分段锁，让并发请求真正发生版本冲突
+     */
+    private static AccountTransactionService proxy(InMemoryLedgerStore store, MutationModeEnum mode) {
+        AccountTransactionServiceImpl target = new AccountTransactionServiceImpl();
+        AccountBucketManager accountBucketManager = new AccountBucketManager();
+        ReflectionTestUtils.setField(target, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(target, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(target, "accountBucketManager", accountBucketManager);
+        ReflectionTestUtils.setField(target, "ledgerStatsAccumulator", new LedgerStatsAccumulator());
+        ReflectionTestUtils.setField(target, "ledgerClock", new LedgerClock());
+        ReflectionTestUtils.setField(target, "mutationMode", mode);
+        OptimisticLockStats optimisticLockStats = new OptimisticLockStats();
+        ReflectionTestUtils.setField(optimisticLockStats, "maxTrackedAccounts", 100);
+        ReflectionTestUtils.setField(target, "optimisticLockStats", optimisticLockStats);
+
+        StripedAccountLock stripedAccountLock = new StripedAccountLock();
+        ReflectionTestUtils.setField(stripedAccountLock, "enabled", mode != MutationModeEnum.OPTIMISTIC);
+        ReflectionTestUtils.setField(stripedAccountLock, "stripes", 64);
+        ReflectionTestUtils.setField(stripedAccountLock, "timeoutMillis", 10000L);
+        stripedAccountLock.init();
+        LedgerLockHandler ledgerLockHandler = new LedgerLockHandler();
+        ReflectionTestUtils.setField(ledgerLockHandler, "stripedAccountLock", stripedAccountLock);
+        ReflectionTestUtils.setField(ledgerLockHandler, "accountBucketManager", accountBucketManager);
+
+        OptimisticRetryHandler optimisticRetryHandler = new OptimisticRetryHandler();
+        ReflectionTestUtils.setField(optimisticRetryHandler, "optimisticLockStats", optimisticLockStats);
+        ReflectionTestUtils.setField(optimisticRetryHandler, "mutationMode", mode);
+        ReflectionTestUtils.setField(optimisticRetryHandler, "maxAttempts", 50);
+        ReflectionTestUtils.setField(optimisticRetryHandler, "backoffMillis", 1L);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(ledgerLockHandler);
+        factory.addAspect(optimisticRetryHandler);
+        factory.addAspect(new TransactionalHandler(new TransactionTemplate(store.transactionManager())));
+        return factory.getProxy();
+    }
+
+    /**
+     * 代替Spring的事务切面，在其他切面之内开启事务
+     */
+    @Aspect
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    static class TransactionalHandler {
+
+        private final TransactionTemplate transactionTemplate;
+
+        TransactionalHandler(TransactionTemplate transactionTemplate) {
+            this.transactionTemplate = transactionTemplate;
+        }
+
+        @Around("execution(* com.zhangpeng.account.core.service..*(..)) && @annotation(transactional)")
+        public Object around(ProceedingJoinPoint pjp, Transactional transactional) {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return pjp.proceed();
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            });
+        }
+    }
+}
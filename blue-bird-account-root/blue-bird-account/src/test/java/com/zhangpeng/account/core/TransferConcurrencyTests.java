@@ -0,0 +1,155 @@
+package com.zhangpeng.account.core;
+
+import com.zhangpeng.account.api.TransferLeg;
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import com.zhangpeng.account.core.journal.LedgerJournal;
+import com.zhangpeng.account.core.ledger.AccountBucketManager;
+import com.zhangpeng.account.core.ledger.IdempotencyRegistry;
+import com.zhangpeng.account.core.ledger.LedgerClock;
+import com.zhangpeng.account.core.ledger.LedgerStatsAccumulator;
+import com.zhangpeng.account.core.ledger.LedgerTransferExecutor;
+import com.zhangpeng.account.core.ledger.StripedAccountLock;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 随机配对的多方转账并发执行：各方按userNo顺序加锁，不能出现行锁等待超时(死锁)，
+ * 各账户余额 = 初始余额 + 账户历史合计，全部账户余额合计不变，每笔转账的账户历史合计为0
+ */
+class TransferConcurrencyTests {
+
+    private static final String[] USERS = { "P", "U1", "U2", "U3", "U4", "U5" };
+    private static final BigDecimal INITIAL = new BigDecimal("1000.00");
+
+    @Test
+    void randomPairingsWithStripeLock() throws Exception {
+        stress(true);
+    }
+
+    /**
+     * 不启用JVM分段锁(如多个节点)，只靠事务内按userNo顺序加行锁
+     */
+    @Test
+    void randomPairingsWithRowLocksOnly() throws Exception {
+        stress(false);
+    }
+
+    private static void stress(boolean stripeLock) throws Exception {
+        InMemoryLedgerStore store = new InMemoryLedgerStore();
+        for (String userNo : USERS) {
+            store.addAccount(userNo, INITIAL);
+        }
+        LedgerTransferExecutor executor = executor(store, stripeLock);
+
+        int threads = 12;
+        int perThread = 300;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                int legs = 0;
+                for (int i = 0; i < perThread; i++) {
+                    List<TransferLeg> transfer = randomTransfer(random);
+                    try {
+                        executor.transfer("T" + seed + "-" + i, transfer, TrxTypeEnum.EXPENSE.name(), "test");
+                        legs += transfer.size();
+                    } catch (AccountBizException e) {
+                        assertEquals(AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT.getCode(), e.getCode());
+                    }
+                }
+                return legs;
+            }));
+        }
+        int legs = 0;
+        for (Future<Integer> future : futures) {
+            legs += future.get(120, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, store.lockTimeouts(), "出现行锁等待超时");
+        List<AccountHistory> histories = store.histories();
+        assertEquals(legs, histories.size(), "账户历史笔数与成功的转账方数不一致");
+        Map<String, BigDecimal> expected = new HashMap<>();
+        Map<String, BigDecimal> perRequest = new HashMap<>();
+        for (AccountHistory history : histories) {
+            BigDecimal signed = AccountFundDirectionEnum.ADD.name().equals(history.getFundDirection()) ? history.getAmount()
+                    : history.getAmount().negate();
+            expected.merge(history.getUserNo(), signed, BigDecimal::add);
+            perRequest.merge(history.getRequestNo(), signed, BigDecimal::add);
+        }
+        for (Map.Entry<String, BigDecimal> entry : perRequest.entrySet()) {
+            assertEquals(0, entry.getValue().signum(), entry.getKey() + " 各方合计不为0");
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (String userNo : USERS) {
+            Account account = store.account(userNo);
+            BigDecimal balance = INITIAL.add(expected.getOrDefault(userNo, BigDecimal.ZERO));
+            assertEquals(0, balance.compareTo(account.getBalance()), userNo + " 余额与账户历史不一致");
+            assertTrue(account.getBalance().signum() >= 0, userNo + " 余额为负");
+            total = total.add(account.getBalance());
+        }
+        assertEquals(0, INITIAL.multiply(BigDecimal.valueOf(USERS.length)).compareTo(total), "余额合计发生变化");
+    }
+
+    /**
+     * 随机两方或三方，参与方顺序随机，减款方金额等于其他各方之和
+     */
+    private static List<TransferLeg> randomTransfer(Random random) {
+        List<String> users = new ArrayList<>();
+        Collections.addAll(users, USERS);
+        Collections.shuffle(users, random);
+        int size = 2 + random.nextInt(2);
+        List<TransferLeg> legs = new ArrayList<>(size);
+        BigDecimal debit = BigDecimal.ZERO;
+        for (int i = 1; i < size; i++) {
+            BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(20000), 2);
+            legs.add(TransferLeg.credit(users.get(i), amount));
+            debit = debit.add(amount);
+        }
+        legs.add(random.nextInt(size), TransferLeg.debit(users.get(0), debit));
+        return legs;
+    }
+
+    private static LedgerTransferExecutor executor(InMemoryLedgerStore store, boolean stripeLock) {
+        StripedAccountLock stripedAccountLock = new StripedAccountLock();
+        ReflectionTestUtils.setField(stripedAccountLock, "enabled", stripeLock);
+        ReflectionTestUtils.setField(stripedAccountLock, "stripes", 64);
+        ReflectionTestUtils.setField(stripedAccountLock, "timeoutMillis", 10000L);
+        stripedAccountLock.init();
+
+        LedgerTransferExecutor executor = new LedgerTransferExecutor();
+        ReflectionTestUtils.setField(executor, "accountMapper", store.accountMapper());
+        ReflectionTestUtils.setField(executor, "accountHistoryMapper", store.accountHistoryMapper());
+        ReflectionTestUtils.setField(executor, "accountBucketManager", new AccountBucketManager());
+        ReflectionTestUtils.setField(executor, "stripedAccountLock", stripedAccountLock);
+        ReflectionTestUtils.setField(executor, "transactionManager", store.transactionManager());
+        ReflectionTestUtils.setField(executor, "idempotencyRegistry", new IdempotencyRegistry());
+        ReflectionTestUtils.setField(executor, "ledgerStatsAccumulator", new LedgerStatsAccumulator());
+        ReflectionTestUtils.setField(executor, "ledgerJournal", new LedgerJournal());
+        ReflectionTestUtils.setField(executor, "ledgerClock", new LedgerClock());
+        executor.init();
+        return executor;
+    }
+}
@@ -0,0 +1,100 @@
+package com.zhangpeng.account.core.hold;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 时间轮：到期时间落在各层(含超出最高层范围)的元素都恰好在到期的tick返回，不早不晚、不丢不重
+ */
+class HierarchicalTimingWheelTests {
+
+    private static final long START = 1_000_000L;
+
+    @Test
+    void expiresOnDeadlineTickAcrossLevels() {
+        // 每层4个槽，3层覆盖64个tick
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(1, 2, 3, START);
+        long[] deadlines = { 1, 3, 4, 5, 15, 16, 17, 48, 63, 64, 65, 100, 127, 128, 200, 1000 };
+        for (long deadline : deadlines) {
+            wheel.add(deadline, START + deadline);
+        }
+        assertEquals(deadlines.length, wheel.size());
+
+        Map<Long, Long> expiredAt = new HashMap<>();
+        for (long now = 0; now <= 1100; now++) {
+            for (Long item : wheel.advance(START + now)) {
+                assertNull(expiredAt.put(item, now), "重复返回 " + item);
+            }
+            // 推进途中放入：此时各层都已转过若干槽
+            if (now == 37) {
+                wheel.add(37 + 70L, START + 37 + 70);
+                wheel.add(37 + 5L, START + 37 + 5);
+            }
+        }
+        for (long deadline : deadlines) {
+            assertEquals(deadline, expiredAt.get(deadline).longValue(), "deadline=" + deadline);
+        }
+        assertEquals(107L, expiredAt.get(107L).longValue());
+        assertEquals(42L, expiredAt.get(42L).longValue());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void overdueExpiresOnNextAdvance() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(10, 2, 3, START);
+        wheel.advance(START + 500);
+        wheel.add("past", START + 100);
+        wheel.add("now", START + 500);
+        wheel.add("beforeStart", START - 100);
+        // 不足一个tick向上取整，不早于到期时间返回
+        wheel.add("nextTick", START + 501);
+        List<String> expired = wheel.advance(START + 505);
+        assertEquals(3, expired.size());
+        assertTrue(expired.containsAll(Arrays.asList("past", "now", "beforeStart")));
+        assertTrue(wheel.advance(START + 509).isEmpty());
+        assertEquals(Collections.singletonList("nextTick"), wheel.advance(START + 510));
+    }
+
+    @Test
+    void randomScheduleMatchesDeadlines() {
+        HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(1, 3, 3, START);
+        Random random = new Random(7);
+        List<Long> deadlines = new ArrayList<>();
+        Map<Integer, Long> expiredAt = new HashMap<>();
+        long now = 0;
+        while (now < 20000) {
+            for (int i = random.nextInt(20); i > 0; i--) {
+                // 跨度覆盖第0层到超出最高层范围(512个tick)
+                long deadline = now + random.nextInt(random.nextBoolean() ? 16 : 2000);
+                wheel.add(deadlines.size(), START + deadline);
+                deadlines.add(deadline);
+            }
+            long previous = now;
+            now += 1 + random.nextInt(random.nextInt(10) == 0 ? 300 : 5);
+            for (Integer item : wheel.advance(START + now)) {
+                long deadline = deadlines.get(item);
+                assertTrue(deadline <= now, "提前返回 item=" + item);
+                // 放入时deadline不早于previous，应在随后第一次推进到deadline时返回
+                assertTrue(deadline >= previous, "延迟返回 item=" + item + ", deadline=" + deadline + ", previous=" + previous);
+                assertNull(expiredAt.put(item, now), "重复返回 " + item);
+            }
+        }
+        for (int item = 0; item < deadlines.size(); item++) {
+            if (deadlines.get(item) <= now) {
+                assertTrue(expiredAt.containsKey(item), "丢失 item=" + item);
+            }
+        }
+        assertEquals(deadlines.size() - expiredAt.size(), wheel.size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.domain.AccountHistory;
+import com.zhangpeng.account.api.enums.AccountFundDirectionEnum;
+import com.zhangpeng.account.api.enums.PublicEnum;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 0点前后：今日统计按counter_day清0并归到新的一天，edit_time/create_time取自同一个时钟
+ */
+class LedgerClockTests {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    @AfterEach
+    void restore() {
+        LedgerClock.use(new LedgerClock());
+    }
+
+    @Test
+    void rolloverAcrossMidnight() {
+        MutableClock clock = new MutableClock(LocalDateTime.of(2020, 1, 1, 23, 59, 59, 500_000_000));
+        LedgerClock.use(new LedgerClock(clock));
+
+        Account account = account();
+        // 升级前的账户没有counter_day，按edit_time判断
+        account.setEditTime(new Date(clock.millis() - 3600_000L));
+        LedgerCalculator.applyCredit(account, new BigDecimal("1.00"), TrxTypeEnum.EXPENSE.name());
+        assertAmount("11.00", account.getTodayIncome());
+        assertAmount("5.00", account.getTodayExpend());
+        assertEquals(millisOf(LocalDateTime.of(2020, 1, 1, 0, 0)), account.getCounterDay().getTime());
+        assertEquals(clock.millis(), account.getEditTime().getTime());
+
+        // 跨过0点，尚未记账：读取时只在内存中清0
+        clock.advance(1000);
+        assertFalse(LedgerCalculator.isCountedToday(account));
+        Account read = LedgerCalculator.rolloverOnRead(copyOf(account));
+        assertAmount("0", read.getTodayIncome());
+        assertAmount("0", read.getTodayExpend());
+        assertEquals(millisOf(LocalDateTime.of(2020, 1, 1, 0, 0)), read.getCounterDay().getTime());
+
+        // 新的一天第一笔加款：清0后累加，counter_day归到今天
+        LedgerCalculator.applyCredit(account, new BigDecimal("2.00"), TrxTypeEnum.EXPENSE.name());
+        assertAmount("2.00", account.getTodayIncome());
+        assertAmount("0", account.getTodayExpend());
+        assertAmount("13.00", account.getTotalIncome());
+        assertEquals(millisOf(LocalDateTime.of(2020, 1, 2, 0, 0)), account.getCounterDay().getTime());
+        assertEquals(clock.millis(), account.getEditTime().getTime());
+        assertTrue(LedgerCalculator.isCountedToday(account));
+
+        clock.advance(1000);
+        LedgerCalculator.applyDebit(account, new BigDecimal("3.00"));
+        assertAmount("3.00", account.getTodayExpend());
+        assertAmount("2.00", account.getTodayIncome());
+        assertEquals(clock.millis(), account.getEditTime().getTime());
+
+        AccountHistory history = LedgerCalculator.buildHistory(account, new BigDecimal("3.00"), "R1", null,
+                TrxTypeEnum.EXPENSE.name(), "test", AccountFundDirectionEnum.SUB, PublicEnum.YES);
+        assertEquals(clock.millis(), history.getCreateTime().getTime());
+        assertEquals(clock.millis(), history.getEditTime().getTime());
+    }
+
+    @Test
+    void todayRefreshesOnFirstCallAfterMidnight() {
+        MutableClock clock = new MutableClock(LocalDateTime.of(2020, 2, 28, 23, 59, 59, 999_000_000));
+        LedgerClock ledgerClock = new LedgerClock(clock);
+        long before = ledgerClock.todayEpochDay();
+        long lastMillis = clock.millis();
+        assertTrue(ledgerClock.isToday(lastMillis));
+
+        // 没有等到定时刷新，跨天后的第一次调用就换成新的一天
+        clock.advance(1);
+        assertEquals(before + 1, ledgerClock.todayEpochDay());
+        assertEquals(millisOf(LocalDateTime.of(2020, 2, 29, 0, 0)), ledgerClock.todayStartMillis());
+        assertFalse(ledgerClock.isToday(lastMillis));
+        assertTrue(ledgerClock.isToday(clock.millis()));
+    }
+
+    private static Account account() {
+        Account account = new Account();
+        account.setUserNo("C1");
+        account.setAccountNo("A1");
+        account.setBalance(new BigDecimal("100.00"));
+        account.setUnbalance(BigDecimal.ZERO);
+        account.setSettAmount(BigDecimal.ZERO);
+        account.setTotalIncome(new BigDecimal("10.00"));
+        account.setTotalExpend(new BigDecimal("5.00"));
+        account.setTodayIncome(new BigDecimal("10.00"));
+        account.setTodayExpend(new BigDecimal("5.00"));
+        return account;
+    }
+
+    private static Account copyOf(Account account) {
+        Account copy = account();
+        copy.setTodayIncome(account.getTodayIncome());
+        copy.setTodayExpend(account.getTodayExpend());
+        copy.setCounterDay(account.getCounterDay());
+        copy.setEditTime(account.getEditTime());
+        return copy;
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), expected + " != " + actual);
+    }
+
+    private static long millisOf(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 可手动拨动的时钟
+     */
+    private static class MutableClock extends Clock {
+        private volatile long millis;
+
+        private MutableClock(LocalDateTime start) {
+            this.millis = millisOf(start);
+        }
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
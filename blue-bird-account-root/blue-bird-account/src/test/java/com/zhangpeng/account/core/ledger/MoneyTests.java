@@ -0,0 +1,104 @@
+package com.zhangpeng.account.core.ledger;
+
+import com.zhangpeng.account.api.domain.Account;
+import com.zhangpeng.account.api.enums.TrxTypeEnum;
+import com.zhangpeng.account.api.ex.AccountBizException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 金额：long运算溢出抛异常，请求金额超过两位小数拒绝，库中分以下尾数只在校验时取整、写回时原样保留
+ */
+class MoneyTests {
+
+    @Test
+    void arithmeticOverflowThrows() {
+        Money max = Money.ofMinor(Long.MAX_VALUE);
+        Money min = Money.ofMinor(Long.MIN_VALUE);
+        assertThrows(ArithmeticException.class, () -> max.plus(Money.ofMinor(1)));
+        assertThrows(ArithmeticException.class, () -> min.minus(Money.ofMinor(1)));
+        assertThrows(ArithmeticException.class, min::negate);
+        assertEquals(Long.MAX_VALUE, max.minus(Money.ofMinor(1)).plus(Money.ofMinor(1)).getMinor());
+        assertEquals(Long.MIN_VALUE + 1, max.negate().getMinor());
+        assertTrue(max.plus(Money.ZERO) == max);
+        assertThrows(ArithmeticException.class, () -> Money.addToStored(Money.toBigDecimal(Long.MAX_VALUE), 1));
+        assertThrows(ArithmeticException.class, () -> Money.addToStored(Money.toBigDecimal(Long.MIN_VALUE), -1));
+    }
+
+    @Test
+    void requestAmountScale() {
+        assertEquals(0, Money.toMinor(null));
+        assertEquals(1, Money.toMinor(new BigDecimal("0.01")));
+        assertEquals(100, Money.toMinor(new BigDecimal("1.000000")));
+        assertEquals(-1, Money.toMinor(new BigDecimal("-0.010")));
+        assertEquals(AccountBizException.ACCOUNT_AMOUNT_SCALE_ILLEGAL.getCode(), code(() -> Money.toMinor(new BigDecimal("1.005"))));
+        assertEquals(AccountBizException.ACCOUNT_AMOUNT_SCALE_ILLEGAL.getCode(), code(() -> Money.of(new BigDecimal("0.001"))));
+        assertEquals(AccountBizException.ACCOUNT_AMOUNT_ILLEGAL.getCode(), code(() -> Money.toMinor(new BigDecimal("92233720368547758.08"))));
+        assertEquals(Long.MAX_VALUE, Money.toMinor(new BigDecimal("92233720368547758.07")));
+    }
+
+    @Test
+    void storedRoundingBoundaries() {
+        assertEquals(0, Money.storedToMinor(new BigDecimal("0.004999")));
+        assertEquals(1, Money.storedToMinor(new BigDecimal("0.005000")));
+        assertEquals(-1, Money.storedToMinor(new BigDecimal("-0.005000")));
+        assertEquals(0, Money.storedFloorMinor(new BigDecimal("0.009999")));
+        assertEquals(-1, Money.storedFloorMinor(new BigDecimal("-0.000001")));
+        // 可用余额向下取整：10.005 - 0 只能用10.00
+        assertEquals(1000, Money.availableMinor(new BigDecimal("10.005000"), BigDecimal.ZERO));
+        assertEquals(999, Money.availableMinor(new BigDecimal("10.000000"), new BigDecimal("0.000001")));
+        assertEquals(1000, Money.availableMinor(new BigDecimal("10.00"), null));
+        assertFalse(Money.hasRemainder(new BigDecimal("10.120000")));
+        assertTrue(Money.hasRemainder(new BigDecimal("10.120001")));
+    }
+
+    @Test
+    void addToStoredKeepsRemainder() {
+        assertEquals(new BigDecimal("11.004000"), Money.addToStored(new BigDecimal("10.004000"), 100));
+        assertEquals(new BigDecimal("9.004000"), Money.addToStored(new BigDecimal("10.004000"), -100));
+        assertEquals(0, new BigDecimal("11.00").compareTo(Money.addToStored(new BigDecimal("10.000000"), 100)));
+        assertEquals(0, new BigDecimal("1.00").compareTo(Money.addToStored(null, 100)));
+    }
+
+    @Test
+    void calculatorWritesOnlyMutatedFieldsExactly() {
+        Account account = account("10.004000");
+        account.setSettAmount(new BigDecimal("3.333333"));
+        LedgerCalculator.applyCredit(account, new BigDecimal("1.00"), TrxTypeEnum.EXPENSE.name());
+        assertEquals(0, new BigDecimal("11.004").compareTo(account.getBalance()));
+        assertEquals(0, new BigDecimal("1.00").compareTo(account.getTotalIncome()));
+        assertEquals(new BigDecimal("3.333333"), account.getSettAmount());
+        assertEquals(new BigDecimal("0.000001"), account.getUnbalance());
+
+        // 可用余额11.003999，向下取整为11.00
+        LedgerCalculator.applyDebit(account, new BigDecimal("11.00"));
+        assertEquals(0, new BigDecimal("0.004").compareTo(account.getBalance()));
+        assertEquals(AccountBizException.ACCOUNT_SUB_AMOUNT_OUTLIMIT.getCode(),
+                code(() -> LedgerCalculator.applyDebit(account("10.005000"), new BigDecimal("10.01"))));
+        assertEquals(AccountBizException.ACCOUNT_AMOUNT_SCALE_ILLEGAL.getCode(),
+                code(() -> LedgerCalculator.applyCredit(account("1.00"), new BigDecimal("0.001"), null)));
+    }
+
+    private static Account account(String balance) {
+        Account account = new Account();
+        account.setUserNo("M");
+        account.setBalance(new BigDecimal(balance));
+        account.setUnbalance(new BigDecimal("0.000001"));
+        account.setSettAmount(BigDecimal.ZERO);
+        account.setTotalIncome(BigDecimal.ZERO);
+        account.setTotalExpend(BigDecimal.ZERO);
+        account.setTodayIncome(BigDecimal.ZERO);
+        account.setTodayExpend(BigDecimal.ZERO);
+        return account;
+    }
+
+    private static int code(Runnable runnable) {
+        return assertThrows(AccountBizException.class, runnable::run).getCode();
+    }
+}
@@ -0,0 +1,148 @@
+package com.zhangpeng.account.core.reconcile;
+
+import com.zhangpeng.account.core.ledger.Money;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 银行对账单关联：合成对账单与按比例构造的账户历史(部分缺失、部分金额不一致、另加银行没有的)关联，核对各类计数
+ *
+ * main用于压测，输出耗时：java -cp ... BankStatementJoinTests <目录> <行数> [分区数] [种子]
+ */
+class BankStatementJoinTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void joinCountsEachKindOfDifference() throws IOException {
+        BankStatementJoin.Result result = run(dir, 20_000, 8, 7L);
+        Expected expected = expected(20_000, 7L);
+        assertEquals(20_000, result.statementLines);
+        assertEquals(expected.ledgerRows, result.ledgerRows);
+        assertEquals(expected.matched, result.matched);
+        assertEquals(expected.amountMismatch, result.amountMismatch);
+        assertEquals(expected.missingInLedger, result.missingInLedger);
+        assertEquals(expected.missingInBank, result.missingInBank);
+    }
+
+    @Test
+    void rejectRecordLargerThanBuffer() throws IOException {
+        try (BankStatementJoin join = new BankStatementJoin(dir.resolve("work"), 1, 64)) {
+            StringBuilder key = new StringBuilder("BANK");
+            while (key.length() < 100) {
+                key.append('0');
+            }
+            assertThrows(IllegalArgumentException.class, () -> join.addLedger(key.toString(), 100, 1, "A1"));
+        }
+    }
+
+    /**
+     * 生成对账单，已存在时覆盖；银行流水号为BANK+序号，金额、方向由种子决定，同一参数生成的文件相同
+     */
+    static void generate(Path file, long lines, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write("bankTrxNo,fundDirection,amount,tradeTime\n");
+            StringBuilder sb = new StringBuilder(64);
+            for (long i = 0; i < lines; i++) {
+                long amount = amount(random);
+                sb.setLength(0);
+                sb.append("BANK").append(i).append(',').append(amount < 0 ? "SUB" : "ADD").append(',')
+                        .append(Money.toBigDecimal(Math.abs(amount)).toPlainString()).append(",2020-01-01 00:00:00\n");
+                writer.append(sb);
+            }
+        }
+    }
+
+    /** 第i行的带符号金额(分)，与generate按同一种子顺序生成 **/
+    private static long amount(Random random) {
+        long amount = 1 + random.nextInt(1_000_000);
+        return random.nextInt(4) == 0 ? -amount : amount;
+    }
+
+    /**
+     * 账户历史：1%缺失，1%金额不一致，另加0.5%银行没有的
+     */
+    private static BankStatementJoin.Result run(Path dir, long lines, int partitions, long seed) throws IOException {
+        Path statement = dir.resolve("statement.csv");
+        generate(statement, lines, seed);
+        Random random = new Random(seed);
+        Random skew = new Random(seed + 1);
+        try (BankStatementJoin join = new BankStatementJoin(dir.resolve("work"), partitions, 1 << 16)) {
+            join.addStatement(statement);
+            for (long i = 0; i < lines; i++) {
+                long amount = amount(random);
+                int r = skew.nextInt(200);
+                if (r < 2) {
+                    continue;
+                }
+                join.addLedger("BANK" + i, r < 4 ? amount + 1 : amount, i + 1, "A" + (i % 100_000));
+            }
+            for (long i = 0; i < lines / 200; i++) {
+                join.addLedger("LEDGER" + i, 100, lines + i + 1, "A" + (i % 100_000));
+            }
+            return join.join(dir.resolve("result"), true);
+        }
+    }
+
+    /** 与run同样的随机序列算出的期望计数 **/
+    private static Expected expected(long lines, long seed) {
+        Expected expected = new Expected();
+        Random skew = new Random(seed + 1);
+        for (long i = 0; i < lines; i++) {
+            int r = skew.nextInt(200);
+            if (r < 2) {
+                expected.missingInLedger++;
+                continue;
+            }
+            expected.ledgerRows++;
+            if (r < 4) {
+                expected.amountMismatch++;
+            } else {
+                expected.matched++;
+            }
+        }
+        expected.missingInBank = lines / 200;
+        expected.ledgerRows += expected.missingInBank;
+        return expected;
+    }
+
+    private static class Expected {
+        long ledgerRows;
+        long matched;
+        long amountMismatch;
+        long missingInBank;
+        long missingInLedger;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BankStatementJoinTests <dir> <lines> [partitions] [seed]");
+            return;
+        }
+        Path dir = Files.createDirectories(Paths.get(args[0]));
+        long lines = Long.parseLong(args[1]);
+        int partitions = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1L;
+
+        long begin = System.currentTimeMillis();
+        BankStatementJoin.Result result = run(dir, lines, partitions, seed);
+        long cost = Math.max(System.currentTimeMillis() - begin, 1);
+        System.out.println(result + ", cost=" + cost + "ms, linesPerSecond="
+                + (result.statementLines + result.ledgerRows) * 1000 / cost + ", maxMemory="
+                + Runtime.getRuntime().maxMemory() / 1024 / 1024 + "MB");
+    }
+}